@@ -68,6 +68,7 @@ import org.jfree.chart.util.PublicCloneable;
 import org.jfree.data.flow.FlowDataset;
 import org.jfree.data.flow.FlowDatasetUtils;
 import org.jfree.data.flow.FlowKey;
+import org.jfree.data.flow.NodeFlowTotals;
 import org.jfree.data.flow.NodeKey;
 
 /**
@@ -473,17 +474,20 @@ public class FlowPlot extends Plot implements Cloneable, PublicCloneable,
         // the outflows at each node group, so first we calculate the max
         // flow space required - for each node in the group, consider the 
         // maximum of the inflow and the outflow
+        // (a dataset that does not maintain its own totals would have to 
+        // scan the flows for every node, so instead the totals are 
+        // calculated once, in a single pass over the flows)
+        NodeFlowTotals totals = this.dataset.hasMaintainedTotals() ? null 
+                : FlowDatasetUtils.calculateNodeFlowTotals(this.dataset);
         double flow2d = Double.POSITIVE_INFINITY;
         double nodeMargin2d = this.nodeMargin * area.getHeight();
         int stageCount = this.dataset.getStageCount();
         for (int stage = 0; stage < this.dataset.getStageCount(); stage++) {
-            List<Comparable> sources = this.dataset.getSources(stage);
+            List<Comparable> sources = this.dataset.getSourcesView(stage);
             int nodeCount = sources.size();
             double flowTotal = 0.0;
             for (Comparable source : sources) {
-                double inflow = FlowDatasetUtils.calculateInflow(this.dataset, source, stage);
-                double outflow = FlowDatasetUtils.calculateOutflow(this.dataset, source, stage);
-                flowTotal = flowTotal + Math.max(inflow, outflow);
+                flowTotal = flowTotal + throughput(totals, stage, source);
             }
             if (flowTotal > 0.0) {
                 double availableH = area.getHeight() - (nodeCount - 1) * nodeMargin2d;
@@ -492,12 +496,11 @@ public class FlowPlot extends Plot implements Cloneable, PublicCloneable,
             
             if (stage == this.dataset.getStageCount() - 1) {
                 // check inflows to the final destination nodes...
-                List<Comparable> destinations = this.dataset.getDestinations(stage);
+                List<Comparable> destinations = this.dataset.getDestinationsView(stage);
                 int destinationCount = destinations.size();
                 flowTotal = 0.0;
                 for (Comparable destination : destinations) {
-                    double inflow = FlowDatasetUtils.calculateInflow(this.dataset, destination, stage + 1);
-                    flowTotal = flowTotal + inflow;
+                    flowTotal = flowTotal + throughput(totals, stage + 1, destination);
                 }
                 if (flowTotal > 0.0) {
                     double availableH = area.getHeight() - (destinationCount - 1) * nodeMargin2d;
@@ -520,64 +523,46 @@ public class FlowPlot extends Plot implements Cloneable, PublicCloneable,
             
             double stageLeft = area.getX() + (stage + 1) * this.nodeWidth + (stage * stageWidth);
             double stageRight = stageLeft + stageWidth;
+            List<Comparable> sources = this.dataset.getSourcesView(stage);
+            List<Comparable> destinations = this.dataset.getDestinationsView(stage);
             
-            // calculate the source node and flow rectangles
-            Map<FlowKey, Rectangle2D> sourceFlowRects = new HashMap<>();
+            // calculate the source node rectangles - the flows out of each 
+            // node are stacked in destination order, so we only need to track
+            // the next y-coordinate for each node (by node position)
+            double[] sourceFlowY = new double[sources.size()];
             double nodeY = area.getY();
-            for (Object s : this.dataset.getSources(stage)) {
-                Comparable source = (Comparable) s;
-                double inflow = FlowDatasetUtils.calculateInflow(dataset, source, stage);
-                double outflow = FlowDatasetUtils.calculateOutflow(dataset, source, stage);
-                double nodeHeight = (Math.max(inflow, outflow) * flow2d);
+            for (int i = 0; i < sources.size(); i++) {
+                Comparable source = sources.get(i);
+                double nodeHeight = throughput(totals, stage, source) * flow2d;
                 Rectangle2D nodeRect = new Rectangle2D.Double(stageLeft - nodeWidth, nodeY, nodeWidth, nodeHeight);
+                NodeKey nodeKey = this.dataset.getNodeKey(stage, source);
                 if (entities != null) {
-                    entities.add(new NodeEntity(new NodeKey<>(stage, source), nodeRect, source.toString()));                
-                }
-                nodeRects.put(new NodeKey<>(stage, source), nodeRect);
-                double y = nodeY;
-                for (Object d : this.dataset.getDestinations(stage)) {
-                    Comparable destination = (Comparable) d;
-                    Number flow = this.dataset.getFlow(stage, source, destination);
-                    if (flow != null) {
-                        double height = flow.doubleValue() * flow2d;
-                        Rectangle2D rect = new Rectangle2D.Double(stageLeft - nodeWidth, y, nodeWidth, height);
-                        sourceFlowRects.put(new FlowKey<>(stage, source, destination), rect);
-                        y = y + height;
-                    }
+                    entities.add(new NodeEntity(nodeKey, nodeRect, source.toString()));                
                 }
+                nodeRects.put(nodeKey, nodeRect);
+                sourceFlowY[i] = nodeY;
                 nodeY = nodeY + nodeHeight + nodeMargin2d;
             }
             
-            // calculate the destination rectangles
-            Map<FlowKey, Rectangle2D> destFlowRects = new HashMap<>();
+            // calculate the destination node rectangles - the flows into each
+            // node are stacked in source order
+            double[] destFlowY = new double[destinations.size()];
             nodeY = area.getY();
-            for (Object d : this.dataset.getDestinations(stage)) {
-                Comparable destination = (Comparable) d;
-                double inflow = FlowDatasetUtils.calculateInflow(dataset, destination, stage + 1);
-                double outflow = FlowDatasetUtils.calculateOutflow(dataset, destination, stage + 1);
-                double nodeHeight = Math.max(inflow, outflow) * flow2d;
-                nodeRects.put(new NodeKey<>(stage + 1, destination), new Rectangle2D.Double(stageRight, nodeY, nodeWidth, nodeHeight));
-                double y = nodeY;
-                for (Object s : this.dataset.getSources(stage)) {
-                    Comparable source = (Comparable) s;
-                    Number flow = this.dataset.getFlow(stage, source, destination);
-                    if (flow != null) {
-                        double height = flow.doubleValue() * flow2d;
-                        Rectangle2D rect = new Rectangle2D.Double(stageRight, y, nodeWidth, height);
-                        y = y + height;
-                        destFlowRects.put(new FlowKey<>(stage, source, destination), rect);
-                    }
-                }
+            for (int j = 0; j < destinations.size(); j++) {
+                Comparable destination = destinations.get(j);
+                double nodeHeight = throughput(totals, stage + 1, destination) * flow2d;
+                nodeRects.put(this.dataset.getNodeKey(stage + 1, destination), new Rectangle2D.Double(stageRight, nodeY, nodeWidth, nodeHeight));
+                destFlowY[j] = nodeY;
                 nodeY = nodeY + nodeHeight + nodeMargin2d;
             }
         
-            for (Object s : this.dataset.getSources(stage)) {
-                Comparable source = (Comparable) s;
-                NodeKey nodeKey = new NodeKey<>(stage, source);
+            for (int i = 0; i < sources.size(); i++) {
+                Comparable source = sources.get(i);
+                NodeKey nodeKey = this.dataset.getNodeKey(stage, source);
                 Rectangle2D nodeRect = nodeRects.get(nodeKey);
                 Color ncol = lookupNodeColor(nodeKey);
                 if (hasNodeSelections) {
-                    if (!Boolean.TRUE.equals(dataset.getNodeProperty(nodeKey, "selected"))) {
+                    if (!dataset.getNodeBooleanProperty(nodeKey, "selected")) {
                         int g = (ncol.getRed() + ncol.getGreen() + ncol.getBlue()) / 3;
                         ncol = new Color(g, g, g, ncol.getAlpha());
                     }
@@ -585,14 +570,19 @@ public class FlowPlot extends Plot implements Cloneable, PublicCloneable,
                 g2.setPaint(ncol);
                 g2.fill(nodeRect);
                                 
-                for (Object d : this.dataset.getDestinations(stage)) {
-                    Comparable destination = (Comparable) d;
-                    FlowKey flowKey = new FlowKey<>(stage, source, destination);
-                    Rectangle2D sourceRect = sourceFlowRects.get(flowKey);
-                    if (sourceRect == null) { 
+                // visit only the defined flows, so that a sparse stage 
+                // does not cost a lookup for every source/destination pair
+                for (int j : this.dataset.getDestinationIndices(stage, source)) {
+                    Comparable destination = destinations.get(j);
+                    Number flow = this.dataset.getFlow(stage, source, destination);
+                    if (flow == null) { 
                         continue; 
                     }
-                    Rectangle2D destRect = destFlowRects.get(flowKey);
+                    double height = flow.doubleValue() * flow2d;
+                    Rectangle2D sourceRect = new Rectangle2D.Double(stageLeft - nodeWidth, sourceFlowY[i], nodeWidth, height);
+                    Rectangle2D destRect = new Rectangle2D.Double(stageRight, destFlowY[j], nodeWidth, height);
+                    sourceFlowY[i] += height;
+                    destFlowY[j] += height;
                 
                     Path2D connect = new Path2D.Double();
                     connect.moveTo(sourceRect.getMaxX() + flowOffset, sourceRect.getMinY());
@@ -600,9 +590,15 @@ public class FlowPlot extends Plot implements Cloneable, PublicCloneable,
                     connect.lineTo(destRect.getX() - flowOffset, destRect.getMaxY());
                     connect.curveTo(stageLeft + stageWidth / 2.0, destRect.getMaxY(), stageLeft + stageWidth / 2.0, sourceRect.getMaxY(), sourceRect.getMaxX() + flowOffset, sourceRect.getMaxY());
                     connect.closePath();
+                    
+                    // the flow key is only needed for selections and entities
+                    FlowKey flowKey = null;
+                    if (hasFlowSelections || entities != null) {
+                        flowKey = this.dataset.getFlowKey(stage, source, destination);
+                    }
                     Color nc = lookupNodeColor(nodeKey);
                     if (hasFlowSelections) {
-                        if (!Boolean.TRUE.equals(dataset.getFlowProperty(flowKey, "selected"))) {
+                        if (!dataset.getFlowBooleanProperty(flowKey, "selected")) {
                             int g = (ncol.getRed() + ncol.getGreen() + ncol.getBlue()) / 3;
                             nc = new Color(g, g, g, ncol.getAlpha());
                         }
@@ -628,14 +624,14 @@ public class FlowPlot extends Plot implements Cloneable, PublicCloneable,
         
         // now draw the destination nodes
         int lastStage = this.dataset.getStageCount() - 1;
-        for (Object d : this.dataset.getDestinations(lastStage)) {
+        for (Object d : this.dataset.getDestinationsView(lastStage)) {
             Comparable destination = (Comparable) d;
-            NodeKey nodeKey = new NodeKey<>(lastStage + 1, destination);
+            NodeKey nodeKey = this.dataset.getNodeKey(lastStage + 1, destination);
             Rectangle2D nodeRect = nodeRects.get(nodeKey);
             if (nodeRect != null) {
                 Color ncol = lookupNodeColor(nodeKey);
                 if (hasNodeSelections) {
-                    if (!Boolean.TRUE.equals(dataset.getNodeProperty(nodeKey, "selected"))) {
+                    if (!dataset.getNodeBooleanProperty(nodeKey, "selected")) {
                         int g = (ncol.getRed() + ncol.getGreen() + ncol.getBlue()) / 3;
                         ncol = new Color(g, g, g, ncol.getAlpha());
                     }
@@ -643,7 +639,7 @@ public class FlowPlot extends Plot implements Cloneable, PublicCloneable,
                 g2.setPaint(ncol);
                 g2.fill(nodeRect);
                 if (entities != null) {
-                    entities.add(new NodeEntity(new NodeKey<>(lastStage + 1, destination), nodeRect, destination.toString()));                
+                    entities.add(new NodeEntity(this.dataset.getNodeKey(lastStage + 1, destination), nodeRect, destination.toString()));                
                 }
             }
         }
@@ -680,9 +676,9 @@ public class FlowPlot extends Plot implements Cloneable, PublicCloneable,
             if (!this.nodeColorSwatch.isEmpty()) {
                 // look through previous stages to see if this source key is already seen
                 for (int s = 0; s < nodeKey.getStage(); s++) {
-                    for (Object key : dataset.getSources(s)) {
+                    for (Object key : dataset.getSourcesView(s)) {
                         if (nodeKey.getNode().equals(key)) {
-                            Color color = this.nodeColorMap.get(new NodeKey<>(s, (Comparable) key));
+                            Color color = this.nodeColorMap.get(this.dataset.getNodeKey(s, (Comparable) key));
                             setNodeFillColor(nodeKey, color);
                             return color;
                         }
@@ -703,6 +699,26 @@ public class FlowPlot extends Plot implements Cloneable, PublicCloneable,
         return result;
     }
 
+    /**
+     * Returns the throughput for a node (the larger of the inflow and the 
+     * outflow), which determines the node height.
+     * 
+     * @param totals  the node totals ({@code null} if the dataset maintains
+     *     its own totals).
+     * @param stage  the node stage.
+     * @param node  the node.
+     * 
+     * @return The throughput.
+     */
+    private double throughput(NodeFlowTotals totals, int stage, 
+            Comparable node) {
+        if (totals != null) {
+            return totals.getThroughput(stage, node);
+        }
+        return Math.max(this.dataset.getInflow(stage, node), 
+                this.dataset.getOutflow(stage, node));
+    }
+
     /**
      * Computes the y-coordinate for a node label taking into account the 
      * current alignment settings.
@@ -0,0 +1,666 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ------------------------
+ * BucketedFlowDataset.java
+ * ------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jfree.chart.util.Args;
+import org.jfree.data.general.AbstractDataset;
+import org.jfree.data.general.DatasetChangeEvent;
+import org.jfree.data.general.DatasetChangeListener;
+
+/**
+ * A read-only view of a {@link FlowDataset} in which the smaller nodes at 
+ * each node stage are grouped into a single synthetic "Other" node, so that
+ * the number of nodes (and therefore the number of flows) that a 
+ * {@link org.jfree.chart.plot.flow.FlowPlot} has to draw is bounded by a 
+ * display budget rather than by the size of the data.
+ * <br><br>
+ * The size of a node is the larger of its inflow and its outflow (the 
+ * height it is drawn with).  At each node stage at most {@code maxNodes} 
+ * nodes are shown: when there are more nodes than that, the largest
+ * {@code maxNodes - 1} are kept and the rest are grouped.  In addition, 
+ * nodes smaller than {@code minFraction} of the total size of the nodes at
+ * the stage are always grouped.  A group is only created if it would 
+ * contain at least two nodes.  Flows to and from the grouped nodes are 
+ * added together, so the total flow at each stage and the inflow and 
+ * outflow of every node that is kept are unchanged.
+ * <br><br>
+ * The view is computed in a single pass over the flows of the source 
+ * dataset (which also finds the node sizes), and is recomputed when it is
+ * next used after the source dataset sends a change event (except for 
+ * events that only report property changes), so a burst of changes costs
+ * a single recomputation.  The view registers itself as a listener on the
+ * source dataset, call {@link #dispose()} when the view is no longer 
+ * needed.  The "Other" node
+ * has no properties, and neither do the flows to and from it, the 
+ * properties of all other nodes and flows are read from the source dataset.
+ *
+ * @param <K> the type for the keys used to identify sources and destinations
+ *     (instances should be immutable, {@code String} is a good default choice).
+ */
+public class BucketedFlowDataset<K extends Comparable<K>> 
+        extends AbstractDataset implements FlowDataset<K>, 
+        DatasetChangeListener {
+
+    /** The source dataset. */
+    private final FlowDataset<K> source;
+
+    /** The key for the "Other" node. */
+    private final K otherKey;
+
+    /** The maximum number of nodes to show at each node stage. */
+    private final int maxNodes;
+
+    /** 
+     * Nodes smaller than this fraction of the total node size at a stage 
+     * are always grouped.
+     */
+    private final double minFraction;
+
+    /** The grouped nodes and flows. */
+    private DefaultFlowDataset<K> result;
+
+    /** 
+     * The source nodes that were grouped at each node stage (the set is 
+     * empty if there is no "Other" node at the stage).
+     */
+    private List<Set<K>> grouped;
+
+    /** A flag that records that the view must be recomputed before use. */
+    private boolean stale;
+
+    /**
+     * Creates a new view that shows at most {@code maxNodes} nodes at each 
+     * node stage.
+     * 
+     * @param source  the source dataset ({@code null} not permitted).
+     * @param otherKey  the key for the "Other" node ({@code null} not 
+     *     permitted).
+     * @param maxNodes  the maximum number of nodes to show at each node 
+     *     stage (at least 2).
+     */
+    public BucketedFlowDataset(FlowDataset<K> source, K otherKey, 
+            int maxNodes) {
+        this(source, otherKey, maxNodes, 0.0);
+    }
+
+    /**
+     * Creates a new view that shows at most {@code maxNodes} nodes at each 
+     * node stage, and that always groups nodes smaller than 
+     * {@code minFraction} of the total node size at their stage.  If the 
+     * source dataset has a node with the same key as the "Other" node, that
+     * node is always grouped.
+     * 
+     * @param source  the source dataset ({@code null} not permitted).
+     * @param otherKey  the key for the "Other" node ({@code null} not 
+     *     permitted).
+     * @param maxNodes  the maximum number of nodes to show at each node 
+     *     stage (at least 2).
+     * @param minFraction  the minimum node size as a fraction of the total
+     *     node size at the stage (0.0 to 1.0).
+     */
+    public BucketedFlowDataset(FlowDataset<K> source, K otherKey, 
+            int maxNodes, double minFraction) {
+        Args.nullNotPermitted(source, "source");
+        Args.nullNotPermitted(otherKey, "otherKey");
+        if (maxNodes < 2) {
+            throw new IllegalArgumentException("Require 'maxNodes' >= 2.");
+        }
+        if (!(minFraction >= 0.0 && minFraction <= 1.0)) {
+            throw new IllegalArgumentException(
+                    "Require 'minFraction' in the range 0.0 to 1.0.");
+        }
+        this.source = source;
+        this.otherKey = otherKey;
+        this.maxNodes = maxNodes;
+        this.minFraction = minFraction;
+        refresh();
+        source.addChangeListener(this);
+    }
+
+    /**
+     * Returns the source dataset.
+     * 
+     * @return The source dataset (never {@code null}).
+     */
+    public FlowDataset<K> getSource() {
+        return this.source;
+    }
+
+    /**
+     * Returns the key for the "Other" node.
+     * 
+     * @return The key (never {@code null}).
+     */
+    public K getOtherKey() {
+        return this.otherKey;
+    }
+
+    /**
+     * Returns the source nodes that are grouped into the "Other" node at 
+     * the specified node stage.
+     * 
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * 
+     * @return An unmodifiable set (empty if there is no "Other" node at 
+     *     the stage).
+     */
+    public Set<K> getGroupedNodes(int stage) {
+        List<Set<K>> groups = groups();
+        Args.requireInRange(stage, "stage", 0, groups.size() - 1);
+        return Collections.unmodifiableSet(groups.get(stage));
+    }
+
+    /**
+     * Stops this view from listening for changes to the source dataset, so
+     * that it can be garbage collected while the source dataset is still in
+     * use.  The view will not reflect any later changes to the source 
+     * dataset.
+     */
+    public void dispose() {
+        this.source.removeChangeListener(this);
+    }
+
+    /**
+     * Returns {@code true} if the specified node is the "Other" node at a
+     * stage that has one.
+     * 
+     * @param stage  the node stage.
+     * @param node  the node.
+     * 
+     * @return A boolean.
+     */
+    private boolean isOther(int stage, K node) {
+        List<Set<K>> groups = groups();
+        return stage >= 0 && stage < groups.size() 
+                && !groups.get(stage).isEmpty() 
+                && this.otherKey.equals(node);
+    }
+
+    /**
+     * Returns the grouped and ungrouped nodes and flows, recomputing them 
+     * first if the source dataset has changed.
+     * 
+     * @return The dataset.
+     */
+    private DefaultFlowDataset<K> result() {
+        if (this.stale) {
+            refresh();
+        }
+        return this.result;
+    }
+
+    /**
+     * Returns the grouped nodes at each node stage, recomputing them first 
+     * if the source dataset has changed.
+     * 
+     * @return The grouped nodes.
+     */
+    private List<Set<K>> groups() {
+        if (this.stale) {
+            refresh();
+        }
+        return this.grouped;
+    }
+
+    /**
+     * Recomputes the view from the source dataset.
+     */
+    private void refresh() {
+        int stageCount = this.source.getStageCount();
+        // a single pass over the flows finds the node sizes, and keeps the
+        // values so the flows do not have to be read again
+        List<Map<K, double[]>> totals = new ArrayList<>(stageCount + 1);
+        for (int n = 0; n <= stageCount; n++) {
+            totals.add(new HashMap<>());
+        }
+        Set<FlowKey<K>> allFlows = this.source.getAllFlowsView();
+        List<FlowKey<K>> keys = new ArrayList<>(allFlows.size());
+        List<Number> values = new ArrayList<>(allFlows.size());
+        for (FlowKey<K> key : allFlows) {
+            int stage = key.getStage();
+            Number value = this.source.getFlow(stage, key.getSource(), 
+                    key.getDestination());
+            if (value == null) {
+                continue;
+            }
+            keys.add(key);
+            values.add(value);
+            double v = value.doubleValue();
+            if (!Double.isNaN(v)) {
+                totals.get(stage).computeIfAbsent(key.getSource(), 
+                        k -> new double[2])[1] += v;
+                totals.get(stage + 1).computeIfAbsent(key.getDestination(), 
+                        k -> new double[2])[0] += v;
+            }
+        }
+        List<List<K>> nodeOrder = new ArrayList<>(stageCount + 1);
+        List<Set<K>> groups = new ArrayList<>(stageCount + 1);
+        for (int n = 0; n <= stageCount; n++) {
+            List<K> nodes = n < stageCount ? this.source.getSourcesView(n) 
+                    : this.source.getDestinationsView(n - 1);
+            BitSet selection = selectGroup(nodes, totals.get(n));
+            List<K> order = new ArrayList<>(nodes.size());
+            Set<K> group = new HashSet<>();
+            for (int i = 0; i < nodes.size(); i++) {
+                if (selection.get(i)) {
+                    group.add(nodes.get(i));
+                } else {
+                    order.add(nodes.get(i));
+                }
+            }
+            if (!group.isEmpty()) {
+                order.add(this.otherKey);
+            }
+            nodeOrder.add(order);
+            groups.add(group);
+        }
+        Map<FlowKey<K>, Number> flows = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            FlowKey<K> key = keys.get(i);
+            Number value = values.get(i);
+            int stage = key.getStage();
+            K s = groups.get(stage).contains(key.getSource()) 
+                    ? this.otherKey : key.getSource();
+            K d = groups.get(stage + 1).contains(key.getDestination()) 
+                    ? this.otherKey : key.getDestination();
+            if (s == key.getSource() && d == key.getDestination()) {
+                flows.put(key, value);
+            } else {
+                flows.merge(new FlowKey<>(stage, s, d), value, 
+                        (v1, v2) -> v1.doubleValue() + v2.doubleValue());
+            }
+        }
+        DefaultFlowDataset<K> dataset = new DefaultFlowDataset<>();
+        dataset.addAll(nodeOrder, flows);
+        this.result = dataset;
+        this.grouped = groups;
+        this.stale = false;
+    }
+
+    /**
+     * Selects the nodes to group at a node stage.
+     * 
+     * @param nodes  the nodes at the stage.
+     * @param totals  the inflow and outflow for each node with flows.
+     * 
+     * @return The positions of the nodes to group.
+     */
+    private BitSet selectGroup(List<K> nodes, Map<K, double[]> totals) {
+        int count = nodes.size();
+        double[] sizes = new double[count];
+        double total = 0.0;
+        for (int i = 0; i < count; i++) {
+            double[] t = totals.get(nodes.get(i));
+            sizes[i] = t != null ? Math.max(t[0], t[1]) : 0.0;
+            total += sizes[i];
+        }
+        BitSet result = new BitSet(count);
+        double min = this.minFraction * total;
+        for (int i = 0; i < count; i++) {
+            if (sizes[i] < min || this.otherKey.equals(nodes.get(i))) {
+                result.set(i);
+            }
+        }
+        int remaining = count - result.cardinality();
+        int limit = result.isEmpty() && remaining <= this.maxNodes 
+                ? remaining : this.maxNodes - 1;
+        int excess = remaining - limit;
+        if (excess > 0) {
+            // find the size of the largest node that has to be grouped, 
+            // then group the nodes smaller than that plus enough of the 
+            // nodes with exactly that size
+            double[] candidates = new double[remaining];
+            int c = 0;
+            for (int i = result.nextClearBit(0); i < count; 
+                    i = result.nextClearBit(i + 1)) {
+                candidates[c++] = sizes[i];
+            }
+            Arrays.sort(candidates);
+            double cutoff = candidates[excess - 1];
+            int ties = 0;
+            for (int i = 0; i < excess; i++) {
+                if (candidates[i] == cutoff) {
+                    ties++;
+                }
+            }
+            for (int i = result.nextClearBit(0); i < count; 
+                    i = result.nextClearBit(i + 1)) {
+                if (sizes[i] < cutoff) {
+                    result.set(i);
+                } else if (sizes[i] == cutoff && ties > 0) {
+                    result.set(i);
+                    ties--;
+                }
+            }
+        }
+        if (result.cardinality() == 1) {
+            // an "Other" node for a single node would hide it for nothing
+            result.clear();
+        }
+        return result;
+    }
+
+    /**
+     * Marks the view for recomputation when the source dataset changes 
+     * (unless only properties have changed) and notifies registered 
+     * listeners.
+     * 
+     * @param event  the event.
+     */
+    @Override
+    public void datasetChanged(DatasetChangeEvent event) {
+        boolean propertiesOnly = event instanceof FlowDatasetChangeEvent 
+                && ((FlowDatasetChangeEvent<?>) event).isPropertyChangeOnly();
+        if (!propertiesOnly) {
+            this.stale = true;
+        }
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns the number of flow stages.
+     * 
+     * @return The number of flow stages.
+     */
+    @Override
+    public int getStageCount() {
+        return result().getStageCount();
+    }
+
+    /**
+     * Returns a list of the source nodes for the specified stage, with the
+     * "Other" node (if any) last.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSources(int stage) {
+        return result().getSources(stage);
+    }
+
+    /**
+     * Returns a list of the destination nodes for the specified stage, with
+     * the "Other" node (if any) last.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return A list of destination nodes (possibly empty but never 
+     *     {@code null}).
+     */
+    @Override
+    public List<K> getDestinations(int stage) {
+        return result().getDestinations(stage);
+    }
+
+    /**
+     * Returns an unmodifiable list of the source nodes for the specified 
+     * stage, without copying.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSourcesView(int stage) {
+        return result().getSourcesView(stage);
+    }
+
+    /**
+     * Returns an unmodifiable list of the destination nodes for the 
+     * specified stage, without copying.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return A list of destination nodes (possibly empty but never 
+     *     {@code null}).
+     */
+    @Override
+    public List<K> getDestinationsView(int stage) {
+        return result().getDestinationsView(stage);
+    }
+
+    /**
+     * Returns the set of keys for all the nodes in the view.
+     * 
+     * @return A set (possibly empty but never {@code null}).
+     */
+    @Override
+    public Set<NodeKey<K>> getAllNodes() {
+        return result().getAllNodes();
+    }
+
+    /**
+     * Returns the value of a property for the specified node.  The "Other"
+     * node has no properties, for other nodes the value is read from the 
+     * source dataset.
+     * 
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getNodeProperty(NodeKey<K> nodeKey, String propertyKey) {
+        if (isOther(nodeKey.getStage(), nodeKey.getNode())) {
+            return null;
+        }
+        return this.source.getNodeProperty(nodeKey, propertyKey);
+    }
+
+    /**
+     * Returns {@code true} if the specified node property has the value 
+     * {@code Boolean.TRUE} (always {@code false} for the "Other" node).
+     * 
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return A boolean.
+     */
+    @Override
+    public boolean getNodeBooleanProperty(NodeKey<K> nodeKey, 
+            String propertyKey) {
+        if (isOther(nodeKey.getStage(), nodeKey.getNode())) {
+            return false;
+        }
+        return this.source.getNodeBooleanProperty(nodeKey, propertyKey);
+    }
+
+    /**
+     * Returns the flow between a source node and a destination node at the
+     * specified stage, which for the "Other" node is the total of the flows
+     * for the grouped nodes.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * 
+     * @return The flow (possibly {@code null}).
+     */
+    @Override
+    public Number getFlow(int stage, K source, K destination) {
+        return result().getFlow(stage, source, destination);
+    }
+
+    /**
+     * Returns a set of keys for all the flows in the view.
+     * 
+     * @return A set (possibly empty but never {@code null}).
+     */
+    @Override
+    public Set<FlowKey<K>> getAllFlows() {
+        return result().getAllFlows();
+    }
+
+    /**
+     * Returns the value of a property for the specified flow.  Flows to or
+     * from the "Other" node have no properties, for other flows the value 
+     * is read from the source dataset.
+     * 
+     * @param flowKey  the flow key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getFlowProperty(FlowKey<K> flowKey, String propertyKey) {
+        if (isOtherFlow(flowKey)) {
+            return null;
+        }
+        return this.source.getFlowProperty(flowKey, propertyKey);
+    }
+
+    /**
+     * Returns {@code true} if the specified flow property has the value 
+     * {@code Boolean.TRUE} (always {@code false} for flows to or from the
+     * "Other" node).
+     * 
+     * @param flowKey  the flow key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return A boolean.
+     */
+    @Override
+    public boolean getFlowBooleanProperty(FlowKey<K> flowKey, 
+            String propertyKey) {
+        if (isOtherFlow(flowKey)) {
+            return false;
+        }
+        return this.source.getFlowBooleanProperty(flowKey, propertyKey);
+    }
+
+    /**
+     * Returns {@code true} if the specified flow goes to or from the "Other"
+     * node.
+     * 
+     * @param flowKey  the flow key.
+     * 
+     * @return A boolean.
+     */
+    private boolean isOtherFlow(FlowKey<K> flowKey) {
+        return isOther(flowKey.getStage(), flowKey.getSource()) 
+                || isOther(flowKey.getStage() + 1, flowKey.getDestination());
+    }
+
+    /**
+     * Returns {@code true}, since this dataset maintains the node and stage 
+     * totals.
+     * 
+     * @return {@code true}.
+     */
+    @Override
+    public boolean hasMaintainedTotals() {
+        return true;
+    }
+
+    /**
+     * Returns the total inflow for a node.
+     * 
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return The total inflow.
+     */
+    @Override
+    public double getInflow(int stage, K node) {
+        return result().getInflow(stage, node);
+    }
+
+    /**
+     * Returns the total outflow for a node.
+     * 
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return The total outflow.
+     */
+    @Override
+    public double getOutflow(int stage, K node) {
+        return result().getOutflow(stage, node);
+    }
+
+    /**
+     * Returns the total of all flows at the specified stage (the same as 
+     * for the source dataset).
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return The total flow.
+     */
+    @Override
+    public double getTotalFlow(int stage) {
+        return result().getTotalFlow(stage);
+    }
+
+    /**
+     * Returns the shared key for the specified node.
+     * 
+     * @param stage  the node stage.
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return A node key (never {@code null}).
+     */
+    @Override
+    public NodeKey<K> getNodeKey(int stage, K node) {
+        return result().getNodeKey(stage, node);
+    }
+
+    /**
+     * Returns the shared key for the specified flow.
+     * 
+     * @param stage  the stage.
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * 
+     * @return A flow key (never {@code null}).
+     */
+    @Override
+    public FlowKey<K> getFlowKey(int stage, K source, K destination) {
+        return result().getFlowKey(stage, source, destination);
+    }
+
+}
@@ -0,0 +1,139 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -------------------
+ * CompensatedSum.java
+ * -------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+/**
+ * Static methods for maintaining running totals with compensated 
+ * (Kahan-Babuska-Neumaier) summation.  Each total is held in two adjacent
+ * array elements, the running sum followed by the rounding error that has
+ * been lost from it, so that adding a large value and later subtracting it
+ * again leaves the smaller values in the total intact.  The datasets that
+ * maintain node and stage totals as flows are set use these methods, and
+ * also rebuild their totals from the stored flow values after every 
+ * {@link #isRebuildDue(int, int)} replacements, so that the remaining 
+ * (second order) error cannot build up.
+ */
+final class CompensatedSum {
+
+    /** The minimum number of replacements between rebuilds. */
+    private static final int MIN_REBUILD_INTERVAL = 1024;
+
+    private CompensatedSum() {
+        // no instances
+    }
+
+    /**
+     * Returns the value of the total held at the specified position.
+     * 
+     * @param totals  the totals array.
+     * @param i  the position of the running sum (the error follows it).
+     * 
+     * @return The total.
+     */
+    static double get(double[] totals, int i) {
+        return totals[i] + totals[i + 1];
+    }
+
+    /**
+     * Adds a value to the total held at the specified position.  A 
+     * {@code NaN} value counts as zero.
+     * 
+     * @param totals  the totals array.
+     * @param i  the position of the running sum (the error follows it).
+     * @param value  the value.
+     */
+    static void add(double[] totals, int i, double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        double sum = totals[i];
+        double t = sum + value;
+        double error = Math.abs(sum) >= Math.abs(value) 
+                ? (sum - t) + value : (value - t) + sum;
+        // an infinite sum has no meaningful error (and would record NaN)
+        if (!Double.isInfinite(t)) {
+            totals[i + 1] += error;
+        }
+        totals[i] = t;
+    }
+
+    /**
+     * Replaces a value in the total held at the specified position, by 
+     * subtracting the old value and adding the new one (each {@code NaN} 
+     * value counts as zero).
+     * 
+     * @param totals  the totals array.
+     * @param i  the position of the running sum (the error follows it).
+     * @param old  the old value.
+     * @param value  the new value.
+     */
+    static void replace(double[] totals, int i, double old, double value) {
+        if (!Double.isNaN(old)) {
+            add(totals, i, -old);
+        }
+        add(totals, i, value);
+    }
+
+    /**
+     * Returns {@code true} if a value is a replacement that subtracts from 
+     * the totals, that is, if the old value is neither zero nor {@code NaN}.
+     * 
+     * @param old  the old value.
+     * 
+     * @return A boolean.
+     */
+    static boolean isSubtraction(double old) {
+        return old != 0.0 && !Double.isNaN(old);
+    }
+
+    /**
+     * Returns {@code true} if the totals should be rebuilt from the stored 
+     * values, given the number of replacements since the last rebuild and
+     * the number of values.  Rebuilding once per (at least) that many 
+     * replacements keeps the amortized cost of a replacement constant.
+     * 
+     * @param replacements  the number of replacements since the last 
+     *     rebuild.
+     * @param count  the number of values that the totals are built from.
+     * 
+     * @return A boolean.
+     */
+    static boolean isRebuildDue(int replacements, int count) {
+        return replacements > Math.max(MIN_REBUILD_INTERVAL, count);
+    }
+
+}
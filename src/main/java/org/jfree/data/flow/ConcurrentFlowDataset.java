@@ -0,0 +1,400 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * --------------------------
+ * ConcurrentFlowDataset.java
+ * --------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.DoubleAdder;
+import org.jfree.chart.util.Args;
+import org.jfree.data.general.AbstractDataset;
+
+/**
+ * A flow dataset that can be updated from many threads at once.  Flows are
+ * accumulated with {@link #addFlow(int, Comparable, Comparable, double)},
+ * which adds an increment to a {@link DoubleAdder} cell for the flow, so
+ * that threads updating the same flow do not contend on a lock.  Nodes are
+ * registered in a concurrent map the first time they are seen.
+ * <br><br>
+ * Reads through the {@link FlowDataset} methods are weakly consistent: they
+ * never fail but may or may not reflect increments made concurrently.  To
+ * render the data, call {@link #toFlowDataset()} to publish a consistent,
+ * independent copy.  This dataset does not send change events when flows are
+ * added (callers publish a new copy when they are ready to display it).
+ *
+ * @param <K> the type for the keys used to identify sources and destinations
+ *     (instances should be immutable, {@code String} is a good default choice).
+ */
+public class ConcurrentFlowDataset<K extends Comparable<K>>
+        extends AbstractDataset implements FlowDataset<K>, Serializable {
+
+    /**
+     * The nodes at each stage, in the order they were registered.  The list
+     * has one more entry than the number of stages.
+     */
+    private final List<NodeList<K>> nodes;
+
+    /** The flow accumulators. */
+    private final ConcurrentHashMap<FlowKey<K>, DoubleAdder> flows;
+
+    /** Node properties. */
+    private final ConcurrentHashMap<NodeKey<K>, Map<String, Object>> nodeProperties;
+
+    /** Flow properties. */
+    private final ConcurrentHashMap<FlowKey<K>, Map<String, Object>> flowProperties;
+
+    /**
+     * Creates a new dataset that is initially empty.
+     */
+    public ConcurrentFlowDataset() {
+        this.nodes = new CopyOnWriteArrayList<>();
+        this.nodes.add(new NodeList<>());
+        this.nodes.add(new NodeList<>());
+        this.flows = new ConcurrentHashMap<>();
+        this.nodeProperties = new ConcurrentHashMap<>();
+        this.flowProperties = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Adds an increment to the flow between a source node and a destination
+     * node at the specified stage, creating the flow (and the nodes) if they
+     * do not already exist.  A new stage will be added if {@code stage} is
+     * equal to {@code getStageCount()}.  This method is safe to call from
+     * any thread.
+     *
+     * @param stage  the stage (0 to {@code getStageCount()}).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * @param delta  the amount to add to the flow.
+     */
+    public void addFlow(int stage, K source, K destination, double delta) {
+        Args.nullNotPermitted(source, "source");
+        Args.nullNotPermitted(destination, "destination");
+        FlowKey<K> key = new FlowKey<>(stage, source, destination);
+        DoubleAdder adder = this.flows.get(key);
+        if (adder == null) {
+            Args.requireInRange(stage, "stage", 0, getStageCount());
+            ensureStage(stage);
+            this.nodes.get(stage).add(source);
+            this.nodes.get(stage + 1).add(destination);
+            adder = this.flows.computeIfAbsent(key, k -> new DoubleAdder());
+        }
+        adder.add(delta);
+    }
+
+    /**
+     * Ensures that the dataset has the specified stage, adding it if it is
+     * the next stage.
+     *
+     * @param stage  the stage.
+     */
+    private void ensureStage(int stage) {
+        if (stage + 2 > this.nodes.size()) {
+            synchronized (this.nodes) {
+                if (stage + 2 > this.nodes.size()) {
+                    this.nodes.add(new NodeList<>());
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets a property for the specified node.  This method is safe to call
+     * from any thread and does not send a change event.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * @param value  the property value ({@code null} not permitted).
+     */
+    public void setNodeProperty(NodeKey<K> nodeKey, String propertyKey, Object value) {
+        this.nodeProperties.computeIfAbsent(nodeKey,
+                k -> new ConcurrentHashMap<>()).put(propertyKey, value);
+    }
+
+    /**
+     * Sets a property for the specified flow.  This method is safe to call
+     * from any thread and does not send a change event.
+     *
+     * @param flowKey  the flow key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * @param value  the property value ({@code null} not permitted).
+     */
+    public void setFlowProperty(FlowKey<K> flowKey, String propertyKey, Object value) {
+        this.flowProperties.computeIfAbsent(flowKey,
+                k -> new ConcurrentHashMap<>()).put(propertyKey, value);
+    }
+
+    /**
+     * Returns the number of flow stages.
+     *
+     * @return The number of flow stages.
+     */
+    @Override
+    public int getStageCount() {
+        return this.nodes.size() - 1;
+    }
+
+    /**
+     * Returns a list of the source nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSources(int stage) {
+        return this.nodes.get(stage).toList();
+    }
+
+    /**
+     * Returns a list of the destination nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of destination nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getDestinations(int stage) {
+        return this.nodes.get(stage + 1).toList();
+    }
+
+    /**
+     * Returns the set of keys for all the nodes in the dataset.
+     *
+     * @return The set of keys for all the nodes in the dataset (possibly empty
+     *     but never {@code null}).
+     */
+    @Override
+    public Set<NodeKey<K>> getAllNodes() {
+        Set<NodeKey<K>> result = new HashSet<>();
+        for (int s = 0; s < this.nodes.size(); s++) {
+            for (K key : this.nodes.get(s).toList()) {
+                result.add(new NodeKey<>(s, key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of a property, if specified, for the specified node.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the node key ({@code null} not permitted).
+     *
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getNodeProperty(NodeKey<K> nodeKey, String propertyKey) {
+        Map<String, Object> props = this.nodeProperties.get(nodeKey);
+        if (props != null) {
+            return props.get(propertyKey);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the current accumulated flow between a source node and a
+     * destination node at a specified stage.
+     *
+     * @param stage  the stage index (0 to {@code getStageCount()} - 1).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     *
+     * @return The flow (possibly {@code null}).
+     */
+    @Override
+    public Number getFlow(int stage, K source, K destination) {
+        DoubleAdder adder = this.flows.get(new FlowKey<>(stage, source, destination));
+        return adder != null ? adder.sum() : null;
+    }
+
+    /**
+     * Returns a set of keys for all the flows in the dataset.
+     *
+     * @return A set.
+     */
+    @Override
+    public Set<FlowKey<K>> getAllFlows() {
+        return new HashSet<>(this.flows.keySet());
+    }
+
+    /**
+     * Returns the value of a property, if specified, for the specified flow.
+     *
+     * @param flowKey  flowKey ({@code null} not permitted).
+     *
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getFlowProperty(FlowKey<K> flowKey, String propertyKey) {
+        Map<String, Object> props = this.flowProperties.get(flowKey);
+        if (props != null) {
+            return props.get(propertyKey);
+        }
+        return null;
+    }
+
+    /**
+     * Publishes the current content of this dataset as a new, independent
+     * {@link DefaultFlowDataset} (including node and flow properties).  The
+     * copy is loaded in bulk, in time proportional to the number of flows,
+     * and this dataset can continue to be updated while the copy is made
+     * (increments made during the copy may or may not be included).
+     *
+     * @return A new dataset (never {@code null}).
+     */
+    public DefaultFlowDataset<K> toFlowDataset() {
+        // read the flows before the nodes:  addFlow() registers the nodes
+        // before it creates the flow, so every flow read here has its nodes
+        // in the lists read below
+        Map<FlowKey<K>, Number> values = new HashMap<>();
+        for (Map.Entry<FlowKey<K>, DoubleAdder> e : this.flows.entrySet()) {
+            values.put(e.getKey(), e.getValue().sum());
+        }
+        List<List<K>> nodeOrder = new ArrayList<>();
+        for (NodeList<K> list : this.nodes) {
+            nodeOrder.add(list.toList());
+        }
+        DefaultFlowDataset<K> result = new DefaultFlowDataset<>();
+        result.addAll(nodeOrder, values);
+        for (Map.Entry<NodeKey<K>, Map<String, Object>> e : this.nodeProperties.entrySet()) {
+            for (Map.Entry<String, Object> p : e.getValue().entrySet()) {
+                result.setNodeProperty(e.getKey(), p.getKey(), p.getValue());
+            }
+        }
+        for (Map.Entry<FlowKey<K>, Map<String, Object>> e : this.flowProperties.entrySet()) {
+            for (Map.Entry<String, Object> p : e.getValue().entrySet()) {
+                result.setFlowProperty(e.getKey(), p.getKey(), p.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tests this dataset for equality with an arbitrary object.  This method
+     * will return {@code true} if the object implements the
+     * {@link FlowDataset} and defines the exact same set of nodes and flows
+     * as this dataset.
+     *
+     * @param obj  the object to test equality against ({@code null} permitted).
+     *
+     * @return A boolean.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FlowDataset)) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        final FlowDataset<K> other = (FlowDataset<K>) obj;
+        if (other.getStageCount() != getStageCount()) {
+            return false;
+        }
+        for (int stage = 0; stage < getStageCount(); stage++) {
+            List<K> sources = getSources(stage);
+            List<K> destinations = getDestinations(stage);
+            if (!Objects.equals(other.getSourcesView(stage), sources)) {
+                return false;
+            }
+            if (!Objects.equals(other.getDestinationsView(stage), destinations)) {
+                return false;
+            }
+            for (K source : sources) {
+                for (K destination : destinations) {
+                    if (!Objects.equals(other.getFlow(stage, source, destination), getFlow(stage, source, destination))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code for the content of this dataset (see 
+     * {@link FlowDatasetUtils#calculateHashCode(FlowDataset)}).
+     * 
+     * @return A hash code.
+     */
+    @Override
+    public int hashCode() {
+        return FlowDatasetUtils.calculateHashCode(this);
+    }
+
+    /**
+     * An insertion-ordered set of nodes that supports concurrent additions.
+     * Membership is checked with a concurrent map, so only the first
+     * registration of a node takes the lock that appends it to the list.
+     *
+     * @param <K> the node key type.
+     */
+    private static class NodeList<K> implements Serializable {
+
+        /** The nodes (used for membership tests). */
+        private final Set<K> members = ConcurrentHashMap.newKeySet();
+
+        /** The nodes in the order they were added. */
+        private final List<K> order = new ArrayList<>();
+
+        void add(K key) {
+            if (!this.members.contains(key)) {
+                synchronized (this.order) {
+                    if (this.members.add(key)) {
+                        this.order.add(key);
+                    }
+                }
+            }
+        }
+
+        List<K> toList() {
+            synchronized (this.order) {
+                return new ArrayList<>(this.order);
+            }
+        }
+    }
+
+}
@@ -36,22 +36,35 @@
 
 package org.jfree.data.flow;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.RandomAccess;
 import java.util.Set;
-import org.jfree.chart.plot.flow.FlowUtils;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import org.jfree.chart.util.Args;
 import org.jfree.chart.util.PublicCloneable;
 import org.jfree.data.general.AbstractDataset;
 
 /**
  * A dataset representing flows between source and destination nodes.
+ * The change events sent to registered listeners are instances of 
+ * {@link FlowDatasetChangeEvent}, which describe exactly what changed.
  * 
  * @param <K> the type for the keys used to identify sources and destinations 
  *     (instances should be immutable, {@code String} is a good default choice).
@@ -59,21 +72,165 @@ import org.jfree.data.general.AbstractDataset;
 public class DefaultFlowDataset<K extends Comparable<K>> extends AbstractDataset 
         implements FlowDataset<K>, PublicCloneable, Serializable {
 
+    /** The source of owner identifiers for copy-on-write storage. */
+    private static final AtomicLong OWNERS = new AtomicLong();
+
     /** 
      * The nodes at each stage.  The list will have N+1 entries, where N is
      * the number of stages - the last entry contains the destination nodes for 
      * the final stage.
      */
     private List<List<K>> nodes;
+
+    /**
+     * The position of each node within its stage (there is one map for each
+     * entry in the {@code nodes} list).  This is used to check whether a node
+     * is already present without scanning the node list.
+     */
+    private List<Map<K, Integer>> nodeIndices;
     
+    /** 
+     * The shared keys for the nodes and flows in the dataset (the keys in
+     * the {@code flows} map are the pooled instances).
+     */
+    private FlowKeyPool<K> keys;
+
     /** Node properties. */
-    private Map<NodeKey, Map<String, Object>> nodeProperties;
+    private Map<NodeKey<K>, Map<String, Object>> nodeProperties;
     
-    /** Storage for the flows. */
-    private Map<FlowKey<K>, Number> flows;
+    /** 
+     * Storage for the flows, keyed by stage and by the positions of the 
+     * source and destination nodes (see {@link PackedFlowMap}).  The 
+     * position of a flow in this map is also its index in the flow property
+     * columns.
+     */
+    private PackedFlowMap flows;
     
     /** Flow properties. */
-    private Map<FlowKey, Map<String, Object>> flowProperties;
+    private Map<FlowKey<K>, Map<String, Object>> flowProperties;
+
+    /** The types of the registered (columnar) node properties. */
+    private Map<String, Class<?>> nodePropertyTypes;
+
+    /** 
+     * The columns for the registered node properties.  For each property
+     * there is one column per node stage (created when first needed), 
+     * indexed by the position of the node within the stage.
+     */
+    private Map<String, List<PropertyColumn>> nodeColumns;
+
+    /** 
+     * The columns for the registered flow properties, indexed by the 
+     * position of the flow in {@code flows}.
+     */
+    private Map<String, PropertyColumn> flowColumns;
+
+    /** 
+     * The inflow and outflow totals for each node, maintained as flows are
+     * set.  There is one map for each entry in the {@code nodes} list, the
+     * array for each node holds the inflow then the outflow, each as a 
+     * compensated sum (see {@link CompensatedSum}).
+     */
+    private List<Map<K, double[]>> nodeTotals;
+
+    /** The total flow at each stage (two entries per stage, compensated). */
+    private double[] stageTotals;
+
+    /** 
+     * The number of flow values replaced since the totals were last rebuilt 
+     * from the flow values.
+     */
+    private transient int totalsReplacements;
+
+    /** 
+     * A hash of the nodes (in order) and the flow values, maintained as 
+     * nodes and flows are added or changed.  Datasets with the same content
+     * have the same fingerprint, whatever order the flows were set in.
+     */
+    private long fingerprint;
+
+    /** A counter that is incremented whenever the dataset is modified. */
+    private long version;
+
+    /** 
+     * The identifier of this dataset for copy-on-write purposes.  A clone 
+     * shares its storage with the original, and both are given new 
+     * identifiers when the clone is created.  Each shared structure records
+     * the identifier of the dataset that may modify it in place, any other
+     * dataset copies the structure before the first change.
+     */
+    private transient long owner;
+
+    /** 
+     * The owner of the per-stage lists ({@code nodes}, {@code nodeIndices}
+     * and {@code nodeTotals}), the arrays of stage owners and the stage 
+     * totals.
+     */
+    private transient long stageListsOwner;
+
+    /** The owner of the node list and node index map at each node stage. */
+    private transient long[] nodeOwners;
+
+    /** The owner of the node totals map at each node stage. */
+    private transient long[] totalsOwners;
+
+    /** The owner of the {@code nodeProperties} map (and its values). */
+    private transient long nodePropertiesOwner;
+
+    /** The owner of the {@code flowProperties} map (and its values). */
+    private transient long flowPropertiesOwner;
+
+    /** 
+     * The owner of the property registrations ({@code nodePropertyTypes}, 
+     * {@code nodeColumns} and {@code flowColumns}, but not the columns 
+     * themselves which record their own owner).
+     */
+    private transient long columnsOwner;
+
+    /** 
+     * A counter that is incremented whenever a node or flow is added, used to
+     * detect access to a stale view.
+     */
+    private transient int modCount;
+
+    /** The number of nested updates in progress. */
+    private transient int updateDepth;
+
+    /** 
+     * A flag that records that the dataset was changed while an update was
+     * in progress, so that an event is sent when the update ends.
+     */
+    private transient boolean changePending;
+
+    /** 
+     * The event describing the changes made since the last event was sent
+     * ({@code null} if no changes have been recorded).
+     */
+    private transient FlowDatasetChangeEvent<K> pendingEvent;
+
+    /** 
+     * The index of the flows at each node, built when first needed (see 
+     * {@link #adjacency()}).  A clone builds its own index.
+     */
+    private transient FlowAdjacency adjacency;
+
+    /** The most recent snapshot (possibly {@code null}). */
+    private transient FlowDatasetSnapshot<K> snapshot;
+
+    /** 
+     * The positions of the flows that have been set since the most recent 
+     * snapshot was taken (only tracked once a snapshot has been taken).
+     */
+    private transient BitSet snapshotDirtyFlows;
+
+    /** The node stages that have had nodes added since the last snapshot. */
+    private transient BitSet snapshotDirtyNodeStages;
+
+    /** The nodes with properties changed since the last snapshot. */
+    private transient Set<NodeKey<K>> snapshotDirtyNodeProperties;
+
+    /** The flows with properties changed since the last snapshot. */
+    private transient Set<FlowKey<K>> snapshotDirtyFlowProperties;
 
     /**
      * Creates a new dataset that is initially empty.
@@ -82,9 +239,30 @@ public class DefaultFlowDataset<K extends Comparable<K>> extends AbstractDataset
         this.nodes = new ArrayList<>();
         this.nodes.add(new ArrayList<>());
         this.nodes.add(new ArrayList<>());
+        this.nodeIndices = new ArrayList<>();
+        this.nodeIndices.add(new HashMap<>());
+        this.nodeIndices.add(new HashMap<>());
+        this.keys = new FlowKeyPool<>();
         this.nodeProperties = new HashMap<>();
-        this.flows = new HashMap<>();
+        this.flows = new PackedFlowMap();
         this.flowProperties = new HashMap<>();
+        this.nodePropertyTypes = new HashMap<>();
+        this.nodeColumns = new HashMap<>();
+        this.flowColumns = new HashMap<>();
+        this.owner = OWNERS.incrementAndGet();
+        this.stageListsOwner = this.owner;
+        this.nodeOwners = new long[] {this.owner, this.owner};
+        this.totalsOwners = new long[] {this.owner, this.owner};
+        this.nodePropertiesOwner = this.owner;
+        this.flowPropertiesOwner = this.owner;
+        this.columnsOwner = this.owner;
+        this.nodePropertyTypes.put("selected", Boolean.class);
+        this.nodeColumns.put("selected", new ArrayList<>());
+        this.flowColumns.put("selected", newColumn(Boolean.class));
+        this.nodeTotals = new ArrayList<>();
+        this.nodeTotals.add(new HashMap<>());
+        this.nodeTotals.add(new HashMap<>());
+        this.stageTotals = new double[2];
     }
 
     /**
@@ -111,6 +289,62 @@ public class DefaultFlowDataset<K extends Comparable<K>> extends AbstractDataset
         return new ArrayList<>(this.nodes.get(stage + 1));
     }
 
+    /**
+     * Returns an unmodifiable view of the source nodes for the specified 
+     * stage.  The view is backed by the dataset and no copy is made.  Any 
+     * access to the view after a node or flow has been added to the dataset
+     * will throw a {@code ConcurrentModificationException}.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return A list of source nodes (possibly empty but never {@code null}). 
+     */
+    @Override
+    public List<K> getSourcesView(int stage) {
+        return new NodeListView(this.nodes.get(stage));
+    }
+
+    /**
+     * Returns an unmodifiable view of the destination nodes for the 
+     * specified stage.  The view is backed by the dataset and no copy is 
+     * made.  Any access to the view after a node or flow has been added to 
+     * the dataset will throw a {@code ConcurrentModificationException}.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return A list of destination nodes (possibly empty but never {@code null}). 
+     */
+    @Override
+    public List<K> getDestinationsView(int stage) {
+        return new NodeListView(this.nodes.get(stage + 1));
+    }
+
+    /**
+     * Returns an unmodifiable view of the keys for all the nodes in the 
+     * dataset.  The view is backed by the dataset and no copy is made.  Any 
+     * access to the view after a node or flow has been added to the dataset
+     * will throw a {@code ConcurrentModificationException}.
+     * 
+     * @return A set of node keys (possibly empty but never {@code null}).
+     */
+    @Override
+    public Set<NodeKey<K>> getAllNodesView() {
+        return new NodeSetView();
+    }
+
+    /**
+     * Returns an unmodifiable view of the keys for all the flows in the 
+     * dataset.  The view is backed by the dataset and no copy is made.  Any 
+     * access to the view after a node or flow has been added to the dataset
+     * will throw a {@code ConcurrentModificationException}.
+     * 
+     * @return A set of flow keys (possibly empty but never {@code null}).
+     */
+    @Override
+    public Set<FlowKey<K>> getAllFlowsView() {
+        return new FlowSetView();
+    }
+
     /**
      * Returns the set of keys for all the nodes in the dataset.
      * 
@@ -120,9 +354,9 @@ public class DefaultFlowDataset<K extends Comparable<K>> extends AbstractDataset
     @Override
     public Set<NodeKey<K>> getAllNodes() {
         Set<NodeKey<K>> result = new HashSet<>();
-        for (int s = 0; s <= this.getStageCount(); s++) {
-            for (K key : this.getSources(s)) {
-                result.add(new NodeKey<>(s, key));
+        for (int s = 0; s < this.nodes.size(); s++) {
+            for (K key : this.nodes.get(s)) {
+                result.add(this.keys.nodeKey(s, key));
             }
         }
         return result;
@@ -138,28 +372,132 @@ public class DefaultFlowDataset<K extends Comparable<K>> extends AbstractDataset
      */    
     @Override
     public Object getNodeProperty(NodeKey<K> nodeKey, String propertyKey) {
+        if (this.nodeColumns.containsKey(propertyKey)) {
+            PropertyColumn column = nodeColumn(propertyKey, 
+                    nodeKey.getStage(), false);
+            int index = indexOf(nodeKey.getStage(), nodeKey.getNode());
+            if (column != null && index >= 0 && column.isDefined(index)) {
+                return column.get(index);
+            }
+        }
+        return nodeMapProperty(nodeKey, propertyKey);
+    }
+
+    /**
+     * Returns the value of a node property from the property maps (this 
+     * holds the unregistered properties, plus any values for a registered 
+     * property that could not be stored in its column).
+     * 
+     * @param nodeKey  the node key.
+     * @param propertyKey  the property key.
+     * 
+     * @return The property value, or {@code null}.
+     */
+    private Object nodeMapProperty(NodeKey<K> nodeKey, String propertyKey) {
+        if (this.nodeProperties.isEmpty()) {
+            return null;
+        }
         Map<String, Object> props = this.nodeProperties.get(nodeKey);
         if (props != null) {
             return props.get(propertyKey);
         }
         return null;
     }
+
+    /**
+     * Returns {@code true} if the specified node property has the value
+     * {@code Boolean.TRUE}.  For a registered boolean property this reads a
+     * single bit, without boxing.
+     * 
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return A boolean.
+     */
+    @Override
+    public boolean getNodeBooleanProperty(NodeKey<K> nodeKey, 
+            String propertyKey) {
+        if (this.nodeColumns.containsKey(propertyKey)) {
+            PropertyColumn column = nodeColumn(propertyKey, 
+                    nodeKey.getStage(), false);
+            int index = indexOf(nodeKey.getStage(), nodeKey.getNode());
+            if (column != null && index >= 0 && column.isDefined(index)) {
+                return column.getBoolean(index);
+            }
+        }
+        return Boolean.TRUE.equals(nodeMapProperty(nodeKey, propertyKey));
+    }
+
+    /**
+     * Returns the value of a numeric node property as a double.  For a 
+     * registered numeric property the value is read without boxing.
+     * 
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return The value, or {@code Double.NaN} if the property is not set
+     *     or is not numeric.
+     */
+    public double getNodeDoubleProperty(NodeKey<K> nodeKey, 
+            String propertyKey) {
+        if (this.nodeColumns.containsKey(propertyKey)) {
+            PropertyColumn column = nodeColumn(propertyKey, 
+                    nodeKey.getStage(), false);
+            int index = indexOf(nodeKey.getStage(), nodeKey.getNode());
+            if (column != null && index >= 0 && column.isDefined(index)) {
+                return column.getDouble(index);
+            }
+        }
+        Object value = nodeMapProperty(nodeKey, propertyKey);
+        return value instanceof Number ? ((Number) value).doubleValue() 
+                : Double.NaN;
+    }
     
     /**
      * Sets a property for the specified node and notifies registered listeners
-     * that the dataset has changed.
+     * that the dataset has changed.  If the property has been registered 
+     * (see {@link #registerNodeProperty(String, Class)}), the value is 
+     * stored in the property column when the node is in the dataset and the
+     * value has the registered type (or is {@code null}), otherwise it is 
+     * kept in the property map for the node, as for an unregistered 
+     * property.
      * 
      * @param nodeKey  the node key ({@code null} not permitted).
      * @param propertyKey  the property key ({@code null} not permitted).
      * @param value  the property value.
      */
     public void setNodeProperty(NodeKey<K> nodeKey, String propertyKey, Object value) {
-        Map<String, Object> props = this.nodeProperties.get(nodeKey);
-        if (props == null) {
-            props = new HashMap<>();
-            this.nodeProperties.put(nodeKey, props);
+        int index = -1;
+        if (this.nodeColumns.containsKey(propertyKey)) {
+            index = indexOf(nodeKey.getStage(), nodeKey.getNode());
+        }
+        if (index >= 0 && (value == null || value.getClass() 
+                == this.nodePropertyTypes.get(propertyKey))) {
+            nodeColumn(propertyKey, nodeKey.getStage(), true).set(index, 
+                    value);
+            removeNodeMapProperty(nodeKey, propertyKey);
+        } else {
+            if (index >= 0) {
+                // the map value replaces the column value
+                PropertyColumn column = nodeColumn(propertyKey, 
+                        nodeKey.getStage(), false);
+                if (column != null && column.isDefined(index)) {
+                    nodeColumn(propertyKey, nodeKey.getStage(), true).set(
+                            index, null);
+                }
+            }
+            ownNodeProperties();
+            Map<String, Object> props = this.nodeProperties.get(nodeKey);
+            if (props == null) {
+                props = new HashMap<>();
+                this.nodeProperties.put(nodeKey, props);
+            }
+            props.put(propertyKey, value);
+        }
+        if (this.snapshot != null) {
+            this.snapshotDirtyNodeProperties.add(nodeKey);
         }
-        props.put(propertyKey, value);
+        changes().nodePropertyChanged(nodeKey);
         fireDatasetChanged();
     }
 
@@ -176,7 +514,8 @@ public class DefaultFlowDataset<K extends Comparable<K>> extends AbstractDataset
      */
     @Override
     public Number getFlow(int stage, K source, K destination) {
-        return this.flows.get(new FlowKey<>(stage, source, destination));
+        int index = flowIndex(stage, source, destination);
+        return index >= 0 ? this.flows.valueAt(index) : null;
     }
 
     /**
@@ -194,181 +533,1736 @@ public class DefaultFlowDataset<K extends Comparable<K>> extends AbstractDataset
         Args.nullNotPermitted(source, "source");
         Args.nullNotPermitted(destination, "destination");
         if (stage > this.nodes.size() - 2) {
-            this.nodes.add(new ArrayList<>());
-        }
-        if (!getSources(stage).contains(source)) {
-            this.nodes.get(stage).add(source);
-        }
-        if (!getDestinations(stage).contains(destination)) {
-            this.nodes.get(stage + 1).add(destination);
+            addStage();
         }
-        this.flows.put(new FlowKey<>(stage, source, destination), flow);
+        long key = PackedFlowMap.pack(stage, addNode(stage, source), 
+                addNode(stage + 1, destination));
+        double old = putFlow(key, flow);
+        updateTotals(stage, source, destination, old, flow);
         fireDatasetChanged();
     }
 
     /**
-     * Returns the value of a property, if specified, for the specified flow.  
+     * Returns the position of a node within the specified stage, in the order
+     * that nodes are returned by {@link #getSources(int)} (or, for the final 
+     * stage, {@link #getDestinations(int)}).  This is a hash lookup, so it 
+     * does not depend on the number of nodes in the stage.
      * 
-     * @param flowKey  flowKey ({@code null} not permitted).
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param key  the node key ({@code null} not permitted).
      * 
-     * @return The property value, or {@code null}. 
-     */    
-    @Override
-    public Object getFlowProperty(FlowKey<K> flowKey, String propertyKey) {
-        Map<String, Object> props = this.flowProperties.get(flowKey);
-        if (props != null) {
-            return props.get(propertyKey);
+     * @return The position of the node, or {@code -1} if the node is not 
+     *     present.
+     */
+    public int indexOf(int stage, K key) {
+        Args.nullNotPermitted(key, "key");
+        if (stage < 0 || stage >= this.nodeIndices.size()) {
+            return -1;
         }
-        return null;      
+        Integer index = this.nodeIndices.get(stage).get(key);
+        return index != null ? index : -1;
     }
 
     /**
-     * Sets a property for the specified flow and notifies registered listeners
-     * that the dataset has changed.
+     * Returns the shared key for the specified node, or a new key if the 
+     * node is not in the dataset.
      * 
-     * @param flowKey  the node key ({@code null} not permitted).
-     * @param propertyKey  the property key ({@code null} not permitted).
-     * @param value  the property value.
+     * @param stage  the node stage.
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return A node key (never {@code null}).
+     */
+    @Override
+    public NodeKey<K> getNodeKey(int stage, K node) {
+        NodeKey<K> key = this.keys.getNodeKey(stage, node);
+        return key != null ? key : new NodeKey<>(stage, node);
+    }
+
+    /**
+     * Returns the shared key for the specified flow, or a new key if the 
+     * flow is not in the dataset.
+     * 
+     * @param stage  the stage.
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * 
+     * @return A flow key (never {@code null}).
      */
+    @Override
+    public FlowKey<K> getFlowKey(int stage, K source, K destination) {
+        int index = flowIndex(stage, source, destination);
+        return index >= 0 ? flowKey(index) 
+                : new FlowKey<>(stage, source, destination);
+    }
 
-    public void setFlowProperty(FlowKey<K> flowKey, String propertyKey, Object value) {
-        Map<String, Object> props = this.flowProperties.get(flowKey);
-        if (props == null) {
-            props = new HashMap<>();
-            this.flowProperties.put(flowKey, props);
+    /**
+     * Returns the position of a flow in the flow storage.
+     * 
+     * @param stage  the stage.
+     * @param source  the source node.
+     * @param destination  the destination node.
+     * 
+     * @return The position, or {@code -1} if the flow is not in the dataset.
+     */
+    private int flowIndex(int stage, Object source, Object destination) {
+        if (stage < 0 || stage >= this.nodes.size() - 1) {
+            return -1;
         }
-        props.put(propertyKey, value);
-        fireDatasetChanged();
+        Integer s = this.nodeIndices.get(stage).get(source);
+        if (s == null) {
+            return -1;
+        }
+        Integer d = this.nodeIndices.get(stage + 1).get(destination);
+        if (d == null) {
+            return -1;
+        }
+        return this.flows.indexOf(PackedFlowMap.pack(stage, s, d));
     }
 
     /**
-     * Returns the number of flow stages.  A flow dataset always has one or
-     * more stages, so this method will return {@code 1} even for an empty
-     * dataset (one with no sources, destinations or flows defined).
+     * Returns the position of a flow in the flow storage.
      * 
-     * @return The number of flow stages.
+     * @param flowKey  the flow key.
+     * 
+     * @return The position, or {@code -1} if the flow is not in the dataset.
      */
-    @Override
-    public int getStageCount() {
-        return this.nodes.size() - 1;
+    private int flowIndex(FlowKey<?> flowKey) {
+        return flowIndex(flowKey.getStage(), flowKey.getSource(), 
+                flowKey.getDestination());
     }
-    
+
     /**
-     * Returns a set of keys for all the flows in the dataset.
+     * Returns the (shared) flow key for the flow at the specified position
+     * in the flow storage.
      * 
-     * @return A set. 
+     * @param index  the position.
+     * 
+     * @return The flow key.
      */
-    @Override
-    public Set<FlowKey<K>> getAllFlows() {
-        return new HashSet<>(this.flows.keySet());    
+    FlowKey<K> flowKey(int index) {
+        long key = this.flows.keyAt(index);
+        int stage = PackedFlowMap.stage(key);
+        return this.keys.flowKey(stage, 
+                this.nodes.get(stage).get(PackedFlowMap.source(key)), 
+                this.nodes.get(stage + 1).get(PackedFlowMap.destination(key)));
     }
-    
+
     /**
-     * Returns a list of flow keys for all the flows coming into this node.
+     * Sets the value for a flow, adding the flow if it is not already in the
+     * dataset.  The totals are not updated and no event is sent.
      * 
-     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param key  the packed flow key.
+     * @param value  the flow value.
      * 
-     * @return A list of flow keys (possibly empty but never {@code null}). 
+     * @return The previous value (zero for a new flow).
      */
-    public List<FlowKey<K>> getInFlows(NodeKey nodeKey) {
-        Args.nullNotPermitted(nodeKey, "nodeKey");
-        if (nodeKey.getStage() == 0) {
-            return Collections.EMPTY_LIST;
+    private double putFlow(long key, double value) {
+        int index = this.flows.indexOf(key);
+        double old = 0.0;
+        if (index < 0) {
+            index = this.flows.add(key, value);
+            this.modCount++;
+        } else {
+            old = this.flows.valueAt(index);
+            this.flows.setValueAt(index, value);
+            this.fingerprint -= FlowDatasetUtils.flowTerm(key, old);
         }
-        List<FlowKey<K>> result = new ArrayList<>();
-        for (FlowKey<K> flowKey : this.flows.keySet()) {
-            if (flowKey.getStage() == nodeKey.getStage() - 1 && flowKey.getDestination().equals(nodeKey.getNode())) {
-                result.add(flowKey);
-            }
+        this.fingerprint += FlowDatasetUtils.flowTerm(key, value);
+        if (this.snapshot != null) {
+            this.snapshotDirtyFlows.set(index);
         }
-        return result;
+        changes().flowChanged(index, PackedFlowMap.stage(key));
+        return old;
     }
 
     /**
-     * Returns a list of flow keys for all the flows going out of this node.
+     * Adds a node to the specified stage, if it is not already present.
      * 
-     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param nodeStage  the node stage.
+     * @param key  the node key.
      * 
-     * @return A list of flow keys (possibly empty but never {@code null}). 
+     * @return The position of the node within the stage.
      */
-    public List<FlowKey> getOutFlows(NodeKey nodeKey) {
-        Args.nullNotPermitted(nodeKey, "nodeKey");
-        if (nodeKey.getStage() == this.getStageCount()) {
-            return Collections.EMPTY_LIST;
+    private int addNode(int nodeStage, K key) {
+        Map<K, Integer> indices = this.nodeIndices.get(nodeStage);
+        Integer existing = indices.get(key);
+        if (existing != null) {
+            return existing;
         }
-        List<FlowKey> result = new ArrayList<>();
-        for (FlowKey flowKey : this.flows.keySet()) {
-            if (flowKey.getStage() == nodeKey.getStage() && flowKey.getSource().equals(nodeKey.getNode())) {
-                result.add(flowKey);
-            }
+        FlowDatasetChangeEvent<K> event = changes();
+        int index = this.nodes.get(nodeStage).size();
+        if (index == PackedFlowMap.MAX_NODES) {
+            throw new IllegalStateException("Stage " + nodeStage 
+                    + " cannot hold more than " + PackedFlowMap.MAX_NODES 
+                    + " nodes.");
         }
-        return result;
+        ownNodeStage(nodeStage);
+        this.nodeIndices.get(nodeStage).put(key, index);
+        this.nodes.get(nodeStage).add(key);
+        this.keys.nodeKey(nodeStage, key);
+        this.fingerprint += FlowDatasetUtils.nodeTerm(nodeStage, index, key);
+        if (this.snapshot != null) {
+            this.snapshotDirtyNodeStages.set(nodeStage);
+        }
+        event.nodeAdded(nodeStage);
+        return index;
     }
 
     /**
-     * Returns a clone of the dataset.
-     * 
-     * @return A clone of the dataset.
-     * 
-     * @throws CloneNotSupportedException if there is a problem with cloning.
+     * Adds a new (empty) stage at the end of the dataset.
      */
-    @Override
-    public Object clone() throws CloneNotSupportedException {
-        DefaultFlowDataset<K> clone = (DefaultFlowDataset) super.clone();
-        clone.flows = new HashMap<>(this.flows);
-        clone.nodes = new ArrayList<>();
-        for (List<?> list : nodes) {
-            clone.nodes.add((List<K>) FlowUtils.cloneList(list));
+    private void addStage() {
+        if (this.nodes.size() == PackedFlowMap.MAX_STAGES) {
+            throw new IllegalStateException("The dataset cannot hold more " 
+                    + "than " + (PackedFlowMap.MAX_STAGES - 1) + " stages.");
         }
-        return clone;
+        FlowDatasetChangeEvent<K> event = changes();
+        this.modCount++;
+        ownStageLists();
+        this.nodes.add(new ArrayList<>());
+        this.nodeIndices.add(new HashMap<>());
+        this.nodeTotals.add(new HashMap<>());
+        this.stageTotals = Arrays.copyOf(this.stageTotals, 
+                this.stageTotals.length + 2);
+        this.nodeOwners = Arrays.copyOf(this.nodeOwners, this.nodes.size());
+        this.nodeOwners[this.nodes.size() - 1] = this.owner;
+        this.totalsOwners = Arrays.copyOf(this.totalsOwners, 
+                this.nodes.size());
+        this.totalsOwners[this.nodes.size() - 1] = this.owner;
+        if (this.snapshot != null) {
+            this.snapshotDirtyNodeStages.set(this.nodes.size() - 1);
+        }
+        event.stageAdded(this.nodes.size() - 2);
     }
 
     /**
-     * Tests this dataset for equality with an arbitrary object.  This method
-     * will return {@code true} if the object implements the 
-     * {@link FlowDataset} and defines the exact same set of nodes and flows 
-     * as this dataset.
+     * Replaces a flow value in the totals for the source node, the
+     * destination node and the stage.  A {@code NaN} value counts as zero,
+     * so that it does not stick in the totals once the flow is replaced.  
+     * The totals are compensated sums, and are rebuilt from the flow values
+     * once enough values have been replaced (see {@link CompensatedSum}).
      * 
-     * @param obj  the object to test equality against ({@code null} permitted).
-     * 
-     * @return A boolean. 
+     * @param stage  the stage.
+     * @param source  the source node.
+     * @param destination  the destination node.
+     * @param old  the previous flow value.
+     * @param value  the new flow value.
      */
-    @Override
-    public boolean equals(Object obj) {
-        if (this == obj) {
-            return true;
+    private void updateTotals(int stage, K source, K destination, double old,
+            double value) {
+        if (CompensatedSum.isSubtraction(old) && CompensatedSum.isRebuildDue(
+                ++this.totalsReplacements, this.flows.size())) {
+            rebuildTotals();
+            return;
         }
-        if (!(obj instanceof FlowDataset)) {
-            return false;
+        ownStageLists();
+        CompensatedSum.replace(totalsFor(stage, source), 2, old, value);
+        CompensatedSum.replace(totalsFor(stage + 1, destination), 0, old, 
+                value);
+        CompensatedSum.replace(this.stageTotals, 2 * stage, old, value);
+    }
+
+    /**
+     * Recalculates the node and stage totals from the flow values.
+     */
+    private void rebuildTotals() {
+        ownStageLists();
+        for (int n = 0; n < this.nodes.size(); n++) {
+            this.nodeTotals.set(n, new HashMap<>());
+            this.totalsOwners[n] = this.owner;
         }
-        final FlowDataset other = (FlowDataset) obj;
-        if (other.getStageCount() != getStageCount()) {
-            return false;
+        Arrays.fill(this.stageTotals, 0.0);
+        for (int i = 0; i < this.flows.size(); i++) {
+            long key = this.flows.keyAt(i);
+            int stage = PackedFlowMap.stage(key);
+            double value = this.flows.valueAt(i);
+            CompensatedSum.add(totalsFor(stage, this.nodes.get(stage).get(
+                    PackedFlowMap.source(key))), 2, value);
+            CompensatedSum.add(totalsFor(stage + 1, this.nodes.get(stage + 1)
+                    .get(PackedFlowMap.destination(key))), 0, value);
+            CompensatedSum.add(this.stageTotals, 2 * stage, value);
         }
-        for (int stage = 0; stage < getStageCount(); stage++) {
-            if (!Objects.equals(other.getSources(stage), getSources(stage))) {
-                return false;
-            }
-            if (!Objects.equals(other.getDestinations(stage), getDestinations(stage))) {
-                return false;
-            }
-            for (K source : getSources(stage)) {
-                for (K destination : getDestinations(stage)) {
-                    if (!Objects.equals(other.getFlow(stage, source, destination), getFlow(stage, source, destination))) {
-                        return false;
-                    }
-                }
-            }
+        if (this.snapshot != null) {
+            // the totals of every node with a flow may have changed
+            this.snapshotDirtyFlows.set(0, this.flows.size());
+        }
+        this.totalsReplacements = 0;
+    }
+
+    /**
+     * Returns the array holding the inflow and outflow totals for a node, 
+     * creating it if necessary.
+     * 
+     * @param nodeStage  the node stage.
+     * @param node  the node.
+     * 
+     * @return The totals array (inflow then outflow, each compensated).
+     */
+    private double[] totalsFor(int nodeStage, K node) {
+        ownTotals(nodeStage);
+        Map<K, double[]> map = this.nodeTotals.get(nodeStage);
+        double[] totals = map.get(node);
+        if (totals == null) {
+            totals = new double[4];
+            map.put(node, totals);
         }
+        return totals;
+    }
+
+    /**
+     * Returns {@code true}, since this dataset maintains the node and stage 
+     * totals.
+     * 
+     * @return {@code true}.
+     */
+    @Override
+    public boolean hasMaintainedTotals() {
         return true;
     }
 
+    /**
+     * Returns the total inflow for a node.  The total is maintained as flows
+     * are set, so this method does not need to iterate over the flows.
+     * 
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return The total inflow (zero for nodes at stage 0).
+     */
     @Override
-    public int hashCode() {
-        int hash = 3;
-        hash = 89 * hash + Objects.hashCode(getSources(0));
-        hash = 89 * hash + Objects.hashCode(getDestinations(getStageCount() - 1));
-        return hash;
+    public double getInflow(int stage, K node) {
+        Args.nullNotPermitted(node, "node");
+        if (stage < 0 || stage >= this.nodeTotals.size()) {
+            return 0.0;
+        }
+        double[] totals = this.nodeTotals.get(stage).get(node);
+        return totals != null ? CompensatedSum.get(totals, 0) : 0.0;
+    }
+
+    /**
+     * Returns the total outflow for a node.  The total is maintained as flows
+     * are set, so this method does not need to iterate over the flows.
+     * 
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return The total outflow (zero for the final destination nodes).
+     */
+    @Override
+    public double getOutflow(int stage, K node) {
+        Args.nullNotPermitted(node, "node");
+        if (stage < 0 || stage >= this.nodeTotals.size()) {
+            return 0.0;
+        }
+        double[] totals = this.nodeTotals.get(stage).get(node);
+        return totals != null ? CompensatedSum.get(totals, 2) : 0.0;
+    }
+
+    /**
+     * Returns the total of all flows at the specified stage.  The total is 
+     * maintained as flows are set, so this method does not need to iterate 
+     * over the flows.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return The total flow.
+     */
+    @Override
+    public double getTotalFlow(int stage) {
+        return CompensatedSum.get(this.stageTotals, 2 * stage);
+    }
+
+    /**
+     * Adds the nodes and flows assembled by a {@link FlowDatasetBuilder} to
+     * this dataset and sends a single change event to all registered 
+     * listeners.  Existing flows with the same key are replaced.
+     * 
+     * @param newNodes  the nodes for each stage, in order ({@code null} not
+     *     permitted).
+     * @param newFlows  the flows ({@code null} not permitted).
+     */
+    void addAll(List<List<K>> newNodes, Map<FlowKey<K>, Number> newFlows) {
+        this.modCount++;
+        while (this.nodes.size() < newNodes.size()) {
+            addStage();
+        }
+        for (int s = 0; s < newNodes.size(); s++) {
+            for (K key : newNodes.get(s)) {
+                addNode(s, key);
+            }
+        }
+        for (Map.Entry<FlowKey<K>, Number> entry : newFlows.entrySet()) {
+            FlowKey<K> key = entry.getKey();
+            int stage = key.getStage();
+            double value = entry.getValue().doubleValue();
+            double old = putFlow(PackedFlowMap.pack(stage, 
+                    addNode(stage, key.getSource()), 
+                    addNode(stage + 1, key.getDestination())), value);
+            updateTotals(stage, key.getSource(), key.getDestination(), old, 
+                    value);
+        }
+        fireDatasetChanged();
+    }
+
+    /**
+     * Adds the nodes and flows accumulated by a {@link FlowAggregate} to this
+     * dataset and sends a single change event to all registered listeners.
+     * The flows are keyed by node position within {@code newNodes} (see 
+     * {@link PackedFlowMap#pack(int, int, int)}), so no flow keys or values
+     * are boxed.  Existing flows with the same key are replaced.
+     * 
+     * @param newNodes  the nodes for each stage, in order ({@code null} not
+     *     permitted).
+     * @param newFlows  the flows ({@code null} not permitted).
+     */
+    void addAll(List<List<K>> newNodes, PackedFlowMap newFlows) {
+        this.modCount++;
+        while (this.nodes.size() < newNodes.size()) {
+            addStage();
+        }
+        int[][] positions = new int[newNodes.size()][];
+        for (int s = 0; s < newNodes.size(); s++) {
+            List<K> list = newNodes.get(s);
+            positions[s] = new int[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                positions[s][i] = addNode(s, list.get(i));
+            }
+        }
+        for (int i = 0; i < newFlows.size(); i++) {
+            long key = newFlows.keyAt(i);
+            int stage = PackedFlowMap.stage(key);
+            int source = PackedFlowMap.source(key);
+            int destination = PackedFlowMap.destination(key);
+            double value = newFlows.valueAt(i);
+            double old = putFlow(PackedFlowMap.pack(stage, 
+                    positions[stage][source], 
+                    positions[stage + 1][destination]), value);
+            updateTotals(stage, newNodes.get(stage).get(source), 
+                    newNodes.get(stage + 1).get(destination), old, value);
+        }
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns the value of a property, if specified, for the specified flow.  
+     * 
+     * @param flowKey  flowKey ({@code null} not permitted).
+     * 
+     * @return The property value, or {@code null}. 
+     */    
+    @Override
+    public Object getFlowProperty(FlowKey<K> flowKey, String propertyKey) {
+        PropertyColumn column = this.flowColumns.get(propertyKey);
+        if (column != null) {
+            int index = flowIndex(flowKey);
+            if (index >= 0 && column.isDefined(index)) {
+                return column.get(index);
+            }
+        }
+        return flowMapProperty(flowKey, propertyKey);
+    }
+
+    /**
+     * Returns the value of a flow property from the property maps (this 
+     * holds the unregistered properties, plus any values for a registered 
+     * property that could not be stored in its column).
+     * 
+     * @param flowKey  the flow key.
+     * @param propertyKey  the property key.
+     * 
+     * @return The property value, or {@code null}.
+     */
+    private Object flowMapProperty(FlowKey<K> flowKey, String propertyKey) {
+        if (this.flowProperties.isEmpty()) {
+            return null;
+        }
+        Map<String, Object> props = this.flowProperties.get(flowKey);
+        if (props != null) {
+            return props.get(propertyKey);
+        }
+        return null;
+    }
+
+    /**
+     * Returns {@code true} if the specified flow property has the value
+     * {@code Boolean.TRUE}.  For a registered boolean property this reads a
+     * single bit, without boxing.
+     * 
+     * @param flowKey  the flow key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return A boolean.
+     */
+    @Override
+    public boolean getFlowBooleanProperty(FlowKey<K> flowKey, 
+            String propertyKey) {
+        PropertyColumn column = this.flowColumns.get(propertyKey);
+        if (column != null) {
+            int index = flowIndex(flowKey);
+            if (index >= 0 && column.isDefined(index)) {
+                return column.getBoolean(index);
+            }
+        }
+        return Boolean.TRUE.equals(flowMapProperty(flowKey, propertyKey));
+    }
+
+    /**
+     * Returns the value of a numeric flow property as a double.  For a 
+     * registered numeric property the value is read without boxing.
+     * 
+     * @param flowKey  the flow key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return The value, or {@code Double.NaN} if the property is not set
+     *     or is not numeric.
+     */
+    public double getFlowDoubleProperty(FlowKey<K> flowKey, 
+            String propertyKey) {
+        PropertyColumn column = this.flowColumns.get(propertyKey);
+        if (column != null) {
+            int index = flowIndex(flowKey);
+            if (index >= 0 && column.isDefined(index)) {
+                return column.getDouble(index);
+            }
+        }
+        Object value = flowMapProperty(flowKey, propertyKey);
+        return value instanceof Number ? ((Number) value).doubleValue() 
+                : Double.NaN;
+    }
+
+    /**
+     * Sets a property for the specified flow and notifies registered listeners
+     * that the dataset has changed.  If the property has been registered 
+     * (see {@link #registerFlowProperty(String, Class)}), the value is 
+     * stored in the property column when the flow is in the dataset and the
+     * value has the registered type (or is {@code null}), otherwise it is 
+     * kept in the property map for the flow, as for an unregistered 
+     * property.
+     * 
+     * @param flowKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * @param value  the property value.
+     */
+    public void setFlowProperty(FlowKey<K> flowKey, String propertyKey, Object value) {
+        PropertyColumn column = this.flowColumns.get(propertyKey);
+        int index = column != null ? flowIndex(flowKey) : -1;
+        if (index >= 0 && (value == null 
+                || value.getClass() == column.getType())) {
+            writableFlowColumn(propertyKey).set(index, value);
+            removeFlowMapProperty(flowKey, propertyKey);
+        } else {
+            if (index >= 0 && column.isDefined(index)) {
+                // the map value replaces the column value
+                writableFlowColumn(propertyKey).set(index, null);
+            }
+            ownFlowProperties();
+            Map<String, Object> props = this.flowProperties.get(flowKey);
+            if (props == null) {
+                props = new HashMap<>();
+                this.flowProperties.put(flowKey, props);
+            }
+            props.put(propertyKey, value);
+        }
+        if (this.snapshot != null) {
+            this.snapshotDirtyFlowProperties.add(flowKey);
+        }
+        changes().flowPropertyChanged(flowKey);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Removes a value for a registered property from the property map for a
+     * node, if there is one (so that the column value is not hidden).
+     * 
+     * @param nodeKey  the node key.
+     * @param propertyKey  the property key.
+     */
+    private void removeNodeMapProperty(NodeKey<K> nodeKey, 
+            String propertyKey) {
+        Map<String, Object> props = this.nodeProperties.get(nodeKey);
+        if (props != null && props.containsKey(propertyKey)) {
+            ownNodeProperties();
+            props = this.nodeProperties.get(nodeKey);
+            props.remove(propertyKey);
+            if (props.isEmpty()) {
+                this.nodeProperties.remove(nodeKey);
+            }
+        }
+    }
+
+    /**
+     * Removes a value for a registered property from the property map for a
+     * flow, if there is one (so that the column value is not hidden).
+     * 
+     * @param flowKey  the flow key.
+     * @param propertyKey  the property key.
+     */
+    private void removeFlowMapProperty(FlowKey<K> flowKey, 
+            String propertyKey) {
+        Map<String, Object> props = this.flowProperties.get(flowKey);
+        if (props != null && props.containsKey(propertyKey)) {
+            ownFlowProperties();
+            props = this.flowProperties.get(flowKey);
+            props.remove(propertyKey);
+            if (props.isEmpty()) {
+                this.flowProperties.remove(flowKey);
+            }
+        }
+    }
+
+    /**
+     * Registers a typed node property, so that its values are stored in 
+     * columns (a {@code BitSet} for {@code Boolean} values, a primitive 
+     * array for {@code Integer} and {@code Double} values) rather than in a
+     * map for each node.  Any values already set for the property are moved
+     * to the new columns.  The {@code "selected"} property is registered 
+     * with type {@code Boolean} when the dataset is created.
+     * 
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * @param type  the type ({@code Boolean.class}, {@code Integer.class} or 
+     *     {@code Double.class}).
+     * 
+     * @throws IllegalArgumentException if the type is not supported, the 
+     *     property is already registered with a different type, or an 
+     *     existing value does not have the specified type.
+     */
+    public void registerNodeProperty(String propertyKey, Class<?> type) {
+        Args.nullNotPermitted(propertyKey, "propertyKey");
+        Args.nullNotPermitted(type, "type");
+        if (checkRegistration(this.nodePropertyTypes.get(propertyKey), type)) {
+            return;
+        }
+        // check the existing values before changing anything
+        for (Map.Entry<NodeKey<K>, Map<String, Object>> entry 
+                : this.nodeProperties.entrySet()) {
+            NodeKey<K> nodeKey = entry.getKey();
+            Object value = entry.getValue().get(propertyKey);
+            if (value != null && (value.getClass() != type 
+                    || indexOf(nodeKey.getStage(), nodeKey.getNode()) < 0)) {
+                throw new IllegalArgumentException("The existing value for " 
+                        + nodeKey + " cannot be stored in the column.");
+            }
+        }
+        ownColumns();
+        ownNodeProperties();
+        this.nodePropertyTypes.put(propertyKey, type);
+        this.nodeColumns.put(propertyKey, new ArrayList<>());
+        Iterator<Map.Entry<NodeKey<K>, Map<String, Object>>> iterator 
+                = this.nodeProperties.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<NodeKey<K>, Map<String, Object>> entry = iterator.next();
+            NodeKey<K> nodeKey = entry.getKey();
+            Object value = entry.getValue().remove(propertyKey);
+            if (value != null) {
+                nodeColumn(propertyKey, nodeKey.getStage(), true).set(
+                        indexOf(nodeKey.getStage(), nodeKey.getNode()), value);
+            }
+            if (entry.getValue().isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the type of a registered node property.
+     * 
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return The type, or {@code null} if the property is not registered.
+     */
+    public Class<?> getNodePropertyType(String propertyKey) {
+        return this.nodePropertyTypes.get(propertyKey);
+    }
+
+    /**
+     * Registers a typed flow property, so that its values are stored in 
+     * columns (a {@code BitSet} for {@code Boolean} values, a primitive 
+     * array for {@code Integer} and {@code Double} values) rather than in a
+     * map for each flow.  Any values already set for the property are moved
+     * to the new column.  The {@code "selected"} property is registered 
+     * with type {@code Boolean} when the dataset is created.
+     * 
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * @param type  the type ({@code Boolean.class}, {@code Integer.class} or 
+     *     {@code Double.class}).
+     * 
+     * @throws IllegalArgumentException if the type is not supported, the 
+     *     property is already registered with a different type, or an 
+     *     existing value does not have the specified type.
+     */
+    public void registerFlowProperty(String propertyKey, Class<?> type) {
+        Args.nullNotPermitted(propertyKey, "propertyKey");
+        Args.nullNotPermitted(type, "type");
+        PropertyColumn existing = this.flowColumns.get(propertyKey);
+        if (checkRegistration(existing != null ? existing.getType() : null, 
+                type)) {
+            return;
+        }
+        for (Map.Entry<FlowKey<K>, Map<String, Object>> entry 
+                : this.flowProperties.entrySet()) {
+            Object value = entry.getValue().get(propertyKey);
+            if (value != null && (value.getClass() != type 
+                    || flowIndex(entry.getKey()) < 0)) {
+                throw new IllegalArgumentException("The existing value for " 
+                        + entry.getKey() + " cannot be stored in the column.");
+            }
+        }
+        ownColumns();
+        ownFlowProperties();
+        PropertyColumn column = newColumn(type);
+        this.flowColumns.put(propertyKey, column);
+        Iterator<Map.Entry<FlowKey<K>, Map<String, Object>>> iterator 
+                = this.flowProperties.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<FlowKey<K>, Map<String, Object>> entry = iterator.next();
+            Object value = entry.getValue().remove(propertyKey);
+            if (value != null) {
+                column.set(flowIndex(entry.getKey()), value);
+            }
+            if (entry.getValue().isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the type of a registered flow property.
+     * 
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return The type, or {@code null} if the property is not registered.
+     */
+    public Class<?> getFlowPropertyType(String propertyKey) {
+        PropertyColumn column = this.flowColumns.get(propertyKey);
+        return column != null ? column.getType() : null;
+    }
+
+    /**
+     * Checks a property registration.
+     * 
+     * @param existing  the type the property is already registered with 
+     *     ({@code null} if it is not registered).
+     * @param type  the requested type.
+     * 
+     * @return {@code true} if the property is already registered with the
+     *     requested type.
+     */
+    private static boolean checkRegistration(Class<?> existing, 
+            Class<?> type) {
+        if (type != Boolean.class && type != Integer.class 
+                && type != Double.class) {
+            throw new IllegalArgumentException("Unsupported property type: " 
+                    + type.getName());
+        }
+        if (existing != null && existing != type) {
+            throw new IllegalArgumentException(
+                    "The property is already registered with type " 
+                    + existing.getName());
+        }
+        return existing != null;
+    }
+
+    /**
+     * Returns the column for a registered node property at a node stage.
+     * 
+     * @param propertyKey  the property key (must be registered).
+     * @param stage  the node stage.
+     * @param create  create the column if it does not exist yet (and make 
+     *     sure that it is not shared with a clone, so that it can be 
+     *     modified)?
+     * 
+     * @return The column (possibly {@code null} if {@code create} is 
+     *     {@code false}).
+     */
+    private PropertyColumn nodeColumn(String propertyKey, int stage, 
+            boolean create) {
+        if (stage < 0) {
+            return null;
+        }
+        if (!create) {
+            List<PropertyColumn> columns = this.nodeColumns.get(propertyKey);
+            return stage < columns.size() ? columns.get(stage) : null;
+        }
+        ownColumns();
+        List<PropertyColumn> columns = this.nodeColumns.get(propertyKey);
+        while (columns.size() <= stage) {
+            columns.add(newColumn(this.nodePropertyTypes.get(propertyKey)));
+        }
+        PropertyColumn column = columns.get(stage);
+        if (column.owner != this.owner) {
+            column = column.copy();
+            column.owner = this.owner;
+            columns.set(stage, column);
+        }
+        return column;
+    }
+
+    /**
+     * Returns the column for a registered flow property, making sure that 
+     * it is not shared with a clone so that it can be modified.
+     * 
+     * @param propertyKey  the property key (must be registered).
+     * 
+     * @return The column.
+     */
+    private PropertyColumn writableFlowColumn(String propertyKey) {
+        PropertyColumn column = this.flowColumns.get(propertyKey);
+        if (column.owner != this.owner) {
+            ownColumns();
+            column = column.copy();
+            column.owner = this.owner;
+            this.flowColumns.put(propertyKey, column);
+        }
+        return column;
+    }
+
+    /**
+     * Creates a new property column owned by this dataset.
+     * 
+     * @param type  the property type.
+     * 
+     * @return The column.
+     */
+    private PropertyColumn newColumn(Class<?> type) {
+        PropertyColumn column = PropertyColumn.create(type);
+        column.owner = this.owner;
+        return column;
+    }
+
+    /**
+     * Makes sure that the per-stage lists are not shared with a clone.
+     */
+    private void ownStageLists() {
+        if (this.stageListsOwner != this.owner) {
+            this.nodes = new ArrayList<>(this.nodes);
+            this.nodeIndices = new ArrayList<>(this.nodeIndices);
+            this.nodeTotals = new ArrayList<>(this.nodeTotals);
+            this.nodeOwners = this.nodeOwners.clone();
+            this.totalsOwners = this.totalsOwners.clone();
+            this.stageTotals = this.stageTotals.clone();
+            this.stageListsOwner = this.owner;
+        }
+    }
+
+    /**
+     * Makes sure that the node list and node index map at a node stage are
+     * not shared with a clone.
+     * 
+     * @param nodeStage  the node stage.
+     */
+    private void ownNodeStage(int nodeStage) {
+        ownStageLists();
+        if (this.nodeOwners[nodeStage] != this.owner) {
+            this.nodes.set(nodeStage, new ArrayList<>(
+                    this.nodes.get(nodeStage)));
+            this.nodeIndices.set(nodeStage, new HashMap<>(
+                    this.nodeIndices.get(nodeStage)));
+            this.nodeOwners[nodeStage] = this.owner;
+        }
+    }
+
+    /**
+     * Makes sure that the node totals at a node stage are not shared with a
+     * clone.
+     * 
+     * @param nodeStage  the node stage.
+     */
+    private void ownTotals(int nodeStage) {
+        ownStageLists();
+        if (this.totalsOwners[nodeStage] != this.owner) {
+            Map<K, double[]> copy = new HashMap<>();
+            for (Map.Entry<K, double[]> entry 
+                    : this.nodeTotals.get(nodeStage).entrySet()) {
+                copy.put(entry.getKey(), entry.getValue().clone());
+            }
+            this.nodeTotals.set(nodeStage, copy);
+            this.totalsOwners[nodeStage] = this.owner;
+        }
+    }
+
+    /**
+     * Makes sure that the (unregistered) node properties are not shared 
+     * with a clone.
+     */
+    private void ownNodeProperties() {
+        if (this.nodePropertiesOwner != this.owner) {
+            this.nodeProperties = copyPropertyMaps(this.nodeProperties);
+            this.nodePropertiesOwner = this.owner;
+        }
+    }
+
+    /**
+     * Makes sure that the (unregistered) flow properties are not shared 
+     * with a clone.
+     */
+    private void ownFlowProperties() {
+        if (this.flowPropertiesOwner != this.owner) {
+            this.flowProperties = copyPropertyMaps(this.flowProperties);
+            this.flowPropertiesOwner = this.owner;
+        }
+    }
+
+    /**
+     * Makes sure that the property registrations are not shared with a 
+     * clone (the columns are copied separately, when they are modified).
+     */
+    private void ownColumns() {
+        if (this.columnsOwner != this.owner) {
+            this.nodePropertyTypes = new HashMap<>(this.nodePropertyTypes);
+            Map<String, List<PropertyColumn>> copy = new HashMap<>();
+            for (Map.Entry<String, List<PropertyColumn>> entry 
+                    : this.nodeColumns.entrySet()) {
+                copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            }
+            this.nodeColumns = copy;
+            this.flowColumns = new HashMap<>(this.flowColumns);
+            this.columnsOwner = this.owner;
+        }
+    }
+
+    /**
+     * Returns a copy of a map of property maps.
+     * 
+     * @param <T> the key type.
+     * @param map  the map to copy.
+     * 
+     * @return The copy.
+     */
+    private static <T> Map<T, Map<String, Object>> copyPropertyMaps(
+            Map<T, Map<String, Object>> map) {
+        Map<T, Map<String, Object>> copy = new HashMap<>();
+        for (Map.Entry<T, Map<String, Object>> entry : map.entrySet()) {
+            copy.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a new map containing all the properties of a node, from both
+     * the property maps and the registered property columns.
+     * 
+     * @param nodeKey  the node key.
+     * 
+     * @return A new map.
+     */
+    private Map<String, Object> allNodeProperties(NodeKey<K> nodeKey) {
+        Map<String, Object> props = this.nodeProperties.get(nodeKey);
+        Map<String, Object> result = props != null ? new HashMap<>(props) 
+                : new HashMap<>();
+        int index = indexOf(nodeKey.getStage(), nodeKey.getNode());
+        if (index >= 0) {
+            for (String propertyKey : this.nodeColumns.keySet()) {
+                PropertyColumn column = nodeColumn(propertyKey, 
+                        nodeKey.getStage(), false);
+                if (column != null && column.isDefined(index)) {
+                    result.put(propertyKey, column.get(index));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new map containing all the properties of a flow, from both
+     * the property maps and the registered property columns.
+     * 
+     * @param flowKey  the flow key.
+     * 
+     * @return A new map.
+     */
+    private Map<String, Object> allFlowProperties(FlowKey<K> flowKey) {
+        Map<String, Object> props = this.flowProperties.get(flowKey);
+        Map<String, Object> result = props != null ? new HashMap<>(props) 
+                : new HashMap<>();
+        int index = flowIndex(flowKey);
+        if (index >= 0) {
+            for (Map.Entry<String, PropertyColumn> entry 
+                    : this.flowColumns.entrySet()) {
+                if (entry.getValue().isDefined(index)) {
+                    result.put(entry.getKey(), entry.getValue().get(index));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of flow stages.  A flow dataset always has one or
+     * more stages, so this method will return {@code 1} even for an empty
+     * dataset (one with no sources, destinations or flows defined).
+     * 
+     * @return The number of flow stages.
+     */
+    @Override
+    public int getStageCount() {
+        return this.nodes.size() - 1;
+    }
+    
+    /**
+     * Returns a set of keys for all the flows in the dataset.
+     * 
+     * @return A set. 
+     */
+    @Override
+    public Set<FlowKey<K>> getAllFlows() {
+        Set<FlowKey<K>> result = new HashSet<>();
+        for (int i = 0; i < this.flows.size(); i++) {
+            result.add(flowKey(i));
+        }
+        return result;
+    }
+    
+    /**
+     * Returns a list of flow keys for all the flows coming into this node.
+     * The flows are found with an index of the flows at each node, so this
+     * method takes time proportional to the number of flows returned (plus
+     * the time to index any flows added since the index was last used).
+     * 
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * 
+     * @return A list of flow keys (possibly empty but never {@code null}). 
+     */
+    public List<FlowKey<K>> getInFlows(NodeKey nodeKey) {
+        Args.nullNotPermitted(nodeKey, "nodeKey");
+        if (nodeKey.getStage() == 0) {
+            return Collections.EMPTY_LIST;
+        }
+        int stage = nodeKey.getStage() - 1;
+        @SuppressWarnings("unchecked")
+        int node = indexOf(nodeKey.getStage(), (K) nodeKey.getNode());
+        if (node < 0) {
+            return new ArrayList<>();
+        }
+        int[] positions = adjacency().getInFlows(stage, node);
+        List<FlowKey<K>> result = new ArrayList<>(positions.length);
+        for (int i : positions) {
+            result.add(flowKey(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns a list of flow keys for all the flows going out of this node.
+     * The flows are found with an index of the flows at each node, so this
+     * method takes time proportional to the number of flows returned (plus
+     * the time to index any flows added since the index was last used).
+     * 
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * 
+     * @return A list of flow keys (possibly empty but never {@code null}). 
+     */
+    public List<FlowKey> getOutFlows(NodeKey nodeKey) {
+        Args.nullNotPermitted(nodeKey, "nodeKey");
+        if (nodeKey.getStage() == this.getStageCount()) {
+            return Collections.EMPTY_LIST;
+        }
+        int stage = nodeKey.getStage();
+        @SuppressWarnings("unchecked")
+        int node = indexOf(stage, (K) nodeKey.getNode());
+        if (node < 0) {
+            return new ArrayList<>();
+        }
+        int[] positions = adjacency().getOutFlows(stage, node);
+        List<FlowKey> result = new ArrayList<>(positions.length);
+        for (int i : positions) {
+            result.add(flowKey(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the positions of the destinations that have a flow from the 
+     * specified source, in ascending order.  This is found with an index of
+     * the flows at each node, so it takes time proportional to the number 
+     * of flows from the source rather than the number of destinations.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * @param source  the source ({@code null} not permitted).
+     * 
+     * @return The destination positions (possibly empty but never 
+     *     {@code null}).
+     */
+    @Override
+    public int[] getDestinationIndices(int stage, K source) {
+        int node = indexOf(stage, source);
+        if (node < 0) {
+            return new int[0];
+        }
+        int[] result = adjacency().getOutFlows(stage, node);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = PackedFlowMap.destination(this.flows.keyAt(result[i]));
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns the index of the flows at each node, after adding any flows 
+     * that have been added to the dataset since the index was last used.
+     * 
+     * @return The index.
+     */
+    private FlowAdjacency adjacency() {
+        if (this.adjacency == null) {
+            this.adjacency = new FlowAdjacency();
+        }
+        this.adjacency.update(this.flows);
+        return this.adjacency;
+    }
+
+    /**
+     * Returns an immutable snapshot of the current content of this dataset
+     * (nodes, flows, node totals and properties).  The snapshot can be 
+     * safely read from other threads, for example by a plot that renders on
+     * the event dispatch thread, while this dataset continues to be updated.
+     * <br><br>
+     * This method must be called on the thread that modifies the dataset (or
+     * while holding the same lock).  After the first snapshot, each new 
+     * snapshot shares the unchanged parts of the previous one: only the node
+     * lists that gained nodes, the source rows containing changed flows, the
+     * pages of node rows and totals (a few hundred nodes each) that hold the
+     * affected nodes and the changed property entries are copied, so the 
+     * cost depends on the size of the change rather than the size of the 
+     * dataset (apart from one reference per page).  If nothing has changed,
+     * the previous snapshot is returned.
+     * 
+     * @return A snapshot (never {@code null}).
+     */
+    public FlowDatasetSnapshot<K> snapshot() {
+        FlowDatasetSnapshot<K> prev = this.snapshot;
+        if (prev != null && this.snapshotDirtyFlows.isEmpty() 
+                && this.snapshotDirtyNodeStages.isEmpty()
+                && this.snapshotDirtyNodeProperties.isEmpty()
+                && this.snapshotDirtyFlowProperties.isEmpty()) {
+            return prev;
+        }
+        List<List<K>> snapNodes = new ArrayList<>(this.nodes.size());
+        for (int s = 0; s < this.nodes.size(); s++) {
+            if (prev != null && s < prev.nodes.size() 
+                    && !this.snapshotDirtyNodeStages.get(s)) {
+                snapNodes.add(prev.nodes.get(s));
+            } else {
+                snapNodes.add(Collections.unmodifiableList(
+                        new ArrayList<>(this.nodes.get(s))));
+            }
+        }
+        List<PagedMap<K, Map<K, Number>>> snapRows;
+        List<PagedMap<K, double[]>> snapTotals;
+        PagedMap<NodeKey<K>, Map<String, Object>> snapNodeProps;
+        PagedMap<FlowKey<K>, Map<String, Object>> snapFlowProps;
+        if (prev == null) {
+            List<Map<K, Map<K, Number>>> rows = new ArrayList<>();
+            for (int s = 0; s < getStageCount(); s++) {
+                rows.add(new HashMap<>());
+            }
+            for (int i = 0; i < this.flows.size(); i++) {
+                long key = this.flows.keyAt(i);
+                int stage = PackedFlowMap.stage(key);
+                rows.get(stage).computeIfAbsent(
+                        this.nodes.get(stage).get(PackedFlowMap.source(key)), 
+                        k -> new HashMap<>()).put(this.nodes.get(stage + 1).get(
+                        PackedFlowMap.destination(key)), this.flows.valueAt(i));
+            }
+            snapRows = new ArrayList<>();
+            for (Map<K, Map<K, Number>> map : rows) {
+                snapRows.add(PagedMap.of(map));
+            }
+            snapTotals = new ArrayList<>();
+            for (Map<K, double[]> map : this.nodeTotals) {
+                Map<K, double[]> copy = new HashMap<>();
+                for (Map.Entry<K, double[]> entry : map.entrySet()) {
+                    copy.put(entry.getKey(), entry.getValue().clone());
+                }
+                snapTotals.add(PagedMap.of(copy));
+            }
+            Set<NodeKey<K>> nodeKeys = new HashSet<>(this.nodeProperties.keySet());
+            for (List<PropertyColumn> columns : this.nodeColumns.values()) {
+                for (int stage = 0; stage < columns.size(); stage++) {
+                    BitSet defined = columns.get(stage).getDefined();
+                    for (int i = defined.nextSetBit(0); i >= 0; 
+                            i = defined.nextSetBit(i + 1)) {
+                        nodeKeys.add(this.keys.nodeKey(stage, 
+                                this.nodes.get(stage).get(i)));
+                    }
+                }
+            }
+            Set<FlowKey<K>> flowKeys = new HashSet<>(this.flowProperties.keySet());
+            for (PropertyColumn column : this.flowColumns.values()) {
+                BitSet defined = column.getDefined();
+                for (int i = defined.nextSetBit(0); i >= 0; 
+                        i = defined.nextSetBit(i + 1)) {
+                    flowKeys.add(flowKey(i));
+                }
+            }
+            snapNodeProps = PagedMap.of(copyProperties(
+                    this::allNodeProperties, nodeKeys));
+            snapFlowProps = PagedMap.of(copyProperties(
+                    this::allFlowProperties, flowKeys));
+            this.snapshotDirtyFlows = new BitSet();
+            this.snapshotDirtyNodeStages = new BitSet();
+            this.snapshotDirtyNodeProperties = new HashSet<>();
+            this.snapshotDirtyFlowProperties = new HashSet<>();
+        } else {
+            snapRows = new ArrayList<>(prev.rows);
+            snapTotals = new ArrayList<>(prev.nodeTotals);
+            while (snapRows.size() < getStageCount()) {
+                snapRows.add(PagedMap.empty());
+            }
+            while (snapTotals.size() < this.nodes.size()) {
+                snapTotals.add(PagedMap.empty());
+            }
+            // collect a new row for each source with changed flows and new
+            // totals for the nodes at either end, then replace them in the
+            // pages that hold them
+            List<Map<K, Map<K, Number>>> changedRows = new ArrayList<>();
+            for (int s = 0; s < getStageCount(); s++) {
+                changedRows.add(new HashMap<>());
+            }
+            List<Map<K, double[]>> changedTotals = new ArrayList<>();
+            for (int n = 0; n < this.nodes.size(); n++) {
+                changedTotals.add(new HashMap<>());
+            }
+            for (int i = this.snapshotDirtyFlows.nextSetBit(0); i >= 0; 
+                    i = this.snapshotDirtyFlows.nextSetBit(i + 1)) {
+                long packed = this.flows.keyAt(i);
+                int stage = PackedFlowMap.stage(packed);
+                K source = this.nodes.get(stage).get(
+                        PackedFlowMap.source(packed));
+                K destination = this.nodes.get(stage + 1).get(
+                        PackedFlowMap.destination(packed));
+                Map<K, Number> row = changedRows.get(stage).get(source);
+                if (row == null) {
+                    Map<K, Number> old = snapRows.get(stage).get(source);
+                    row = old != null ? new HashMap<>(old) : new HashMap<>();
+                    changedRows.get(stage).put(source, row);
+                }
+                row.put(destination, this.flows.valueAt(i));
+                changedTotals.get(stage).put(source, 
+                        this.nodeTotals.get(stage).get(source).clone());
+                changedTotals.get(stage + 1).put(destination, 
+                        this.nodeTotals.get(stage + 1).get(destination).clone());
+            }
+            for (int s = 0; s < changedRows.size(); s++) {
+                snapRows.set(s, snapRows.get(s).withAll(changedRows.get(s)));
+            }
+            for (int n = 0; n < changedTotals.size(); n++) {
+                snapTotals.set(n, 
+                        snapTotals.get(n).withAll(changedTotals.get(n)));
+            }
+            snapNodeProps = prev.nodeProperties.withAll(copyProperties(
+                    this::allNodeProperties, 
+                    this.snapshotDirtyNodeProperties));
+            snapFlowProps = prev.flowProperties.withAll(copyProperties(
+                    this::allFlowProperties, 
+                    this.snapshotDirtyFlowProperties));
+            this.snapshotDirtyFlows.clear();
+            this.snapshotDirtyNodeStages.clear();
+            this.snapshotDirtyNodeProperties.clear();
+            this.snapshotDirtyFlowProperties.clear();
+        }
+        this.snapshot = new FlowDatasetSnapshot<>(snapNodes, snapRows, 
+                snapTotals, this.stageTotals.clone(), snapNodeProps, 
+                snapFlowProps, this.fingerprint);
+        return this.snapshot;
+    }
+
+    /**
+     * Copies the properties for the specified keys into a new map, so that
+     * the copy does not share any mutable state with this dataset.
+     * 
+     * @param <T> the key type.
+     * @param source  a function that returns a new map holding all the 
+     *     properties for a key.
+     * @param keys  the keys to copy.
+     * 
+     * @return A new map.
+     */
+    private static <T> Map<T, Map<String, Object>> copyProperties(
+            Function<T, Map<String, Object>> source, Set<T> keys) {
+        Map<T, Map<String, Object>> target = new HashMap<>();
+        for (T key : keys) {
+            target.put(key, source.apply(key));
+        }
+        return target;
+    }
+
+    /**
+     * Starts an update.  Until the matching call to {@link #endUpdate()}, 
+     * changes to the dataset do not send change events to registered 
+     * listeners.  Updates can be nested, in which case a single event is 
+     * sent when the outermost update ends (and only if the dataset was 
+     * changed).
+     * 
+     * @see #endUpdate() 
+     * @see #update() 
+     */
+    public void beginUpdate() {
+        this.updateDepth++;
+    }
+
+    /**
+     * Ends an update that was started with {@link #beginUpdate()}.  If this
+     * ends the outermost update and the dataset was changed during the 
+     * update, a single change event is sent to all registered listeners.
+     * 
+     * @throws IllegalStateException if there is no update in progress.
+     */
+    public void endUpdate() {
+        if (this.updateDepth == 0) {
+            throw new IllegalStateException("There is no update in progress.");
+        }
+        this.updateDepth--;
+        if (this.updateDepth == 0 && this.changePending) {
+            sendChangeEvent();
+        }
+    }
+
+    /**
+     * Returns {@code true} if an update is in progress, and {@code false}
+     * otherwise.
+     * 
+     * @return A boolean.
+     */
+    public boolean isUpdating() {
+        return this.updateDepth > 0;
+    }
+
+    /**
+     * Starts an update and returns a handle that ends it when closed, for use 
+     * in a try-with-resources statement:
+     * <pre>
+     * try (DefaultFlowDataset.Update u = dataset.update()) {
+     *     dataset.setFlow(0, "A", "Z", 1.0);
+     *     dataset.setFlow(0, "B", "Z", 2.0);
+     * } // one change event is sent here</pre>
+     * 
+     * @return The update handle (never {@code null}).
+     */
+    public Update update() {
+        beginUpdate();
+        return new Update();
+    }
+
+    /**
+     * Sends a change event to all registered listeners, unless an update is
+     * in progress in which case the event is deferred until the update ends.
+     */
+    @Override
+    protected void fireDatasetChanged() {
+        if (this.updateDepth > 0) {
+            this.changePending = true;
+        } else {
+            sendChangeEvent();
+        }
+    }
+
+    /**
+     * Sends a {@link FlowDatasetChangeEvent} describing the changes recorded
+     * since the last event to all registered listeners (or a plain 
+     * {@code DatasetChangeEvent} if no changes were recorded).
+     */
+    private void sendChangeEvent() {
+        this.changePending = false;
+        FlowDatasetChangeEvent<K> event = this.pendingEvent;
+        this.pendingEvent = null;
+        if (event == null) {
+            super.fireDatasetChanged();
+        } else if (getNotify()) {
+            event.close(nodeCounts());
+            notifyListeners(event);
+        }
+    }
+
+    /**
+     * Returns the event that records the changes made since the last event
+     * was sent, creating it if necessary.
+     * 
+     * @return The event.
+     */
+    private FlowDatasetChangeEvent<K> changes() {
+        this.version++;
+        if (this.pendingEvent == null) {
+            this.pendingEvent = new FlowDatasetChangeEvent<>(this, 
+                    nodeCounts());
+        }
+        return this.pendingEvent;
+    }
+
+    /**
+     * Returns the fingerprint for the content of this dataset.  This is a 
+     * hash of the nodes at each stage (in order) and the flow values, which
+     * is maintained as the dataset is modified, so this method does not need
+     * to iterate over the nodes or flows.  Two datasets with the same nodes
+     * and flows have the same fingerprint, independent of the order in which
+     * the flows were set.  Properties are not included.
+     * 
+     * @return The fingerprint.
+     * 
+     * @see #hashCode() 
+     */
+    public long getFingerprint() {
+        return this.fingerprint;
+    }
+
+    /**
+     * Returns the version of this dataset, a number that is incremented 
+     * whenever the dataset is modified (including changes to properties).  
+     * Comparing the version with a value recorded earlier is a cheap way to 
+     * tell whether a result computed from the dataset is out of date.
+     * 
+     * @return The version.
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Returns the number of nodes at each node stage.
+     * 
+     * @return A new array.
+     */
+    private int[] nodeCounts() {
+        int[] result = new int[this.nodes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = this.nodes.get(i).size();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the (shared) key for the node at the specified position.
+     * 
+     * @param stage  the node stage.
+     * @param index  the position of the node within the stage.
+     * 
+     * @return The node key.
+     */
+    NodeKey<K> nodeKey(int stage, int index) {
+        return this.keys.nodeKey(stage, this.nodes.get(stage).get(index));
+    }
+
+    /**
+     * A read-only list view of the nodes at one stage, which fails fast if
+     * the dataset is modified.
+     */
+    private final class NodeListView extends AbstractList<K> 
+            implements RandomAccess {
+
+        /** The backing list. */
+        private final List<K> list;
+
+        /** The modification count when the view was created. */
+        private final int expectedModCount;
+
+        NodeListView(List<K> list) {
+            this.list = list;
+            this.expectedModCount = DefaultFlowDataset.this.modCount;
+        }
+
+        @Override
+        public K get(int index) {
+            checkForModification(this.expectedModCount);
+            return this.list.get(index);
+        }
+
+        @Override
+        public int size() {
+            checkForModification(this.expectedModCount);
+            return this.list.size();
+        }
+    }
+
+    /**
+     * A read-only set view of all the node keys, which fails fast if the 
+     * dataset is modified.  Node keys are created as the view is iterated.
+     */
+    private final class NodeSetView extends AbstractSet<NodeKey<K>> {
+
+        /** The modification count when the view was created. */
+        private final int expectedModCount;
+
+        NodeSetView() {
+            this.expectedModCount = DefaultFlowDataset.this.modCount;
+        }
+
+        @Override
+        public Iterator<NodeKey<K>> iterator() {
+            checkForModification(this.expectedModCount);
+            return new Iterator<NodeKey<K>>() {
+                private int stage;
+                private int index;
+
+                @Override
+                public boolean hasNext() {
+                    checkForModification(expectedModCount);
+                    while (this.stage < nodes.size() 
+                            && this.index >= nodes.get(this.stage).size()) {
+                        this.stage++;
+                        this.index = 0;
+                    }
+                    return this.stage < nodes.size();
+                }
+
+                @Override
+                public NodeKey<K> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    K node = nodes.get(this.stage).get(this.index++);
+                    return keys.nodeKey(this.stage, node);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            checkForModification(this.expectedModCount);
+            int result = 0;
+            for (List<K> list : nodes) {
+                result += list.size();
+            }
+            return result;
+        }
+
+        @Override
+        public boolean contains(Object obj) {
+            checkForModification(this.expectedModCount);
+            if (!(obj instanceof NodeKey)) {
+                return false;
+            }
+            NodeKey<?> key = (NodeKey<?>) obj;
+            int stage = key.getStage();
+            return stage >= 0 && stage < nodes.size() 
+                    && nodeIndices.get(stage).containsKey(key.getNode());
+        }
+    }
+
+    /**
+     * A read-only set view of all the flow keys, which fails fast if the 
+     * dataset is modified.
+     */
+    private final class FlowSetView extends AbstractSet<FlowKey<K>> {
+
+        /** The modification count when the view was created. */
+        private final int expectedModCount;
+
+        FlowSetView() {
+            this.expectedModCount = DefaultFlowDataset.this.modCount;
+        }
+
+        @Override
+        public Iterator<FlowKey<K>> iterator() {
+            checkForModification(this.expectedModCount);
+            return new Iterator<FlowKey<K>>() {
+                private int index;
+
+                @Override
+                public boolean hasNext() {
+                    checkForModification(expectedModCount);
+                    return this.index < flows.size();
+                }
+
+                @Override
+                public FlowKey<K> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return flowKey(this.index++);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            checkForModification(this.expectedModCount);
+            return flows.size();
+        }
+
+        @Override
+        public boolean contains(Object obj) {
+            checkForModification(this.expectedModCount);
+            return obj instanceof FlowKey && flowIndex((FlowKey<?>) obj) >= 0;
+        }
+    }
+
+    /**
+     * Throws a {@code ConcurrentModificationException} if nodes or flows have
+     * been added to the dataset since a view was created.
+     * 
+     * @param expectedModCount  the modification count when the view was 
+     *     created.
+     */
+    private void checkForModification(int expectedModCount) {
+        if (this.modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * A handle for an update in progress, returned by 
+     * {@link DefaultFlowDataset#update()}.  Closing the handle ends the 
+     * update, closing it a second time has no effect.
+     */
+    public final class Update implements AutoCloseable {
+
+        /** A flag that records whether this update has ended. */
+        private boolean closed;
+
+        private Update() {
+        }
+
+        /**
+         * Ends the update.
+         */
+        @Override
+        public void close() {
+            if (!this.closed) {
+                this.closed = true;
+                endUpdate();
+            }
+        }
+    }
+
+    /**
+     * Returns a clone of the dataset.  The clone shares its storage with 
+     * this dataset until either of them is modified, so this method runs in
+     * constant time.  The first change to a node stage, to the totals for a
+     * node stage, to a property column or to a page of flow values copies 
+     * just that part of the storage, so the memory used by a clone grows 
+     * with the changes made to it rather than with the size of the dataset.
+     * Properties are isolated in the same way.
+     * 
+     * @return A clone of the dataset.
+     * 
+     * @throws CloneNotSupportedException if there is a problem with cloning.
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        DefaultFlowDataset<K> clone = (DefaultFlowDataset) super.clone();
+        clone.updateDepth = 0;
+        clone.changePending = false;
+        clone.pendingEvent = null;
+        clone.adjacency = null;
+        clone.snapshot = null;
+        clone.snapshotDirtyFlows = null;
+        clone.snapshotDirtyNodeStages = null;
+        clone.snapshotDirtyNodeProperties = null;
+        clone.snapshotDirtyFlowProperties = null;
+        clone.keys = this.keys.copy();
+        clone.flows = this.flows.copy();
+        // the remaining storage is shared, neither dataset owns it now
+        this.owner = OWNERS.incrementAndGet();
+        clone.owner = OWNERS.incrementAndGet();
+        return clone;
+    }
+
+    /**
+     * Tests this dataset for equality with an arbitrary object.  This method
+     * will return {@code true} if the object implements the 
+     * {@link FlowDataset} and defines the exact same set of nodes and flows 
+     * as this dataset.  When the object is a {@code DefaultFlowDataset} or a
+     * {@link FlowDatasetSnapshot}, the fingerprints are compared first so 
+     * that most mismatches are rejected without looking at the flows.
+     * 
+     * @param obj  the object to test equality against ({@code null} permitted).
+     * 
+     * @return A boolean. 
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FlowDataset)) {
+            return false;
+        }
+        if (obj instanceof DefaultFlowDataset) {
+            return equalsDefault((DefaultFlowDataset) obj);
+        }
+        if (obj instanceof FlowDatasetSnapshot 
+                && ((FlowDatasetSnapshot) obj).fingerprint != this.fingerprint) {
+            return false;
+        }
+        final FlowDataset other = (FlowDataset) obj;
+        if (other.getStageCount() != getStageCount()) {
+            return false;
+        }
+        for (int stage = 0; stage < getStageCount(); stage++) {
+            List<K> sources = this.nodes.get(stage);
+            List<K> destinations = this.nodes.get(stage + 1);
+            if (!Objects.equals(other.getSourcesView(stage), sources)) {
+                return false;
+            }
+            if (!Objects.equals(other.getDestinationsView(stage), destinations)) {
+                return false;
+            }
+            for (K source : sources) {
+                for (K destination : destinations) {
+                    if (!Objects.equals(other.getFlow(stage, source, destination), getFlow(stage, source, destination))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tests this dataset for equality with another {@code DefaultFlowDataset}.
+     * Once the node lists are known to be equal, the flows in both datasets
+     * have the same packed keys, so the flows can be compared directly.
+     * 
+     * @param other  the other dataset.
+     * 
+     * @return A boolean. 
+     */
+    private boolean equalsDefault(DefaultFlowDataset<?> other) {
+        if (this.fingerprint != other.fingerprint 
+                || this.flows.size() != other.flows.size()
+                || !this.nodes.equals(other.nodes)) {
+            return false;
+        }
+        for (int i = 0; i < this.flows.size(); i++) {
+            int j = other.flows.indexOf(this.flows.keyAt(i));
+            if (j < 0 || Double.doubleToLongBits(this.flows.valueAt(i)) 
+                    != Double.doubleToLongBits(other.flows.valueAt(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code for this dataset, derived from the fingerprint (so
+     * this method does not need to iterate over the nodes or flows).  The
+     * result is the same as 
+     * {@link FlowDatasetUtils#calculateHashCode(FlowDataset)}, so it is 
+     * consistent with the hash codes of the other {@link FlowDataset} 
+     * implementations that this dataset can be equal to.
+     * 
+     * @return A hash code.
+     */
+    @Override
+    public int hashCode() {
+        return FlowDatasetUtils.hashCode(this.fingerprint, getStageCount());
+    }
+
+    /**
+     * Provides serialization support.  The stream may contain other 
+     * datasets that share storage with this one, so none of the storage is
+     * treated as owned until it has been copied.
+     *
+     * @param stream  the input stream.
+     *
+     * @throws IOException  if there is an I/O error.
+     * @throws ClassNotFoundException  if there is a classpath problem.
+     */
+    private void readObject(ObjectInputStream stream) 
+            throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        this.owner = OWNERS.incrementAndGet();
+        this.nodeOwners = new long[this.nodes.size()];
+        this.totalsOwners = new long[this.nodes.size()];
     }
 
 }
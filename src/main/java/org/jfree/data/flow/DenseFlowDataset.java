@@ -0,0 +1,572 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ---------------------
+ * DenseFlowDataset.java
+ * ---------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.jfree.chart.util.Args;
+import org.jfree.chart.util.PublicCloneable;
+import org.jfree.data.general.AbstractDataset;
+
+/**
+ * A flow dataset that stores the flows for each stage in a primitive
+ * {@code double} matrix.  Node keys are mapped to an integer index within
+ * each stage, so no key objects are created to store or look up a flow.  This
+ * is a good choice for datasets where a large proportion of the possible
+ * source to destination flows are defined.  For sparsely populated stages,
+ * {@link DefaultFlowDataset} will use less memory.
+ *
+ * @param <K> the type for the keys used to identify sources and destinations
+ *     (instances should be immutable, {@code String} is a good default choice).
+ */
+public class DenseFlowDataset<K extends Comparable<K>> extends AbstractDataset
+        implements FlowDataset<K>, PublicCloneable, Serializable {
+
+    /**
+     * The nodes at each stage.  The list will have N+1 entries, where N is
+     * the number of stages - the last entry contains the destination nodes for
+     * the final stage.
+     */
+    private List<List<K>> nodes;
+
+    /**
+     * The index of each node within its stage (there is one map for each
+     * entry in the {@code nodes} list).
+     */
+    private List<Map<K, Integer>> nodeIndices;
+
+    /** The flow matrix for each stage. */
+    private List<FlowMatrix> matrices;
+
+    /** Node properties. */
+    private Map<NodeKey<K>, Map<String, Object>> nodeProperties;
+
+    /** Flow properties. */
+    private Map<FlowKey<K>, Map<String, Object>> flowProperties;
+
+    /**
+     * Creates a new dataset that is initially empty.
+     */
+    public DenseFlowDataset() {
+        this.nodes = new ArrayList<>();
+        this.nodes.add(new ArrayList<>());
+        this.nodes.add(new ArrayList<>());
+        this.nodeIndices = new ArrayList<>();
+        this.nodeIndices.add(new HashMap<>());
+        this.nodeIndices.add(new HashMap<>());
+        this.matrices = new ArrayList<>();
+        this.matrices.add(new FlowMatrix());
+        this.nodeProperties = new HashMap<>();
+        this.flowProperties = new HashMap<>();
+    }
+
+    /**
+     * Returns the number of flow stages.  A flow dataset always has one or
+     * more stages, so this method will return {@code 1} even for an empty
+     * dataset (one with no sources, destinations or flows defined).
+     *
+     * @return The number of flow stages.
+     */
+    @Override
+    public int getStageCount() {
+        return this.nodes.size() - 1;
+    }
+
+    /**
+     * Returns a list of the source nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSources(int stage) {
+        return new ArrayList<>(this.nodes.get(stage));
+    }
+
+    /**
+     * Returns a list of the destination nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of destination nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getDestinations(int stage) {
+        return new ArrayList<>(this.nodes.get(stage + 1));
+    }
+
+    /**
+     * Returns an unmodifiable view of the source nodes for the specified
+     * stage.  The view is backed by the dataset and no copy is made.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSourcesView(int stage) {
+        return Collections.unmodifiableList(this.nodes.get(stage));
+    }
+
+    /**
+     * Returns an unmodifiable view of the destination nodes for the
+     * specified stage.  The view is backed by the dataset and no copy is
+     * made.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of destination nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getDestinationsView(int stage) {
+        return Collections.unmodifiableList(this.nodes.get(stage + 1));
+    }
+
+    /**
+     * Returns the set of keys for all the nodes in the dataset.
+     *
+     * @return The set of keys for all the nodes in the dataset (possibly empty
+     *     but never {@code null}).
+     */
+    @Override
+    public Set<NodeKey<K>> getAllNodes() {
+        Set<NodeKey<K>> result = new HashSet<>();
+        for (int s = 0; s < this.nodes.size(); s++) {
+            for (K key : this.nodes.get(s)) {
+                result.add(new NodeKey<>(s, key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of a property, if specified, for the specified node.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the node key ({@code null} not permitted).
+     *
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getNodeProperty(NodeKey<K> nodeKey, String propertyKey) {
+        Map<String, Object> props = this.nodeProperties.get(nodeKey);
+        if (props != null) {
+            return props.get(propertyKey);
+        }
+        return null;
+    }
+
+    /**
+     * Sets a property for the specified node and notifies registered listeners
+     * that the dataset has changed.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * @param value  the property value.
+     */
+    public void setNodeProperty(NodeKey<K> nodeKey, String propertyKey, Object value) {
+        Map<String, Object> props = this.nodeProperties.get(nodeKey);
+        if (props == null) {
+            props = new HashMap<>();
+            this.nodeProperties.put(nodeKey, props);
+        }
+        props.put(propertyKey, value);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns the flow between a source node and a destination node at a
+     * specified stage.  This must be 0 or greater.  The dataset can return
+     * {@code null} to represent an unknown value.
+     *
+     * @param stage  the stage index (0 to {@code getStageCount()} - 1).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     *
+     * @return The flow (zero or greater, possibly {@code null}).
+     */
+    @Override
+    public Number getFlow(int stage, K source, K destination) {
+        int s = indexOf(stage, source);
+        int d = indexOf(stage + 1, destination);
+        if (s < 0 || d < 0) {
+            return null;
+        }
+        FlowMatrix m = this.matrices.get(stage);
+        if (!m.isDefined(s, d)) {
+            return null;
+        }
+        return m.get(s, d);
+    }
+
+    /**
+     * Returns the flow between a source node and a destination node at a
+     * specified stage as a primitive value, or {@code Double.NaN} if the
+     * flow is not defined.  Unlike {@link #getFlow(int, Comparable, Comparable)}
+     * this method does not create any objects.
+     *
+     * @param stage  the stage index (0 to {@code getStageCount()} - 1).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     *
+     * @return The flow, or {@code Double.NaN}.
+     */
+    public double getFlowValue(int stage, K source, K destination) {
+        int s = indexOf(stage, source);
+        int d = indexOf(stage + 1, destination);
+        if (s < 0 || d < 0) {
+            return Double.NaN;
+        }
+        FlowMatrix m = this.matrices.get(stage);
+        return m.isDefined(s, d) ? m.get(s, d) : Double.NaN;
+    }
+
+    /**
+     * Sets the flow between a source node and a destination node at the
+     * specified stage.  A new stage will be added if {@code stage} is equal
+     * to {@code getStageCount()}.
+     *
+     * @param stage  the stage (0 to {@code getStageCount()}.
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * @param flow  the flow (0 or greater).
+     */
+    public void setFlow(int stage, K source, K destination, double flow) {
+        Args.requireInRange(stage, "stage", 0, getStageCount());
+        Args.nullNotPermitted(source, "source");
+        Args.nullNotPermitted(destination, "destination");
+        if (stage > this.nodes.size() - 2) {
+            this.nodes.add(new ArrayList<>());
+            this.nodeIndices.add(new HashMap<>());
+            this.matrices.add(new FlowMatrix());
+        }
+        int s = addNode(stage, source);
+        int d = addNode(stage + 1, destination);
+        this.matrices.get(stage).set(s, d, flow);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns the index of a node within the specified stage.
+     *
+     * @param nodeStage  the stage for the node (0 to {@code getStageCount()}).
+     * @param key  the node key.
+     *
+     * @return The index, or {@code -1}.
+     */
+    private int indexOf(int nodeStage, K key) {
+        Integer index = this.nodeIndices.get(nodeStage).get(key);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Adds a node (if it is not already present) and returns its index.
+     *
+     * @param nodeStage  the stage for the node (0 to {@code getStageCount()}).
+     * @param key  the node key ({@code null} not permitted).
+     *
+     * @return The index of the node within its stage.
+     */
+    private int addNode(int nodeStage, K key) {
+        Map<K, Integer> indices = this.nodeIndices.get(nodeStage);
+        Integer index = indices.get(key);
+        if (index == null) {
+            List<K> list = this.nodes.get(nodeStage);
+            index = list.size();
+            list.add(key);
+            indices.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the value of a property, if specified, for the specified flow.
+     *
+     * @param flowKey  flowKey ({@code null} not permitted).
+     *
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getFlowProperty(FlowKey<K> flowKey, String propertyKey) {
+        Map<String, Object> props = this.flowProperties.get(flowKey);
+        if (props != null) {
+            return props.get(propertyKey);
+        }
+        return null;
+    }
+
+    /**
+     * Sets a property for the specified flow and notifies registered listeners
+     * that the dataset has changed.
+     *
+     * @param flowKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * @param value  the property value.
+     */
+    public void setFlowProperty(FlowKey<K> flowKey, String propertyKey, Object value) {
+        Map<String, Object> props = this.flowProperties.get(flowKey);
+        if (props == null) {
+            props = new HashMap<>();
+            this.flowProperties.put(flowKey, props);
+        }
+        props.put(propertyKey, value);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns a set of keys for all the flows in the dataset.
+     *
+     * @return A set.
+     */
+    @Override
+    public Set<FlowKey<K>> getAllFlows() {
+        Set<FlowKey<K>> result = new HashSet<>();
+        for (int stage = 0; stage < this.matrices.size(); stage++) {
+            List<K> sources = this.nodes.get(stage);
+            List<K> destinations = this.nodes.get(stage + 1);
+            FlowMatrix m = this.matrices.get(stage);
+            for (int s = 0; s < sources.size(); s++) {
+                for (int d = 0; d < destinations.size(); d++) {
+                    if (m.isDefined(s, d)) {
+                        result.add(new FlowKey<>(stage, sources.get(s),
+                                destinations.get(d)));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a clone of the dataset.
+     *
+     * @return A clone of the dataset.
+     *
+     * @throws CloneNotSupportedException if there is a problem with cloning.
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        @SuppressWarnings("unchecked")
+        DenseFlowDataset<K> clone = (DenseFlowDataset<K>) super.clone();
+        clone.nodes = new ArrayList<>();
+        for (List<K> list : this.nodes) {
+            clone.nodes.add(new ArrayList<>(list));
+        }
+        clone.nodeIndices = new ArrayList<>();
+        for (Map<K, Integer> map : this.nodeIndices) {
+            clone.nodeIndices.add(new HashMap<>(map));
+        }
+        clone.matrices = new ArrayList<>();
+        for (FlowMatrix m : this.matrices) {
+            clone.matrices.add(m.copy());
+        }
+        clone.nodeProperties = new HashMap<>();
+        for (Map.Entry<NodeKey<K>, Map<String, Object>> e : this.nodeProperties.entrySet()) {
+            clone.nodeProperties.put(e.getKey(), new HashMap<>(e.getValue()));
+        }
+        clone.flowProperties = new HashMap<>();
+        for (Map.Entry<FlowKey<K>, Map<String, Object>> e : this.flowProperties.entrySet()) {
+            clone.flowProperties.put(e.getKey(), new HashMap<>(e.getValue()));
+        }
+        return clone;
+    }
+
+    /**
+     * Tests this dataset for equality with an arbitrary object.  This method
+     * will return {@code true} if the object implements the
+     * {@link FlowDataset} and defines the exact same set of nodes and flows
+     * as this dataset.
+     *
+     * @param obj  the object to test equality against ({@code null} permitted).
+     *
+     * @return A boolean.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FlowDataset)) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        final FlowDataset<K> other = (FlowDataset<K>) obj;
+        if (other.getStageCount() != getStageCount()) {
+            return false;
+        }
+        for (int stage = 0; stage < getStageCount(); stage++) {
+            List<K> sources = this.nodes.get(stage);
+            List<K> destinations = this.nodes.get(stage + 1);
+            if (!Objects.equals(other.getSourcesView(stage), sources)) {
+                return false;
+            }
+            if (!Objects.equals(other.getDestinationsView(stage), destinations)) {
+                return false;
+            }
+            for (K source : sources) {
+                for (K destination : destinations) {
+                    if (!Objects.equals(other.getFlow(stage, source, destination), getFlow(stage, source, destination))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code for the content of this dataset (see 
+     * {@link FlowDatasetUtils#calculateHashCode(FlowDataset)}).
+     * 
+     * @return A hash code.
+     */
+    @Override
+    public int hashCode() {
+        return FlowDatasetUtils.calculateHashCode(this);
+    }
+
+    /**
+     * A row-major matrix of flow values for a single stage, with a bitmap
+     * recording which cells hold a defined value.  The matrix grows (by
+     * doubling its capacity) as nodes are added to the stage.
+     */
+    private static class FlowMatrix implements Serializable {
+
+        /** The row capacity (number of source nodes that fit). */
+        private int rowCapacity;
+
+        /** The column capacity (number of destination nodes that fit). */
+        private int columnCapacity;
+
+        /** The flow values (row-major order). */
+        private double[] values;
+
+        /** The cells that hold a defined flow value. */
+        private BitSet defined;
+
+        /**
+         * Creates a new empty matrix.
+         */
+        FlowMatrix() {
+            this.values = new double[0];
+            this.defined = new BitSet();
+        }
+
+        boolean isDefined(int row, int column) {
+            return row < this.rowCapacity && column < this.columnCapacity
+                    && this.defined.get(row * this.columnCapacity + column);
+        }
+
+        double get(int row, int column) {
+            return this.values[row * this.columnCapacity + column];
+        }
+
+        void set(int row, int column, double value) {
+            if (row >= this.rowCapacity || column >= this.columnCapacity) {
+                grow(row + 1, column + 1);
+            }
+            int i = row * this.columnCapacity + column;
+            this.values[i] = value;
+            this.defined.set(i);
+        }
+
+        /**
+         * Enlarges the matrix so that it can hold at least the specified
+         * number of rows and columns, preserving the existing values.
+         *
+         * @param minRows  the minimum row capacity.
+         * @param minColumns  the minimum column capacity.
+         */
+        private void grow(int minRows, int minColumns) {
+            int rows = this.rowCapacity;
+            if (minRows > rows) {
+                rows = Math.max(minRows, rows * 2);
+            }
+            int columns = this.columnCapacity;
+            if (minColumns > columns) {
+                columns = Math.max(minColumns, columns * 2);
+            }
+            long size = (long) rows * columns;
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException(
+                        "Flow matrix capacity exceeded: " + rows + " x " + columns);
+            }
+            double[] newValues = new double[(int) size];
+            BitSet newDefined = new BitSet((int) size);
+            for (int r = 0; r < this.rowCapacity; r++) {
+                int from = r * this.columnCapacity;
+                int to = r * columns;
+                System.arraycopy(this.values, from, newValues, to,
+                        this.columnCapacity);
+                for (int c = this.defined.nextSetBit(from);
+                        c >= 0 && c < from + this.columnCapacity;
+                        c = this.defined.nextSetBit(c + 1)) {
+                    newDefined.set(to + (c - from));
+                }
+            }
+            this.rowCapacity = rows;
+            this.columnCapacity = columns;
+            this.values = newValues;
+            this.defined = newDefined;
+        }
+
+        /**
+         * Returns an independent copy of this matrix.
+         *
+         * @return A copy.
+         */
+        FlowMatrix copy() {
+            FlowMatrix copy = new FlowMatrix();
+            copy.rowCapacity = this.rowCapacity;
+            copy.columnCapacity = this.columnCapacity;
+            copy.values = Arrays.copyOf(this.values, this.values.length);
+            copy.defined = (BitSet) this.defined.clone();
+            return copy;
+        }
+    }
+
+}
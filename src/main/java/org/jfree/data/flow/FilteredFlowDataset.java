@@ -0,0 +1,553 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ------------------------
+ * FilteredFlowDataset.java
+ * ------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jfree.chart.util.Args;
+import org.jfree.data.general.AbstractDataset;
+import org.jfree.data.general.DatasetChangeEvent;
+import org.jfree.data.general.DatasetChangeListener;
+
+/**
+ * A read-only view of a {@link FlowDataset} that contains only the largest
+ * flows at each stage: at most {@code topK} flows per stage, and only flows
+ * with a value greater than or equal to a threshold.  The view contains the
+ * nodes that have at least one of the selected flows (in the same order as
+ * the source dataset), and node and flow properties are read from the 
+ * source dataset, so the view can be rendered directly by a 
+ * {@link org.jfree.chart.plot.flow.FlowPlot}.
+ * <br><br>
+ * The view is backed by a {@link FlowValueIndex} (which can be shared by 
+ * several views of the same dataset), so changing {@code topK} or the 
+ * threshold does not copy the dataset: the number of flows selected at 
+ * each stage is found with a binary search, and the node lists and totals
+ * are computed from the selected flows only, when they are next needed.
+ * The inflow and outflow for each node are the totals of the selected 
+ * flows.
+ *
+ * @param <K> the type for the keys used to identify sources and destinations
+ *     (instances should be immutable, {@code String} is a good default choice).
+ */
+public class FilteredFlowDataset<K extends Comparable<K>> 
+        extends AbstractDataset implements FlowDataset<K>, 
+        DatasetChangeListener {
+
+    /** The index for the source dataset. */
+    private final FlowValueIndex<K> index;
+
+    /** The maximum number of flows per stage. */
+    private int topK;
+
+    /** The minimum flow value. */
+    private double threshold;
+
+    /** 
+     * The number of flows selected at each stage ({@code null} if it needs
+     * to be recalculated).
+     */
+    private transient int[] counts;
+
+    /** The nodes at each node stage ({@code null} until required). */
+    private transient List<List<K>> nodes;
+
+    /** 
+     * The inflow and outflow of the selected flows for each node, at each 
+     * node stage ({@code null} until required).
+     */
+    private transient List<Map<K, double[]>> nodeTotals;
+
+    /**
+     * Creates a new view of the dataset indexed by {@code index}, initially
+     * selecting all flows.  The view registers itself as a listener on the
+     * source dataset, call {@link #dispose()} when the view is no longer 
+     * needed.
+     * 
+     * @param index  the index ({@code null} not permitted).
+     */
+    public FilteredFlowDataset(FlowValueIndex<K> index) {
+        Args.nullNotPermitted(index, "index");
+        this.index = index;
+        this.topK = Integer.MAX_VALUE;
+        this.threshold = Double.NEGATIVE_INFINITY;
+        index.getSource().addChangeListener(this);
+    }
+
+    /**
+     * Returns the index that backs this view.
+     * 
+     * @return The index (never {@code null}).
+     */
+    public FlowValueIndex<K> getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Stops this view from listening for changes to the source dataset, so
+     * that it can be garbage collected while the source dataset is still in
+     * use.  The view will not reflect any later changes to the source 
+     * dataset.  The index is not disposed, since it may be shared by other
+     * views (see {@link FlowValueIndex#dispose()}).
+     */
+    public void dispose() {
+        this.index.getSource().removeChangeListener(this);
+    }
+
+    /**
+     * Returns the maximum number of flows to include at each stage.
+     * 
+     * @return The maximum number of flows ({@code Integer.MAX_VALUE} for no
+     *     limit).
+     */
+    public int getTopK() {
+        return this.topK;
+    }
+
+    /**
+     * Sets the maximum number of flows to include at each stage and sends
+     * a change event to all registered listeners.
+     * 
+     * @param topK  the maximum number of flows (zero or more, 
+     *     {@code Integer.MAX_VALUE} for no limit).
+     */
+    public void setTopK(int topK) {
+        Args.requireNonNegative(topK, "topK");
+        this.topK = topK;
+        invalidate();
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns the minimum value for the flows included in the view.
+     * 
+     * @return The threshold ({@code Double.NEGATIVE_INFINITY} for no 
+     *     threshold).
+     */
+    public double getThreshold() {
+        return this.threshold;
+    }
+
+    /**
+     * Sets the minimum value for the flows included in the view (flows with
+     * a value greater than or equal to the threshold are included) and 
+     * sends a change event to all registered listeners.
+     * 
+     * @param threshold  the threshold ({@code Double.NEGATIVE_INFINITY} for
+     *     no threshold).
+     */
+    public void setThreshold(double threshold) {
+        if (Double.isNaN(threshold)) {
+            throw new IllegalArgumentException("Require 'threshold' != NaN.");
+        }
+        this.threshold = threshold;
+        invalidate();
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns the number of flows selected at the specified stage.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return The number of flows.
+     */
+    public int getSelectedFlowCount(int stage) {
+        return counts()[stage];
+    }
+
+    /**
+     * Clears the cached state, when the filter or the source changes.
+     */
+    private void invalidate() {
+        this.counts = null;
+        this.nodes = null;
+        this.nodeTotals = null;
+    }
+
+    /**
+     * Returns the number of flows selected at each stage, calculating them
+     * if necessary.
+     * 
+     * @return The counts.
+     */
+    private int[] counts() {
+        if (this.counts == null) {
+            int[] result = new int[this.index.getStageCount()];
+            for (int s = 0; s < result.length; s++) {
+                result[s] = Math.min(this.topK, 
+                        this.index.countAbove(s, this.threshold));
+            }
+            this.counts = result;
+        }
+        return this.counts;
+    }
+
+    /**
+     * Calculates the node lists and node totals from the selected flows, if
+     * necessary.
+     */
+    private void ensureNodes() {
+        if (this.nodes != null) {
+            return;
+        }
+        int[] c = counts();
+        List<Map<K, double[]>> totals = new ArrayList<>(c.length + 1);
+        for (int n = 0; n <= c.length; n++) {
+            totals.add(new HashMap<>());
+        }
+        for (int s = 0; s < c.length; s++) {
+            for (int r = 0; r < c[s]; r++) {
+                FlowKey<K> key = this.index.getFlowKey(s, r);
+                double value = this.index.getValue(s, r);
+                totals.get(s).computeIfAbsent(key.getSource(), 
+                        k -> new double[2])[1] += value;
+                totals.get(s + 1).computeIfAbsent(key.getDestination(), 
+                        k -> new double[2])[0] += value;
+            }
+        }
+        List<List<K>> result = new ArrayList<>(totals.size());
+        for (int n = 0; n < totals.size(); n++) {
+            final int stage = n;
+            List<K> list = new ArrayList<>(totals.get(n).keySet());
+            list.sort((k1, k2) -> Integer.compare(
+                    this.index.getNodePosition(stage, k1), 
+                    this.index.getNodePosition(stage, k2)));
+            result.add(Collections.unmodifiableList(list));
+        }
+        this.nodeTotals = totals;
+        this.nodes = result;
+    }
+
+    /**
+     * Clears the cached state when the source dataset changes (unless only
+     * node or flow properties were changed, since those are read from the 
+     * source dataset), and notifies registered listeners.
+     * 
+     * @param event  the event.
+     */
+    @Override
+    public void datasetChanged(DatasetChangeEvent event) {
+        boolean propertiesOnly = event instanceof FlowDatasetChangeEvent 
+                && ((FlowDatasetChangeEvent<?>) event).isPropertyChangeOnly();
+        if (!propertiesOnly) {
+            this.index.invalidate(event);
+            invalidate();
+        }
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns the number of flow stages (the same as the source dataset).
+     * 
+     * @return The number of flow stages.
+     */
+    @Override
+    public int getStageCount() {
+        return counts().length;
+    }
+
+    /**
+     * Returns a list of the source nodes for the specified stage.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSources(int stage) {
+        return new ArrayList<>(getSourcesView(stage));
+    }
+
+    /**
+     * Returns a list of the destination nodes for the specified stage.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return A list of destination nodes (possibly empty but never 
+     *     {@code null}).
+     */
+    @Override
+    public List<K> getDestinations(int stage) {
+        return new ArrayList<>(getDestinationsView(stage));
+    }
+
+    /**
+     * Returns an unmodifiable list of the source nodes for the specified 
+     * stage.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSourcesView(int stage) {
+        ensureNodes();
+        return this.nodes.get(stage);
+    }
+
+    /**
+     * Returns an unmodifiable list of the destination nodes for the 
+     * specified stage.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return A list of destination nodes (possibly empty but never 
+     *     {@code null}).
+     */
+    @Override
+    public List<K> getDestinationsView(int stage) {
+        ensureNodes();
+        return this.nodes.get(stage + 1);
+    }
+
+    /**
+     * Returns the set of keys for all the nodes in the view.
+     * 
+     * @return A set (possibly empty but never {@code null}).
+     */
+    @Override
+    public Set<NodeKey<K>> getAllNodes() {
+        ensureNodes();
+        Set<NodeKey<K>> result = new HashSet<>();
+        for (int n = 0; n < this.nodes.size(); n++) {
+            for (K node : this.nodes.get(n)) {
+                result.add(getNodeKey(n, node));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of a property for the specified node, read from the
+     * source dataset.
+     * 
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getNodeProperty(NodeKey<K> nodeKey, String propertyKey) {
+        return this.index.getSource().getNodeProperty(nodeKey, propertyKey);
+    }
+
+    /**
+     * Returns {@code true} if the specified node property has the value 
+     * {@code Boolean.TRUE} in the source dataset.
+     * 
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return A boolean.
+     */
+    @Override
+    public boolean getNodeBooleanProperty(NodeKey<K> nodeKey, 
+            String propertyKey) {
+        return this.index.getSource().getNodeBooleanProperty(nodeKey, 
+                propertyKey);
+    }
+
+    /**
+     * Returns the flow between a source node and a destination node at the
+     * specified stage, if the flow is selected.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * 
+     * @return The flow, or {@code null} if the flow is not in the view.
+     */
+    @Override
+    public Number getFlow(int stage, K source, K destination) {
+        int rank = this.index.getRank(getFlowKey(stage, source, destination));
+        if (rank < 0 || rank >= counts()[stage]) {
+            return null;
+        }
+        return this.index.getValue(stage, rank);
+    }
+
+    /**
+     * Returns a set of keys for all the flows in the view.
+     * 
+     * @return A set (possibly empty but never {@code null}).
+     */
+    @Override
+    public Set<FlowKey<K>> getAllFlows() {
+        int[] c = counts();
+        Set<FlowKey<K>> result = new HashSet<>();
+        for (int s = 0; s < c.length; s++) {
+            for (int r = 0; r < c[s]; r++) {
+                result.add(this.index.getFlowKey(s, r));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of a property for the specified flow, read from the
+     * source dataset.
+     * 
+     * @param flowKey  the flow key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getFlowProperty(FlowKey<K> flowKey, String propertyKey) {
+        return this.index.getSource().getFlowProperty(flowKey, propertyKey);
+    }
+
+    /**
+     * Returns {@code true} if the specified flow property has the value 
+     * {@code Boolean.TRUE} in the source dataset.
+     * 
+     * @param flowKey  the flow key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return A boolean.
+     */
+    @Override
+    public boolean getFlowBooleanProperty(FlowKey<K> flowKey, 
+            String propertyKey) {
+        return this.index.getSource().getFlowBooleanProperty(flowKey, 
+                propertyKey);
+    }
+
+    /**
+     * Returns {@code true}, since this view maintains the node and stage 
+     * totals.
+     * 
+     * @return {@code true}.
+     */
+    @Override
+    public boolean hasMaintainedTotals() {
+        return true;
+    }
+
+    /**
+     * Returns the total of the selected flows into a node.
+     * 
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return The total inflow.
+     */
+    @Override
+    public double getInflow(int stage, K node) {
+        return nodeTotal(stage, node, 0);
+    }
+
+    /**
+     * Returns the total of the selected flows out of a node.
+     * 
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return The total outflow.
+     */
+    @Override
+    public double getOutflow(int stage, K node) {
+        return nodeTotal(stage, node, 1);
+    }
+
+    /**
+     * Returns a node total.
+     * 
+     * @param stage  the node stage.
+     * @param node  the node ({@code null} not permitted).
+     * @param which  0 for the inflow, 1 for the outflow.
+     * 
+     * @return The total.
+     */
+    private double nodeTotal(int stage, K node, int which) {
+        Args.nullNotPermitted(node, "node");
+        ensureNodes();
+        if (stage < 0 || stage >= this.nodeTotals.size()) {
+            return 0.0;
+        }
+        double[] totals = this.nodeTotals.get(stage).get(node);
+        return totals != null ? totals[which] : 0.0;
+    }
+
+    /**
+     * Returns the total of the selected flows at the specified stage.  This
+     * does not require the node lists to be calculated.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return The total flow.
+     */
+    @Override
+    public double getTotalFlow(int stage) {
+        return this.index.getTotal(stage, counts()[stage]);
+    }
+
+    /**
+     * Returns the key for the specified node (shared with the source 
+     * dataset where possible).
+     * 
+     * @param stage  the node stage.
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return A node key (never {@code null}).
+     */
+    @Override
+    public NodeKey<K> getNodeKey(int stage, K node) {
+        return this.index.getSource().getNodeKey(stage, node);
+    }
+
+    /**
+     * Returns the key for the specified flow (shared with the source 
+     * dataset where possible).
+     * 
+     * @param stage  the stage.
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * 
+     * @return A flow key (never {@code null}).
+     */
+    @Override
+    public FlowKey<K> getFlowKey(int stage, K source, K destination) {
+        return this.index.getSource().getFlowKey(stage, source, destination);
+    }
+
+}
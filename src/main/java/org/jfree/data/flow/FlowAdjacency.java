@@ -0,0 +1,177 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ------------------
+ * FlowAdjacency.java
+ * ------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An index of the flows into and out of each node, for the flows held in a
+ * {@link PackedFlowMap}.  For each node there is a list of the positions 
+ * (in the map) of its flows, so the flows at a node can be found in time
+ * proportional to their number rather than by scanning every flow.  Since 
+ * the entries in a {@code PackedFlowMap} are never removed, the index is
+ * brought up to date by {@link #update(PackedFlowMap)} in time proportional
+ * to the number of flows added since the last update.
+ * <br><br>
+ * An index belongs to a single map, so a copy of the map needs a new 
+ * index.
+ */
+final class FlowAdjacency {
+
+    /** The number of flows (from the start of the map) in the index. */
+    private int flowCount;
+
+    /** 
+     * For each stage, the flow positions for each source node by node 
+     * position (the first element of each list is its size).
+     */
+    private final List<int[][]> out;
+
+    /** 
+     * For each stage, the flow positions for each destination node by node
+     * position (the first element of each list is its size).
+     */
+    private final List<int[][]> in;
+
+    /**
+     * Creates a new empty index.
+     */
+    FlowAdjacency() {
+        this.out = new ArrayList<>();
+        this.in = new ArrayList<>();
+    }
+
+    /**
+     * Adds the flows that have been added to the map since the last update.
+     * 
+     * @param flows  the flows (always the same map, or a copy that has only
+     *     had flows added).
+     */
+    void update(PackedFlowMap flows) {
+        for (int i = this.flowCount; i < flows.size(); i++) {
+            long key = flows.keyAt(i);
+            int stage = PackedFlowMap.stage(key);
+            while (this.out.size() <= stage) {
+                this.out.add(new int[0][]);
+                this.in.add(new int[0][]);
+            }
+            this.out.set(stage, append(this.out.get(stage), 
+                    PackedFlowMap.source(key), i));
+            this.in.set(stage, append(this.in.get(stage), 
+                    PackedFlowMap.destination(key), i));
+        }
+        this.flowCount = flows.size();
+    }
+
+    /**
+     * Appends a value to the list for a node, in an array of lists where 
+     * the first element of each list is its size (also used for the 
+     * pending flows in {@link SparseFlowDataset}).
+     * 
+     * @param lists  the lists for each node ({@code null} entries permitted).
+     * @param node  the node position.
+     * @param position  the value (a flow position or a node position).
+     * 
+     * @return The lists (a new array if it had to grow).
+     */
+    static int[][] append(int[][] lists, int node, int position) {
+        if (node >= lists.length) {
+            lists = Arrays.copyOf(lists, Math.max(node + 1, 
+                    lists.length * 2));
+        }
+        int[] list = lists[node];
+        if (list == null) {
+            list = new int[4];
+            lists[node] = list;
+        } else if (list[0] + 1 == list.length) {
+            list = Arrays.copyOf(list, list.length * 2);
+            lists[node] = list;
+        }
+        list[++list[0]] = position;
+        return lists;
+    }
+
+    /**
+     * Returns the positions of the flows from a source node.
+     * 
+     * @param stage  the stage.
+     * @param source  the position of the source node.
+     * 
+     * @return The flow positions, in ascending order (a new array).
+     */
+    int[] getOutFlows(int stage, int source) {
+        return positions(this.out, stage, source);
+    }
+
+    /**
+     * Returns the positions of the flows into a destination node.
+     * 
+     * @param stage  the stage.
+     * @param destination  the position of the destination node (at node 
+     *     stage {@code stage + 1}).
+     * 
+     * @return The flow positions, in ascending order (a new array).
+     */
+    int[] getInFlows(int stage, int destination) {
+        return positions(this.in, stage, destination);
+    }
+
+    /**
+     * Returns a copy of the flow positions for a node.
+     * 
+     * @param lists  the lists for each stage.
+     * @param stage  the stage.
+     * @param node  the node position.
+     * 
+     * @return The flow positions (a new array).
+     */
+    private static int[] positions(List<int[][]> lists, int stage, 
+            int node) {
+        if (stage < 0 || stage >= lists.size()) {
+            return new int[0];
+        }
+        int[][] nodes = lists.get(stage);
+        if (node < 0 || node >= nodes.length || nodes[node] == null) {
+            return new int[0];
+        }
+        int[] list = nodes[node];
+        return Arrays.copyOfRange(list, 1, list[0] + 1);
+    }
+
+}
@@ -0,0 +1,221 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ------------------
+ * FlowAggregate.java
+ * ------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jfree.chart.util.Args;
+
+/**
+ * A mutable partial aggregate of flows, used by {@link FlowCollectors} and
+ * {@link FlowDatasetUtils#merge(FlowDataset[])}.  Unlike a 
+ * {@link FlowDatasetBuilder}, values added for the same flow are summed.  
+ * The flows are stored in a {@link PackedFlowMap} keyed by the positions of
+ * the nodes, so adding a value for an existing flow does not allocate, and
+ * two aggregates are merged by mapping the node positions of one to the 
+ * other once, then adding its packed entries.
+ * <br><br>
+ * Nodes are ordered within each stage in the order they are first seen, 
+ * and merging an aggregate into another keeps the nodes of the receiving
+ * aggregate first, so a parallel reduction produces the same order as a 
+ * sequential one.  Instances are not thread-safe.
+ *
+ * @param <K> the type for the keys used to identify sources and destinations.
+ */
+final class FlowAggregate<K extends Comparable<K>> {
+
+    /** The nodes at each node stage. */
+    private final List<List<K>> nodes;
+
+    /** A lookup table for the nodes at each node stage. */
+    private final List<Map<K, Integer>> nodeIndices;
+
+    /** The flow totals. */
+    private final PackedFlowMap flows;
+
+    /**
+     * Creates a new empty aggregate.
+     */
+    FlowAggregate() {
+        this.nodes = new ArrayList<>();
+        this.nodeIndices = new ArrayList<>();
+        this.flows = new PackedFlowMap();
+    }
+
+    /**
+     * Adds a value to a flow.
+     * 
+     * @param stage  the stage (zero or greater).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * @param value  the value to add.
+     */
+    void add(int stage, K source, K destination, double value) {
+        Args.requireNonNegative(stage, "stage");
+        Args.nullNotPermitted(source, "source");
+        Args.nullNotPermitted(destination, "destination");
+        ensureNodeStages(stage + 2);
+        accumulate(PackedFlowMap.pack(stage, addNode(stage, source), 
+                addNode(stage + 1, destination)), value);
+    }
+
+    /**
+     * Adds the nodes and flows of a dataset to this aggregate.
+     * 
+     * @param dataset  the dataset ({@code null} not permitted).
+     */
+    void add(FlowDataset<K> dataset) {
+        Args.nullNotPermitted(dataset, "dataset");
+        int stageCount = dataset.getStageCount();
+        ensureNodeStages(stageCount + 1);
+        for (int n = 0; n <= stageCount; n++) {
+            List<K> list = n < stageCount ? dataset.getSourcesView(n) 
+                    : dataset.getDestinationsView(n - 1);
+            for (K node : list) {
+                addNode(n, node);
+            }
+        }
+        for (FlowKey<K> key : dataset.getAllFlowsView()) {
+            Number value = dataset.getFlow(key.getStage(), key.getSource(), 
+                    key.getDestination());
+            if (value != null) {
+                add(key.getStage(), key.getSource(), key.getDestination(), 
+                        value.doubleValue());
+            }
+        }
+    }
+
+    /**
+     * Merges another aggregate into this one.
+     * 
+     * @param other  the other aggregate ({@code null} not permitted).
+     * 
+     * @return This aggregate.
+     */
+    FlowAggregate<K> merge(FlowAggregate<K> other) {
+        ensureNodeStages(other.nodes.size());
+        int[][] positions = new int[other.nodes.size()][];
+        for (int n = 0; n < positions.length; n++) {
+            List<K> list = other.nodes.get(n);
+            positions[n] = new int[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                positions[n][i] = addNode(n, list.get(i));
+            }
+        }
+        for (int i = 0; i < other.flows.size(); i++) {
+            long key = other.flows.keyAt(i);
+            int stage = PackedFlowMap.stage(key);
+            accumulate(PackedFlowMap.pack(stage, 
+                    positions[stage][PackedFlowMap.source(key)], 
+                    positions[stage + 1][PackedFlowMap.destination(key)]), 
+                    other.flows.valueAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Creates a new dataset containing the nodes and flow totals in this
+     * aggregate.
+     * 
+     * @return A new dataset (never {@code null}).
+     */
+    DefaultFlowDataset<K> toDataset() {
+        DefaultFlowDataset<K> dataset = new DefaultFlowDataset<>();
+        dataset.addAll(this.nodes, this.flows);
+        return dataset;
+    }
+
+    /**
+     * Adds a value to the total for a packed flow key.
+     * 
+     * @param key  the packed key.
+     * @param value  the value.
+     */
+    private void accumulate(long key, double value) {
+        int index = this.flows.indexOf(key);
+        if (index < 0) {
+            this.flows.add(key, value);
+        } else {
+            this.flows.setValueAt(index, this.flows.valueAt(index) + value);
+        }
+    }
+
+    /**
+     * Ensures that there are at least {@code count} node stages.
+     * 
+     * @param count  the number of node stages.
+     */
+    private void ensureNodeStages(int count) {
+        if (count > PackedFlowMap.MAX_STAGES) {
+            throw new IllegalArgumentException("Too many stages: " 
+                    + (count - 1));
+        }
+        while (this.nodes.size() < count) {
+            this.nodes.add(new ArrayList<>());
+            this.nodeIndices.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Adds a node to a node stage if it is not already present.
+     * 
+     * @param nodeStage  the node stage.
+     * @param key  the node key.
+     * 
+     * @return The position of the node within the stage.
+     */
+    private int addNode(int nodeStage, K key) {
+        Map<K, Integer> indices = this.nodeIndices.get(nodeStage);
+        Integer existing = indices.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        List<K> list = this.nodes.get(nodeStage);
+        int index = list.size();
+        if (index == PackedFlowMap.MAX_NODES) {
+            throw new IllegalStateException("Stage " + nodeStage 
+                    + " cannot hold more than " + PackedFlowMap.MAX_NODES 
+                    + " nodes.");
+        }
+        indices.put(key, index);
+        list.add(key);
+        return index;
+    }
+
+}
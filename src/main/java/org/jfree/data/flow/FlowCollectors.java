@@ -0,0 +1,124 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -------------------
+ * FlowCollectors.java
+ * -------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collector;
+import org.jfree.chart.util.Args;
+
+/**
+ * Collectors for building flow datasets from streams.  The collectors sum 
+ * the values for each flow.  Each thread of a parallel stream accumulates 
+ * into its own partial aggregate (adding a value to an existing flow does 
+ * not allocate) and the partial aggregates are merged in the combiner step
+ * by mapping node positions, so building a dataset scales with the number
+ * of cores.  Nodes are ordered within each stage in the encounter order of
+ * the stream, for parallel streams as well as sequential ones.
+ * <br><br>
+ * For example, to sum the bytes sent between hosts:
+ * <pre>
+ * DefaultFlowDataset&lt;String&gt; dataset = packets.parallelStream().collect(
+ *         FlowCollectors.toFlowDataset(Packet::getFrom, Packet::getTo, 
+ *         Packet::getBytes));
+ * </pre>
+ */
+public final class FlowCollectors {
+
+    private FlowCollectors() {
+        // no requirement to instantiate
+    }
+
+    /**
+     * Returns a collector that builds a single stage dataset, summing the 
+     * values for each flow.
+     * 
+     * @param <T> the item type.
+     * @param <K> the node key type.
+     * @param sourceFn  a function returning the source for an item 
+     *     ({@code null} not permitted).
+     * @param destinationFn  a function returning the destination for an 
+     *     item ({@code null} not permitted).
+     * @param valueFn  a function returning the value for an item 
+     *     ({@code null} not permitted).
+     * 
+     * @return A collector.
+     */
+    public static <T, K extends Comparable<K>> 
+            Collector<T, ?, DefaultFlowDataset<K>> toFlowDataset(
+            Function<? super T, ? extends K> sourceFn,
+            Function<? super T, ? extends K> destinationFn,
+            ToDoubleFunction<? super T> valueFn) {
+        return toFlowDataset(item -> 0, sourceFn, destinationFn, valueFn);
+    }
+
+    /**
+     * Returns a collector that builds a dataset, summing the values for 
+     * each flow.  Stages are created as required.
+     * 
+     * @param <T> the item type.
+     * @param <K> the node key type.
+     * @param stageFn  a function returning the stage for an item 
+     *     ({@code null} not permitted).
+     * @param sourceFn  a function returning the source for an item 
+     *     ({@code null} not permitted).
+     * @param destinationFn  a function returning the destination for an 
+     *     item ({@code null} not permitted).
+     * @param valueFn  a function returning the value for an item 
+     *     ({@code null} not permitted).
+     * 
+     * @return A collector.
+     */
+    public static <T, K extends Comparable<K>> 
+            Collector<T, ?, DefaultFlowDataset<K>> toFlowDataset(
+            ToIntFunction<? super T> stageFn,
+            Function<? super T, ? extends K> sourceFn,
+            Function<? super T, ? extends K> destinationFn,
+            ToDoubleFunction<? super T> valueFn) {
+        Args.nullNotPermitted(stageFn, "stageFn");
+        Args.nullNotPermitted(sourceFn, "sourceFn");
+        Args.nullNotPermitted(destinationFn, "destinationFn");
+        Args.nullNotPermitted(valueFn, "valueFn");
+        return Collector.of(FlowAggregate<K>::new, 
+                (aggregate, item) -> aggregate.add(stageFn.applyAsInt(item), 
+                        sourceFn.apply(item), destinationFn.apply(item), 
+                        valueFn.applyAsDouble(item)), 
+                FlowAggregate::merge, FlowAggregate::toDataset);
+    }
+
+}
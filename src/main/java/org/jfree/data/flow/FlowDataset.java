@@ -36,6 +36,8 @@
 
 package org.jfree.data.flow;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import org.jfree.data.general.Dataset;
@@ -130,4 +132,221 @@ public interface FlowDataset<K extends Comparable<K>> extends Dataset {
      */    
     Object getFlowProperty(FlowKey<K> flowKey, String propertyKey);
 
+    /**
+     * Returns an unmodifiable view of the sources at the specified stage.  
+     * Unlike {@link #getSources(int)}, implementations can return a view 
+     * that is backed by the dataset's internal storage, so no copy is made.
+     * A view is intended for immediate use (for example, during a single 
+     * rendering pass) and may throw a 
+     * {@code ConcurrentModificationException} if it is accessed after the 
+     * dataset has been structurally modified.  The default implementation
+     * wraps the result of {@link #getSources(int)}.
+     * 
+     * @param stage  the stage index (0 to {@code getStageCount()} - 1).
+     * 
+     * @return A list of the sources (never {@code null}).
+     */
+    default List<K> getSourcesView(int stage) {
+        return Collections.unmodifiableList(getSources(stage));
+    }
+
+    /**
+     * Returns an unmodifiable view of the destinations at the specified 
+     * stage.  See {@link #getSourcesView(int)} for the conditions that apply
+     * to the returned view.  The default implementation wraps the result of
+     * {@link #getDestinations(int)}.
+     * 
+     * @param stage  the stage index (0 to {@code getStageCount()} - 1).
+     * 
+     * @return A list of the destinations (never {@code null}).
+     */
+    default List<K> getDestinationsView(int stage) {
+        return Collections.unmodifiableList(getDestinations(stage));
+    }
+
+    /**
+     * Returns the positions, within {@link #getDestinationsView(int)}, of the
+     * destinations that have a flow (a non-{@code null} value) from the 
+     * specified source, in ascending order.  This lets a caller such as 
+     * {@link org.jfree.chart.plot.flow.FlowPlot} visit only the flows that 
+     * are defined.  The default implementation calls 
+     * {@link #getFlow(int, Comparable, Comparable)} for every destination, 
+     * implementations that store only the defined flows should override 
+     * this method to take time proportional to the number of flows from 
+     * the source.
+     * 
+     * @param stage  the stage index (0 to {@code getStageCount()} - 1).
+     * @param source  the source ({@code null} not permitted).
+     * 
+     * @return The destination positions (possibly empty but never 
+     *     {@code null}).
+     */
+    default int[] getDestinationIndices(int stage, K source) {
+        List<K> destinations = getDestinationsView(stage);
+        int[] result = new int[destinations.size()];
+        int n = 0;
+        for (int j = 0; j < destinations.size(); j++) {
+            if (getFlow(stage, source, destinations.get(j)) != null) {
+                result[n++] = j;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Returns an unmodifiable view of the keys for all the nodes in the
+     * dataset.  See {@link #getSourcesView(int)} for the conditions that 
+     * apply to the returned view.  The default implementation wraps the 
+     * result of {@link #getAllNodes()}.
+     * 
+     * @return A set of node keys (never {@code null}).
+     */
+    default Set<NodeKey<K>> getAllNodesView() {
+        return Collections.unmodifiableSet(getAllNodes());
+    }
+
+    /**
+     * Returns an unmodifiable view of the keys for all the flows in the
+     * dataset.  See {@link #getSourcesView(int)} for the conditions that 
+     * apply to the returned view.  The default implementation wraps the 
+     * result of {@link #getAllFlows()}.
+     * 
+     * @return A set of flow keys (never {@code null}).
+     */
+    default Set<FlowKey<K>> getAllFlowsView() {
+        return Collections.unmodifiableSet(getAllFlows());
+    }
+
+    /**
+     * Returns the total inflow for a node.  Flows that are {@code null} or 
+     * {@code NaN} count as zero.  The default implementation calculates the
+     * total using 
+     * {@link FlowDatasetUtils#calculateInflow(FlowDataset, Comparable, int)},
+     * implementations that can provide the total more efficiently should
+     * override this method.
+     * 
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return The total inflow (zero for nodes at stage 0).
+     */
+    default double getInflow(int stage, K node) {
+        return FlowDatasetUtils.calculateInflow(this, node, stage);
+    }
+
+    /**
+     * Returns the total outflow for a node.  Flows that are {@code null} or
+     * {@code NaN} count as zero.  The default implementation calculates the
+     * total using 
+     * {@link FlowDatasetUtils#calculateOutflow(FlowDataset, Comparable, int)},
+     * implementations that can provide the total more efficiently should
+     * override this method.
+     * 
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return The total outflow (zero for the final destination nodes).
+     */
+    default double getOutflow(int stage, K node) {
+        return FlowDatasetUtils.calculateOutflow(this, node, stage);
+    }
+
+    /**
+     * Returns the total of all flows at the specified stage.  Flows that 
+     * are {@code null} or {@code NaN} count as zero.  The default 
+     * implementation calculates the total using 
+     * {@link FlowDatasetUtils#calculateTotalFlow(FlowDataset, int)}, 
+     * implementations that can provide the total more efficiently should
+     * override this method.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return The total flow.
+     */
+    default double getTotalFlow(int stage) {
+        return FlowDatasetUtils.calculateTotalFlow(this, stage);
+    }
+
+    /**
+     * Returns {@code true} if this dataset maintains the totals returned by
+     * {@link #getInflow(int, Comparable)}, 
+     * {@link #getOutflow(int, Comparable)} and {@link #getTotalFlow(int)}, 
+     * so that they can be read without iterating over the flows.  Callers
+     * that need the totals for every node of a dataset that returns 
+     * {@code false} should use 
+     * {@link FlowDatasetUtils#calculateNodeFlowTotals(FlowDataset)} instead.
+     * The default implementation returns {@code false}.
+     * 
+     * @return A boolean.
+     */
+    default boolean hasMaintainedTotals() {
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if the specified node property has the value
+     * {@code Boolean.TRUE}, and {@code false} otherwise.  This is used to
+     * test flags such as the {@code "selected"} property.  The default 
+     * implementation calls {@link #getNodeProperty(NodeKey, String)}, 
+     * implementations that store boolean properties without boxing should
+     * override this method.
+     * 
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return A boolean.
+     */
+    default boolean getNodeBooleanProperty(NodeKey<K> nodeKey, 
+            String propertyKey) {
+        return Boolean.TRUE.equals(getNodeProperty(nodeKey, propertyKey));
+    }
+
+    /**
+     * Returns {@code true} if the specified flow property has the value
+     * {@code Boolean.TRUE}, and {@code false} otherwise.  The default 
+     * implementation calls {@link #getFlowProperty(FlowKey, String)}, 
+     * implementations that store boolean properties without boxing should
+     * override this method.
+     * 
+     * @param flowKey  the flow key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * 
+     * @return A boolean.
+     */
+    default boolean getFlowBooleanProperty(FlowKey<K> flowKey, 
+            String propertyKey) {
+        return Boolean.TRUE.equals(getFlowProperty(flowKey, propertyKey));
+    }
+
+    /**
+     * Returns a key for the specified node.  Datasets that keep a pool of 
+     * keys (see {@link FlowKeyPool}) return the shared key for nodes in the
+     * dataset, so that callers that need many keys (for example, a plot 
+     * that is drawing the dataset) do not create new keys each time.  The 
+     * default implementation returns a new key.
+     * 
+     * @param stage  the node stage.
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return A node key (never {@code null}).
+     */
+    default NodeKey<K> getNodeKey(int stage, K node) {
+        return new NodeKey<>(stage, node);
+    }
+
+    /**
+     * Returns a key for the specified flow.  Datasets that keep a pool of 
+     * keys (see {@link FlowKeyPool}) return the shared key for flows in the
+     * dataset.  The default implementation returns a new key.
+     * 
+     * @param stage  the stage.
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * 
+     * @return A flow key (never {@code null}).
+     */
+    default FlowKey<K> getFlowKey(int stage, K source, K destination) {
+        return new FlowKey<>(stage, source, destination);
+    }
+
 }
@@ -0,0 +1,255 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -----------------------
+ * FlowDatasetBuilder.java
+ * -----------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+import org.jfree.chart.util.Args;
+
+/**
+ * A builder for loading a large number of flows into a
+ * {@link DefaultFlowDataset}.  Node keys are de-duplicated with hash lookups
+ * as flows are added and no events are generated until the flows are
+ * transferred to a dataset, at which point a single change event is sent.
+ * <br><br>
+ * Nodes are ordered within each stage in the order they are first seen.
+ * Flows can be added for any stage in any order (intermediate stages are
+ * created as required) and, as with
+ * {@link DefaultFlowDataset#setFlow(int, Comparable, Comparable, double)}, a
+ * later value for the same flow replaces an earlier one.
+ *
+ * @param <K> the type for the keys used to identify sources and destinations
+ *     (instances should be immutable, {@code String} is a good default choice).
+ */
+public class FlowDatasetBuilder<K extends Comparable<K>> {
+
+    /**
+     * The nodes at each stage.  The list has one more entry than the number
+     * of stages.
+     */
+    private List<List<K>> nodes;
+
+    /** A lookup table for the nodes at each stage. */
+    private List<Map<K, Integer>> nodeIndices;
+
+    /** The flows. */
+    private Map<FlowKey<K>, Number> flows;
+
+    /**
+     * Creates a new builder that is initially empty.
+     */
+    public FlowDatasetBuilder() {
+        reset();
+    }
+
+    /**
+     * Clears the builder so that it can be reused.
+     */
+    private void reset() {
+        this.nodes = new ArrayList<>();
+        this.nodeIndices = new ArrayList<>();
+        this.flows = new HashMap<>();
+    }
+
+    /**
+     * Returns the number of stages defined so far (at least one).
+     *
+     * @return The stage count.
+     */
+    public int getStageCount() {
+        return Math.max(1, this.nodes.size() - 1);
+    }
+
+    /**
+     * Returns the number of flows added so far.
+     *
+     * @return The flow count.
+     */
+    public int getFlowCount() {
+        return this.flows.size();
+    }
+
+    /**
+     * Adds a flow.
+     *
+     * @param stage  the stage (zero or greater).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * @param flow  the flow (0 or greater).
+     *
+     * @return This builder (for chaining method calls).
+     */
+    public FlowDatasetBuilder<K> add(int stage, K source, K destination,
+            double flow) {
+        Args.requireNonNegative(stage, "stage");
+        Args.nullNotPermitted(source, "source");
+        Args.nullNotPermitted(destination, "destination");
+        while (this.nodes.size() < stage + 2) {
+            this.nodes.add(new ArrayList<>());
+            this.nodeIndices.add(new HashMap<>());
+        }
+        addNode(stage, source);
+        addNode(stage + 1, destination);
+        this.flows.put(new FlowKey<>(stage, source, destination), flow);
+        return this;
+    }
+
+    /**
+     * Adds a block of flows for one stage, supplied as parallel arrays.
+     *
+     * @param stage  the stage (zero or greater).
+     * @param sources  the sources ({@code null} not permitted).
+     * @param destinations  the destinations ({@code null} not permitted).
+     * @param flows  the flows ({@code null} not permitted).
+     *
+     * @return This builder (for chaining method calls).
+     */
+    public FlowDatasetBuilder<K> add(int stage, K[] sources, K[] destinations,
+            double[] flows) {
+        Args.nullNotPermitted(sources, "sources");
+        Args.nullNotPermitted(destinations, "destinations");
+        Args.nullNotPermitted(flows, "flows");
+        if (sources.length != destinations.length
+                || sources.length != flows.length) {
+            throw new IllegalArgumentException(
+                    "The sources, destinations and flows arrays must have the same length.");
+        }
+        for (int i = 0; i < flows.length; i++) {
+            add(stage, sources[i], destinations[i], flows[i]);
+        }
+        return this;
+    }
+
+    /**
+     * Adds one flow for each item, using the supplied functions to extract
+     * the stage, source, destination and flow value.
+     *
+     * @param <T> the item type.
+     * @param items  the items ({@code null} not permitted).
+     * @param stageFn  a function returning the stage for an item.
+     * @param sourceFn  a function returning the source for an item.
+     * @param destinationFn  a function returning the destination for an item.
+     * @param valueFn  a function returning the flow value for an item.
+     *
+     * @return This builder (for chaining method calls).
+     */
+    public <T> FlowDatasetBuilder<K> addAll(Iterable<T> items,
+            ToIntFunction<? super T> stageFn,
+            Function<? super T, ? extends K> sourceFn,
+            Function<? super T, ? extends K> destinationFn,
+            ToDoubleFunction<? super T> valueFn) {
+        Args.nullNotPermitted(items, "items");
+        for (T item : items) {
+            add(stageFn.applyAsInt(item), sourceFn.apply(item),
+                    destinationFn.apply(item), valueFn.applyAsDouble(item));
+        }
+        return this;
+    }
+
+    /**
+     * Adds one flow for each item in a stream, using the supplied functions
+     * to extract the stage, source, destination and flow value.  The stream
+     * is consumed in encounter order on the calling thread.
+     *
+     * @param <T> the item type.
+     * @param items  the items ({@code null} not permitted).
+     * @param stageFn  a function returning the stage for an item.
+     * @param sourceFn  a function returning the source for an item.
+     * @param destinationFn  a function returning the destination for an item.
+     * @param valueFn  a function returning the flow value for an item.
+     *
+     * @return This builder (for chaining method calls).
+     */
+    public <T> FlowDatasetBuilder<K> addAll(Stream<T> items,
+            ToIntFunction<? super T> stageFn,
+            Function<? super T, ? extends K> sourceFn,
+            Function<? super T, ? extends K> destinationFn,
+            ToDoubleFunction<? super T> valueFn) {
+        Args.nullNotPermitted(items, "items");
+        items.forEachOrdered(item -> add(stageFn.applyAsInt(item),
+                sourceFn.apply(item), destinationFn.apply(item),
+                valueFn.applyAsDouble(item)));
+        return this;
+    }
+
+    /**
+     * Adds a node to a stage if it is not already present.
+     *
+     * @param nodeStage  the node stage.
+     * @param key  the node key.
+     */
+    private void addNode(int nodeStage, K key) {
+        Map<K, Integer> indices = this.nodeIndices.get(nodeStage);
+        if (!indices.containsKey(key)) {
+            List<K> list = this.nodes.get(nodeStage);
+            indices.put(key, list.size());
+            list.add(key);
+        }
+    }
+
+    /**
+     * Creates a new dataset containing the flows added to this builder.  The
+     * builder is cleared and can be reused.
+     *
+     * @return A new dataset (never {@code null}).
+     */
+    public DefaultFlowDataset<K> build() {
+        DefaultFlowDataset<K> dataset = new DefaultFlowDataset<>();
+        addTo(dataset);
+        return dataset;
+    }
+
+    /**
+     * Adds the flows from this builder to an existing dataset, replacing any
+     * flows with the same key, and sends a single change event to the
+     * dataset's listeners.  The builder is cleared and can be reused.
+     *
+     * @param dataset  the dataset ({@code null} not permitted).
+     */
+    public void addTo(DefaultFlowDataset<K> dataset) {
+        Args.nullNotPermitted(dataset, "dataset");
+        dataset.addAll(this.nodes, this.flows);
+        reset();
+    }
+
+}
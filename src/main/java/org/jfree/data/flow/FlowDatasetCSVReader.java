@@ -0,0 +1,599 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ *
+ * -------------------------
+ * FlowDatasetCSVReader.java
+ * -------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.jfree.chart.util.Args;
+
+/**
+ * Reads a flow dataset from a CSV file where each line has the form
+ * {@code stage,source,destination,value}.  The file is read through NIO
+ * buffers and parsed directly from the bytes:  numbers are parsed without
+ * creating strings, and node names are interned so that each distinct name
+ * is decoded (as UTF-8) only once.  The flows are loaded into the dataset in
+ * bulk (see {@link FlowDatasetBuilder}), and if the same flow appears more
+ * than once the last value is used.
+ * <br><br>
+ * Blank lines are skipped, white space around fields is ignored and the
+ * first line is skipped if its first field is not a number (a header).  
+ * Fields cannot be quoted, so node names must not contain the delimiter.
+ * <br><br>
+ * For large files, {@link #read(Path, int)} splits the file into chunks on
+ * line boundaries and parses the chunks in parallel, then merges the
+ * results in file order (so the result is the same as for a sequential 
+ * read).
+ */
+public class FlowDatasetCSVReader {
+
+    /** The size of the buffer used to read each chunk. */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /** Powers of ten that are exactly representable as doubles. */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** The field delimiter. */
+    private final byte delimiter;
+
+    /**
+     * Creates a new reader for comma-separated files.
+     */
+    public FlowDatasetCSVReader() {
+        this(',');
+    }
+
+    /**
+     * Creates a new reader with the specified field delimiter.
+     *
+     * @param delimiter  the delimiter (an ASCII character other than a 
+     *     space, tab, carriage return or line feed).
+     */
+    public FlowDatasetCSVReader(char delimiter) {
+        if (delimiter > 127 || delimiter == ' ' || delimiter == '\t' 
+                || delimiter == '\r' || delimiter == '\n') {
+            throw new IllegalArgumentException("Invalid delimiter.");
+        }
+        this.delimiter = (byte) delimiter;
+    }
+
+    /**
+     * Reads a dataset from a file in a single thread.
+     *
+     * @param path  the file ({@code null} not permitted).
+     *
+     * @return A new dataset.
+     *
+     * @throws IOException if there is a problem reading the file, or the 
+     *     file contains a line that cannot be parsed.
+     */
+    public DefaultFlowDataset<String> read(Path path) throws IOException {
+        Args.nullNotPermitted(path, "path");
+        FlowDatasetBuilder<String> builder = new FlowDatasetBuilder<>();
+        try (FileChannel channel = FileChannel.open(path, 
+                StandardOpenOption.READ)) {
+            new ChunkParser(channel, 0L, channel.size()).parse(builder::add);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads a dataset from a file, parsing chunks of the file in parallel.
+     *
+     * @param path  the file ({@code null} not permitted).
+     * @param threads  the number of threads to use (one or more).
+     *
+     * @return A new dataset.
+     *
+     * @throws IOException if there is a problem reading the file, or the 
+     *     file contains a line that cannot be parsed.
+     */
+    public DefaultFlowDataset<String> read(Path path, int threads) 
+            throws IOException {
+        Args.nullNotPermitted(path, "path");
+        if (threads < 1) {
+            throw new IllegalArgumentException("Require 'threads' >= 1.");
+        }
+        if (threads == 1) {
+            return read(path);
+        }
+        FlowDatasetBuilder<String> builder = new FlowDatasetBuilder<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(path, 
+                StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel, threads);
+            List<Future<RecordList>> results = new ArrayList<>();
+            for (int i = 0; i < bounds.length - 1; i++) {
+                ChunkParser parser = new ChunkParser(channel, bounds[i], 
+                        bounds[i + 1]);
+                results.add(executor.submit(() -> {
+                    RecordList records = new RecordList();
+                    parser.parse(records::add);
+                    return records;
+                }));
+            }
+            for (Future<RecordList> result : results) {
+                result.get().addTo(builder);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Divides a file into (roughly) equal chunks that start at the 
+     * beginning of a line.
+     *
+     * @param channel  the file channel.
+     * @param count  the number of chunks.
+     *
+     * @return The chunk boundaries (the first is zero, the last is the file
+     *     size).
+     *
+     * @throws IOException if there is a problem reading the file.
+     */
+    private static long[] chunkBounds(FileChannel channel, int count) 
+            throws IOException {
+        long size = channel.size();
+        long[] bounds = new long[count + 1];
+        bounds[count] = size;
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (int i = 1; i < count; i++) {
+            long pos = Math.max(bounds[i - 1], size * i / count);
+            // move to just after the next line feed
+            search:
+            while (pos < size) {
+                buffer.clear();
+                int n = channel.read(buffer, pos);
+                for (int j = 0; j < n; j++) {
+                    if (buffer.get(j) == '\n') {
+                        pos += j + 1;
+                        break search;
+                    }
+                }
+                pos += Math.max(n, 0);
+            }
+            bounds[i] = Math.min(pos, size);
+        }
+        return bounds;
+    }
+
+    /** A receiver for the records parsed from a file. */
+    private interface RecordSink {
+        void add(int stage, String source, String destination, double value);
+    }
+
+    /**
+     * The records parsed from one chunk of a file, held in parallel arrays
+     * until they are merged.
+     */
+    private static class RecordList implements RecordSink {
+
+        private int[] stages = new int[1024];
+
+        private String[] sources = new String[1024];
+
+        private String[] destinations = new String[1024];
+
+        private double[] values = new double[1024];
+
+        private int size;
+
+        @Override
+        public void add(int stage, String source, String destination, 
+                double value) {
+            if (this.size == this.stages.length) {
+                int n = this.size * 2;
+                this.stages = Arrays.copyOf(this.stages, n);
+                this.sources = Arrays.copyOf(this.sources, n);
+                this.destinations = Arrays.copyOf(this.destinations, n);
+                this.values = Arrays.copyOf(this.values, n);
+            }
+            this.stages[this.size] = stage;
+            this.sources[this.size] = source;
+            this.destinations[this.size] = destination;
+            this.values[this.size] = value;
+            this.size++;
+        }
+
+        void addTo(FlowDatasetBuilder<String> builder) {
+            for (int i = 0; i < this.size; i++) {
+                builder.add(this.stages[i], this.sources[i], 
+                        this.destinations[i], this.values[i]);
+            }
+        }
+    }
+
+    /**
+     * Parses the lines in one chunk of a file.
+     */
+    private class ChunkParser {
+
+        private final FileChannel channel;
+
+        private final long start;
+
+        private final long end;
+
+        private final Interner interner = new Interner();
+
+        /** The start and end index of each field in the current line. */
+        private final int[] bounds = new int[8];
+
+        ChunkParser(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Reads the chunk (using positional reads, so that several parsers
+         * can share the channel) and passes each record to the sink.
+         *
+         * @param sink  the sink.
+         *
+         * @throws IOException if there is a problem reading the file or a 
+         *     line cannot be parsed.
+         */
+        void parse(RecordSink sink) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long pos = this.start;
+            boolean first = this.start == 0;
+            boolean eof = false;
+            while (!eof) {
+                int remaining = (int) Math.min(buffer.remaining(), 
+                        this.end - pos);
+                int n = 0;
+                if (remaining > 0) {
+                    ByteBuffer slice = buffer.duplicate();
+                    slice.limit(slice.position() + remaining);
+                    n = this.channel.read(slice, pos);
+                }
+                if (n <= 0) {
+                    eof = true;
+                } else {
+                    buffer.position(buffer.position() + n);
+                    pos += n;
+                }
+                byte[] b = buffer.array();
+                int limit = buffer.position();
+                int lineStart = 0;
+                for (int i = 0; i < limit; i++) {
+                    if (b[i] == '\n') {
+                        long offset = pos - limit + lineStart;
+                        parseLine(b, lineStart, i, offset, first, sink);
+                        first = false;
+                        lineStart = i + 1;
+                    }
+                }
+                if (eof && lineStart < limit) {
+                    long offset = pos - limit + lineStart;
+                    parseLine(b, lineStart, limit, offset, first, sink);
+                    lineStart = limit;
+                }
+                // keep the incomplete final line, enlarging the buffer if 
+                // the line does not fit
+                buffer.position(lineStart);
+                buffer.limit(limit);
+                buffer.compact();
+                if (!buffer.hasRemaining()) {
+                    ByteBuffer larger = ByteBuffer.allocate(
+                            buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+            }
+        }
+
+        /**
+         * Parses one line.
+         *
+         * @param b  the bytes.
+         * @param from  the start of the line.
+         * @param to  the end of the line (exclusive, before the line feed).
+         * @param offset  the file offset of the line (for error messages).
+         * @param first  is this the first line in the file?
+         * @param sink  the record sink.
+         *
+         * @throws IOException if the line cannot be parsed.
+         */
+        private void parseLine(byte[] b, int from, int to, long offset, 
+                boolean first, RecordSink sink) throws IOException {
+            if (to > from && b[to - 1] == '\r') {
+                to--;
+            }
+            int[] bounds = this.bounds;
+            int field = 0;
+            int fieldStart = from;
+            for (int i = from; i <= to; i++) {
+                if (i == to || b[i] == delimiter) {
+                    if (field == 4) {
+                        throw error(offset);
+                    }
+                    int s = fieldStart;
+                    int e = i;
+                    while (s < e && isSpace(b[s])) {
+                        s++;
+                    }
+                    while (e > s && isSpace(b[e - 1])) {
+                        e--;
+                    }
+                    bounds[field * 2] = s;
+                    bounds[field * 2 + 1] = e;
+                    field++;
+                    fieldStart = i + 1;
+                }
+            }
+            if (field == 1 && bounds[0] == bounds[1]) {
+                return; // a blank line
+            }
+            int stage = parseStage(b, bounds[0], bounds[1]);
+            if (stage < 0 && first) {
+                return; // a header line
+            }
+            if (field != 4 || stage < 0 || bounds[2] == bounds[3] 
+                    || bounds[4] == bounds[5]) {
+                throw error(offset);
+            }
+            String source = this.interner.intern(b, bounds[2], bounds[3]);
+            String destination = this.interner.intern(b, bounds[4], bounds[5]);
+            double value;
+            try {
+                value = parseDouble(b, bounds[6], bounds[7]);
+            } catch (NumberFormatException e) {
+                throw error(offset);
+            }
+            sink.add(stage, source, destination, value);
+        }
+
+        private IOException error(long offset) {
+            return new IOException("Invalid line at offset " + offset + ".");
+        }
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * Parses a stage number.
+     *
+     * @param b  the bytes.
+     * @param from  the start index.
+     * @param to  the end index (exclusive).
+     *
+     * @return The stage, or -1 if the bytes are not a valid stage.
+     */
+    private static int parseStage(byte[] b, int from, int to) {
+        if (from == to || to - from > 9) {
+            return -1;
+        }
+        int result = 0;
+        for (int i = from; i < to; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    /**
+     * Parses a decimal number without creating a string.  Numbers with up to
+     * 15 significant digits and a decimal exponent of at most 22 are
+     * converted exactly using a single multiplication or division by a power
+     * of ten (so the result is correctly rounded); any other text is passed 
+     * to {@link Double#parseDouble(String)}.
+     *
+     * @param b  the bytes.
+     * @param from  the start index.
+     * @param to  the end index (exclusive).
+     *
+     * @return The value.
+     *
+     * @throws NumberFormatException if the bytes are not a valid number.
+     */
+    static double parseDouble(byte[] b, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (b[i] == '-' || b[i] == '+')) {
+            negative = b[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        while (i < to && b[i] >= '0' && b[i] <= '9') {
+            seenDigit = true;
+            if (mantissa != 0 || b[i] != '0') {
+                digits++;
+            }
+            mantissa = mantissa * 10 + (b[i] - '0');
+            i++;
+            if (digits > 15) {
+                return slowParse(b, from, to);
+            }
+        }
+        if (i < to && b[i] == '.') {
+            i++;
+            while (i < to && b[i] >= '0' && b[i] <= '9') {
+                seenDigit = true;
+                if (mantissa != 0 || b[i] != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (b[i] - '0');
+                exponent--;
+                i++;
+                if (digits > 15) {
+                    return slowParse(b, from, to);
+                }
+            }
+        }
+        if (!seenDigit) {
+            return slowParse(b, from, to);
+        }
+        if (i < to && (b[i] == 'e' || b[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (b[i] == '-' || b[i] == '+')) {
+                negativeExponent = b[i] == '-';
+                i++;
+            }
+            if (i == to || to - i > 4) {
+                return slowParse(b, from, to);
+            }
+            int e = 0;
+            while (i < to && b[i] >= '0' && b[i] <= '9') {
+                e = e * 10 + (b[i] - '0');
+                i++;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (i != to || exponent < -22 || exponent > 22) {
+            return slowParse(b, from, to);
+        }
+        double value = mantissa;
+        if (exponent < 0) {
+            value /= POWERS_OF_TEN[-exponent];
+        } else {
+            value *= POWERS_OF_TEN[exponent];
+        }
+        return negative ? -value : value;
+    }
+
+    private static double slowParse(byte[] b, int from, int to) {
+        return Double.parseDouble(new String(b, from, to - from, 
+                StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * A table of strings keyed by their UTF-8 bytes, so that a repeated name
+     * can be found without decoding it.
+     */
+    private static class Interner {
+
+        private byte[][] keys = new byte[1024][];
+
+        private String[] values = new String[1024];
+
+        private int size;
+
+        String intern(byte[] b, int from, int to) {
+            int hash = 1;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + b[i];
+            }
+            int mask = this.keys.length - 1;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (this.keys[slot] != null) {
+                byte[] key = this.keys[slot];
+                if (key.length == to - from && equal(key, b, from)) {
+                    return this.values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            byte[] key = Arrays.copyOfRange(b, from, to);
+            String value = new String(key, StandardCharsets.UTF_8);
+            this.keys[slot] = key;
+            this.values[slot] = value;
+            this.size++;
+            if (this.size * 2 > this.keys.length) {
+                rehash();
+            }
+            return value;
+        }
+
+        private static boolean equal(byte[] key, byte[] b, int from) {
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != b[from + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void rehash() {
+            byte[][] oldKeys = this.keys;
+            String[] oldValues = this.values;
+            this.keys = new byte[oldKeys.length * 2][];
+            this.values = new String[oldKeys.length * 2];
+            int mask = this.keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                byte[] key = oldKeys[i];
+                if (key != null) {
+                    int hash = 1;
+                    for (byte x : key) {
+                        hash = 31 * hash + x;
+                    }
+                    int slot = (hash ^ (hash >>> 16)) & mask;
+                    while (this.keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    this.keys[slot] = key;
+                    this.values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+
+}
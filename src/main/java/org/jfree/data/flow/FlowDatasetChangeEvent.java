@@ -0,0 +1,370 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ---------------------------
+ * FlowDatasetChangeEvent.java
+ * ---------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.jfree.chart.util.Args;
+import org.jfree.data.general.DatasetChangeEvent;
+
+/**
+ * A change event sent by a {@link DefaultFlowDataset} that describes 
+ * exactly what changed: the types of change, the flows whose values were 
+ * set, the nodes that were added, the nodes and flows whose properties were
+ * set and the stages affected.  Listeners can use this to update only the
+ * affected parts of their state rather than assuming that everything has 
+ * changed.  When several changes are made within an update (see 
+ * {@link DefaultFlowDataset#beginUpdate()}), a single event describes all
+ * of them.
+ * <br><br>
+ * The changes are recorded compactly (flows by their position in the 
+ * dataset's storage, added nodes as a range of positions in each stage) 
+ * and keys are only created when they are requested.  Since nodes and flows
+ * are never removed from a {@code DefaultFlowDataset}, the keys can be 
+ * requested at any time after the event is received.
+ *
+ * @param <K> the type for the keys used to identify sources and destinations.
+ */
+public class FlowDatasetChangeEvent<K extends Comparable<K>> 
+        extends DatasetChangeEvent {
+
+    /** 
+     * The number of changed flows above which the positions are held in a
+     * bit set rather than a list.
+     */
+    private static final int FLOW_SET_THRESHOLD = 64;
+
+    /** The dataset. */
+    private final transient DefaultFlowDataset<K> flowDataset;
+
+    /** The types of change. */
+    private final Set<FlowDatasetChangeType> changeTypes;
+
+    /** The flow stages affected by the changes. */
+    private final BitSet stages;
+
+    /** 
+     * The positions of the flows whose values were set, while there are 
+     * few of them (without duplicates, {@code null} once {@code flowSet} 
+     * is used).  A bit set sized by position would cost up to one bit per 
+     * flow in the dataset even for a single change.
+     */
+    private int[] flowList;
+
+    /** The number of positions in {@code flowList}. */
+    private int flowCount;
+
+    /** 
+     * The positions of the flows whose values were set, once there are too
+     * many for {@code flowList} ({@code null} until then).
+     */
+    private BitSet flowSet;
+
+    /** The number of nodes at each node stage before the changes. */
+    private final int[] startNodeCounts;
+
+    /** The number of nodes at each node stage after the changes. */
+    private int[] endNodeCounts;
+
+    /** The nodes with properties set (possibly {@code null}). */
+    private Set<NodeKey<K>> nodeProperties;
+
+    /** The flows with properties set (possibly {@code null}). */
+    private Set<FlowKey<K>> flowProperties;
+
+    /**
+     * Creates a new event that does not (yet) describe any changes.
+     * 
+     * @param dataset  the dataset ({@code null} not permitted).
+     * @param nodeCounts  the number of nodes at each node stage before the
+     *     changes.
+     */
+    FlowDatasetChangeEvent(DefaultFlowDataset<K> dataset, int[] nodeCounts) {
+        super(dataset, dataset);
+        this.flowDataset = dataset;
+        this.changeTypes = EnumSet.noneOf(FlowDatasetChangeType.class);
+        this.stages = new BitSet();
+        this.flowList = new int[0];
+        this.startNodeCounts = nodeCounts;
+        this.endNodeCounts = nodeCounts;
+    }
+
+    /**
+     * Returns the types of change described by this event.
+     * 
+     * @return An unmodifiable set (never {@code null}).
+     */
+    public Set<FlowDatasetChangeType> getChangeTypes() {
+        return Collections.unmodifiableSet(this.changeTypes);
+    }
+
+    /**
+     * Returns {@code true} if this event includes a change of the specified
+     * type.
+     * 
+     * @param type  the change type ({@code null} not permitted).
+     * 
+     * @return A boolean.
+     */
+    public boolean hasChange(FlowDatasetChangeType type) {
+        Args.nullNotPermitted(type, "type");
+        return this.changeTypes.contains(type);
+    }
+
+    /**
+     * Returns {@code true} if this event reports only changes to node or 
+     * flow properties, so that listeners that depend only on the nodes and
+     * flow values can skip it.
+     * 
+     * @return A boolean.
+     */
+    public boolean isPropertyChangeOnly() {
+        return !this.changeTypes.contains(FlowDatasetChangeType.FLOW_VALUE) 
+                && !this.changeTypes.contains(FlowDatasetChangeType.NODE_ADDED)
+                && !this.changeTypes.contains(
+                        FlowDatasetChangeType.STAGE_ADDED);
+    }
+
+    /**
+     * Returns {@code true} if the specified stage is affected by the 
+     * changes, that is if a flow was set at the stage, a node was added to
+     * or had a property set at either side of the stage, or a flow at the
+     * stage had a property set.
+     * 
+     * @param stage  the stage.
+     * 
+     * @return A boolean.
+     */
+    public boolean isStageAffected(int stage) {
+        return stage >= 0 && this.stages.get(stage);
+    }
+
+    /**
+     * Returns the number of flows whose values were set.
+     * 
+     * @return The number of flows.
+     */
+    public int getChangedFlowCount() {
+        return this.flowSet != null ? this.flowSet.cardinality() 
+                : this.flowCount;
+    }
+
+    /**
+     * Returns the keys for the flows whose values were set (including new
+     * flows).
+     * 
+     * @return A new set (possibly empty but never {@code null}).
+     */
+    public Set<FlowKey<K>> getChangedFlows() {
+        Set<FlowKey<K>> result = new HashSet<>();
+        if (this.flowSet != null) {
+            for (int i = this.flowSet.nextSetBit(0); i >= 0; 
+                    i = this.flowSet.nextSetBit(i + 1)) {
+                result.add(this.flowDataset.flowKey(i));
+            }
+        } else {
+            for (int i = 0; i < this.flowCount; i++) {
+                result.add(this.flowDataset.flowKey(this.flowList[i]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the keys for the nodes that were added, in the order that 
+     * they were added within each stage.
+     * 
+     * @return A new list (possibly empty but never {@code null}).
+     */
+    public List<NodeKey<K>> getAddedNodes() {
+        List<NodeKey<K>> result = new ArrayList<>();
+        for (int stage = 0; stage < this.endNodeCounts.length; stage++) {
+            int start = stage < this.startNodeCounts.length 
+                    ? this.startNodeCounts[stage] : 0;
+            for (int i = start; i < this.endNodeCounts[stage]; i++) {
+                result.add(this.flowDataset.nodeKey(stage, i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the keys for the nodes that had a property set.
+     * 
+     * @return An unmodifiable set (possibly empty but never {@code null}).
+     */
+    public Set<NodeKey<K>> getChangedNodeProperties() {
+        return this.nodeProperties != null 
+                ? Collections.unmodifiableSet(this.nodeProperties) 
+                : Collections.emptySet();
+    }
+
+    /**
+     * Returns the keys for the flows that had a property set.
+     * 
+     * @return An unmodifiable set (possibly empty but never {@code null}).
+     */
+    public Set<FlowKey<K>> getChangedFlowProperties() {
+        return this.flowProperties != null 
+                ? Collections.unmodifiableSet(this.flowProperties) 
+                : Collections.emptySet();
+    }
+
+    /**
+     * Records that the value of a flow was set.
+     * 
+     * @param index  the position of the flow in the dataset storage.
+     * @param stage  the stage of the flow.
+     */
+    void flowChanged(int index, int stage) {
+        this.changeTypes.add(FlowDatasetChangeType.FLOW_VALUE);
+        addFlowPosition(index);
+        this.stages.set(stage);
+    }
+
+    /**
+     * Adds a flow position to the changed flows, moving the positions to a
+     * bit set once there are more than {@code FLOW_SET_THRESHOLD} of them.
+     * 
+     * @param index  the position of the flow in the dataset storage.
+     */
+    private void addFlowPosition(int index) {
+        if (this.flowSet != null) {
+            this.flowSet.set(index);
+            return;
+        }
+        for (int i = 0; i < this.flowCount; i++) {
+            if (this.flowList[i] == index) {
+                return;
+            }
+        }
+        if (this.flowCount == FLOW_SET_THRESHOLD) {
+            this.flowSet = new BitSet();
+            for (int i = 0; i < this.flowCount; i++) {
+                this.flowSet.set(this.flowList[i]);
+            }
+            this.flowSet.set(index);
+            this.flowList = null;
+            this.flowCount = 0;
+            return;
+        }
+        if (this.flowCount == this.flowList.length) {
+            this.flowList = Arrays.copyOf(this.flowList, 
+                    Math.max(4, this.flowCount * 2));
+        }
+        this.flowList[this.flowCount++] = index;
+    }
+
+    /**
+     * Records that a node was added.
+     * 
+     * @param nodeStage  the node stage.
+     */
+    void nodeAdded(int nodeStage) {
+        this.changeTypes.add(FlowDatasetChangeType.NODE_ADDED);
+        markNodeStage(nodeStage);
+    }
+
+    /**
+     * Records that a stage was added.
+     * 
+     * @param stage  the new stage.
+     */
+    void stageAdded(int stage) {
+        this.changeTypes.add(FlowDatasetChangeType.STAGE_ADDED);
+        this.stages.set(stage);
+    }
+
+    /**
+     * Records that a property was set for a node.
+     * 
+     * @param nodeKey  the node key.
+     */
+    void nodePropertyChanged(NodeKey<K> nodeKey) {
+        this.changeTypes.add(FlowDatasetChangeType.NODE_PROPERTY);
+        if (this.nodeProperties == null) {
+            this.nodeProperties = new HashSet<>();
+        }
+        this.nodeProperties.add(nodeKey);
+        markNodeStage(nodeKey.getStage());
+    }
+
+    /**
+     * Records that a property was set for a flow.
+     * 
+     * @param flowKey  the flow key.
+     */
+    void flowPropertyChanged(FlowKey<K> flowKey) {
+        this.changeTypes.add(FlowDatasetChangeType.FLOW_PROPERTY);
+        if (this.flowProperties == null) {
+            this.flowProperties = new HashSet<>();
+        }
+        this.flowProperties.add(flowKey);
+        this.stages.set(flowKey.getStage());
+    }
+
+    /**
+     * Records the number of nodes at each node stage once all the changes
+     * have been made (called just before the event is sent).
+     * 
+     * @param nodeCounts  the node counts.
+     */
+    void close(int[] nodeCounts) {
+        this.endNodeCounts = nodeCounts;
+    }
+
+    /**
+     * Marks the flow stages on either side of a node stage as affected.
+     * 
+     * @param nodeStage  the node stage.
+     */
+    private void markNodeStage(int nodeStage) {
+        if (nodeStage > 0) {
+            this.stages.set(nodeStage - 1);
+        }
+        if (nodeStage >= 0 && nodeStage < this.flowDataset.getStageCount()) {
+            this.stages.set(nodeStage);
+        }
+    }
+
+}
@@ -0,0 +1,301 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ *
+ * ----------------------
+ * FlowDatasetReader.java
+ * ----------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.jfree.chart.util.Args;
+
+/**
+ * Reads flow datasets written by a {@link FlowDatasetWriter}.  Datasets are
+ * read one at a time from the stream, in the order they were written, and 
+ * each is loaded into a new {@link DefaultFlowDataset} in a single bulk
+ * operation (so only one change event is generated per dataset).
+ */
+public class FlowDatasetReader implements AutoCloseable {
+
+    /** The underlying stream. */
+    private final InputStream in;
+
+    /** The input buffer. */
+    private final byte[] buffer;
+
+    /** The position of the next byte to read from the buffer. */
+    private int pos;
+
+    /** The number of bytes in the buffer. */
+    private int limit;
+
+    /**
+     * Creates a new reader.
+     *
+     * @param in  the input stream ({@code null} not permitted).
+     */
+    public FlowDatasetReader(InputStream in) {
+        Args.nullNotPermitted(in, "in");
+        this.in = in;
+        this.buffer = new byte[1 << 16];
+    }
+
+    /**
+     * Reads the next dataset from the stream.
+     *
+     * @param <K> the key type.
+     * @param keyType  the key type ({@code String.class}, 
+     *     {@code Integer.class} or {@code Long.class}).
+     *
+     * @return The dataset, or {@code null} if the end of the stream has been
+     *     reached.
+     *
+     * @throws IOException if there is a problem reading the stream, the data
+     *     is not in the expected format or the keys are not of the specified
+     *     type (a dataset with no nodes can be read with any supported key
+     *     type).
+     */
+    public <K extends Comparable<K>> DefaultFlowDataset<K> read(
+            Class<K> keyType) throws IOException {
+        Args.nullNotPermitted(keyType, "keyType");
+        if (!fill(1)) {
+            return null;
+        }
+        if (readInt() != FlowDatasetWriter.MAGIC) {
+            throw new IOException("Not a flow dataset.");
+        }
+        int version = readVarint();
+        if (version != FlowDatasetWriter.VERSION) {
+            throw new IOException("Unsupported version: " + version);
+        }
+        int code = readVarint();
+        if (!SortedFlows.isKeyType(code, keyType)) {
+            throw new IOException("The data does not have keys of type "
+                    + keyType.getName());
+        }
+        int stageCount = readVarint();
+        if (stageCount < 0 || stageCount >= PackedFlowMap.MAX_STAGES) {
+            throw new IOException("Invalid stage count.");
+        }
+        List<List<K>> nodes = new ArrayList<>(stageCount + 1);
+        for (int s = 0; s <= stageCount; s++) {
+            int count = readCount();
+            if (count > PackedFlowMap.MAX_NODES 
+                    || count > 0 && code == SortedFlows.ANY_KEYS) {
+                throw new IOException("Invalid node count.");
+            }
+            List<K> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                list.add(keyType.cast(readKey(code)));
+            }
+            nodes.add(list);
+        }
+        // the flows are keyed by node position, as for a FlowAggregate, so
+        // that no flow keys or values are boxed
+        PackedFlowMap flows = new PackedFlowMap();
+        for (int s = 0; s < stageCount; s++) {
+            int sourceCount = nodes.get(s).size();
+            int destinationCount = nodes.get(s + 1).size();
+            int count = readCount();
+            int source = 0;
+            int destination = 0;
+            for (int i = 0; i < count; i++) {
+                int ds = readVarint();
+                if (ds != 0) {
+                    destination = 0;
+                }
+                source += ds;
+                destination += readVarint();
+                if (source < 0 || source >= sourceCount || destination < 0 
+                        || destination >= destinationCount) {
+                    throw new IOException("Invalid node index.");
+                }
+                long key = PackedFlowMap.pack(s, source, destination);
+                double value = readDouble();
+                int index = flows.indexOf(key);
+                if (index >= 0) {
+                    flows.setValueAt(index, value);
+                } else {
+                    flows.add(key, value);
+                }
+            }
+        }
+        DefaultFlowDataset<K> dataset = new DefaultFlowDataset<>();
+        dataset.addAll(nodes, flows);
+        return dataset;
+    }
+
+    /**
+     * Reads a node key.
+     *
+     * @param code  the key type code.
+     *
+     * @return The key.
+     *
+     * @throws IOException if there is a problem reading the stream.
+     */
+    private Object readKey(int code) throws IOException {
+        if (code == FlowDatasetWriter.STRING_KEYS) {
+            int length = readCount();
+            if (fill(Math.min(length, this.buffer.length)) 
+                    && length <= this.limit - this.pos) {
+                String s = new String(this.buffer, this.pos, length, 
+                        StandardCharsets.UTF_8);
+                this.pos += length;
+                return s;
+            }
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = readByte();
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        } else if (code == FlowDatasetWriter.INTEGER_KEYS) {
+            int n = readVarint();
+            return (n >>> 1) ^ -(n & 1);
+        } else {
+            long n = readVarlong();
+            return (n >>> 1) ^ -(n & 1L);
+        }
+    }
+
+    /**
+     * Reads a count, checking that it is not negative.
+     *
+     * @return The count.
+     *
+     * @throws IOException if there is a problem reading the stream.
+     */
+    private int readCount() throws IOException {
+        int n = readVarint();
+        if (n < 0) {
+            throw new IOException("Invalid count.");
+        }
+        return n;
+    }
+
+    private int readVarint() throws IOException {
+        long n = readVarlong();
+        if ((n >>> 32) != 0) {
+            throw new IOException("Invalid varint.");
+        }
+        return (int) n;
+    }
+
+    private long readVarlong() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Invalid varint.");
+    }
+
+    private int readInt() throws IOException {
+        if (!fill(4)) {
+            throw new EOFException();
+        }
+        byte[] b = this.buffer;
+        int p = this.pos;
+        this.pos += 4;
+        return (b[p] & 0xFF) << 24 | (b[p + 1] & 0xFF) << 16 
+                | (b[p + 2] & 0xFF) << 8 | (b[p + 3] & 0xFF);
+    }
+
+    private double readDouble() throws IOException {
+        if (!fill(8)) {
+            throw new EOFException();
+        }
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (this.buffer[this.pos++] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    private byte readByte() throws IOException {
+        if (this.pos == this.limit && !fill(1)) {
+            throw new EOFException();
+        }
+        return this.buffer[this.pos++];
+    }
+
+    /**
+     * Ensures that at least {@code n} bytes (no more than the buffer size)
+     * are available in the buffer, reading from the stream if necessary.
+     *
+     * @param n  the number of bytes required.
+     *
+     * @return A boolean indicating whether the bytes are available 
+     *     ({@code false} if the end of the stream was reached first).
+     *
+     * @throws IOException if there is a problem reading the stream.
+     */
+    private boolean fill(int n) throws IOException {
+        if (this.limit - this.pos >= n) {
+            return true;
+        }
+        System.arraycopy(this.buffer, this.pos, this.buffer, 0, 
+                this.limit - this.pos);
+        this.limit -= this.pos;
+        this.pos = 0;
+        while (this.limit < n) {
+            int read = this.in.read(this.buffer, this.limit, 
+                    this.buffer.length - this.limit);
+            if (read < 0) {
+                return false;
+            }
+            this.limit += read;
+        }
+        return true;
+    }
+
+    /**
+     * Closes the underlying stream.
+     *
+     * @throws IOException if there is a problem closing the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+}
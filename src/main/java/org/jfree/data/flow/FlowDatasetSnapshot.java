@@ -0,0 +1,394 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ------------------------
+ * FlowDatasetSnapshot.java
+ * ------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.jfree.chart.util.Args;
+import org.jfree.data.general.AbstractDataset;
+
+/**
+ * An immutable copy of the content of a {@link DefaultFlowDataset} at a
+ * point in time, obtained by calling {@link DefaultFlowDataset#snapshot()}.
+ * A snapshot can be read (for example, rendered by a
+ * {@link org.jfree.chart.plot.flow.FlowPlot}) from any thread without
+ * locking while the source dataset continues to be updated.
+ * <br><br>
+ * Successive snapshots of the same dataset share the parts of their
+ * internal structure that have not changed in between.  The flows and node
+ * totals for each stage are held in pages of a few hundred nodes, so 
+ * taking a new snapshot after a small change copies the rows of the 
+ * sources of the changed flows and the pages holding the affected nodes, 
+ * plus one reference per page (and the node list for each stage that 
+ * gained nodes).  Node and flow properties are paged in the same way.  A snapshot never sends change events.
+ *
+ * @param <K> the type for the keys used to identify sources and destinations
+ *     (instances should be immutable, {@code String} is a good default choice).
+ */
+public final class FlowDatasetSnapshot<K extends Comparable<K>>
+        extends AbstractDataset implements FlowDataset<K>, Serializable {
+
+    /** The (unmodifiable) node lists, one more entry than there are stages. */
+    final List<List<K>> nodes;
+
+    /** The flows at each stage, keyed by source then destination. */
+    final List<PagedMap<K, Map<K, Number>>> rows;
+
+    /**
+     * The inflow and outflow totals for the nodes at each node stage (the
+     * array for each node holds the inflow then the outflow, each as a 
+     * compensated sum, see {@link CompensatedSum}).
+     */
+    final List<PagedMap<K, double[]>> nodeTotals;
+
+    /** The total flow at each stage (two entries per stage, compensated). */
+    private final double[] stageTotals;
+
+    /** Node properties. */
+    final PagedMap<NodeKey<K>, Map<String, Object>> nodeProperties;
+
+    /** Flow properties. */
+    final PagedMap<FlowKey<K>, Map<String, Object>> flowProperties;
+
+    /** 
+     * The fingerprint of the source dataset when the snapshot was taken 
+     * (see {@link DefaultFlowDataset#getFingerprint()}).
+     */
+    final long fingerprint;
+
+    /**
+     * Creates a new snapshot.  The caller must not modify any of the
+     * supplied structures after this constructor is called.
+     *
+     * @param nodes  the unmodifiable node lists.
+     * @param rows  the flows, keyed by stage, source and destination.
+     * @param nodeTotals  the node totals.
+     * @param stageTotals  the stage totals.
+     * @param nodeProperties  the node properties.
+     * @param flowProperties  the flow properties.
+     * @param fingerprint  the fingerprint of the source dataset.
+     */
+    FlowDatasetSnapshot(List<List<K>> nodes,
+            List<PagedMap<K, Map<K, Number>>> rows,
+            List<PagedMap<K, double[]>> nodeTotals, double[] stageTotals,
+            PagedMap<NodeKey<K>, Map<String, Object>> nodeProperties,
+            PagedMap<FlowKey<K>, Map<String, Object>> flowProperties,
+            long fingerprint) {
+        this.nodes = nodes;
+        this.rows = rows;
+        this.nodeTotals = nodeTotals;
+        this.stageTotals = stageTotals;
+        this.nodeProperties = nodeProperties;
+        this.flowProperties = flowProperties;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Returns the number of flow stages.
+     *
+     * @return The number of flow stages.
+     */
+    @Override
+    public int getStageCount() {
+        return this.nodes.size() - 1;
+    }
+
+    /**
+     * Returns a list of the source nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSources(int stage) {
+        return new ArrayList<>(this.nodes.get(stage));
+    }
+
+    /**
+     * Returns a list of the destination nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of destination nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getDestinations(int stage) {
+        return new ArrayList<>(this.nodes.get(stage + 1));
+    }
+
+    /**
+     * Returns an unmodifiable list of the source nodes for the specified
+     * stage.  Since the snapshot never changes, the list remains valid
+     * indefinitely.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSourcesView(int stage) {
+        return this.nodes.get(stage);
+    }
+
+    /**
+     * Returns an unmodifiable list of the destination nodes for the
+     * specified stage.  Since the snapshot never changes, the list remains
+     * valid indefinitely.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of destination nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getDestinationsView(int stage) {
+        return this.nodes.get(stage + 1);
+    }
+
+    /**
+     * Returns the set of keys for all the nodes in the dataset.
+     *
+     * @return The set of keys for all the nodes in the dataset (possibly empty
+     *     but never {@code null}).
+     */
+    @Override
+    public Set<NodeKey<K>> getAllNodes() {
+        Set<NodeKey<K>> result = new HashSet<>();
+        for (int s = 0; s < this.nodes.size(); s++) {
+            for (K key : this.nodes.get(s)) {
+                result.add(new NodeKey<>(s, key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of a property, if specified, for the specified node.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the node key ({@code null} not permitted).
+     *
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getNodeProperty(NodeKey<K> nodeKey, String propertyKey) {
+        Map<String, Object> props = this.nodeProperties.get(nodeKey);
+        if (props != null) {
+            return props.get(propertyKey);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the flow between a source node and a destination node at a
+     * specified stage.
+     *
+     * @param stage  the stage index (0 to {@code getStageCount()} - 1).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     *
+     * @return The flow (zero or greater, possibly {@code null}).
+     */
+    @Override
+    public Number getFlow(int stage, K source, K destination) {
+        Map<K, Number> row = this.rows.get(stage).get(source);
+        return row != null ? row.get(destination) : null;
+    }
+
+    /**
+     * Returns a set of keys for all the flows in the dataset.
+     *
+     * @return A set.
+     */
+    @Override
+    public Set<FlowKey<K>> getAllFlows() {
+        Set<FlowKey<K>> result = new HashSet<>();
+        for (int stage = 0; stage < this.rows.size(); stage++) {
+            final int s = stage;
+            this.rows.get(stage).forEach((source, row) -> {
+                for (K destination : row.keySet()) {
+                    result.add(new FlowKey<>(s, source, destination));
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of a property, if specified, for the specified flow.
+     *
+     * @param flowKey  flowKey ({@code null} not permitted).
+     *
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getFlowProperty(FlowKey<K> flowKey, String propertyKey) {
+        Map<String, Object> props = this.flowProperties.get(flowKey);
+        if (props != null) {
+            return props.get(propertyKey);
+        }
+        return null;
+    }
+
+    /**
+     * Returns {@code true}, since this snapshot maintains the node and stage 
+     * totals.
+     * 
+     * @return {@code true}.
+     */
+    @Override
+    public boolean hasMaintainedTotals() {
+        return true;
+    }
+
+    /**
+     * Returns the total inflow for a node.
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     *
+     * @return The total inflow (zero for nodes at stage 0).
+     */
+    @Override
+    public double getInflow(int stage, K node) {
+        Args.nullNotPermitted(node, "node");
+        if (stage < 0 || stage >= this.nodeTotals.size()) {
+            return 0.0;
+        }
+        double[] totals = this.nodeTotals.get(stage).get(node);
+        return totals != null ? CompensatedSum.get(totals, 0) : 0.0;
+    }
+
+    /**
+     * Returns the total outflow for a node.
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     *
+     * @return The total outflow (zero for the final destination nodes).
+     */
+    @Override
+    public double getOutflow(int stage, K node) {
+        Args.nullNotPermitted(node, "node");
+        if (stage < 0 || stage >= this.nodeTotals.size()) {
+            return 0.0;
+        }
+        double[] totals = this.nodeTotals.get(stage).get(node);
+        return totals != null ? CompensatedSum.get(totals, 2) : 0.0;
+    }
+
+    /**
+     * Returns the total of all flows at the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return The total flow.
+     */
+    @Override
+    public double getTotalFlow(int stage) {
+        return CompensatedSum.get(this.stageTotals, 2 * stage);
+    }
+
+    /**
+     * Tests this snapshot for equality with an arbitrary object.  This method
+     * will return {@code true} if the object implements the
+     * {@link FlowDataset} and defines the exact same set of nodes and flows
+     * as this snapshot.  When the object is a {@link DefaultFlowDataset} or 
+     * another snapshot, the fingerprints are compared first.
+     *
+     * @param obj  the object to test equality against ({@code null} permitted).
+     *
+     * @return A boolean.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FlowDataset)) {
+            return false;
+        }
+        if (obj instanceof FlowDatasetSnapshot 
+                && ((FlowDatasetSnapshot) obj).fingerprint != this.fingerprint) {
+            return false;
+        }
+        if (obj instanceof DefaultFlowDataset 
+                && ((DefaultFlowDataset) obj).getFingerprint() != this.fingerprint) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        final FlowDataset<K> other = (FlowDataset<K>) obj;
+        if (other.getStageCount() != getStageCount()) {
+            return false;
+        }
+        for (int stage = 0; stage < getStageCount(); stage++) {
+            List<K> sources = this.nodes.get(stage);
+            List<K> destinations = this.nodes.get(stage + 1);
+            if (!Objects.equals(other.getSourcesView(stage), sources)) {
+                return false;
+            }
+            if (!Objects.equals(other.getDestinationsView(stage), destinations)) {
+                return false;
+            }
+            for (K source : sources) {
+                for (K destination : destinations) {
+                    if (!Objects.equals(other.getFlow(stage, source, destination), getFlow(stage, source, destination))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code for this snapshot, which is the same as the hash 
+     * code of the source dataset at the time the snapshot was taken.
+     *
+     * @return A hash code.
+     */
+    @Override
+    public int hashCode() {
+        return FlowDatasetUtils.hashCode(this.fingerprint, getStageCount());
+    }
+
+}
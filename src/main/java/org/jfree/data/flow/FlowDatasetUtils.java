@@ -43,9 +43,16 @@ import org.jfree.graphics2d.Args;
  * Utility methods related to {@link FlowDataset}.
  */
 public class FlowDatasetUtils {
+
+    /** Added to node positions when computing a content fingerprint. */
+    private static final long NODE_SALT = 0x9E3779B97F4A7C15L;
+
+    /** Added to packed flow keys when computing a content fingerprint. */
+    private static final long FLOW_SALT = 0x632BE59BD9B4E019L;
     
     /**
-     * Returns the total inflow for the specified destination node.
+     * Returns the total inflow for the specified destination node.  Flows 
+     * that are {@code null} or {@code NaN} count as zero.
      * 
      * @param <K> the type for the flow identifiers.
      * @param dataset  the dataset ({@code null} not permitted).
@@ -61,10 +68,10 @@ public class FlowDatasetUtils {
             return 0.0;  // there are no inflows for stage 0
         }
         double inflow = 0.0;
-        List<K> sourceKeys = dataset.getSources(stage - 1);
+        List<K> sourceKeys = dataset.getSourcesView(stage - 1);
         for (K key : sourceKeys) {
             Number n = dataset.getFlow(stage - 1, key, node);
-            if (n != null) {
+            if (n != null && !Double.isNaN(n.doubleValue())) {
                 inflow = inflow + n.doubleValue();
             }
         }
@@ -72,7 +79,8 @@ public class FlowDatasetUtils {
     }
 
     /**
-     * Returns the total outflow for the specified source node.
+     * Returns the total outflow for the specified source node.  Flows that
+     * are {@code null} or {@code NaN} count as zero.
      * 
      * @param <K> the type for the flow identifiers.
      * @param dataset  the dataset ({@code null} not permitted).
@@ -88,10 +96,10 @@ public class FlowDatasetUtils {
             return 0.0;  // there are no outflows for the last stage
         }
         double outflow = 0.0;
-        List<K> destinationKeys = dataset.getDestinations(stage);
+        List<K> destinationKeys = dataset.getDestinationsView(stage);
         for (K key : destinationKeys) {
             Number n = dataset.getFlow(stage, source, key);
-            if (n != null) {
+            if (n != null && !Double.isNaN(n.doubleValue())) {
                 outflow = outflow + n.doubleValue();
             }
         }
@@ -100,7 +108,8 @@ public class FlowDatasetUtils {
 
     /**
      * Returns the total flow from all sources to all destinations at the 
-     * specified stage.
+     * specified stage.  Flows that are {@code null} or {@code NaN} count as
+     * zero.
      * 
      * @param <K> the type for the flow identifiers.
      * @param dataset  the dataset ({@code null} not permitted).
@@ -111,17 +120,149 @@ public class FlowDatasetUtils {
     public static <K extends Comparable<K>> double calculateTotalFlow(FlowDataset<K> dataset, int stage) {
         Args.nullNotPermitted(dataset, "dataset");
         double total = 0.0;
-        for (K source : dataset.getSources(stage)) {
-            for (K destination : dataset.getDestinations(stage)) {
+        for (K source : dataset.getSourcesView(stage)) {
+            for (K destination : dataset.getDestinationsView(stage)) {
                 Number flow = dataset.getFlow(stage, source, destination);
-                if (flow != null) {
+                if (flow != null && !Double.isNaN(flow.doubleValue())) {
                     total = total + flow.doubleValue();
                 }
             }
         }
         return total;
     }
-    
+
+    /**
+     * Returns a table of the inflow, outflow and throughput for every node
+     * in the dataset, plus the total flow at each stage.  The table is
+     * calculated in a single pass over the flows, which is much faster than
+     * calling {@link #calculateInflow(FlowDataset, Comparable, int)} and
+     * {@link #calculateOutflow(FlowDataset, Comparable, int)} for each node.
+     *
+     * @param <K> the type for the node keys.
+     * @param dataset  the dataset ({@code null} not permitted).
+     *
+     * @return The totals (never {@code null}).
+     */
+    public static <K extends Comparable<K>> NodeFlowTotals<K> calculateNodeFlowTotals(FlowDataset<K> dataset) {
+        return calculateNodeFlowTotals(dataset, false);
+    }
+
+    /**
+     * Returns a table of the inflow, outflow and throughput for every node
+     * in the dataset, plus the total flow at each stage, optionally
+     * calculating the stages in parallel (using the common fork/join pool).
+     * The dataset must not be modified while the totals are calculated.
+     *
+     * @param <K> the type for the node keys.
+     * @param dataset  the dataset ({@code null} not permitted).
+     * @param parallel  calculate the stages in parallel?
+     *
+     * @return The totals (never {@code null}).
+     */
+    public static <K extends Comparable<K>> NodeFlowTotals<K> calculateNodeFlowTotals(FlowDataset<K> dataset, boolean parallel) {
+        Args.nullNotPermitted(dataset, "dataset");
+        return new NodeFlowTotals<>(dataset, parallel);
+    }
+
+    /**
+     * Returns a hash code for the content of a dataset:  the nodes at each 
+     * stage (in order) and the flow values.  The {@link FlowDataset} 
+     * implementations in this package compare content in their 
+     * {@code equals()} methods, and all return this value from 
+     * {@code hashCode()}, so equal datasets have equal hash codes whatever 
+     * their type.  {@link DefaultFlowDataset} maintains the value as it is
+     * modified, other datasets calculate it by iterating over every source
+     * and destination pair.
+     *
+     * @param <K> the type for the node keys.
+     * @param dataset  the dataset ({@code null} not permitted).
+     *
+     * @return The hash code.
+     */
+    public static <K extends Comparable<K>> int calculateHashCode(FlowDataset<K> dataset) {
+        Args.nullNotPermitted(dataset, "dataset");
+        int stageCount = dataset.getStageCount();
+        long fingerprint = 0L;
+        for (int n = 0; n <= stageCount; n++) {
+            List<K> nodes = n < stageCount ? dataset.getSourcesView(n) 
+                    : dataset.getDestinationsView(n - 1);
+            for (int i = 0; i < nodes.size(); i++) {
+                fingerprint += nodeTerm(n, i, nodes.get(i));
+            }
+        }
+        for (int stage = 0; stage < stageCount; stage++) {
+            List<K> sources = dataset.getSourcesView(stage);
+            List<K> destinations = dataset.getDestinationsView(stage);
+            for (int i = 0; i < sources.size(); i++) {
+                for (int j = 0; j < destinations.size(); j++) {
+                    Number n = dataset.getFlow(stage, sources.get(i), 
+                            destinations.get(j));
+                    if (n != null) {
+                        fingerprint += flowTerm(PackedFlowMap.pack(stage, i, 
+                                j), n.doubleValue());
+                    }
+                }
+            }
+        }
+        return hashCode(fingerprint, stageCount);
+    }
+
+    /**
+     * Returns the hash code for a dataset with the specified content 
+     * fingerprint and stage count.
+     * 
+     * @param fingerprint  the fingerprint (the sum of the node and flow 
+     *     terms).
+     * @param stageCount  the stage count.
+     * 
+     * @return A hash code.
+     */
+    static int hashCode(long fingerprint, int stageCount) {
+        return 31 * Long.hashCode(fingerprint) + stageCount;
+    }
+
+    /**
+     * Returns the contribution of a node to a content fingerprint.
+     * 
+     * @param nodeStage  the node stage.
+     * @param index  the position of the node within the stage.
+     * @param key  the node key.
+     * 
+     * @return The fingerprint term.
+     */
+    static long nodeTerm(int nodeStage, int index, Object key) {
+        return mix(mix(((long) nodeStage << 32 | index) + NODE_SALT) 
+                ^ key.hashCode());
+    }
+
+    /**
+     * Returns the contribution of a flow to a content fingerprint.  Since 
+     * the node positions are included in the fingerprint, the flow is 
+     * identified by its packed key.
+     * 
+     * @param key  the packed flow key.
+     * @param value  the flow value.
+     * 
+     * @return The fingerprint term.
+     */
+    static long flowTerm(long key, double value) {
+        return mix(mix(key + FLOW_SALT) ^ Double.doubleToLongBits(value));
+    }
+
+    /**
+     * Scrambles the bits of a {@code long} (this is the finalizer from the 
+     * SplitMix64 generator).
+     * 
+     * @param z  the input.
+     * 
+     * @return The scrambled value.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
     /**
      * Returns {@code true} if any of the nodes in the dataset have a property 
      * 'selected' with the value {@code Boolean.TRUE}, and 
@@ -135,9 +276,9 @@ public class FlowDatasetUtils {
     public static <K extends Comparable<K>> boolean hasNodeSelections(FlowDataset<K> dataset) {
         Args.nullNotPermitted(dataset, "dataset");
         for (int stage = 0; stage < dataset.getStageCount() + 1; stage++) { // '+1' to include final destination nodes 
-            for (K source : dataset.getSources(stage)) {
-                NodeKey<K> nodeKey = new NodeKey<>(stage, source);
-                if (Boolean.TRUE.equals(dataset.getNodeProperty(nodeKey, "selected"))) {
+            for (K source : dataset.getSourcesView(stage)) {
+                NodeKey<K> nodeKey = dataset.getNodeKey(stage, source);
+                if (dataset.getNodeBooleanProperty(nodeKey, "selected")) {
                     return true;
                 }
             }
@@ -157,9 +298,9 @@ public class FlowDatasetUtils {
         Args.nullNotPermitted(dataset, "dataset");
         int result = 0;
         for (int stage = 0; stage < dataset.getStageCount() + 1; stage++) { // '+1' to include final destination nodes 
-            for (K source : dataset.getSources(stage)) {
-                NodeKey<K> nodeKey = new NodeKey<>(stage, source);
-                if (Boolean.TRUE.equals(dataset.getNodeProperty(nodeKey, "selected"))) {
+            for (K source : dataset.getSourcesView(stage)) {
+                NodeKey<K> nodeKey = dataset.getNodeKey(stage, source);
+                if (dataset.getNodeBooleanProperty(nodeKey, "selected")) {
                     result++;
                 }
             }
@@ -180,10 +321,10 @@ public class FlowDatasetUtils {
     public static <K extends Comparable<K>> boolean hasFlowSelections(FlowDataset<K> dataset) {
         Args.nullNotPermitted(dataset, "dataset");
         for (int s = 0; s < dataset.getStageCount(); s++) { 
-            for (K source : dataset.getSources(s)) {
-                for (K destination : dataset.getDestinations(s)) {
-                    FlowKey<K> flowKey = new FlowKey<>(s, source, destination);
-                    if (Boolean.TRUE.equals(dataset.getFlowProperty(flowKey, "selected"))) {
+            for (K source : dataset.getSourcesView(s)) {
+                for (K destination : dataset.getDestinationsView(s)) {
+                    FlowKey<K> flowKey = dataset.getFlowKey(s, source, destination);
+                    if (dataset.getFlowBooleanProperty(flowKey, "selected")) {
                         return true;
                     }
                 }
@@ -192,5 +333,33 @@ public class FlowDatasetUtils {
         return false;
     }
 
-}
+    /**
+     * Returns a new dataset containing the nodes and flows from all the 
+     * specified datasets, with the values for matching flows (same stage, 
+     * source and destination) summed.  Within each stage the nodes appear in
+     * the order they are first encountered, taking the datasets in order.  
+     * Node and flow properties are not copied.  This can be used to combine
+     * datasets built separately (for example, one per partition of the input
+     * data).
+     * 
+     * @param <K> the type for the node keys.
+     * @param datasets  the datasets ({@code null} not permitted).
+     * 
+     * @return A new dataset (never {@code null}).
+     */
+    @SafeVarargs
+    public static <K extends Comparable<K>> DefaultFlowDataset<K> merge(FlowDataset<K>... datasets) {
+        // the varargs array is not passed to Args, since the compiler flags 
+        // any use of it other than reading its elements as possible heap 
+        // pollution
+        if (datasets == null) {
+            throw new IllegalArgumentException("Null 'datasets' argument.");
+        }
+        FlowAggregate<K> aggregate = new FlowAggregate<>();
+        for (FlowDataset<K> dataset : datasets) {
+            aggregate.add(dataset);
+        }
+        return aggregate.toDataset();
+    }
 
+}
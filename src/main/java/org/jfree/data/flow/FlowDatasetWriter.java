@@ -0,0 +1,262 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ *
+ * ----------------------
+ * FlowDatasetWriter.java
+ * ----------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.jfree.chart.util.Args;
+
+/**
+ * Writes flow datasets to a stream in a compact binary format that can be
+ * read with a {@link FlowDatasetReader}.  The format is much smaller and
+ * faster to read and write than Java serialization:  each node key is
+ * written once in a dictionary, flows refer to nodes by their index within
+ * the stage, indices and counts are written as variable-length integers
+ * and flow values are written as raw doubles.  The supported key types are
+ * {@code String}, {@code Integer} and {@code Long}.
+ * <br><br>
+ * Each dataset written has the following layout:
+ * <ul>
+ * <li>the format identifier (four bytes), the format version and the
+ *     key type;</li>
+ * <li>the stage count, then for each node stage the node count and the node 
+ *     keys;</li>
+ * <li>for each stage the flow count, then the flows sorted by source and 
+ *     destination index, with the source index written as the difference 
+ *     from the previous flow's source, the destination index written as the
+ *     difference from the previous destination in the same row, and the
+ *     value.</li>
+ * </ul>
+ * Several datasets can be written to the same stream, one after another.
+ * Node and flow properties are not written.  The writer buffers its output,
+ * call {@link #flush()} (or {@link #close()}) when finished.
+ */
+public class FlowDatasetWriter implements AutoCloseable {
+
+    /** The value written at the start of every dataset. */
+    static final int MAGIC = 0x464C4F44;
+
+    /** The format version. */
+    static final int VERSION = 1;
+
+    /** The key type code for {@code String} keys. */
+    static final int STRING_KEYS = SortedFlows.STRING_KEYS;
+
+    /** The key type code for {@code Integer} keys. */
+    static final int INTEGER_KEYS = SortedFlows.INTEGER_KEYS;
+
+    /** The key type code for {@code Long} keys. */
+    static final int LONG_KEYS = SortedFlows.LONG_KEYS;
+
+    /** The underlying stream. */
+    private final OutputStream out;
+
+    /** The output buffer. */
+    private final byte[] buffer;
+
+    /** The number of bytes in the buffer. */
+    private int count;
+
+    /**
+     * Creates a new writer.
+     *
+     * @param out  the output stream ({@code null} not permitted).
+     */
+    public FlowDatasetWriter(OutputStream out) {
+        Args.nullNotPermitted(out, "out");
+        this.out = out;
+        this.buffer = new byte[1 << 16];
+    }
+
+    /**
+     * Writes the nodes and flows of a dataset.  Flows with a {@code null}
+     * value are skipped.
+     *
+     * @param <K> the key type.
+     * @param dataset  the dataset ({@code null} not permitted).
+     *
+     * @throws IOException if there is a problem writing to the stream.
+     * @throws IllegalArgumentException if the dataset has keys of an
+     *     unsupported type.
+     */
+    public <K extends Comparable<K>> void write(FlowDataset<K> dataset) 
+            throws IOException {
+        Args.nullNotPermitted(dataset, "dataset");
+        SortedFlows<K> flows = new SortedFlows<>(dataset);
+        int stageCount = flows.getStageCount();
+        int keyType = flows.getKeyType();
+        writeInt(MAGIC);
+        writeVarint(VERSION);
+        writeVarint(keyType);
+        writeVarint(stageCount);
+        for (int n = 0; n <= stageCount; n++) {
+            List<K> list = flows.getNodes(n);
+            writeVarint(list.size());
+            for (K key : list) {
+                writeKey(keyType, key);
+            }
+        }
+        for (int s = 0; s < stageCount; s++) {
+            writeVarint(flows.getFlowCount(s));
+            int rowCount = flows.getNodes(s).size();
+            int prevSource = 0;
+            for (int source = 0; source < rowCount; source++) {
+                int prevDestination = 0;
+                for (int i = flows.getRowStart(s, source); 
+                        i < flows.getRowStart(s, source + 1); i++) {
+                    int destination = flows.getDestination(s, i);
+                    writeVarint(source - prevSource);
+                    writeVarint(destination - prevDestination);
+                    writeDouble(flows.getValue(s, i));
+                    prevSource = source;
+                    prevDestination = destination;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a node key.
+     *
+     * @param keyType  the key type code.
+     * @param key  the key.
+     *
+     * @throws IOException if there is a problem writing to the stream.
+     */
+    private void writeKey(int keyType, Object key) throws IOException {
+        if (keyType == STRING_KEYS) {
+            byte[] bytes = ((String) key).getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            writeBytes(bytes);
+        } else if (keyType == INTEGER_KEYS) {
+            int v = (Integer) key;
+            writeVarint((v << 1) ^ (v >> 31));
+        } else {
+            long v = (Long) key;
+            writeVarlong((v << 1) ^ (v >> 63));
+        }
+    }
+
+    /**
+     * Writes an int (treated as unsigned) using 1 to 5 bytes, seven bits at
+     * a time (the high bit of each byte is set if more bytes follow).  Keys
+     * that may be negative are zigzag encoded first, so that small negative
+     * values also use few bytes.
+     *
+     * @param v  the value.
+     *
+     * @throws IOException if there is a problem writing to the stream.
+     */
+    private void writeVarint(int v) throws IOException {
+        writeVarlong(v & 0xFFFFFFFFL);
+    }
+
+    private void writeVarlong(long v) throws IOException {
+        ensureCapacity(10);
+        while ((v & ~0x7FL) != 0) {
+            this.buffer[this.count++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        this.buffer[this.count++] = (byte) v;
+    }
+
+    private void writeInt(int v) throws IOException {
+        ensureCapacity(4);
+        this.buffer[this.count++] = (byte) (v >>> 24);
+        this.buffer[this.count++] = (byte) (v >>> 16);
+        this.buffer[this.count++] = (byte) (v >>> 8);
+        this.buffer[this.count++] = (byte) v;
+    }
+
+    private void writeDouble(double v) throws IOException {
+        ensureCapacity(8);
+        long bits = Double.doubleToLongBits(v);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            this.buffer[this.count++] = (byte) (bits >>> shift);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes.length > this.buffer.length - this.count) {
+            flushBuffer();
+            if (bytes.length > this.buffer.length) {
+                this.out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, this.buffer, this.count, bytes.length);
+        this.count += bytes.length;
+    }
+
+    private void ensureCapacity(int n) throws IOException {
+        if (this.buffer.length - this.count < n) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (this.count > 0) {
+            this.out.write(this.buffer, 0, this.count);
+            this.count = 0;
+        }
+    }
+
+    /**
+     * Writes any buffered data to the underlying stream and flushes it.
+     *
+     * @throws IOException if there is a problem writing to the stream.
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        this.out.flush();
+    }
+
+    /**
+     * Flushes the writer and closes the underlying stream.
+     *
+     * @throws IOException if there is a problem writing to the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+        this.out.close();
+    }
+
+}
@@ -57,6 +57,9 @@ public class FlowKey<K extends Comparable<K>> implements PublicCloneable, Serial
     
     /* The destination node. */
     private final K destination;
+
+    /** The cached hash code (zero if it has not been calculated yet). */
+    private transient int hash;
     
     /**
      * Creates a new instance.
@@ -130,6 +133,9 @@ public class FlowKey<K extends Comparable<K>> implements PublicCloneable, Serial
             return false;
         }
         final FlowKey<?> other = (FlowKey<?>) obj;
+        if (this.hash != 0 && other.hash != 0 && this.hash != other.hash) {
+            return false;
+        }
         if (this.stage != other.stage) {
             return false;
         }
@@ -142,12 +148,38 @@ public class FlowKey<K extends Comparable<K>> implements PublicCloneable, Serial
         return true;
     }
     
+    /**
+     * Returns a hash code for this instance.  The hash code is calculated 
+     * when first required, then cached.
+     * 
+     * @return A hash code.
+     */
     @Override
     public int hashCode() {
+        int h = this.hash;
+        if (h == 0) {
+            h = hashCode(this.stage, this.source, this.destination);
+            this.hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * Returns the hash code for a flow key with the specified attributes,
+     * so that a key can be looked up (in a {@link FlowKeyPool}) without
+     * creating an instance.
+     * 
+     * @param stage  the stage.
+     * @param source  the source.
+     * @param destination  the destination.
+     * 
+     * @return The hash code.
+     */
+    static int hashCode(int stage, Object source, Object destination) {
         int hash = 5;
-        hash = 67 * hash + this.stage;
-        hash = 67 * hash + Objects.hashCode(this.source);
-        hash = 67 * hash + Objects.hashCode(this.destination);
+        hash = 67 * hash + stage;
+        hash = 67 * hash + Objects.hashCode(source);
+        hash = 67 * hash + Objects.hashCode(destination);
         return hash;
     }
 
@@ -0,0 +1,365 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ *
+ * ----------------
+ * FlowKeyPool.java
+ * ----------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import org.jfree.chart.util.Args;
+
+/**
+ * A pool of canonical {@link NodeKey} and {@link FlowKey} instances.  A 
+ * dataset can use a pool so that each node and flow is identified by a
+ * single shared key instance (with its hash code cached) rather than
+ * creating a new key each time one is needed.  Keys are found using only
+ * their attributes, so looking up a key that is already in the pool does
+ * not allocate any objects.
+ * <br><br>
+ * A pool is not thread-safe and keeps every key added to it (it is 
+ * intended to live as long as the dataset that owns it).
+ *
+ * @param <K> the type for the keys used to identify sources and destinations.
+ */
+public class FlowKeyPool<K extends Comparable<K>> implements Serializable {
+
+    /** The node keys (an open addressing hash table). */
+    private transient NodeKey<K>[] nodeKeys;
+
+    /** The number of node keys in the pool. */
+    private transient int nodeKeyCount;
+
+    /** The flow keys (an open addressing hash table). */
+    private transient FlowKey<K>[] flowKeys;
+
+    /** The number of flow keys in the pool. */
+    private transient int flowKeyCount;
+
+    /** 
+     * A flag indicating that the node key table is shared with a copy of 
+     * this pool, so it must be copied before a key is added.
+     */
+    private transient boolean nodeKeysShared;
+
+    /** 
+     * A flag indicating that the flow key table is shared with a copy of 
+     * this pool, so it must be copied before a key is added.
+     */
+    private transient boolean flowKeysShared;
+
+    /**
+     * Creates a new empty pool.
+     */
+    @SuppressWarnings("unchecked")
+    public FlowKeyPool() {
+        this.nodeKeys = (NodeKey<K>[]) new NodeKey<?>[16];
+        this.flowKeys = (FlowKey<K>[]) new FlowKey<?>[16];
+    }
+
+    /**
+     * Returns the number of node keys in the pool.
+     *
+     * @return The number of node keys.
+     */
+    public int getNodeKeyCount() {
+        return this.nodeKeyCount;
+    }
+
+    /**
+     * Returns the number of flow keys in the pool.
+     *
+     * @return The number of flow keys.
+     */
+    public int getFlowKeyCount() {
+        return this.flowKeyCount;
+    }
+
+    /**
+     * Returns the pooled key for the specified node, adding a new key to the
+     * pool if there is not one already.
+     *
+     * @param stage  the node stage.
+     * @param node  the node ({@code null} not permitted).
+     *
+     * @return The canonical key (never {@code null}).
+     */
+    public NodeKey<K> nodeKey(int stage, K node) {
+        NodeKey<K> key = getNodeKey(stage, node);
+        if (key == null) {
+            key = new NodeKey<>(stage, node);
+            addNodeKey(key);
+        }
+        return key;
+    }
+
+    /**
+     * Returns the pooled key equal to the specified key, adding the key 
+     * itself to the pool if there is not one already.
+     *
+     * @param key  the key ({@code null} not permitted).
+     *
+     * @return The canonical key (never {@code null}).
+     */
+    public NodeKey<K> intern(NodeKey<K> key) {
+        Args.nullNotPermitted(key, "key");
+        NodeKey<K> result = getNodeKey(key.getStage(), key.getNode());
+        if (result == null) {
+            addNodeKey(key);
+            result = key;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the pooled key for the specified node, or {@code null} if 
+     * there is no such key in the pool.
+     *
+     * @param stage  the node stage.
+     * @param node  the node ({@code null} not permitted).
+     *
+     * @return The canonical key, or {@code null}.
+     */
+    public NodeKey<K> getNodeKey(int stage, K node) {
+        Args.nullNotPermitted(node, "node");
+        NodeKey<K>[] table = this.nodeKeys;
+        int mask = table.length - 1;
+        int slot = spread(NodeKey.hashCode(stage, node)) & mask;
+        NodeKey<K> key;
+        while ((key = table[slot]) != null) {
+            if (key.getStage() == stage && key.getNode().equals(node)) {
+                return key;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the pooled key for the specified flow, adding a new key to the
+     * pool if there is not one already.
+     *
+     * @param stage  the stage.
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     *
+     * @return The canonical key (never {@code null}).
+     */
+    public FlowKey<K> flowKey(int stage, K source, K destination) {
+        FlowKey<K> key = getFlowKey(stage, source, destination);
+        if (key == null) {
+            key = new FlowKey<>(stage, source, destination);
+            addFlowKey(key);
+        }
+        return key;
+    }
+
+    /**
+     * Returns the pooled key equal to the specified key, adding the key 
+     * itself to the pool if there is not one already.
+     *
+     * @param key  the key ({@code null} not permitted).
+     *
+     * @return The canonical key (never {@code null}).
+     */
+    public FlowKey<K> intern(FlowKey<K> key) {
+        Args.nullNotPermitted(key, "key");
+        FlowKey<K> result = getFlowKey(key.getStage(), key.getSource(), 
+                key.getDestination());
+        if (result == null) {
+            addFlowKey(key);
+            result = key;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the pooled key for the specified flow, or {@code null} if 
+     * there is no such key in the pool.
+     *
+     * @param stage  the stage.
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     *
+     * @return The canonical key, or {@code null}.
+     */
+    public FlowKey<K> getFlowKey(int stage, K source, K destination) {
+        Args.nullNotPermitted(source, "source");
+        Args.nullNotPermitted(destination, "destination");
+        FlowKey<K>[] table = this.flowKeys;
+        int mask = table.length - 1;
+        int slot = spread(FlowKey.hashCode(stage, source, destination)) & mask;
+        FlowKey<K> key;
+        while ((key = table[slot]) != null) {
+            if (key.getStage() == stage && key.getSource().equals(source) 
+                    && key.getDestination().equals(destination)) {
+                return key;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Returns a copy of this pool (the keys themselves are immutable and are
+     * shared with the copy).  The hash tables are also shared, until a key 
+     * is added to either pool, so this method runs in constant time.
+     *
+     * @return A copy.
+     */
+    FlowKeyPool<K> copy() {
+        FlowKeyPool<K> copy = new FlowKeyPool<>();
+        copy.nodeKeys = this.nodeKeys;
+        copy.nodeKeyCount = this.nodeKeyCount;
+        copy.flowKeys = this.flowKeys;
+        copy.flowKeyCount = this.flowKeyCount;
+        copy.nodeKeysShared = true;
+        copy.flowKeysShared = true;
+        this.nodeKeysShared = true;
+        this.flowKeysShared = true;
+        return copy;
+    }
+
+    private void addNodeKey(NodeKey<K> key) {
+        if (this.nodeKeysShared) {
+            this.nodeKeys = this.nodeKeys.clone();
+            this.nodeKeysShared = false;
+        }
+        if (2 * (this.nodeKeyCount + 1) > this.nodeKeys.length) {
+            @SuppressWarnings("unchecked")
+            NodeKey<K>[] table 
+                    = (NodeKey<K>[]) new NodeKey<?>[this.nodeKeys.length * 2];
+            for (NodeKey<K> k : this.nodeKeys) {
+                if (k != null) {
+                    insert(table, k);
+                }
+            }
+            this.nodeKeys = table;
+        }
+        insert(this.nodeKeys, key);
+        this.nodeKeyCount++;
+    }
+
+    private void addFlowKey(FlowKey<K> key) {
+        if (this.flowKeysShared) {
+            this.flowKeys = this.flowKeys.clone();
+            this.flowKeysShared = false;
+        }
+        if (2 * (this.flowKeyCount + 1) > this.flowKeys.length) {
+            @SuppressWarnings("unchecked")
+            FlowKey<K>[] table 
+                    = (FlowKey<K>[]) new FlowKey<?>[this.flowKeys.length * 2];
+            for (FlowKey<K> k : this.flowKeys) {
+                if (k != null) {
+                    insert(table, k);
+                }
+            }
+            this.flowKeys = table;
+        }
+        insert(this.flowKeys, key);
+        this.flowKeyCount++;
+    }
+
+    private static void insert(Object[] table, Object key) {
+        int mask = table.length - 1;
+        int slot = spread(key.hashCode()) & mask;
+        while (table[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = key;
+    }
+
+    /**
+     * Spreads the high bits of a hash code into the low bits (the table
+     * index uses only the low bits).
+     *
+     * @param h  the hash code.
+     *
+     * @return The spread hash code.
+     */
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Provides serialization support.  The keys are written as a list, 
+     * since their positions in the hash tables depend on hash codes that 
+     * may differ in another JVM.
+     *
+     * @param stream  the output stream.
+     *
+     * @throws IOException  if there is an I/O error.
+     */
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        stream.writeInt(this.nodeKeyCount);
+        for (NodeKey<K> key : this.nodeKeys) {
+            if (key != null) {
+                stream.writeObject(key);
+            }
+        }
+        stream.writeInt(this.flowKeyCount);
+        for (FlowKey<K> key : this.flowKeys) {
+            if (key != null) {
+                stream.writeObject(key);
+            }
+        }
+    }
+
+    /**
+     * Provides serialization support.
+     *
+     * @param stream  the input stream.
+     *
+     * @throws IOException  if there is an I/O error.
+     * @throws ClassNotFoundException  if there is a classpath problem.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream stream) 
+            throws IOException, ClassNotFoundException {
+        this.nodeKeys = (NodeKey<K>[]) new NodeKey<?>[16];
+        this.flowKeys = (FlowKey<K>[]) new FlowKey<?>[16];
+        int count = stream.readInt();
+        for (int i = 0; i < count; i++) {
+            addNodeKey((NodeKey<K>) stream.readObject());
+        }
+        count = stream.readInt();
+        for (int i = 0; i < count; i++) {
+            addFlowKey((FlowKey<K>) stream.readObject());
+        }
+    }
+
+}
@@ -0,0 +1,348 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -------------------
+ * FlowValueIndex.java
+ * -------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jfree.chart.util.Args;
+import org.jfree.data.general.DatasetChangeEvent;
+import org.jfree.data.general.DatasetChangeListener;
+
+/**
+ * An index of the flows in a {@link FlowDataset}, sorted by value (largest
+ * first) within each stage.  The index supports finding the number of 
+ * flows at a stage with a value above a threshold in {@code O(log E)} time
+ * and the total of the largest {@code n} flows at a stage in constant time,
+ * and is used by {@link FilteredFlowDataset} to provide "top K" and 
+ * threshold views of a dataset without copying it.
+ * <br><br>
+ * The index is built when first used and is rebuilt (when next used) after
+ * the source dataset sends a change event (other than a 
+ * {@link FlowDatasetChangeEvent} that reports only property changes).  
+ * Flows with equal values are kept in the order that the source dataset 
+ * returns them, and flows with a {@code null} or {@code NaN} value are not
+ * indexed.  The index registers itself as a listener on the source 
+ * dataset, call {@link #dispose()} when the index is no longer needed.
+ *
+ * @param <K> the type for the keys used to identify sources and destinations.
+ */
+public class FlowValueIndex<K extends Comparable<K>> 
+        implements DatasetChangeListener {
+
+    /** The source dataset. */
+    private final FlowDataset<K> source;
+
+    /** The flow keys at each stage, sorted by value (largest first). */
+    private FlowKey<K>[][] keys;
+
+    /** The flow values at each stage, in the same order as the keys. */
+    private double[][] values;
+
+    /** 
+     * The cumulative totals at each stage (entry {@code n} is the total of
+     * the first {@code n} values).
+     */
+    private double[][] totals;
+
+    /** The rank of each flow within its stage. */
+    private Map<FlowKey<K>, Integer> ranks;
+
+    /** The position of each node within its stage in the source dataset. */
+    private List<Map<K, Integer>> nodePositions;
+
+    /** A flag that records that the index must be rebuilt before use. */
+    private boolean stale;
+
+    /** The most recent event that marked the index as stale. */
+    private DatasetChangeEvent lastEvent;
+
+    /**
+     * Creates a new index for the specified dataset.  The index registers
+     * itself as a listener on the dataset.
+     * 
+     * @param source  the source dataset ({@code null} not permitted).
+     */
+    public FlowValueIndex(FlowDataset<K> source) {
+        Args.nullNotPermitted(source, "source");
+        this.source = source;
+        this.stale = true;
+        source.addChangeListener(this);
+    }
+
+    /**
+     * Returns the source dataset.
+     * 
+     * @return The source dataset (never {@code null}).
+     */
+    public FlowDataset<K> getSource() {
+        return this.source;
+    }
+
+    /**
+     * Stops this index from listening for changes to the source dataset, so
+     * that it can be garbage collected while the source dataset is still in
+     * use.  After this, the index is only marked as stale by the 
+     * {@link FilteredFlowDataset} views that use it and are still 
+     * listening to the source dataset.
+     */
+    public void dispose() {
+        this.source.removeChangeListener(this);
+    }
+
+    /**
+     * Returns the number of stages in the index.
+     * 
+     * @return The number of stages.
+     */
+    public int getStageCount() {
+        ensureBuilt();
+        return this.keys.length;
+    }
+
+    /**
+     * Returns the number of flows at the specified stage.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return The number of flows.
+     */
+    public int getFlowCount(int stage) {
+        ensureBuilt();
+        return this.keys[stage].length;
+    }
+
+    /**
+     * Returns the key for the flow with the specified rank at a stage.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * @param rank  the rank (0 for the largest flow).
+     * 
+     * @return The flow key.
+     */
+    public FlowKey<K> getFlowKey(int stage, int rank) {
+        ensureBuilt();
+        return this.keys[stage][rank];
+    }
+
+    /**
+     * Returns the value of the flow with the specified rank at a stage.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * @param rank  the rank (0 for the largest flow).
+     * 
+     * @return The flow value.
+     */
+    public double getValue(int stage, int rank) {
+        ensureBuilt();
+        return this.values[stage][rank];
+    }
+
+    /**
+     * Returns the rank of the specified flow within its stage.
+     * 
+     * @param flowKey  the flow key ({@code null} not permitted).
+     * 
+     * @return The rank (0 for the largest flow), or {@code -1} if the flow
+     *     is not in the index.
+     */
+    public int getRank(FlowKey<K> flowKey) {
+        Args.nullNotPermitted(flowKey, "flowKey");
+        ensureBuilt();
+        Integer rank = this.ranks.get(flowKey);
+        return rank != null ? rank : -1;
+    }
+
+    /**
+     * Returns the number of flows at the specified stage with a value 
+     * greater than or equal to {@code threshold}.  This is a binary search.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * @param threshold  the threshold.
+     * 
+     * @return The number of flows.
+     */
+    public int countAbove(int stage, double threshold) {
+        ensureBuilt();
+        double[] v = this.values[stage];
+        int low = 0;
+        int high = v.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (v[mid] >= threshold) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the total of the {@code count} largest flows at the specified
+     * stage.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * @param count  the number of flows (0 to {@code getFlowCount(stage)}).
+     * 
+     * @return The total.
+     */
+    public double getTotal(int stage, int count) {
+        ensureBuilt();
+        return this.totals[stage][count];
+    }
+
+    /**
+     * Returns the position of a node within its stage in the source dataset.
+     * 
+     * @param stage  the node stage.
+     * @param node  the node.
+     * 
+     * @return The position (or {@code -1} if the node is not found).
+     */
+    int getNodePosition(int stage, K node) {
+        ensureBuilt();
+        Integer position = this.nodePositions.get(stage).get(node);
+        return position != null ? position : -1;
+    }
+
+    /**
+     * Marks the index as stale when the source dataset changes.
+     * 
+     * @param event  the event.
+     */
+    @Override
+    public void datasetChanged(DatasetChangeEvent event) {
+        invalidate(event);
+    }
+
+    /**
+     * Marks the index as stale, unless it has already been marked for the
+     * specified event (so that views that share the index and receive the
+     * same event do not cause it to be rebuilt more than once) or the event
+     * reports only property changes (which do not affect the index).
+     * 
+     * @param event  the event.
+     */
+    void invalidate(DatasetChangeEvent event) {
+        if (event instanceof FlowDatasetChangeEvent 
+                && ((FlowDatasetChangeEvent<?>) event).isPropertyChangeOnly()) {
+            return;
+        }
+        if (event != this.lastEvent) {
+            this.lastEvent = event;
+            this.stale = true;
+        }
+    }
+
+    /**
+     * Rebuilds the index if it is stale.
+     */
+    @SuppressWarnings("unchecked")
+    private void ensureBuilt() {
+        if (!this.stale) {
+            return;
+        }
+        int stageCount = this.source.getStageCount();
+        List<List<FlowKey<K>>> stageKeys = new ArrayList<>(stageCount);
+        for (int s = 0; s < stageCount; s++) {
+            stageKeys.add(new ArrayList<>());
+        }
+        for (FlowKey<K> key : this.source.getAllFlowsView()) {
+            stageKeys.get(key.getStage()).add(key);
+        }
+        this.keys = (FlowKey<K>[][]) new FlowKey<?>[stageCount][];
+        this.values = new double[stageCount][];
+        this.totals = new double[stageCount][];
+        this.ranks = new HashMap<>();
+        for (int s = 0; s < stageCount; s++) {
+            List<FlowKey<K>> list = stageKeys.get(s);
+            Entry<K>[] entries = (Entry<K>[]) new Entry<?>[list.size()];
+            int n = 0;
+            for (FlowKey<K> key : list) {
+                Number value = this.source.getFlow(s, key.getSource(), 
+                        key.getDestination());
+                if (value != null && !Double.isNaN(value.doubleValue())) {
+                    entries[n++] = new Entry<>(key, value.doubleValue());
+                }
+            }
+            entries = Arrays.copyOf(entries, n);
+            Arrays.sort(entries, (e1, e2) -> Double.compare(e2.value, 
+                    e1.value));
+            this.keys[s] = (FlowKey<K>[]) new FlowKey<?>[n];
+            this.values[s] = new double[n];
+            this.totals[s] = new double[n + 1];
+            for (int i = 0; i < n; i++) {
+                this.keys[s][i] = entries[i].key;
+                this.values[s][i] = entries[i].value;
+                this.totals[s][i + 1] = this.totals[s][i] + entries[i].value;
+                this.ranks.put(entries[i].key, i);
+            }
+        }
+        this.nodePositions = new ArrayList<>(stageCount + 1);
+        for (int n = 0; n <= stageCount; n++) {
+            List<K> nodes = n < stageCount ? this.source.getSourcesView(n) 
+                    : this.source.getDestinationsView(n - 1);
+            Map<K, Integer> positions = new HashMap<>();
+            for (int i = 0; i < nodes.size(); i++) {
+                positions.put(nodes.get(i), i);
+            }
+            this.nodePositions.add(positions);
+        }
+        this.stale = false;
+    }
+
+    /**
+     * A flow key and its value, used while sorting.
+     */
+    private static final class Entry<K extends Comparable<K>> {
+
+        /** The flow key. */
+        final FlowKey<K> key;
+
+        /** The flow value. */
+        final double value;
+
+        Entry(FlowKey<K> key, double value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+}
@@ -0,0 +1,397 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -------------------
+ * IntFlowDataset.java
+ * -------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.Serializable;
+import org.jfree.chart.util.Args;
+import org.jfree.chart.util.PublicCloneable;
+import org.jfree.data.general.AbstractDataset;
+
+/**
+ * A flow dataset for nodes that are identified by primitive {@code int} 
+ * values (numeric identifiers, for example).  The identifiers are stored in
+ * primitive open addressing hash tables and the flows are keyed by node 
+ * position, so setting and reading flows never boxes an identifier or 
+ * creates a key object.
+ * <br><br>
+ * This class does not implement {@link FlowDataset} directly, since the 
+ * node keys would have to be boxed.  Use {@link #asFlowDataset()} to obtain
+ * a {@code FlowDataset<Integer>} view that can be rendered by a 
+ * {@link org.jfree.chart.plot.flow.FlowPlot} (the view boxes identifiers 
+ * only as they are read).  The view has no general node or flow 
+ * properties, but it reports the selection state set with 
+ * {@link #setNodeSelected(int, int, boolean)} and 
+ * {@link #setFlowSelected(int, int, int, boolean)} as the 
+ * {@code "selected"} property, which the plot uses to highlight the 
+ * selected nodes and flows.
+ * <br><br>
+ * The identifiers are held internally as {@code long} values, sharing the
+ * storage used by {@link LongFlowDataset}.
+ */
+public class IntFlowDataset extends AbstractDataset 
+        implements PublicCloneable, Serializable {
+
+    /** The storage. */
+    private PrimitiveFlowStore store;
+
+    /** The {@code FlowDataset} view (created when first required). */
+    private transient PrimitiveFlowDatasetView<Integer> view;
+
+    /**
+     * Creates a new dataset that is initially empty.
+     */
+    public IntFlowDataset() {
+        this.store = new PrimitiveFlowStore();
+    }
+
+    /**
+     * Returns the number of flow stages.  A flow dataset always has one or
+     * more stages, so this method will return {@code 1} even for an empty
+     * dataset.
+     *
+     * @return The number of flow stages.
+     */
+    public int getStageCount() {
+        return this.store.getStageCount();
+    }
+
+    /**
+     * Returns the number of nodes at the specified node stage.
+     * 
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * 
+     * @return The number of nodes.
+     */
+    public int getNodeCount(int stage) {
+        return this.store.getNodeCount(stage);
+    }
+
+    /**
+     * Returns the node at the specified position within a node stage.
+     * 
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param index  the position (0 to {@code getNodeCount(stage) - 1}).
+     * 
+     * @return The node identifier.
+     */
+    public int getNode(int stage, int index) {
+        return (int) this.store.getNode(stage, index);
+    }
+
+    /**
+     * Returns the source nodes for the specified stage, in the order they 
+     * were added.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return A new array (never {@code null}).
+     */
+    public int[] getSources(int stage) {
+        return nodes(stage);
+    }
+
+    /**
+     * Returns the destination nodes for the specified stage, in the order 
+     * they were added.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return A new array (never {@code null}).
+     */
+    public int[] getDestinations(int stage) {
+        return nodes(stage + 1);
+    }
+
+    /**
+     * Returns the nodes at a node stage.
+     * 
+     * @param nodeStage  the node stage.
+     * 
+     * @return A new array.
+     */
+    private int[] nodes(int nodeStage) {
+        long[] ids = this.store.getNodes(nodeStage);
+        int[] result = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            result[i] = (int) ids[i];
+        }
+        return result;
+    }
+
+    /**
+     * Returns the position of a node within the specified node stage.
+     * 
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node identifier.
+     * 
+     * @return The position of the node, or {@code -1} if the node is not 
+     *     present.
+     */
+    public int indexOf(int stage, int node) {
+        return this.store.indexOf(stage, node);
+    }
+
+    /**
+     * Returns the flow between a source node and a destination node at a
+     * specified stage.
+     *
+     * @param stage  the stage index (0 to {@code getStageCount()} - 1).
+     * @param source  the source.
+     * @param destination  the destination.
+     *
+     * @return The flow, or {@code Double.NaN} if there is no flow.
+     */
+    public double getFlow(int stage, int source, int destination) {
+        return this.store.getFlow(stage, source, destination);
+    }
+
+    /**
+     * Sets the flow between a source node and a destination node at the
+     * specified stage and notifies registered listeners that the dataset 
+     * has changed.  A new stage will be added if {@code stage} is equal to
+     * {@code getStageCount()}.
+     *
+     * @param stage  the stage (0 to {@code getStageCount()}.
+     * @param source  the source.
+     * @param destination  the destination.
+     * @param flow  the flow (0 or greater).
+     */
+    public void setFlow(int stage, int source, int destination, double flow) {
+        this.store.setFlow(stage, source, destination, flow);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Sets several flows at the specified stage and sends a single change 
+     * event to registered listeners.  A new stage will be added if 
+     * {@code stage} is equal to {@code getStageCount()}.
+     *
+     * @param stage  the stage (0 to {@code getStageCount()}.
+     * @param sources  the sources ({@code null} not permitted).
+     * @param destinations  the destinations ({@code null} not permitted).
+     * @param flows  the flows ({@code null} not permitted).
+     */
+    public void setFlows(int stage, int[] sources, int[] destinations, 
+            double[] flows) {
+        Args.nullNotPermitted(sources, "sources");
+        Args.nullNotPermitted(destinations, "destinations");
+        Args.nullNotPermitted(flows, "flows");
+        if (sources.length != destinations.length 
+                || sources.length != flows.length) {
+            throw new IllegalArgumentException(
+                    "The arrays must have the same length.");
+        }
+        for (int i = 0; i < flows.length; i++) {
+            this.store.setFlow(stage, sources[i], destinations[i], flows[i]);
+        }
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns the number of flows in the dataset.
+     * 
+     * @return The number of flows.
+     */
+    public int getFlowCount() {
+        return this.store.getFlowCount();
+    }
+
+    /**
+     * Returns the total inflow for a node.  The totals are maintained as 
+     * flows are set, so this method does not iterate over the flows.
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node.
+     *
+     * @return The total inflow (zero for nodes at stage 0).
+     */
+    public double getInflow(int stage, int node) {
+        return this.store.getInflow(stage, node);
+    }
+
+    /**
+     * Returns the total outflow for a node.  The totals are maintained as 
+     * flows are set, so this method does not iterate over the flows.
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node.
+     *
+     * @return The total outflow (zero for the final destination nodes).
+     */
+    public double getOutflow(int stage, int node) {
+        return this.store.getOutflow(stage, node);
+    }
+
+    /**
+     * Returns the total of all flows at the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return The total flow.
+     */
+    public double getTotalFlow(int stage) {
+        return this.store.getTotalFlow(stage);
+    }
+
+    /**
+     * Returns {@code true} if a node is selected.
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node.
+     *
+     * @return A boolean ({@code false} if the node is not present).
+     */
+    public boolean isNodeSelected(int stage, int node) {
+        return this.store.isNodeSelected(stage, node);
+    }
+
+    /**
+     * Selects or deselects a node and notifies registered listeners that 
+     * the dataset has changed.  The selection state is reported as the 
+     * {@code "selected"} property by the {@link #asFlowDataset()} view.
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node.
+     * @param selected  the new selection state.
+     *
+     * @throws IllegalArgumentException if the node is not in the dataset.
+     */
+    public void setNodeSelected(int stage, int node, boolean selected) {
+        this.store.setNodeSelected(stage, node, selected);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns {@code true} if a flow is selected.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * @param source  the source.
+     * @param destination  the destination.
+     *
+     * @return A boolean ({@code false} if the flow is not present).
+     */
+    public boolean isFlowSelected(int stage, int source, int destination) {
+        return this.store.isFlowSelected(stage, source, destination);
+    }
+
+    /**
+     * Selects or deselects a flow and notifies registered listeners that 
+     * the dataset has changed.  The selection state is reported as the 
+     * {@code "selected"} property by the {@link #asFlowDataset()} view.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * @param source  the source.
+     * @param destination  the destination.
+     * @param selected  the new selection state.
+     *
+     * @throws IllegalArgumentException if the flow is not in the dataset.
+     */
+    public void setFlowSelected(int stage, int source, int destination, 
+            boolean selected) {
+        this.store.setFlowSelected(stage, source, destination, selected);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns a {@code FlowDataset} view of this dataset, which can be 
+     * rendered by a {@link org.jfree.chart.plot.flow.FlowPlot}.  The view is
+     * backed by this dataset and notifies its listeners when this dataset 
+     * changes.  The same view is returned on each call.
+     * 
+     * @return The view (never {@code null}).
+     */
+    public FlowDataset<Integer> asFlowDataset() {
+        if (this.view == null) {
+            this.view = new PrimitiveFlowDatasetView<>(this.store, true);
+        }
+        return this.view;
+    }
+
+    /**
+     * Notifies registered listeners, and the listeners for the 
+     * {@code FlowDataset} view, that the dataset has changed.
+     */
+    @Override
+    protected void fireDatasetChanged() {
+        super.fireDatasetChanged();
+        if (this.view != null && getNotify()) {
+            this.view.changed();
+        }
+    }
+
+    /**
+     * Returns a clone of the dataset.  The clone does not share the 
+     * {@code FlowDataset} view of this dataset.
+     *
+     * @return A clone of the dataset.
+     *
+     * @throws CloneNotSupportedException if there is a problem with cloning.
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        IntFlowDataset clone = (IntFlowDataset) super.clone();
+        clone.store = this.store.copy();
+        clone.view = null;
+        return clone;
+    }
+
+    /**
+     * Tests this dataset for equality with an arbitrary object.  This method
+     * returns {@code true} if the object is an {@code IntFlowDataset} with the same 
+     * nodes (in the same order) and flows.
+     *
+     * @param obj  the object to test equality against ({@code null} permitted).
+     *
+     * @return A boolean.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof IntFlowDataset)) {
+            return false;
+        }
+        return this.store.equals(((IntFlowDataset) obj).store);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.store.hashCode();
+    }
+
+}
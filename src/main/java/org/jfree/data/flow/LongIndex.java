@@ -0,0 +1,214 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * --------------
+ * LongIndex.java
+ * --------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * An insertion ordered set of {@code long} values that maps each value to
+ * its position, used for the node identifiers in {@link IntFlowDataset} and
+ * {@link LongFlowDataset}.  The values are held in an array in insertion 
+ * order and the hash table (open addressing with linear probing) holds 
+ * positions, so no boxing is required.
+ */
+final class LongIndex implements Serializable {
+
+    /** The values, in insertion order. */
+    private long[] values;
+
+    /** The number of values. */
+    private int size;
+
+    /** The hash table, holding positions plus one (zero is empty). */
+    private int[] table;
+
+    /**
+     * Creates a new empty index.
+     */
+    LongIndex() {
+        this.values = new long[8];
+        this.table = new int[16];
+    }
+
+    /**
+     * Returns the number of values in the index.
+     * 
+     * @return The number of values.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the value at the specified position.
+     * 
+     * @param index  the position (0 to {@code size() - 1}).
+     * 
+     * @return The value.
+     */
+    long valueAt(int index) {
+        if (index >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index 
+                    + ", Size: " + this.size);
+        }
+        return this.values[index];
+    }
+
+    /**
+     * Returns the position of a value.
+     * 
+     * @param value  the value.
+     * 
+     * @return The position, or {@code -1} if the value is not in the index.
+     */
+    int indexOf(long value) {
+        int mask = this.table.length - 1;
+        for (int i = hash(value) & mask; ; i = (i + 1) & mask) {
+            int slot = this.table[i];
+            if (slot == 0) {
+                return -1;
+            }
+            if (this.values[slot - 1] == value) {
+                return slot - 1;
+            }
+        }
+    }
+
+    /**
+     * Adds a value to the index, if it is not already present.
+     * 
+     * @param value  the value.
+     * 
+     * @return The position of the value.
+     */
+    int add(long value) {
+        int existing = indexOf(value);
+        if (existing >= 0) {
+            return existing;
+        }
+        if (this.size == this.values.length) {
+            this.values = Arrays.copyOf(this.values, this.size * 2);
+        }
+        int index = this.size++;
+        this.values[index] = value;
+        if (this.size * 2 > this.table.length) {
+            this.table = new int[this.table.length * 2];
+            for (int i = 0; i < this.size; i++) {
+                insert(i);
+            }
+        } else {
+            insert(index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns a copy of the values, in insertion order.
+     * 
+     * @return A new array.
+     */
+    long[] toArray() {
+        return Arrays.copyOf(this.values, this.size);
+    }
+
+    /**
+     * Returns an independent copy of this index.
+     * 
+     * @return A copy.
+     */
+    LongIndex copy() {
+        LongIndex copy = new LongIndex();
+        copy.values = this.values.clone();
+        copy.size = this.size;
+        copy.table = this.table.clone();
+        return copy;
+    }
+
+    /**
+     * Tests this index for equality with an arbitrary object.
+     * 
+     * @param obj  the object ({@code null} permitted).
+     * 
+     * @return A boolean.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof LongIndex)) {
+            return false;
+        }
+        LongIndex that = (LongIndex) obj;
+        return this.size == that.size && Arrays.equals(toArray(), 
+                that.toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    /**
+     * Inserts the value at the specified position into the hash table.
+     * 
+     * @param index  the position.
+     */
+    private void insert(int index) {
+        int mask = this.table.length - 1;
+        int i = hash(this.values[index]) & mask;
+        while (this.table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        this.table[i] = index + 1;
+    }
+
+    /**
+     * Returns a hash for a value, mixing the high bits into the low bits 
+     * used to select a slot.
+     * 
+     * @param value  the value.
+     * 
+     * @return The hash.
+     */
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+}
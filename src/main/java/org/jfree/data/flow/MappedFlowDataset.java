@@ -0,0 +1,822 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ *
+ * ----------------------
+ * MappedFlowDataset.java
+ * ----------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.jfree.chart.util.Args;
+import org.jfree.data.general.AbstractDataset;
+
+/**
+ * A read-only flow dataset backed by a memory-mapped file, for datasets that
+ * are too large to hold in the heap.  The file is created from any
+ * {@link FlowDataset} with {@link #write(FlowDataset, Path)} and opened with
+ * {@link #open(Path, Class)}.  Opening a file only reads the node dictionary
+ * into the heap, the flows are read directly from the mapped file (so that
+ * the operating system loads pages on demand).
+ * <br><br>
+ * The file holds a header, the node dictionary (the keys for each node
+ * stage), the flow totals for each stage and node, then for each stage a
+ * row index and the flow records (source index, destination index and
+ * value) sorted by source then destination.  Looking up a flow uses a binary
+ * search within the row for the source node, and the node and stage totals
+ * are read directly from the file.  The supported key types are
+ * {@code String}, {@code Integer} and {@code Long}.
+ * <br><br>
+ * Node and flow properties are not stored in the file, they can be set on
+ * the dataset (for example, to record the selection state for a
+ * {@link org.jfree.chart.plot.flow.FlowPlot}) and are held in the heap.
+ * <br><br>
+ * Call {@link #close()} when the dataset is no longer needed, after which 
+ * reading a flow or a total throws an {@code IllegalStateException}.
+ *
+ * @param <K> the type for the keys used to identify sources and destinations.
+ */
+public class MappedFlowDataset<K extends Comparable<K>> extends AbstractDataset 
+        implements FlowDataset<K>, AutoCloseable, Serializable {
+
+    /** The value written at the start of every file. */
+    static final int MAGIC = 0x464C4F57;
+
+    /** The file format version. */
+    static final int VERSION = 1;
+
+    /** The key type code for {@code String} keys. */
+    private static final byte STRING_KEYS = SortedFlows.STRING_KEYS;
+
+    /** The key type code for {@code Integer} keys. */
+    private static final byte INTEGER_KEYS = SortedFlows.INTEGER_KEYS;
+
+    /** The key type code for {@code Long} keys. */
+    private static final byte LONG_KEYS = SortedFlows.LONG_KEYS;
+
+    /** The key type code for a dataset with no nodes. */
+    private static final byte ANY_KEYS = SortedFlows.ANY_KEYS;
+
+    /** The number of bytes in each flow record. */
+    private static final int RECORD_SIZE = 16;
+
+    /** The default size of each mapped region of the file. */
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+    /** The file. */
+    private final String path;
+
+    /** The size of each mapped region of the file. */
+    private final int chunkSize;
+
+    /** The mapped file ({@code null} once the dataset is closed). */
+    private transient MappedFile file;
+
+    /** The nodes at each node stage (read from the node dictionary). */
+    private transient List<List<K>> nodes;
+
+    /** The position of each node within its node stage. */
+    private transient List<Map<K, Integer>> nodeIndices;
+
+    /** The file position of the stage totals. */
+    private transient long stageTotalsStart;
+
+    /** The file position of the node totals for each node stage. */
+    private transient long[] nodeTotalsStart;
+
+    /** The file position of the row index for each stage. */
+    private transient long[] rowIndexStart;
+
+    /** The file position of the flow records for each stage. */
+    private transient long[] recordsStart;
+
+    /** The number of flows in each stage. */
+    private transient long[] flowCounts;
+
+    /** Node properties. */
+    private final Map<NodeKey<K>, Map<String, Object>> nodeProperties;
+
+    /** Flow properties. */
+    private final Map<FlowKey<K>, Map<String, Object>> flowProperties;
+
+    /**
+     * Creates a new dataset for the specified file.
+     *
+     * @param path  the file.
+     * @param keyType  the expected key type.
+     * @param chunkSize  the size of each mapped region.
+     *
+     * @throws IOException if there is a problem reading the file.
+     */
+    MappedFlowDataset(Path path, Class<K> keyType, int chunkSize) 
+            throws IOException {
+        this.path = path.toAbsolutePath().toString();
+        this.chunkSize = chunkSize;
+        this.nodeProperties = new HashMap<>();
+        this.flowProperties = new HashMap<>();
+        load(keyType);
+    }
+
+    /**
+     * Opens a file written by {@link #write(FlowDataset, Path)}.
+     *
+     * @param <K> the key type.
+     * @param path  the file ({@code null} not permitted).
+     * @param keyType  the key type ({@code String.class}, 
+     *     {@code Integer.class} or {@code Long.class}).
+     *
+     * @return The dataset.
+     *
+     * @throws IOException if there is a problem reading the file, or the file
+     *     does not contain keys of the specified type (a file written from a
+     *     dataset with no nodes can be opened with any supported key type).
+     */
+    public static <K extends Comparable<K>> MappedFlowDataset<K> open(
+            Path path, Class<K> keyType) throws IOException {
+        Args.nullNotPermitted(path, "path");
+        Args.nullNotPermitted(keyType, "keyType");
+        return new MappedFlowDataset<>(path, keyType, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Writes the nodes and flows of a dataset to a file in the format read
+     * by {@link #open(Path, Class)}.  Node and flow properties are not 
+     * written.
+     *
+     * @param <K> the key type.
+     * @param dataset  the dataset ({@code null} not permitted).
+     * @param path  the file ({@code null} not permitted).
+     *
+     * @throws IOException if there is a problem writing the file.
+     * @throws IllegalArgumentException if the dataset has keys of an 
+     *     unsupported type.
+     */
+    public static <K extends Comparable<K>> void write(FlowDataset<K> dataset,
+            Path path) throws IOException {
+        Args.nullNotPermitted(dataset, "dataset");
+        Args.nullNotPermitted(path, "path");
+        SortedFlows<K> flows = new SortedFlows<>(dataset);
+        int stageCount = flows.getStageCount();
+        byte keyType = (byte) flows.getKeyType();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(keyType);
+            out.writeInt(stageCount);
+            for (int n = 0; n <= stageCount; n++) {
+                List<K> list = flows.getNodes(n);
+                out.writeInt(list.size());
+                for (K key : list) {
+                    writeKey(out, keyType, key);
+                }
+            }
+            for (int s = 0; s < stageCount; s++) {
+                out.writeDouble(flows.getTotalFlow(s));
+            }
+            for (int n = 0; n <= stageCount; n++) {
+                for (int i = 0; i < flows.getNodes(n).size(); i++) {
+                    out.writeDouble(flows.getInflow(n, i));
+                    out.writeDouble(flows.getOutflow(n, i));
+                }
+            }
+            for (int s = 0; s < stageCount; s++) {
+                int rowCount = flows.getNodes(s).size();
+                out.writeLong(flows.getFlowCount(s));
+                for (int row = 0; row <= rowCount; row++) {
+                    out.writeLong(flows.getRowStart(s, row));
+                }
+                for (int row = 0; row < rowCount; row++) {
+                    for (int i = flows.getRowStart(s, row); 
+                            i < flows.getRowStart(s, row + 1); i++) {
+                        out.writeInt(row);
+                        out.writeInt(flows.getDestination(s, i));
+                        out.writeDouble(flows.getValue(s, i));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void writeKey(DataOutputStream out, byte keyType, 
+            Object key) throws IOException {
+        if (keyType == STRING_KEYS) {
+            byte[] bytes = ((String) key).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (keyType == INTEGER_KEYS) {
+            out.writeInt((Integer) key);
+        } else {
+            out.writeLong((Long) key);
+        }
+    }
+
+    /**
+     * Maps the file and reads the node dictionary.
+     *
+     * @param keyType  the expected key type ({@code null} to accept the
+     *     type recorded in the file).
+     *
+     * @throws IOException if there is a problem reading the file.
+     */
+    private void load(Class<?> keyType) throws IOException {
+        this.file = new MappedFile(Paths.get(this.path), this.chunkSize);
+        MappedFile f = this.file;
+        if (f.size() < 13 || f.getInt(0) != MAGIC) {
+            throw new IOException("Not a flow dataset file: " + this.path);
+        }
+        if (f.getInt(4) != VERSION) {
+            throw new IOException("Unsupported version: " + f.getInt(4));
+        }
+        byte code = f.getByte(8);
+        if (code < STRING_KEYS || code > ANY_KEYS) {
+            throw new IOException("Unsupported key type code: " + code);
+        }
+        if (keyType != null && !SortedFlows.isKeyType(code, keyType)) {
+            throw new IOException("The file does not have keys of type " 
+                    + keyType.getName());
+        }
+        // a key takes at least 4 bytes (the length of a string, or an int)
+        int keySize = code == LONG_KEYS ? 8 : 4;
+        long pos;
+        try {
+            int stageCount = checkCount(f.getInt(9), 13, 4);
+            pos = 13;
+            this.nodes = new ArrayList<>();
+            this.nodeIndices = new ArrayList<>();
+            for (int s = 0; s <= stageCount; s++) {
+                int count = checkCount(f.getInt(pos), pos + 4, keySize);
+                pos += 4;
+                if (code == ANY_KEYS && count != 0) {
+                    throw new IOException("The file is truncated or corrupt.");
+                }
+                List<K> list = new ArrayList<>(count);
+                Map<K, Integer> map = new HashMap<>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    Object key;
+                    if (code == STRING_KEYS) {
+                        int length = checkCount(f.getInt(pos), pos + 4, 1);
+                        byte[] bytes = new byte[length];
+                        f.get(pos + 4, bytes);
+                        key = new String(bytes, StandardCharsets.UTF_8);
+                        pos += 4 + length;
+                    } else if (code == INTEGER_KEYS) {
+                        key = f.getInt(pos);
+                        pos += 4;
+                    } else {
+                        key = f.getLong(pos);
+                        pos += 8;
+                    }
+                    @SuppressWarnings("unchecked")
+                    K k = (K) key;
+                    list.add(k);
+                    map.put(k, i);
+                }
+                this.nodes.add(Collections.unmodifiableList(list));
+                this.nodeIndices.add(map);
+            }
+            this.stageTotalsStart = pos;
+            pos += 8L * stageCount;
+            this.nodeTotalsStart = new long[stageCount + 1];
+            for (int s = 0; s <= stageCount; s++) {
+                this.nodeTotalsStart[s] = pos;
+                pos += 16L * this.nodes.get(s).size();
+            }
+            this.flowCounts = new long[stageCount];
+            this.rowIndexStart = new long[stageCount];
+            this.recordsStart = new long[stageCount];
+            for (int s = 0; s < stageCount; s++) {
+                this.flowCounts[s] = f.getLong(pos);
+                if (this.flowCounts[s] < 0 
+                        || this.flowCounts[s] > f.size() / RECORD_SIZE) {
+                    throw new IOException("The file is truncated or corrupt.");
+                }
+                this.rowIndexStart[s] = pos + 8;
+                this.recordsStart[s] = this.rowIndexStart[s] 
+                        + 8L * (this.nodes.get(s).size() + 1);
+                pos = this.recordsStart[s] + RECORD_SIZE * this.flowCounts[s];
+            }
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("The file is truncated or corrupt.", e);
+        }
+        if (pos != f.size()) {
+            throw new IOException("The file is truncated or corrupt.");
+        }
+    }
+
+    /**
+     * Checks a count read from the file against the number of bytes that 
+     * follow it, so that a corrupt count is reported as an 
+     * {@code IOException} rather than by a failed allocation.
+     *
+     * @param count  the count.
+     * @param pos  the file position after the count.
+     * @param itemSize  the minimum size of each counted item, in bytes.
+     *
+     * @return The count.
+     *
+     * @throws IOException if the count is negative or the items could not
+     *     fit in the rest of the file.
+     */
+    private int checkCount(int count, long pos, int itemSize) 
+            throws IOException {
+        if (count < 0 || count > (this.file.size() - pos) / itemSize) {
+            throw new IOException("The file is truncated or corrupt.");
+        }
+        return count;
+    }
+
+    /**
+     * Returns the mapped file.
+     *
+     * @return The mapped file.
+     *
+     * @throws IllegalStateException if the dataset has been closed.
+     */
+    private MappedFile file() {
+        if (this.file == null) {
+            throw new IllegalStateException("The dataset is closed.");
+        }
+        return this.file;
+    }
+
+    /**
+     * Releases the mapped file.  Java 8 provides no way to unmap a file 
+     * explicitly, so the mapped regions are released when they are garbage
+     * collected.  After the dataset is closed, the nodes can still be read
+     * but reading a flow or a total throws an 
+     * {@code IllegalStateException}.  Closing a closed dataset has no 
+     * effect.
+     */
+    @Override
+    public void close() {
+        this.file = null;
+    }
+
+    /**
+     * Returns the number of flow stages.
+     *
+     * @return The number of flow stages.
+     */
+    @Override
+    public int getStageCount() {
+        return this.nodes.size() - 1;
+    }
+
+    /**
+     * Returns the number of flows at the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return The number of flows.
+     */
+    public long getFlowCount(int stage) {
+        return this.flowCounts[stage];
+    }
+
+    /**
+     * Returns a list of the source nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSources(int stage) {
+        return new ArrayList<>(this.nodes.get(stage));
+    }
+
+    /**
+     * Returns a list of the destination nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of destination nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getDestinations(int stage) {
+        return new ArrayList<>(this.nodes.get(stage + 1));
+    }
+
+    /**
+     * Returns an unmodifiable list of the source nodes for the specified
+     * stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSourcesView(int stage) {
+        return this.nodes.get(stage);
+    }
+
+    /**
+     * Returns an unmodifiable list of the destination nodes for the
+     * specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of destination nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getDestinationsView(int stage) {
+        return this.nodes.get(stage + 1);
+    }
+
+    /**
+     * Returns the set of keys for all the nodes in the dataset.
+     *
+     * @return The set of keys for all the nodes in the dataset (possibly empty
+     *     but never {@code null}).
+     */
+    @Override
+    public Set<NodeKey<K>> getAllNodes() {
+        Set<NodeKey<K>> result = new HashSet<>();
+        for (int s = 0; s < this.nodes.size(); s++) {
+            for (K key : this.nodes.get(s)) {
+                result.add(new NodeKey<>(s, key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of a property, if specified, for the specified node.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the node key ({@code null} not permitted).
+     *
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getNodeProperty(NodeKey<K> nodeKey, String propertyKey) {
+        Map<String, Object> props = this.nodeProperties.get(nodeKey);
+        if (props != null) {
+            return props.get(propertyKey);
+        }
+        return null;
+    }
+
+    /**
+     * Sets a property for the specified node and sends a change event to all
+     * registered listeners.  Properties are held in memory only.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * @param value  the property value.
+     */
+    public void setNodeProperty(NodeKey<K> nodeKey, String propertyKey, 
+            Object value) {
+        Args.nullNotPermitted(nodeKey, "nodeKey");
+        Args.nullNotPermitted(propertyKey, "propertyKey");
+        this.nodeProperties.computeIfAbsent(nodeKey, k -> new HashMap<>())
+                .put(propertyKey, value);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns the flow between a source node and a destination node at a
+     * specified stage.  The flow is found with a binary search in the
+     * records for the source node.
+     *
+     * @param stage  the stage index (0 to {@code getStageCount()} - 1).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     *
+     * @return The flow (possibly {@code null}).
+     */
+    @Override
+    public Number getFlow(int stage, K source, K destination) {
+        Args.nullNotPermitted(source, "source");
+        Args.nullNotPermitted(destination, "destination");
+        Integer src = this.nodeIndices.get(stage).get(source);
+        Integer dst = this.nodeIndices.get(stage + 1).get(destination);
+        if (src == null || dst == null) {
+            return null;
+        }
+        MappedFile f = file();
+        long row = this.rowIndexStart[stage] + 8L * src;
+        long low = f.getLong(row);
+        long high = f.getLong(row + 8) - 1;
+        long base = this.recordsStart[stage];
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            int d = f.getInt(base + mid * RECORD_SIZE + 4);
+            if (d < dst) {
+                low = mid + 1;
+            } else if (d > dst) {
+                high = mid - 1;
+            } else {
+                return f.getDouble(base + mid * RECORD_SIZE + 8);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a set of keys for all the flows in the dataset.  Note that
+     * this reads every flow record in the file.
+     *
+     * @return A set.
+     */
+    @Override
+    public Set<FlowKey<K>> getAllFlows() {
+        MappedFile f = file();
+        Set<FlowKey<K>> result = new HashSet<>();
+        for (int s = 0; s < this.flowCounts.length; s++) {
+            List<K> sources = this.nodes.get(s);
+            List<K> destinations = this.nodes.get(s + 1);
+            long base = this.recordsStart[s];
+            for (long i = 0; i < this.flowCounts[s]; i++) {
+                long p = base + i * RECORD_SIZE;
+                result.add(new FlowKey<>(s, sources.get(f.getInt(p)),
+                        destinations.get(f.getInt(p + 4))));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of a property, if specified, for the specified flow.
+     *
+     * @param flowKey  flowKey ({@code null} not permitted).
+     *
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getFlowProperty(FlowKey<K> flowKey, String propertyKey) {
+        Map<String, Object> props = this.flowProperties.get(flowKey);
+        if (props != null) {
+            return props.get(propertyKey);
+        }
+        return null;
+    }
+
+    /**
+     * Sets a property for the specified flow and sends a change event to all
+     * registered listeners.  Properties are held in memory only.
+     *
+     * @param flowKey  the flow key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * @param value  the property value.
+     */
+    public void setFlowProperty(FlowKey<K> flowKey, String propertyKey, 
+            Object value) {
+        Args.nullNotPermitted(flowKey, "flowKey");
+        Args.nullNotPermitted(propertyKey, "propertyKey");
+        this.flowProperties.computeIfAbsent(flowKey, k -> new HashMap<>())
+                .put(propertyKey, value);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns {@code true}, since this dataset maintains the node and stage 
+     * totals.
+     * 
+     * @return {@code true}.
+     */
+    @Override
+    public boolean hasMaintainedTotals() {
+        return true;
+    }
+
+    /**
+     * Returns the total inflow for a node (read from the file).
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     *
+     * @return The total inflow (zero for nodes at stage 0).
+     */
+    @Override
+    public double getInflow(int stage, K node) {
+        Args.nullNotPermitted(node, "node");
+        if (stage < 0 || stage >= this.nodes.size()) {
+            return 0.0;
+        }
+        Integer i = this.nodeIndices.get(stage).get(node);
+        return i != null ? file().getDouble(
+                this.nodeTotalsStart[stage] + 16L * i) : 0.0;
+    }
+
+    /**
+     * Returns the total outflow for a node (read from the file).
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     *
+     * @return The total outflow (zero for the final destination nodes).
+     */
+    @Override
+    public double getOutflow(int stage, K node) {
+        Args.nullNotPermitted(node, "node");
+        if (stage < 0 || stage >= this.nodes.size()) {
+            return 0.0;
+        }
+        Integer i = this.nodeIndices.get(stage).get(node);
+        return i != null ? file().getDouble(
+                this.nodeTotalsStart[stage] + 16L * i + 8) : 0.0;
+    }
+
+    /**
+     * Returns the total of all flows at the specified stage (read from the
+     * file).
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return The total flow.
+     */
+    @Override
+    public double getTotalFlow(int stage) {
+        Args.requireInRange(stage, "stage", 0, getStageCount() - 1);
+        return file().getDouble(this.stageTotalsStart + 8L * stage);
+    }
+
+    /**
+     * Tests this dataset for equality with an arbitrary object.  This method
+     * will return {@code true} if the object implements the
+     * {@link FlowDataset} and defines the exact same set of nodes and flows
+     * as this dataset.
+     *
+     * @param obj  the object to test equality against ({@code null} permitted).
+     *
+     * @return A boolean.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FlowDataset)) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        final FlowDataset<K> other = (FlowDataset<K>) obj;
+        if (other.getStageCount() != getStageCount()) {
+            return false;
+        }
+        for (int stage = 0; stage < getStageCount(); stage++) {
+            List<K> sources = this.nodes.get(stage);
+            List<K> destinations = this.nodes.get(stage + 1);
+            if (!Objects.equals(other.getSourcesView(stage), sources)) {
+                return false;
+            }
+            if (!Objects.equals(other.getDestinationsView(stage), destinations)) {
+                return false;
+            }
+            for (K source : sources) {
+                for (K destination : destinations) {
+                    if (!Objects.equals(other.getFlow(stage, source, destination), getFlow(stage, source, destination))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code for the content of this dataset (see 
+     * {@link FlowDatasetUtils#calculateHashCode(FlowDataset)}).
+     * 
+     * @return A hash code.
+     */
+    @Override
+    public int hashCode() {
+        return FlowDatasetUtils.calculateHashCode(this);
+    }
+
+    /**
+     * Provides serialization support.  Only the file name and the properties
+     * are serialized, the file is mapped again when the dataset is restored.
+     *
+     * @param stream  the input stream.
+     *
+     * @throws IOException  if there is an I/O error.
+     * @throws ClassNotFoundException  if there is a classpath problem.
+     */
+    private void readObject(ObjectInputStream stream) 
+            throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        load(null);
+    }
+
+    /**
+     * A file mapped into memory as a sequence of regions (a single
+     * {@code MappedByteBuffer} cannot exceed 2GB).  Each region overlaps the
+     * next by eight bytes, so that any primitive value can be read from a
+     * single region.
+     */
+    private static class MappedFile {
+
+        /** The number of bytes by which the regions overlap. */
+        private static final int OVERLAP = 8;
+
+        /** The mapped regions. */
+        private final MappedByteBuffer[] regions;
+
+        /** The size of each region (not counting the overlap). */
+        private final int chunkSize;
+
+        /** The file size. */
+        private final long size;
+
+        MappedFile(Path path, int chunkSize) throws IOException {
+            this.chunkSize = chunkSize;
+            try (FileChannel channel = FileChannel.open(path, 
+                    StandardOpenOption.READ)) {
+                this.size = channel.size();
+                int count = (int) ((this.size + chunkSize - 1) / chunkSize);
+                this.regions = new MappedByteBuffer[count];
+                for (int i = 0; i < count; i++) {
+                    long start = (long) i * chunkSize;
+                    long length = Math.min(this.size - start, 
+                            (long) chunkSize + OVERLAP);
+                    this.regions[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                            start, length);
+                }
+            }
+        }
+
+        long size() {
+            return this.size;
+        }
+
+        byte getByte(long pos) {
+            return this.regions[(int) (pos / this.chunkSize)].get(
+                    (int) (pos % this.chunkSize));
+        }
+
+        int getInt(long pos) {
+            return this.regions[(int) (pos / this.chunkSize)].getInt(
+                    (int) (pos % this.chunkSize));
+        }
+
+        long getLong(long pos) {
+            return this.regions[(int) (pos / this.chunkSize)].getLong(
+                    (int) (pos % this.chunkSize));
+        }
+
+        double getDouble(long pos) {
+            return this.regions[(int) (pos / this.chunkSize)].getDouble(
+                    (int) (pos % this.chunkSize));
+        }
+
+        void get(long pos, byte[] dest) {
+            for (int i = 0; i < dest.length; i++) {
+                dest[i] = getByte(pos + i);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,1345 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ---------------------------
+ * MultiMetricFlowDataset.java
+ * ---------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.jfree.chart.util.Args;
+import org.jfree.chart.util.PublicCloneable;
+import org.jfree.data.general.AbstractDataset;
+
+/**
+ * A flow dataset that holds several named values (metrics) for each flow, 
+ * for example bytes, packets and sessions for the flows in a network.  The
+ * nodes and flows are indexed once and each metric is stored as a column of
+ * primitive values indexed by flow position, so adding a metric costs one
+ * {@code double} per flow rather than a complete dataset.
+ * <br><br>
+ * The {@link FlowDataset} methods return the values for the <i>active</i>
+ * metric, so the dataset can be rendered directly by a 
+ * {@link org.jfree.chart.plot.flow.FlowPlot}.  The node and stage totals 
+ * are maintained for every metric as flows are set, so switching the active
+ * metric (see {@link #setActiveMetric(String)}) takes constant time.  A flow
+ * that has no value for the active metric is treated as not present.
+ * <br><br>
+ * To show several metrics at once (for example, in two plots), use 
+ * {@link #metricView(String)} to obtain a {@code FlowDataset} for each 
+ * metric.  The views share the node and flow index of this dataset and do 
+ * not depend on the active metric.
+ *
+ * @param <K> the type for the keys used to identify sources and destinations
+ *     (instances should be immutable, {@code String} is a good default choice).
+ */
+public class MultiMetricFlowDataset<K extends Comparable<K>> 
+        extends AbstractDataset 
+        implements FlowDataset<K>, PublicCloneable, Serializable {
+
+    /**
+     * The nodes at each stage.  The list will have N+1 entries, where N is
+     * the number of stages - the last entry contains the destination nodes for
+     * the final stage.
+     */
+    private List<List<K>> nodes;
+
+    /**
+     * The index of each node within its stage (there is one map for each
+     * entry in the {@code nodes} list).
+     */
+    private List<Map<K, Integer>> nodeIndices;
+
+    /** The canonical node and flow keys. */
+    private FlowKeyPool<K> keys;
+
+    /** 
+     * The flow index, mapping packed flow keys to flow positions (the values
+     * in the map are not used).
+     */
+    private PackedFlowMap flows;
+
+    /** The metric keys, in the order they were added. */
+    private List<String> metricKeys;
+
+    /** The storage for each metric, in the same order as the keys. */
+    private List<Metric> metrics;
+
+    /** The position of the active metric. */
+    private int active;
+
+    /** Node properties. */
+    private Map<NodeKey<K>, Map<String, Object>> nodeProperties;
+
+    /** Flow properties. */
+    private Map<FlowKey<K>, Map<String, Object>> flowProperties;
+
+    /** The views for single metrics (created when first required). */
+    private transient Map<String, MetricView> views;
+
+    /**
+     * Creates a new dataset that is initially empty, with the specified
+     * metrics.  The first metric is active.
+     * 
+     * @param metricKeys  the metric keys (at least one is required, 
+     *     {@code null} and duplicate keys are not permitted).
+     */
+    public MultiMetricFlowDataset(String... metricKeys) {
+        Args.nullNotPermitted(metricKeys, "metricKeys");
+        if (metricKeys.length < 1) {
+            throw new IllegalArgumentException("Require 'metricKeys.length' >= 1.");
+        }
+        this.nodes = new ArrayList<>();
+        this.nodes.add(new ArrayList<>());
+        this.nodes.add(new ArrayList<>());
+        this.nodeIndices = new ArrayList<>();
+        this.nodeIndices.add(new HashMap<>());
+        this.nodeIndices.add(new HashMap<>());
+        this.keys = new FlowKeyPool<>();
+        this.flows = new PackedFlowMap();
+        this.metricKeys = new ArrayList<>();
+        this.metrics = new ArrayList<>();
+        for (String metricKey : metricKeys) {
+            addMetricColumn(metricKey);
+        }
+        this.nodeProperties = new HashMap<>();
+        this.flowProperties = new HashMap<>();
+    }
+
+    /**
+     * Returns the metric keys, in the order they were added.
+     * 
+     * @return The metric keys (never {@code null}).
+     */
+    public List<String> getMetricKeys() {
+        return Collections.unmodifiableList(new ArrayList<>(this.metricKeys));
+    }
+
+    /**
+     * Adds a new metric.  The new metric has no values for the flows that 
+     * are already in the dataset.
+     * 
+     * @param metricKey  the metric key ({@code null} not permitted, and must
+     *     not already be used).
+     */
+    public void addMetric(String metricKey) {
+        addMetricColumn(metricKey);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Adds the storage for a new metric.
+     * 
+     * @param metricKey  the metric key.
+     */
+    private void addMetricColumn(String metricKey) {
+        Args.nullNotPermitted(metricKey, "metricKey");
+        if (this.metricKeys.contains(metricKey)) {
+            throw new IllegalArgumentException("Duplicate metric key: " 
+                    + metricKey);
+        }
+        this.metricKeys.add(metricKey);
+        this.metrics.add(new Metric(this.nodes.size(), this.flows.size()));
+    }
+
+    /**
+     * Returns the key for the active metric, the metric that provides the 
+     * values for the {@link FlowDataset} methods.
+     * 
+     * @return The active metric key (never {@code null}).
+     */
+    public String getActiveMetric() {
+        return this.metricKeys.get(this.active);
+    }
+
+    /**
+     * Sets the active metric and, if it has changed, notifies registered 
+     * listeners that the dataset has changed.  This does not copy or 
+     * recalculate anything.
+     * 
+     * @param metricKey  the metric key ({@code null} not permitted).
+     */
+    public void setActiveMetric(String metricKey) {
+        int index = metricIndex(metricKey);
+        if (index != this.active) {
+            this.active = index;
+            // the metric views do not depend on the active metric
+            super.fireDatasetChanged();
+        }
+    }
+
+    /**
+     * Returns a {@code FlowDataset} view of this dataset with the values for
+     * a single metric.  The view shares the nodes, flows and properties of 
+     * this dataset (nothing is copied), is not affected by the active 
+     * metric, and notifies its listeners when this dataset changes.  The 
+     * same view is returned on each call for a metric.
+     * 
+     * @param metricKey  the metric key ({@code null} not permitted).
+     * 
+     * @return The view (never {@code null}).
+     * 
+     * @throws IllegalArgumentException if the metric is not defined.
+     */
+    public FlowDataset<K> metricView(String metricKey) {
+        int metric = metricIndex(metricKey);
+        if (this.views == null) {
+            this.views = new HashMap<>();
+        }
+        MetricView view = this.views.get(metricKey);
+        if (view == null) {
+            view = new MetricView(metric);
+            this.views.put(metricKey, view);
+        }
+        return view;
+    }
+
+    /**
+     * Notifies registered listeners, and the listeners for the metric 
+     * views, that the dataset has changed.
+     */
+    @Override
+    protected void fireDatasetChanged() {
+        super.fireDatasetChanged();
+        if (this.views != null && getNotify()) {
+            for (MetricView view : this.views.values()) {
+                view.changed();
+            }
+        }
+    }
+
+    /**
+     * Returns the position of a metric.
+     * 
+     * @param metricKey  the metric key ({@code null} not permitted).
+     * 
+     * @return The position.
+     * 
+     * @throws IllegalArgumentException if the metric is not defined.
+     */
+    private int metricIndex(String metricKey) {
+        Args.nullNotPermitted(metricKey, "metricKey");
+        int index = this.metricKeys.indexOf(metricKey);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown metric: " 
+                    + metricKey);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the number of flow stages.  A flow dataset always has one or
+     * more stages, so this method will return {@code 1} even for an empty
+     * dataset (one with no sources, destinations or flows defined).
+     *
+     * @return The number of flow stages.
+     */
+    @Override
+    public int getStageCount() {
+        return this.nodes.size() - 1;
+    }
+
+    /**
+     * Returns a list of the source nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSources(int stage) {
+        return new ArrayList<>(this.nodes.get(stage));
+    }
+
+    /**
+     * Returns a list of the destination nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of destination nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getDestinations(int stage) {
+        return new ArrayList<>(this.nodes.get(stage + 1));
+    }
+
+    /**
+     * Returns an unmodifiable view of the source nodes for the specified
+     * stage.  The view is backed by the dataset and no copy is made.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSourcesView(int stage) {
+        return Collections.unmodifiableList(this.nodes.get(stage));
+    }
+
+    /**
+     * Returns an unmodifiable view of the destination nodes for the
+     * specified stage.  The view is backed by the dataset and no copy is
+     * made.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of destination nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getDestinationsView(int stage) {
+        return Collections.unmodifiableList(this.nodes.get(stage + 1));
+    }
+
+    /**
+     * Returns the set of keys for all the nodes in the dataset.
+     *
+     * @return The set of keys for all the nodes in the dataset (possibly empty
+     *     but never {@code null}).
+     */
+    @Override
+    public Set<NodeKey<K>> getAllNodes() {
+        Set<NodeKey<K>> result = new HashSet<>();
+        for (int s = 0; s < this.nodes.size(); s++) {
+            for (K key : this.nodes.get(s)) {
+                result.add(this.keys.nodeKey(s, key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the shared key for the specified node, or a new key if the 
+     * node is not in the dataset (keys are only pooled for the nodes in the
+     * dataset, so probing other nodes does not grow the pool).
+     * 
+     * @param stage  the node stage.
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return The node key (never {@code null}).
+     */
+    @Override
+    public NodeKey<K> getNodeKey(int stage, K node) {
+        return indexOf(stage, node) >= 0 ? this.keys.nodeKey(stage, node) 
+                : new NodeKey<>(stage, node);
+    }
+
+    /**
+     * Returns the shared key for the specified flow, or a new key if the 
+     * flow is not in the dataset (keys are only pooled for the flows in the
+     * dataset, so probing every source and destination pair does not grow
+     * the pool).
+     * 
+     * @param stage  the stage.
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * 
+     * @return The flow key (never {@code null}).
+     */
+    @Override
+    public FlowKey<K> getFlowKey(int stage, K source, K destination) {
+        return flowIndex(stage, source, destination) >= 0 
+                ? this.keys.flowKey(stage, source, destination) 
+                : new FlowKey<>(stage, source, destination);
+    }
+
+    /**
+     * Returns the value of a property, if specified, for the specified node.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the node key ({@code null} not permitted).
+     *
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getNodeProperty(NodeKey<K> nodeKey, String propertyKey) {
+        Map<String, Object> props = this.nodeProperties.get(nodeKey);
+        if (props != null) {
+            return props.get(propertyKey);
+        }
+        return null;
+    }
+
+    /**
+     * Sets a property for the specified node and notifies registered listeners
+     * that the dataset has changed.  Properties are shared by all metrics.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * @param value  the property value.
+     */
+    public void setNodeProperty(NodeKey<K> nodeKey, String propertyKey, Object value) {
+        Map<String, Object> props = this.nodeProperties.get(nodeKey);
+        if (props == null) {
+            props = new HashMap<>();
+            this.nodeProperties.put(nodeKey, props);
+        }
+        props.put(propertyKey, value);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns the flow between a source node and a destination node at a
+     * specified stage, for the active metric.
+     *
+     * @param stage  the stage index (0 to {@code getStageCount()} - 1).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     *
+     * @return The flow (zero or greater, possibly {@code null}).
+     */
+    @Override
+    public Number getFlow(int stage, K source, K destination) {
+        return getFlow(stage, source, destination, this.active);
+    }
+
+    /**
+     * Returns the flow between a source node and a destination node at a
+     * specified stage, for the specified metric.
+     *
+     * @param stage  the stage index (0 to {@code getStageCount()} - 1).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * @param metricKey  the metric key ({@code null} not permitted).
+     *
+     * @return The flow (zero or greater, possibly {@code null}).
+     */
+    public Number getFlow(int stage, K source, K destination, 
+            String metricKey) {
+        return getFlow(stage, source, destination, metricIndex(metricKey));
+    }
+
+    /**
+     * Returns the flow for a metric.
+     *
+     * @param stage  the stage index.
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * @param metric  the metric position.
+     *
+     * @return The flow (possibly {@code null}).
+     */
+    private Number getFlow(int stage, K source, K destination, int metric) {
+        Args.nullNotPermitted(source, "source");
+        Args.nullNotPermitted(destination, "destination");
+        int index = flowIndex(stage, source, destination);
+        if (index < 0) {
+            return null;
+        }
+        double value = this.metrics.get(metric).values[index];
+        return Double.isNaN(value) ? null : value;
+    }
+
+    /**
+     * Sets the flow between a source node and a destination node at the
+     * specified stage, for one metric.  A new stage will be added if 
+     * {@code stage} is equal to {@code getStageCount()}.
+     *
+     * @param stage  the stage (0 to {@code getStageCount()}.
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * @param metricKey  the metric key ({@code null} not permitted).
+     * @param flow  the flow (0 or greater, or {@code Double.NaN} to clear 
+     *     the value).
+     */
+    public void setFlow(int stage, K source, K destination, String metricKey, 
+            double flow) {
+        int metric = metricIndex(metricKey);
+        int index = addFlow(stage, source, destination);
+        putValue(metric, index, flow);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Sets the flow between a source node and a destination node at the
+     * specified stage for all the metrics, and sends a single change event.
+     * A new stage will be added if {@code stage} is equal to 
+     * {@code getStageCount()}.
+     *
+     * @param stage  the stage (0 to {@code getStageCount()}.
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * @param flows  the flows, one for each metric in the order returned by
+     *     {@link #getMetricKeys()} ({@code null} not permitted).
+     */
+    public void setFlows(int stage, K source, K destination, double... flows) {
+        Args.nullNotPermitted(flows, "flows");
+        if (flows.length != this.metrics.size()) {
+            throw new IllegalArgumentException("Require 'flows.length' == " 
+                    + this.metrics.size() + ".");
+        }
+        int index = addFlow(stage, source, destination);
+        for (int m = 0; m < flows.length; m++) {
+            putValue(m, index, flows[m]);
+        }
+        fireDatasetChanged();
+    }
+
+    /**
+     * Adds a flow to the index if it is not already present, adding a stage
+     * and nodes as required.
+     *
+     * @param stage  the stage (0 to {@code getStageCount()}.
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * 
+     * @return The flow position.
+     */
+    private int addFlow(int stage, K source, K destination) {
+        Args.requireInRange(stage, "stage", 0, getStageCount());
+        Args.nullNotPermitted(source, "source");
+        Args.nullNotPermitted(destination, "destination");
+        if (stage > this.nodes.size() - 2) {
+            if (this.nodes.size() == PackedFlowMap.MAX_STAGES) {
+                throw new IllegalStateException("The dataset cannot hold " 
+                        + "more than " + (PackedFlowMap.MAX_STAGES - 1) 
+                        + " stages.");
+            }
+            this.nodes.add(new ArrayList<>());
+            this.nodeIndices.add(new HashMap<>());
+            for (Metric metric : this.metrics) {
+                metric.addStage();
+            }
+        }
+        long key = PackedFlowMap.pack(stage, addNode(stage, source), 
+                addNode(stage + 1, destination));
+        int index = this.flows.indexOf(key);
+        if (index < 0) {
+            index = this.flows.add(key, 0.0);
+            for (Metric metric : this.metrics) {
+                metric.ensureFlowCapacity(index + 1);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Sets the value of a metric for a flow, and updates the totals.
+     * 
+     * @param metric  the metric position.
+     * @param index  the flow position.
+     * @param value  the value ({@code Double.NaN} for no value).
+     */
+    private void putValue(int metric, int index, double value) {
+        Metric m = this.metrics.get(metric);
+        double old = m.values[index];
+        m.values[index] = value;
+        if (CompensatedSum.isSubtraction(old) && CompensatedSum.isRebuildDue(
+                ++m.totalsReplacements, this.flows.size())) {
+            m.rebuildTotals(this.flows);
+            return;
+        }
+        long key = this.flows.keyAt(index);
+        int stage = PackedFlowMap.stage(key);
+        m.replaceInTotals(stage, PackedFlowMap.source(key), 
+                PackedFlowMap.destination(key), old, value);
+    }
+
+    /**
+     * Returns the index of a node within the specified stage.
+     *
+     * @param nodeStage  the stage for the node (0 to {@code getStageCount()}).
+     * @param key  the node key.
+     *
+     * @return The index, or {@code -1}.
+     */
+    private int indexOf(int nodeStage, K key) {
+        if (nodeStage < 0 || nodeStage >= this.nodes.size()) {
+            return -1;
+        }
+        Integer index = this.nodeIndices.get(nodeStage).get(key);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Returns the position of a flow.
+     * 
+     * @param stage  the stage.
+     * @param source  the source.
+     * @param destination  the destination.
+     * 
+     * @return The flow position, or {@code -1}.
+     */
+    private int flowIndex(int stage, K source, K destination) {
+        int s = indexOf(stage, source);
+        int d = indexOf(stage + 1, destination);
+        if (s < 0 || d < 0) {
+            return -1;
+        }
+        return this.flows.indexOf(PackedFlowMap.pack(stage, s, d));
+    }
+
+    /**
+     * Adds a node (if it is not already present) and returns its index.
+     *
+     * @param nodeStage  the stage for the node (0 to {@code getStageCount()}).
+     * @param key  the node key ({@code null} not permitted).
+     *
+     * @return The index of the node within its stage.
+     */
+    private int addNode(int nodeStage, K key) {
+        Map<K, Integer> indices = this.nodeIndices.get(nodeStage);
+        Integer index = indices.get(key);
+        if (index == null) {
+            List<K> list = this.nodes.get(nodeStage);
+            index = list.size();
+            if (index == PackedFlowMap.MAX_NODES) {
+                throw new IllegalStateException("Stage " + nodeStage 
+                        + " cannot hold more than " + PackedFlowMap.MAX_NODES 
+                        + " nodes.");
+            }
+            list.add(key);
+            indices.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the value of a property, if specified, for the specified flow.
+     *
+     * @param flowKey  flowKey ({@code null} not permitted).
+     *
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getFlowProperty(FlowKey<K> flowKey, String propertyKey) {
+        Map<String, Object> props = this.flowProperties.get(flowKey);
+        if (props != null) {
+            return props.get(propertyKey);
+        }
+        return null;
+    }
+
+    /**
+     * Sets a property for the specified flow and notifies registered listeners
+     * that the dataset has changed.  Properties are shared by all metrics.
+     *
+     * @param flowKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * @param value  the property value.
+     */
+    public void setFlowProperty(FlowKey<K> flowKey, String propertyKey, Object value) {
+        Map<String, Object> props = this.flowProperties.get(flowKey);
+        if (props == null) {
+            props = new HashMap<>();
+            this.flowProperties.put(flowKey, props);
+        }
+        props.put(propertyKey, value);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns a set of keys for all the flows that have a value for the 
+     * active metric.
+     *
+     * @return A set.
+     */
+    @Override
+    public Set<FlowKey<K>> getAllFlows() {
+        return getAllFlows(this.active);
+    }
+
+    /**
+     * Returns a set of keys for all the flows that have a value for a 
+     * metric.
+     *
+     * @param metric  the metric position.
+     *
+     * @return A set.
+     */
+    private Set<FlowKey<K>> getAllFlows(int metric) {
+        Set<FlowKey<K>> result = new HashSet<>();
+        double[] values = this.metrics.get(metric).values;
+        for (int i = 0; i < this.flows.size(); i++) {
+            if (!Double.isNaN(values[i])) {
+                long key = this.flows.keyAt(i);
+                int stage = PackedFlowMap.stage(key);
+                result.add(this.keys.flowKey(stage, 
+                        this.nodes.get(stage).get(PackedFlowMap.source(key)), 
+                        this.nodes.get(stage + 1).get(
+                        PackedFlowMap.destination(key))));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns {@code true}, since this dataset maintains the node and stage 
+     * totals.
+     * 
+     * @return {@code true}.
+     */
+    @Override
+    public boolean hasMaintainedTotals() {
+        return true;
+    }
+
+    /**
+     * Returns the total inflow for a node, for the active metric.  The 
+     * totals are maintained as flows are set, so this method does not need
+     * to iterate over the flows.
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     *
+     * @return The total inflow (zero for nodes at stage 0).
+     */
+    @Override
+    public double getInflow(int stage, K node) {
+        return nodeTotal(stage, node, this.active, 0);
+    }
+
+    /**
+     * Returns the total outflow for a node, for the active metric.  The 
+     * totals are maintained as flows are set, so this method does not need
+     * to iterate over the flows.
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     *
+     * @return The total outflow (zero for the final destination nodes).
+     */
+    @Override
+    public double getOutflow(int stage, K node) {
+        return nodeTotal(stage, node, this.active, 1);
+    }
+
+    /**
+     * Returns a node total for a metric.
+     *
+     * @param stage  the node stage.
+     * @param node  the node ({@code null} not permitted).
+     * @param metric  the metric position.
+     * @param which  0 for the inflow, 1 for the outflow.
+     *
+     * @return The total (zero if the node is not present).
+     */
+    private double nodeTotal(int stage, K node, int metric, int which) {
+        Args.nullNotPermitted(node, "node");
+        int index = indexOf(stage, node);
+        return index >= 0 ? this.metrics.get(metric).total(stage, index, 
+                which) : 0.0;
+    }
+
+    /**
+     * Returns the total of all flows at the specified stage, for the active
+     * metric.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return The total flow.
+     */
+    @Override
+    public double getTotalFlow(int stage) {
+        return this.metrics.get(this.active).stageTotal(stage);
+    }
+
+    /**
+     * Returns a clone of the dataset.
+     *
+     * @return A clone of the dataset.
+     *
+     * @throws CloneNotSupportedException if there is a problem with cloning.
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        @SuppressWarnings("unchecked")
+        MultiMetricFlowDataset<K> clone 
+                = (MultiMetricFlowDataset<K>) super.clone();
+        clone.nodes = new ArrayList<>();
+        for (List<K> list : this.nodes) {
+            clone.nodes.add(new ArrayList<>(list));
+        }
+        clone.nodeIndices = new ArrayList<>();
+        for (Map<K, Integer> map : this.nodeIndices) {
+            clone.nodeIndices.add(new HashMap<>(map));
+        }
+        clone.keys = this.keys.copy();
+        clone.flows = this.flows.copy();
+        clone.metricKeys = new ArrayList<>(this.metricKeys);
+        clone.metrics = new ArrayList<>();
+        for (Metric metric : this.metrics) {
+            clone.metrics.add(metric.copy());
+        }
+        clone.nodeProperties = new HashMap<>();
+        for (Map.Entry<NodeKey<K>, Map<String, Object>> e : this.nodeProperties.entrySet()) {
+            clone.nodeProperties.put(e.getKey(), new HashMap<>(e.getValue()));
+        }
+        clone.flowProperties = new HashMap<>();
+        for (Map.Entry<FlowKey<K>, Map<String, Object>> e : this.flowProperties.entrySet()) {
+            clone.flowProperties.put(e.getKey(), new HashMap<>(e.getValue()));
+        }
+        clone.views = null;
+        return clone;
+    }
+
+    /**
+     * Tests this dataset for equality with an arbitrary object.  This method
+     * will return {@code true} if the object implements the
+     * {@link FlowDataset} and defines the exact same set of nodes and flows
+     * as this dataset (for the active metric).  If the object is also a
+     * {@code MultiMetricFlowDataset}, the metric keys, the active metric and
+     * the values for all metrics must also be the same.
+     *
+     * @param obj  the object to test equality against ({@code null} permitted).
+     *
+     * @return A boolean.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FlowDataset)) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        final FlowDataset<K> other = (FlowDataset<K>) obj;
+        if (other.getStageCount() != getStageCount()) {
+            return false;
+        }
+        MultiMetricFlowDataset<K> that = null;
+        if (obj instanceof MultiMetricFlowDataset) {
+            that = (MultiMetricFlowDataset<K>) other;
+            if (!this.metricKeys.equals(that.metricKeys) 
+                    || this.active != that.active) {
+                return false;
+            }
+        }
+        for (int stage = 0; stage < getStageCount(); stage++) {
+            List<K> sources = this.nodes.get(stage);
+            List<K> destinations = this.nodes.get(stage + 1);
+            if (!Objects.equals(other.getSourcesView(stage), sources)) {
+                return false;
+            }
+            if (!Objects.equals(other.getDestinationsView(stage), destinations)) {
+                return false;
+            }
+            for (K source : sources) {
+                for (K destination : destinations) {
+                    if (that == null) {
+                        if (!Objects.equals(other.getFlow(stage, source, destination), getFlow(stage, source, destination))) {
+                            return false;
+                        }
+                        continue;
+                    }
+                    for (int m = 0; m < this.metrics.size(); m++) {
+                        if (!Objects.equals(that.getFlow(stage, source, destination, m), getFlow(stage, source, destination, m))) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code for the content of this dataset (see 
+     * {@link FlowDatasetUtils#calculateHashCode(FlowDataset)}).
+     * 
+     * @return A hash code.
+     */
+    @Override
+    public int hashCode() {
+        return FlowDatasetUtils.calculateHashCode(this);
+    }
+
+    /**
+     * A {@code FlowDataset} view of the values for one metric.  Everything
+     * except the flow values and totals is read from the enclosing dataset.
+     */
+    private class MetricView extends AbstractDataset 
+            implements FlowDataset<K>, Serializable {
+
+        /** The metric position (metrics are never removed). */
+        private final int metric;
+
+        /**
+         * Creates a new view.
+         * 
+         * @param metric  the metric position.
+         */
+        MetricView(int metric) {
+            this.metric = metric;
+        }
+
+        /**
+         * Notifies the listeners for this view that the underlying dataset
+         * has changed.
+         */
+        void changed() {
+            fireDatasetChanged();
+        }
+
+        /**
+         * Returns the number of flow stages.
+         *
+         * @return The number of flow stages.
+         */
+        @Override
+        public int getStageCount() {
+            return MultiMetricFlowDataset.this.getStageCount();
+        }
+
+        /**
+         * Returns a list of the source nodes for the specified stage.
+         *
+         * @param stage  the stage (0 to {@code getStageCount() - 1}).
+         *
+         * @return A list of source nodes (possibly empty but never 
+         *     {@code null}).
+         */
+        @Override
+        public List<K> getSources(int stage) {
+            return MultiMetricFlowDataset.this.getSources(stage);
+        }
+
+        /**
+         * Returns a list of the destination nodes for the specified stage.
+         *
+         * @param stage  the stage (0 to {@code getStageCount() - 1}).
+         *
+         * @return A list of destination nodes (possibly empty but never 
+         *     {@code null}).
+         */
+        @Override
+        public List<K> getDestinations(int stage) {
+            return MultiMetricFlowDataset.this.getDestinations(stage);
+        }
+
+        /**
+         * Returns an unmodifiable view of the source nodes for the 
+         * specified stage.
+         *
+         * @param stage  the stage (0 to {@code getStageCount() - 1}).
+         *
+         * @return An unmodifiable view of the source nodes.
+         */
+        @Override
+        public List<K> getSourcesView(int stage) {
+            return MultiMetricFlowDataset.this.getSourcesView(stage);
+        }
+
+        /**
+         * Returns an unmodifiable view of the destination nodes for the 
+         * specified stage.
+         *
+         * @param stage  the stage (0 to {@code getStageCount() - 1}).
+         *
+         * @return An unmodifiable view of the destination nodes.
+         */
+        @Override
+        public List<K> getDestinationsView(int stage) {
+            return MultiMetricFlowDataset.this.getDestinationsView(stage);
+        }
+
+        /**
+         * Returns the set of keys for all the nodes in the dataset.
+         *
+         * @return A set (possibly empty but never {@code null}).
+         */
+        @Override
+        public Set<NodeKey<K>> getAllNodes() {
+            return MultiMetricFlowDataset.this.getAllNodes();
+        }
+
+        /**
+         * Returns the shared key for the specified node.
+         * 
+         * @param stage  the node stage.
+         * @param node  the node ({@code null} not permitted).
+         * 
+         * @return The node key (never {@code null}).
+         */
+        @Override
+        public NodeKey<K> getNodeKey(int stage, K node) {
+            return MultiMetricFlowDataset.this.getNodeKey(stage, node);
+        }
+
+        /**
+         * Returns the shared key for the specified flow.
+         * 
+         * @param stage  the stage.
+         * @param source  the source ({@code null} not permitted).
+         * @param destination  the destination ({@code null} not permitted).
+         * 
+         * @return The flow key (never {@code null}).
+         */
+        @Override
+        public FlowKey<K> getFlowKey(int stage, K source, K destination) {
+            return MultiMetricFlowDataset.this.getFlowKey(stage, source, 
+                    destination);
+        }
+
+        /**
+         * Returns the value of a property, if specified, for the specified 
+         * node (properties are shared by all metrics).
+         *
+         * @param nodeKey  the node key ({@code null} not permitted).
+         * @param propertyKey  the node key ({@code null} not permitted).
+         *
+         * @return The property value, or {@code null}.
+         */
+        @Override
+        public Object getNodeProperty(NodeKey<K> nodeKey, 
+                String propertyKey) {
+            return MultiMetricFlowDataset.this.getNodeProperty(nodeKey, 
+                    propertyKey);
+        }
+
+        /**
+         * Returns the flow between a source node and a destination node at
+         * a specified stage, for the metric of this view.
+         *
+         * @param stage  the stage index (0 to {@code getStageCount()} - 1).
+         * @param source  the source ({@code null} not permitted).
+         * @param destination  the destination ({@code null} not permitted).
+         *
+         * @return The flow (zero or greater, possibly {@code null}).
+         */
+        @Override
+        public Number getFlow(int stage, K source, K destination) {
+            return MultiMetricFlowDataset.this.getFlow(stage, source, 
+                    destination, this.metric);
+        }
+
+        /**
+         * Returns the value of a property, if specified, for the specified 
+         * flow (properties are shared by all metrics).
+         *
+         * @param flowKey  flowKey ({@code null} not permitted).
+         * @param propertyKey  the property key.
+         *
+         * @return The property value, or {@code null}.
+         */
+        @Override
+        public Object getFlowProperty(FlowKey<K> flowKey, 
+                String propertyKey) {
+            return MultiMetricFlowDataset.this.getFlowProperty(flowKey, 
+                    propertyKey);
+        }
+
+        /**
+         * Returns a set of keys for all the flows that have a value for the
+         * metric of this view.
+         *
+         * @return A set.
+         */
+        @Override
+        public Set<FlowKey<K>> getAllFlows() {
+            return MultiMetricFlowDataset.this.getAllFlows(this.metric);
+        }
+
+        /**
+         * Returns {@code true}, since the totals are maintained for every 
+         * metric.
+         * 
+         * @return {@code true}.
+         */
+        @Override
+        public boolean hasMaintainedTotals() {
+            return true;
+        }
+
+        /**
+         * Returns the total inflow for a node, for the metric of this view.
+         *
+         * @param stage  the node stage (0 to {@code getStageCount()}).
+         * @param node  the node ({@code null} not permitted).
+         *
+         * @return The total inflow (zero for nodes at stage 0).
+         */
+        @Override
+        public double getInflow(int stage, K node) {
+            return MultiMetricFlowDataset.this.nodeTotal(stage, node, 
+                    this.metric, 0);
+        }
+
+        /**
+         * Returns the total outflow for a node, for the metric of this view.
+         *
+         * @param stage  the node stage (0 to {@code getStageCount()}).
+         * @param node  the node ({@code null} not permitted).
+         *
+         * @return The total outflow (zero for the final destination nodes).
+         */
+        @Override
+        public double getOutflow(int stage, K node) {
+            return MultiMetricFlowDataset.this.nodeTotal(stage, node, 
+                    this.metric, 1);
+        }
+
+        /**
+         * Returns the total of all flows at the specified stage, for the 
+         * metric of this view.
+         *
+         * @param stage  the stage (0 to {@code getStageCount() - 1}).
+         *
+         * @return The total flow.
+         */
+        @Override
+        public double getTotalFlow(int stage) {
+            return MultiMetricFlowDataset.this.metrics.get(this.metric)
+                    .stageTotal(stage);
+        }
+
+        /**
+         * Tests this view for equality with an arbitrary object.  This 
+         * method returns {@code true} if the object implements 
+         * {@link FlowDataset} and defines the exact same set of nodes and 
+         * flows as this view.
+         *
+         * @param obj  the object to test equality against ({@code null} 
+         *     permitted).
+         *
+         * @return A boolean.
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof FlowDataset)) {
+                return false;
+            }
+            @SuppressWarnings("unchecked")
+            final FlowDataset<K> other = (FlowDataset<K>) obj;
+            if (other.getStageCount() != getStageCount()) {
+                return false;
+            }
+            for (int stage = 0; stage < getStageCount(); stage++) {
+                List<K> sources = getSourcesView(stage);
+                List<K> destinations = getDestinationsView(stage);
+                if (!Objects.equals(other.getSourcesView(stage), sources) 
+                        || !Objects.equals(other.getDestinationsView(stage), 
+                        destinations)) {
+                    return false;
+                }
+                for (K source : sources) {
+                    for (K destination : destinations) {
+                        if (!Objects.equals(other.getFlow(stage, source, 
+                                destination), getFlow(stage, source, 
+                                destination))) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns a hash code for the content of this view (see 
+         * {@link FlowDatasetUtils#calculateHashCode(FlowDataset)}).
+         * 
+         * @return A hash code.
+         */
+        @Override
+        public int hashCode() {
+            return FlowDatasetUtils.calculateHashCode(this);
+        }
+    }
+
+    /**
+     * The storage for one metric: a value for each flow and the totals for
+     * each node and stage.
+     */
+    private static class Metric implements Serializable {
+
+        /** The flow values by flow position ({@code NaN} for no value). */
+        private double[] values;
+
+        /** 
+         * The node totals for each node stage, four entries for each node 
+         * (the inflow then the outflow, each as a compensated sum, see 
+         * {@link CompensatedSum}) by node position.
+         */
+        private List<double[]> nodeTotals;
+
+        /** The total flow at each stage (two entries per stage). */
+        private double[] stageTotals;
+
+        /** 
+         * The number of values replaced since the totals were last rebuilt
+         * from the values.
+         */
+        private int totalsReplacements;
+
+        /**
+         * Creates the storage for a new metric.
+         * 
+         * @param nodeStageCount  the number of node stages.
+         * @param flowCount  the number of flows.
+         */
+        Metric(int nodeStageCount, int flowCount) {
+            this.values = new double[Math.max(8, flowCount)];
+            Arrays.fill(this.values, Double.NaN);
+            this.nodeTotals = new ArrayList<>();
+            for (int i = 0; i < nodeStageCount; i++) {
+                this.nodeTotals.add(new double[0]);
+            }
+            this.stageTotals = new double[2 * (nodeStageCount - 1)];
+        }
+
+        /**
+         * Makes sure that there is room for the specified number of flows.
+         * 
+         * @param count  the number of flows.
+         */
+        void ensureFlowCapacity(int count) {
+            if (count > this.values.length) {
+                int n = this.values.length;
+                this.values = Arrays.copyOf(this.values, 
+                        Math.max(count, n * 2));
+                Arrays.fill(this.values, n, this.values.length, Double.NaN);
+            }
+        }
+
+        /**
+         * Adds the storage for a new stage.
+         */
+        void addStage() {
+            this.nodeTotals.add(new double[0]);
+            this.stageTotals = Arrays.copyOf(this.stageTotals, 
+                    this.stageTotals.length + 2);
+        }
+
+        /**
+         * Returns a node total.
+         * 
+         * @param nodeStage  the node stage.
+         * @param node  the node position.
+         * @param which  0 for the inflow, 1 for the outflow.
+         * 
+         * @return The total.
+         */
+        double total(int nodeStage, int node, int which) {
+            double[] totals = this.nodeTotals.get(nodeStage);
+            int i = 4 * node + 2 * which;
+            return i < totals.length ? CompensatedSum.get(totals, i) : 0.0;
+        }
+
+        /**
+         * Returns the total of all flows at a stage.
+         * 
+         * @param stage  the stage.
+         * 
+         * @return The total.
+         */
+        double stageTotal(int stage) {
+            return CompensatedSum.get(this.stageTotals, 2 * stage);
+        }
+
+        /**
+         * Replaces a flow value in the totals (a {@code NaN} value counts 
+         * as zero).
+         * 
+         * @param stage  the stage.
+         * @param source  the source position.
+         * @param destination  the destination position.
+         * @param old  the old flow value.
+         * @param value  the new flow value.
+         */
+        void replaceInTotals(int stage, int source, int destination, 
+                double old, double value) {
+            CompensatedSum.replace(totals(stage, source), 4 * source + 2, 
+                    old, value);
+            CompensatedSum.replace(totals(stage + 1, destination), 
+                    4 * destination, old, value);
+            CompensatedSum.replace(this.stageTotals, 2 * stage, old, value);
+        }
+
+        /**
+         * Recalculates the totals from the values.
+         * 
+         * @param flows  the flows (supplying the key for each value).
+         */
+        void rebuildTotals(PackedFlowMap flows) {
+            for (int n = 0; n < this.nodeTotals.size(); n++) {
+                this.nodeTotals.set(n, new double[0]);
+            }
+            Arrays.fill(this.stageTotals, 0.0);
+            for (int i = 0; i < flows.size(); i++) {
+                long key = flows.keyAt(i);
+                replaceInTotals(PackedFlowMap.stage(key), 
+                        PackedFlowMap.source(key), 
+                        PackedFlowMap.destination(key), 0.0, this.values[i]);
+            }
+            this.totalsReplacements = 0;
+        }
+
+        /**
+         * Returns the totals array for a node stage, with room for the 
+         * specified node.
+         * 
+         * @param nodeStage  the node stage.
+         * @param node  the node position.
+         * 
+         * @return The totals array.
+         */
+        private double[] totals(int nodeStage, int node) {
+            double[] totals = this.nodeTotals.get(nodeStage);
+            if (4 * node + 3 >= totals.length) {
+                totals = Arrays.copyOf(totals, 
+                        Math.max(4 * node + 4, totals.length * 2));
+                this.nodeTotals.set(nodeStage, totals);
+            }
+            return totals;
+        }
+
+        /**
+         * Returns an independent copy of this metric.
+         *
+         * @return A copy.
+         */
+        Metric copy() {
+            Metric copy = new Metric(this.nodeTotals.size(), 0);
+            copy.values = this.values.clone();
+            for (int i = 0; i < this.nodeTotals.size(); i++) {
+                copy.nodeTotals.set(i, this.nodeTotals.get(i).clone());
+            }
+            copy.stageTotals = this.stageTotals.clone();
+            return copy;
+        }
+    }
+
+}
@@ -0,0 +1,336 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -------------------
+ * NodeFlowTotals.java
+ * -------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.jfree.chart.util.Args;
+
+/**
+ * An immutable table of the inflow, outflow and throughput for every node 
+ * in a {@link FlowDataset}, plus the total flow at each stage, obtained by
+ * calling {@link FlowDatasetUtils#calculateNodeFlowTotals(FlowDataset)}.
+ * The table is calculated in a single pass over the flows, so it is much 
+ * cheaper than calling 
+ * {@link FlowDatasetUtils#calculateInflow(FlowDataset, Comparable, int)} 
+ * and {@link FlowDatasetUtils#calculateOutflow(FlowDataset, Comparable, int)}
+ * for each node of a dataset that does not maintain its own totals.
+ * <br><br>
+ * The table does not change when the source dataset is updated.
+ *
+ * @param <K> the type for the keys used to identify sources and destinations.
+ */
+public final class NodeFlowTotals<K extends Comparable<K>> {
+
+    /** The (unmodifiable) node lists, one more entry than there are stages. */
+    private final List<List<K>> nodes;
+
+    /** The position of each node within its node stage. */
+    private final List<Map<K, Integer>> positions;
+
+    /** The inflow for each node, by node stage and position. */
+    private final double[][] inflows;
+
+    /** The outflow for each node, by node stage and position. */
+    private final double[][] outflows;
+
+    /** The total flow at each stage. */
+    private final double[] stageTotals;
+
+    /**
+     * Calculates the totals for a dataset.  The dataset must not be modified
+     * while the totals are calculated.
+     * 
+     * @param dataset  the dataset ({@code null} not permitted).
+     * @param parallel  calculate the stages in parallel?
+     */
+    NodeFlowTotals(FlowDataset<K> dataset, boolean parallel) {
+        Args.nullNotPermitted(dataset, "dataset");
+        int stageCount = dataset.getStageCount();
+        this.nodes = new ArrayList<>(stageCount + 1);
+        this.positions = new ArrayList<>(stageCount + 1);
+        this.inflows = new double[stageCount + 1][];
+        this.outflows = new double[stageCount + 1][];
+        for (int n = 0; n <= stageCount; n++) {
+            List<K> list = new ArrayList<>(n < stageCount 
+                    ? dataset.getSourcesView(n) 
+                    : dataset.getDestinationsView(n - 1));
+            Map<K, Integer> map = new HashMap<>(list.size() * 2);
+            for (int i = 0; i < list.size(); i++) {
+                map.put(list.get(i), i);
+            }
+            this.nodes.add(Collections.unmodifiableList(list));
+            this.positions.add(map);
+            this.inflows[n] = new double[list.size()];
+            this.outflows[n] = new double[list.size()];
+        }
+        this.stageTotals = new double[stageCount];
+
+        // the one pass over the flow keys, sorting them by stage
+        List<List<FlowKey<K>>> stageKeys = new ArrayList<>(stageCount);
+        for (int s = 0; s < stageCount; s++) {
+            stageKeys.add(new ArrayList<>());
+        }
+        for (FlowKey<K> key : dataset.getAllFlowsView()) {
+            stageKeys.get(key.getStage()).add(key);
+        }
+        if (parallel && stageCount > 1) {
+            ForkJoinPool.commonPool().invoke(
+                    new StageTask(dataset, stageKeys, 0, stageCount));
+        } else {
+            for (int s = 0; s < stageCount; s++) {
+                addStage(dataset, s, stageKeys.get(s));
+            }
+        }
+    }
+
+    /**
+     * Adds the flows at one stage to the totals.  Each stage updates only 
+     * the outflows of its source nodes, the inflows of its destination nodes
+     * and its own stage total, so stages can be added concurrently.
+     * 
+     * @param dataset  the dataset.
+     * @param stage  the stage.
+     * @param keys  the keys for the flows at the stage.
+     */
+    private void addStage(FlowDataset<K> dataset, int stage, 
+            List<FlowKey<K>> keys) {
+        Map<K, Integer> sources = this.positions.get(stage);
+        Map<K, Integer> destinations = this.positions.get(stage + 1);
+        double[] out = this.outflows[stage];
+        double[] in = this.inflows[stage + 1];
+        double total = 0.0;
+        for (FlowKey<K> key : keys) {
+            Number n = dataset.getFlow(stage, key.getSource(), 
+                    key.getDestination());
+            if (n == null || Double.isNaN(n.doubleValue())) {
+                continue;
+            }
+            double value = n.doubleValue();
+            out[sources.get(key.getSource())] += value;
+            in[destinations.get(key.getDestination())] += value;
+            total += value;
+        }
+        this.stageTotals[stage] = total;
+    }
+
+    /**
+     * Returns the number of flow stages.
+     *
+     * @return The number of flow stages.
+     */
+    public int getStageCount() {
+        return this.stageTotals.length;
+    }
+
+    /**
+     * Returns the nodes at a node stage, in the order used by the dataset.
+     * 
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * 
+     * @return An unmodifiable list of nodes (never {@code null}).
+     */
+    public List<K> getNodes(int stage) {
+        return this.nodes.get(stage);
+    }
+
+    /**
+     * Returns the position of a node within a node stage.
+     * 
+     * @param stage  the node stage.
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return The position, or {@code -1} if the node is not present.
+     */
+    private int indexOf(int stage, K node) {
+        Args.nullNotPermitted(node, "node");
+        if (stage < 0 || stage >= this.positions.size()) {
+            return -1;
+        }
+        Integer index = this.positions.get(stage).get(node);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Returns the total inflow for a node.
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     *
+     * @return The total inflow (zero for nodes at stage 0).
+     */
+    public double getInflow(int stage, K node) {
+        int index = indexOf(stage, node);
+        return index >= 0 ? this.inflows[stage][index] : 0.0;
+    }
+
+    /**
+     * Returns the total outflow for a node.
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     *
+     * @return The total outflow (zero for the final destination nodes).
+     */
+    public double getOutflow(int stage, K node) {
+        int index = indexOf(stage, node);
+        return index >= 0 ? this.outflows[stage][index] : 0.0;
+    }
+
+    /**
+     * Returns the throughput for a node, which is the larger of the inflow
+     * and the outflow (this determines the size of the node in a 
+     * {@link org.jfree.chart.plot.flow.FlowPlot}).
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     *
+     * @return The throughput.
+     */
+    public double getThroughput(int stage, K node) {
+        int index = indexOf(stage, node);
+        return index >= 0 ? Math.max(this.inflows[stage][index], 
+                this.outflows[stage][index]) : 0.0;
+    }
+
+    /**
+     * Returns the total throughput for all the nodes at a node stage.
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     *
+     * @return The total throughput.
+     */
+    public double getTotalThroughput(int stage) {
+        double total = 0.0;
+        double[] in = this.inflows[stage];
+        double[] out = this.outflows[stage];
+        for (int i = 0; i < in.length; i++) {
+            total += Math.max(in[i], out[i]);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the total of all flows at the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return The total flow.
+     */
+    public double getTotalFlow(int stage) {
+        return this.stageTotals[stage];
+    }
+
+    /**
+     * Tests this table for equality with an arbitrary object.  This method
+     * returns {@code true} if the object is a {@code NodeFlowTotals} with 
+     * the same nodes (in the same order) and the same totals.
+     *
+     * @param obj  the object to test equality against ({@code null} permitted).
+     *
+     * @return A boolean.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof NodeFlowTotals)) {
+            return false;
+        }
+        NodeFlowTotals<?> that = (NodeFlowTotals<?>) obj;
+        return this.nodes.equals(that.nodes)
+                && Arrays.deepEquals(this.inflows, that.inflows)
+                && Arrays.deepEquals(this.outflows, that.outflows)
+                && Arrays.equals(this.stageTotals, that.stageTotals);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 53 * hash + this.nodes.hashCode();
+        hash = 53 * hash + Arrays.hashCode(this.stageTotals);
+        return hash;
+    }
+
+    /**
+     * A fork/join task that adds a range of stages to the totals.
+     */
+    private final class StageTask extends RecursiveAction {
+
+        /** The dataset. */
+        private final FlowDataset<K> dataset;
+
+        /** The flow keys, by stage. */
+        private final List<List<FlowKey<K>>> stageKeys;
+
+        /** The first stage (inclusive). */
+        private final int from;
+
+        /** The last stage (exclusive). */
+        private final int to;
+
+        StageTask(FlowDataset<K> dataset, List<List<FlowKey<K>>> stageKeys, 
+                int from, int to) {
+            this.dataset = dataset;
+            this.stageKeys = stageKeys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                addStage(this.dataset, this.from, 
+                        this.stageKeys.get(this.from));
+                return;
+            }
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new StageTask(this.dataset, this.stageKeys, 
+                    this.from, mid), 
+                    new StageTask(this.dataset, this.stageKeys, mid, 
+                    this.to));
+        }
+    }
+
+}
@@ -54,6 +54,9 @@ public class NodeKey <K extends Comparable<K>> implements PublicCloneable, Seria
     
     /* The source node. */
     private K node;
+
+    /** The cached hash code (zero if it has not been calculated yet). */
+    private transient int hash;
     
     public NodeKey(int stage, K node) {
         Args.nullNotPermitted(node, "node");
@@ -104,6 +107,9 @@ public class NodeKey <K extends Comparable<K>> implements PublicCloneable, Seria
             return false;
         }
         final NodeKey<?> other = (NodeKey<?>) obj;
+        if (this.hash != 0 && other.hash != 0 && this.hash != other.hash) {
+            return false;
+        }
         if (this.stage != other.stage) {
             return false;
         }
@@ -113,11 +119,36 @@ public class NodeKey <K extends Comparable<K>> implements PublicCloneable, Seria
         return true;
     }
     
+    /**
+     * Returns a hash code for this instance.  The hash code is calculated 
+     * when first required, then cached.
+     * 
+     * @return A hash code.
+     */
     @Override
     public int hashCode() {
+        int h = this.hash;
+        if (h == 0) {
+            h = hashCode(this.stage, this.node);
+            this.hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * Returns the hash code for a node key with the specified attributes,
+     * so that a key can be looked up (in a {@link FlowKeyPool}) without
+     * creating an instance.
+     * 
+     * @param stage  the stage.
+     * @param node  the node.
+     * 
+     * @return The hash code.
+     */
+    static int hashCode(int stage, Object node) {
         int hash = 3;
-        hash = 53 * hash + this.stage;
-        hash = 53 * hash + Objects.hashCode(this.node);
+        hash = 53 * hash + stage;
+        hash = 53 * hash + Objects.hashCode(node);
         return hash;
     }
 
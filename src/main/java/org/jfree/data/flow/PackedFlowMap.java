@@ -0,0 +1,402 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ------------------
+ * PackedFlowMap.java
+ * ------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A map from packed flow keys to flow values, used for the flow storage in
+ * {@link DefaultFlowDataset}.  A packed key is a single {@code long} that 
+ * holds the stage (16 bits), the position of the source node within its 
+ * stage (24 bits) and the position of the destination node within the next
+ * stage (24 bits), so looking up a flow needs no {@code hashCode()} or 
+ * {@code equals()} calls on the node keys.
+ * <br><br>
+ * Entries are stored in insertion order in parallel arrays and are never 
+ * removed, so the position of an entry is a stable ordinal that can be used
+ * to index other per-flow storage (such as a {@link PropertyColumn}).  The
+ * hash table uses open addressing with linear probing and holds entry 
+ * positions.
+ * <br><br>
+ * A {@link #copy()} shares the storage of this map until either map is 
+ * modified.  The values are held in fixed size pages, and setting a value
+ * copies only the page holding it, so a copy that has had a few values 
+ * changed costs memory in proportion to the changes rather than to the 
+ * size of the map.  Adding an entry copies the keys and the hash table.
+ */
+final class PackedFlowMap implements Serializable {
+
+    /** The maximum number of node stages that can be packed into a key. */
+    static final int MAX_STAGES = 1 << 16;
+
+    /** The maximum number of nodes per stage that can be packed into a key. */
+    static final int MAX_NODES = 1 << 24;
+
+    /** The mask for a node position in a packed key. */
+    private static final long NODE_MASK = MAX_NODES - 1;
+
+    /** The number of bits for the position of a value within its page. */
+    private static final int PAGE_SHIFT = 10;
+
+    /** The maximum number of values in a page. */
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    /** The mask for the position of a value within its page. */
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /** The source of owner identifiers. */
+    private static final AtomicLong OWNERS = new AtomicLong();
+
+    /** The packed keys, in insertion order. */
+    private long[] keys;
+
+    /** 
+     * The values, in the same order as the keys, in pages of 
+     * {@code PAGE_SIZE} values (the last page may be shorter).
+     */
+    private double[][] pages;
+
+    /** The number of entries. */
+    private int size;
+
+    /** The hash table, holding entry positions plus one (zero is empty). */
+    private int[] table;
+
+    /** 
+     * The identifier of this map, changed whenever a copy is made.  A page
+     * can be modified in place only if it is owned by this identifier.
+     */
+    private transient long owner;
+
+    /** The owner of each page. */
+    private transient long[] pageOwners;
+
+    /** 
+     * A flag indicating that the keys and the hash table are shared with a
+     * copy of this map.
+     */
+    private transient boolean keysShared;
+
+    /** 
+     * A flag indicating that the page arrays (but not necessarily the pages
+     * themselves) are shared with a copy of this map.
+     */
+    private transient boolean pagesShared;
+
+    /**
+     * Creates a new empty map.
+     */
+    PackedFlowMap() {
+        this.keys = new long[8];
+        this.table = new int[16];
+        this.owner = OWNERS.incrementAndGet();
+        this.pages = new double[][] {new double[8]};
+        this.pageOwners = new long[] {this.owner};
+    }
+
+    /**
+     * Creates a new map that shares the storage of the specified map.
+     * 
+     * @param source  the source map.
+     */
+    private PackedFlowMap(PackedFlowMap source) {
+        this.keys = source.keys;
+        this.pages = source.pages;
+        this.size = source.size;
+        this.table = source.table;
+        this.owner = OWNERS.incrementAndGet();
+        this.pageOwners = source.pageOwners;
+        this.keysShared = true;
+        this.pagesShared = true;
+    }
+
+    /**
+     * Packs a flow key into a {@code long}.
+     * 
+     * @param stage  the stage (0 to {@code MAX_STAGES - 1}).
+     * @param source  the position of the source node within the stage.
+     * @param destination  the position of the destination node within the
+     *     next stage.
+     * 
+     * @return The packed key.
+     */
+    static long pack(int stage, int source, int destination) {
+        return ((long) stage << 48) | ((long) source << 24) | destination;
+    }
+
+    /**
+     * Returns the stage from a packed key.
+     * 
+     * @param key  the packed key.
+     * 
+     * @return The stage.
+     */
+    static int stage(long key) {
+        return (int) (key >>> 48);
+    }
+
+    /**
+     * Returns the position of the source node from a packed key.
+     * 
+     * @param key  the packed key.
+     * 
+     * @return The source position.
+     */
+    static int source(long key) {
+        return (int) ((key >>> 24) & NODE_MASK);
+    }
+
+    /**
+     * Returns the position of the destination node from a packed key.
+     * 
+     * @param key  the packed key.
+     * 
+     * @return The destination position.
+     */
+    static int destination(long key) {
+        return (int) (key & NODE_MASK);
+    }
+
+    /**
+     * Returns the number of entries in the map.
+     * 
+     * @return The number of entries.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the position of the entry with the specified key.
+     * 
+     * @param key  the packed key.
+     * 
+     * @return The position, or {@code -1} if there is no such entry.
+     */
+    int indexOf(long key) {
+        int mask = this.table.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int slot = this.table[i];
+            if (slot == 0) {
+                return -1;
+            }
+            if (this.keys[slot - 1] == key) {
+                return slot - 1;
+            }
+        }
+    }
+
+    /**
+     * Adds an entry for a key that is not already in the map.
+     * 
+     * @param key  the packed key (must not be in the map).
+     * @param value  the value.
+     * 
+     * @return The position of the new entry.
+     */
+    int add(long key, double value) {
+        if (this.keysShared) {
+            this.keys = this.keys.clone();
+            this.table = this.table.clone();
+            this.keysShared = false;
+        }
+        if (this.size == this.keys.length) {
+            this.keys = Arrays.copyOf(this.keys, this.size * 2);
+        }
+        int index = this.size++;
+        this.keys[index] = key;
+        ensurePage(index);
+        setValueAt(index, value);
+        if (this.size * 2 > this.table.length) {
+            rehash(this.table.length * 2);
+        } else {
+            insert(index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the key of the entry at the specified position.
+     * 
+     * @param index  the position (0 to {@code size() - 1}).
+     * 
+     * @return The packed key.
+     */
+    long keyAt(int index) {
+        return this.keys[index];
+    }
+
+    /**
+     * Returns the value of the entry at the specified position.
+     * 
+     * @param index  the position (0 to {@code size() - 1}).
+     * 
+     * @return The value.
+     */
+    double valueAt(int index) {
+        return this.pages[index >>> PAGE_SHIFT][index & PAGE_MASK];
+    }
+
+    /**
+     * Sets the value of the entry at the specified position.
+     * 
+     * @param index  the position (0 to {@code size() - 1}).
+     * @param value  the new value.
+     */
+    void setValueAt(int index, double value) {
+        int p = index >>> PAGE_SHIFT;
+        if (this.pageOwners[p] != this.owner) {
+            ownPages();
+            this.pages[p] = this.pages[p].clone();
+            this.pageOwners[p] = this.owner;
+        }
+        this.pages[p][index & PAGE_MASK] = value;
+    }
+
+    /**
+     * Returns an independent copy of this map.  The copy shares the storage
+     * of this map until either map is modified, so this method runs in 
+     * constant time.
+     * 
+     * @return A copy.
+     */
+    PackedFlowMap copy() {
+        PackedFlowMap copy = new PackedFlowMap(this);
+        this.owner = OWNERS.incrementAndGet();
+        this.keysShared = true;
+        this.pagesShared = true;
+        return copy;
+    }
+
+    /**
+     * Makes sure that the page arrays are not shared with a copy of this 
+     * map.
+     */
+    private void ownPages() {
+        if (this.pagesShared) {
+            this.pages = this.pages.clone();
+            this.pageOwners = this.pageOwners.clone();
+            this.pagesShared = false;
+        }
+    }
+
+    /**
+     * Makes sure that there is room in the pages for the value at the 
+     * specified position.
+     * 
+     * @param index  the position.
+     */
+    private void ensurePage(int index) {
+        int p = index >>> PAGE_SHIFT;
+        int offset = index & PAGE_MASK;
+        if (p == this.pages.length) {
+            ownPages();
+            this.pages = Arrays.copyOf(this.pages, p * 2);
+            this.pageOwners = Arrays.copyOf(this.pageOwners, p * 2);
+        }
+        double[] page = this.pages[p];
+        if (page == null || offset == page.length) {
+            ownPages();
+            this.pages[p] = page == null ? new double[8] 
+                    : Arrays.copyOf(page, Math.min(PAGE_SIZE, offset * 2));
+            this.pageOwners[p] = this.owner;
+        }
+    }
+
+    /**
+     * Rebuilds the hash table with the specified capacity.
+     * 
+     * @param capacity  the new capacity (a power of two).
+     */
+    private void rehash(int capacity) {
+        this.table = new int[capacity];
+        for (int i = 0; i < this.size; i++) {
+            insert(i);
+        }
+    }
+
+    /**
+     * Inserts the entry at the specified position into the hash table.
+     * 
+     * @param index  the entry position.
+     */
+    private void insert(int index) {
+        int mask = this.table.length - 1;
+        int i = hash(this.keys[index]) & mask;
+        while (this.table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        this.table[i] = index + 1;
+    }
+
+    /**
+     * Returns a hash for a packed key, mixing the high bits into the low 
+     * bits used to select a slot.
+     * 
+     * @param key  the key.
+     * 
+     * @return The hash.
+     */
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Provides serialization support.  The stream may contain other maps
+     * that share storage with this one, so none of the storage is treated
+     * as owned until it has been copied.
+     *
+     * @param stream  the input stream.
+     *
+     * @throws IOException  if there is an I/O error.
+     * @throws ClassNotFoundException  if there is a classpath problem.
+     */
+    private void readObject(ObjectInputStream stream) 
+            throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        this.owner = OWNERS.incrementAndGet();
+        this.pageOwners = new long[this.pages.length];
+        this.keysShared = true;
+        this.pagesShared = true;
+    }
+
+}
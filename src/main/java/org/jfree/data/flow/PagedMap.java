@@ -0,0 +1,216 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -------------
+ * PagedMap.java
+ * -------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable map split into pages by key hash, for the node rows and 
+ * node totals held by a {@link FlowDatasetSnapshot}.  A new map with some
+ * entries changed is created by {@link #withAll(Map)}, which copies only 
+ * the pages holding the changed keys and shares the others, so the cost is
+ * proportional to the number of changes (times the page size, about 
+ * {@code PAGE_SIZE} entries) plus one reference per page, rather than to 
+ * the size of the map.  The number of pages doubles as the map grows, so 
+ * pages stay small.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type (values must not be modified once added).
+ */
+final class PagedMap<K, V> implements Serializable {
+
+    /** The number of entries per page above which the page count doubles. */
+    private static final int PAGE_SIZE = 256;
+
+    /** The pages (the number of pages is a power of 2). */
+    private final List<Map<K, V>> pages;
+
+    /** The number of entries. */
+    private final int size;
+
+    /**
+     * Creates a new map.
+     *
+     * @param pages  the pages.
+     * @param size  the number of entries.
+     */
+    private PagedMap(List<Map<K, V>> pages, int size) {
+        this.pages = pages;
+        this.size = size;
+    }
+
+    /**
+     * Returns a new paged map with the same entries as {@code map}.
+     *
+     * @param <K> the key type.
+     * @param <V> the value type.
+     * @param map  the map ({@code null} not permitted).
+     *
+     * @return A new paged map.
+     */
+    static <K, V> PagedMap<K, V> of(Map<K, V> map) {
+        int count = pageCount(map.size());
+        List<Map<K, V>> pages = new ArrayList<>(count);
+        for (int p = 0; p < count; p++) {
+            pages.add(new HashMap<>());
+        }
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            pages.get(page(entry.getKey(), count)).put(entry.getKey(), 
+                    entry.getValue());
+        }
+        return new PagedMap<>(pages, map.size());
+    }
+
+    /**
+     * Returns the number of pages for a map with the specified size.
+     *
+     * @param size  the number of entries.
+     *
+     * @return The page count (a power of 2).
+     */
+    private static int pageCount(int size) {
+        int count = 1;
+        while ((long) count * PAGE_SIZE < size) {
+            count <<= 1;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the page for a key.  The page is taken from the high bits of
+     * a multiplicative hash, so that it does not correlate with the bucket
+     * that the key falls into within the page.
+     *
+     * @param key  the key.
+     * @param count  the page count.
+     *
+     * @return The page.
+     */
+    private static int page(Object key, int count) {
+        return ((key.hashCode() * 0x9E3779B9) >>> 8) & (count - 1);
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return The number of entries.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the value for a key.
+     *
+     * @param key  the key ({@code null} not permitted).
+     *
+     * @return The value, or {@code null}.
+     */
+    V get(Object key) {
+        return this.pages.get(page(key, this.pages.size())).get(key);
+    }
+
+    /**
+     * Performs an action for each entry.
+     *
+     * @param action  the action ({@code null} not permitted).
+     */
+    void forEach(BiConsumer<? super K, ? super V> action) {
+        for (Map<K, V> page : this.pages) {
+            page.forEach(action);
+        }
+    }
+
+    /**
+     * Returns a new map that has the entries of this map, with the entries
+     * in {@code changes} added or replaced.  This map is not changed.
+     *
+     * @param changes  the changes ({@code null} not permitted).
+     *
+     * @return A new paged map (or this map if there are no changes).
+     */
+    PagedMap<K, V> withAll(Map<K, V> changes) {
+        if (changes.isEmpty()) {
+            return this;
+        }
+        int newSize = this.size;
+        for (K key : changes.keySet()) {
+            if (!this.pages.get(page(key, this.pages.size()))
+                    .containsKey(key)) {
+                newSize++;
+            }
+        }
+        int count = pageCount(newSize);
+        if (count != this.pages.size()) {
+            Map<K, V> all = new HashMap<>(newSize * 2);
+            forEach(all::put);
+            all.putAll(changes);
+            return of(all);
+        }
+        List<Map<K, V>> newPages = new ArrayList<>(this.pages);
+        BitSet copied = new BitSet(count);
+        for (Map.Entry<K, V> entry : changes.entrySet()) {
+            int p = page(entry.getKey(), count);
+            if (!copied.get(p)) {
+                newPages.set(p, new HashMap<>(newPages.get(p)));
+                copied.set(p);
+            }
+            newPages.get(p).put(entry.getKey(), entry.getValue());
+        }
+        return new PagedMap<>(newPages, newSize);
+    }
+
+    /**
+     * Returns an empty paged map.
+     *
+     * @param <K> the key type.
+     * @param <V> the value type.
+     *
+     * @return An empty map.
+     */
+    static <K, V> PagedMap<K, V> empty() {
+        return of(Collections.<K, V>emptyMap());
+    }
+
+}
@@ -0,0 +1,430 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -----------------------------
+ * PrimitiveFlowDatasetView.java
+ * -----------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import org.jfree.chart.util.Args;
+import org.jfree.data.general.AbstractDataset;
+
+/**
+ * A {@link FlowDataset} view of an {@link IntFlowDataset} (with 
+ * {@code Integer} keys) or a {@link LongFlowDataset} (with {@code Long}
+ * keys), so that it can be rendered by a 
+ * {@link org.jfree.chart.plot.flow.FlowPlot}.  Node identifiers are boxed 
+ * only when they are read through the view.  The only node and flow 
+ * property is {@code "selected"}, which reads the selection state held by 
+ * the underlying dataset ({@code Boolean.TRUE} for a selected node or flow,
+ * otherwise {@code null}).
+ *
+ * @param <K> the key type ({@code Integer} or {@code Long}).
+ */
+final class PrimitiveFlowDatasetView<K extends Comparable<K>> 
+        extends AbstractDataset implements FlowDataset<K>, Serializable {
+
+    /** The storage of the underlying dataset. */
+    private final PrimitiveFlowStore store;
+
+    /** Box identifiers as {@code Integer} (otherwise as {@code Long})? */
+    private final boolean intKeys;
+
+    /**
+     * Creates a new view.
+     * 
+     * @param store  the storage of the underlying dataset.
+     * @param intKeys  box identifiers as {@code Integer} (otherwise as 
+     *     {@code Long})?
+     */
+    PrimitiveFlowDatasetView(PrimitiveFlowStore store, boolean intKeys) {
+        this.store = store;
+        this.intKeys = intKeys;
+    }
+
+    /**
+     * Notifies the listeners for this view that the underlying dataset has
+     * changed.
+     */
+    void changed() {
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns the key for a node identifier.
+     * 
+     * @param id  the identifier.
+     * 
+     * @return The key.
+     */
+    @SuppressWarnings("unchecked")
+    private K box(long id) {
+        return (K) (this.intKeys ? (Object) Integer.valueOf((int) id) 
+                : (Object) Long.valueOf(id));
+    }
+
+    /**
+     * Returns the node identifier for a key.
+     * 
+     * @param key  the key ({@code null} not permitted).
+     * 
+     * @return The identifier.
+     */
+    private static long unbox(Object key) {
+        return ((Number) key).longValue();
+    }
+
+    /**
+     * Returns the number of flow stages.
+     *
+     * @return The number of flow stages.
+     */
+    @Override
+    public int getStageCount() {
+        return this.store.getStageCount();
+    }
+
+    /**
+     * Returns a list of the source nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSources(int stage) {
+        return new ArrayList<>(getSourcesView(stage));
+    }
+
+    /**
+     * Returns a list of the destination nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of destination nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getDestinations(int stage) {
+        return new ArrayList<>(getDestinationsView(stage));
+    }
+
+    /**
+     * Returns an unmodifiable view of the source nodes for the specified
+     * stage.  The nodes are boxed as they are read.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSourcesView(int stage) {
+        return new NodeList(stage);
+    }
+
+    /**
+     * Returns an unmodifiable view of the destination nodes for the 
+     * specified stage.  The nodes are boxed as they are read.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of destination nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getDestinationsView(int stage) {
+        return new NodeList(stage + 1);
+    }
+
+    /**
+     * Returns the set of keys for all the nodes in the dataset.
+     *
+     * @return The set of keys for all the nodes in the dataset (possibly empty
+     *     but never {@code null}).
+     */
+    @Override
+    public Set<NodeKey<K>> getAllNodes() {
+        Set<NodeKey<K>> result = new HashSet<>();
+        for (int s = 0; s <= this.store.getStageCount(); s++) {
+            for (int i = 0; i < this.store.getNodeCount(s); i++) {
+                result.add(new NodeKey<>(s, box(this.store.getNode(s, i))));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns {@code Boolean.TRUE} for the {@code "selected"} property of a
+     * selected node, otherwise {@code null} (the view has no other node 
+     * properties).
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the node key ({@code null} not permitted).
+     *
+     * @return {@code Boolean.TRUE} or {@code null}.
+     */
+    @Override
+    public Object getNodeProperty(NodeKey<K> nodeKey, String propertyKey) {
+        return getNodeBooleanProperty(nodeKey, propertyKey) ? Boolean.TRUE 
+                : null;
+    }
+
+    /**
+     * Returns {@code true} for the {@code "selected"} property of a selected
+     * node, without boxing the node identifier.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     *
+     * @return A boolean.
+     */
+    @Override
+    public boolean getNodeBooleanProperty(NodeKey<K> nodeKey, 
+            String propertyKey) {
+        Args.nullNotPermitted(nodeKey, "nodeKey");
+        return "selected".equals(propertyKey) && this.store.isNodeSelected(
+                nodeKey.getStage(), unbox(nodeKey.getNode()));
+    }
+
+    /**
+     * Returns the flow between a source node and a destination node at a
+     * specified stage.
+     *
+     * @param stage  the stage index (0 to {@code getStageCount()} - 1).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     *
+     * @return The flow (zero or greater, possibly {@code null}).
+     */
+    @Override
+    public Number getFlow(int stage, K source, K destination) {
+        Args.nullNotPermitted(source, "source");
+        Args.nullNotPermitted(destination, "destination");
+        int index = this.store.flowIndex(stage, unbox(source), 
+                unbox(destination));
+        return index >= 0 ? this.store.flowValueAt(index) : null;
+    }
+
+    /**
+     * Returns a set of keys for all the flows in the dataset.
+     *
+     * @return A set.
+     */
+    @Override
+    public Set<FlowKey<K>> getAllFlows() {
+        Set<FlowKey<K>> result = new HashSet<>();
+        for (int i = 0; i < this.store.getFlowCount(); i++) {
+            long key = this.store.flowKeyAt(i);
+            int stage = PackedFlowMap.stage(key);
+            result.add(new FlowKey<>(stage, 
+                    box(this.store.getNode(stage, PackedFlowMap.source(key))),
+                    box(this.store.getNode(stage + 1, 
+                    PackedFlowMap.destination(key)))));
+        }
+        return result;
+    }
+
+    /**
+     * Returns {@code Boolean.TRUE} for the {@code "selected"} property of a
+     * selected flow, otherwise {@code null} (the view has no other flow 
+     * properties).
+     *
+     * @param flowKey  flowKey ({@code null} not permitted).
+     * @param propertyKey  the property key.
+     *
+     * @return {@code Boolean.TRUE} or {@code null}.
+     */
+    @Override
+    public Object getFlowProperty(FlowKey<K> flowKey, String propertyKey) {
+        return getFlowBooleanProperty(flowKey, propertyKey) ? Boolean.TRUE 
+                : null;
+    }
+
+    /**
+     * Returns {@code true} for the {@code "selected"} property of a selected
+     * flow, without boxing the node identifiers.
+     *
+     * @param flowKey  the flow key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     *
+     * @return A boolean.
+     */
+    @Override
+    public boolean getFlowBooleanProperty(FlowKey<K> flowKey, 
+            String propertyKey) {
+        Args.nullNotPermitted(flowKey, "flowKey");
+        return "selected".equals(propertyKey) && this.store.isFlowSelected(
+                flowKey.getStage(), unbox(flowKey.getSource()), 
+                unbox(flowKey.getDestination()));
+    }
+
+    /**
+     * Returns {@code true}, since this view maintains the node and stage 
+     * totals.
+     * 
+     * @return {@code true}.
+     */
+    @Override
+    public boolean hasMaintainedTotals() {
+        return true;
+    }
+
+    /**
+     * Returns the total inflow for a node.  The totals are maintained by the
+     * underlying dataset, so this method does not iterate over the flows.
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     *
+     * @return The total inflow (zero for nodes at stage 0).
+     */
+    @Override
+    public double getInflow(int stage, K node) {
+        Args.nullNotPermitted(node, "node");
+        return this.store.getInflow(stage, unbox(node));
+    }
+
+    /**
+     * Returns the total outflow for a node.  The totals are maintained by 
+     * the underlying dataset, so this method does not iterate over the 
+     * flows.
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     *
+     * @return The total outflow (zero for the final destination nodes).
+     */
+    @Override
+    public double getOutflow(int stage, K node) {
+        Args.nullNotPermitted(node, "node");
+        return this.store.getOutflow(stage, unbox(node));
+    }
+
+    /**
+     * Returns the total of all flows at the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return The total flow.
+     */
+    @Override
+    public double getTotalFlow(int stage) {
+        return this.store.getTotalFlow(stage);
+    }
+
+    /**
+     * Tests this view for equality with an arbitrary object.  This method
+     * will return {@code true} if the object implements the
+     * {@link FlowDataset} and defines the exact same set of nodes and flows
+     * as this view.
+     *
+     * @param obj  the object to test equality against ({@code null} permitted).
+     *
+     * @return A boolean.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FlowDataset)) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        final FlowDataset<K> other = (FlowDataset<K>) obj;
+        if (other.getStageCount() != getStageCount()) {
+            return false;
+        }
+        for (int stage = 0; stage < getStageCount(); stage++) {
+            List<K> sources = getSourcesView(stage);
+            List<K> destinations = getDestinationsView(stage);
+            if (!Objects.equals(other.getSourcesView(stage), sources)) {
+                return false;
+            }
+            if (!Objects.equals(other.getDestinationsView(stage), destinations)) {
+                return false;
+            }
+            for (K source : sources) {
+                for (K destination : destinations) {
+                    if (!Objects.equals(other.getFlow(stage, source, destination), getFlow(stage, source, destination))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code for the content of this view (see 
+     * {@link FlowDatasetUtils#calculateHashCode(FlowDataset)}).
+     * 
+     * @return A hash code.
+     */
+    @Override
+    public int hashCode() {
+        return FlowDatasetUtils.calculateHashCode(this);
+    }
+
+    /**
+     * A read-only list of the nodes at one node stage, boxing each node as
+     * it is read.
+     */
+    private final class NodeList extends AbstractList<K> 
+            implements RandomAccess {
+
+        /** The node stage. */
+        private final int nodeStage;
+
+        NodeList(int nodeStage) {
+            this.nodeStage = nodeStage;
+        }
+
+        @Override
+        public K get(int index) {
+            return box(store.getNode(this.nodeStage, index));
+        }
+
+        @Override
+        public int size() {
+            return store.getNodeCount(this.nodeStage);
+        }
+    }
+
+}
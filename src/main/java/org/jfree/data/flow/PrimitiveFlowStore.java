@@ -0,0 +1,521 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -----------------------
+ * PrimitiveFlowStore.java
+ * -----------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import org.jfree.chart.util.Args;
+
+/**
+ * The storage for {@link IntFlowDataset} and {@link LongFlowDataset}, with
+ * the node identifiers held as {@code long} values.  The nodes at each node
+ * stage are held in a {@link LongIndex}, the flows in a 
+ * {@link PackedFlowMap} keyed by node positions, and the node totals in 
+ * arrays indexed by node position, so no node identifier is ever boxed.
+ * The selection state of the nodes and flows is held in bit sets indexed 
+ * by node and flow position.
+ */
+final class PrimitiveFlowStore implements Serializable {
+
+    /** The nodes at each node stage (one more than the number of stages). */
+    private List<LongIndex> nodes;
+
+    /** The flows. */
+    private PackedFlowMap flows;
+
+    /** 
+     * The node totals at each node stage, four entries for each node (the 
+     * inflow then the outflow, each as a compensated sum, see 
+     * {@link CompensatedSum}) by node position.
+     */
+    private List<double[]> nodeTotals;
+
+    /** The total flow at each stage (two entries per stage, compensated). */
+    private double[] stageTotals;
+
+    /** 
+     * The number of flow values replaced since the totals were last rebuilt 
+     * from the flow values.
+     */
+    private int totalsReplacements;
+
+    /** The selected nodes at each node stage, by node position. */
+    private List<BitSet> selectedNodes;
+
+    /** The selected flows, by flow position. */
+    private BitSet selectedFlows;
+
+    /**
+     * Creates a new empty store with one stage.
+     */
+    PrimitiveFlowStore() {
+        this.nodes = new ArrayList<>();
+        this.nodes.add(new LongIndex());
+        this.nodes.add(new LongIndex());
+        this.flows = new PackedFlowMap();
+        this.nodeTotals = new ArrayList<>();
+        this.nodeTotals.add(new double[0]);
+        this.nodeTotals.add(new double[0]);
+        this.stageTotals = new double[2];
+        this.selectedNodes = new ArrayList<>();
+        this.selectedNodes.add(new BitSet());
+        this.selectedNodes.add(new BitSet());
+        this.selectedFlows = new BitSet();
+    }
+
+    /**
+     * Returns the number of stages.
+     * 
+     * @return The number of stages.
+     */
+    int getStageCount() {
+        return this.nodes.size() - 1;
+    }
+
+    /**
+     * Returns the number of nodes at a node stage.
+     * 
+     * @param nodeStage  the node stage (0 to {@code getStageCount()}).
+     * 
+     * @return The node count.
+     */
+    int getNodeCount(int nodeStage) {
+        return this.nodes.get(nodeStage).size();
+    }
+
+    /**
+     * Returns the identifier of the node at the specified position.
+     * 
+     * @param nodeStage  the node stage (0 to {@code getStageCount()}).
+     * @param index  the node position.
+     * 
+     * @return The node identifier.
+     */
+    long getNode(int nodeStage, int index) {
+        return this.nodes.get(nodeStage).valueAt(index);
+    }
+
+    /**
+     * Returns the identifiers of the nodes at a node stage.
+     * 
+     * @param nodeStage  the node stage (0 to {@code getStageCount()}).
+     * 
+     * @return A new array.
+     */
+    long[] getNodes(int nodeStage) {
+        return this.nodes.get(nodeStage).toArray();
+    }
+
+    /**
+     * Returns the position of a node within a node stage.
+     * 
+     * @param nodeStage  the node stage.
+     * @param node  the node identifier.
+     * 
+     * @return The position, or {@code -1} if the node is not present.
+     */
+    int indexOf(int nodeStage, long node) {
+        if (nodeStage < 0 || nodeStage >= this.nodes.size()) {
+            return -1;
+        }
+        return this.nodes.get(nodeStage).indexOf(node);
+    }
+
+    /**
+     * Returns the position of a flow.
+     * 
+     * @param stage  the stage.
+     * @param source  the source identifier.
+     * @param destination  the destination identifier.
+     * 
+     * @return The flow position, or {@code -1} if there is no such flow.
+     */
+    int flowIndex(int stage, long source, long destination) {
+        int s = indexOf(stage, source);
+        int d = indexOf(stage + 1, destination);
+        if (s < 0 || d < 0) {
+            return -1;
+        }
+        return this.flows.indexOf(PackedFlowMap.pack(stage, s, d));
+    }
+
+    /**
+     * Returns the number of flows.
+     * 
+     * @return The number of flows.
+     */
+    int getFlowCount() {
+        return this.flows.size();
+    }
+
+    /**
+     * Returns the packed key for the flow at the specified position.
+     * 
+     * @param index  the flow position.
+     * 
+     * @return The packed key.
+     */
+    long flowKeyAt(int index) {
+        return this.flows.keyAt(index);
+    }
+
+    /**
+     * Returns the value of the flow at the specified position.
+     * 
+     * @param index  the flow position.
+     * 
+     * @return The value.
+     */
+    double flowValueAt(int index) {
+        return this.flows.valueAt(index);
+    }
+
+    /**
+     * Returns the flow between two nodes.
+     * 
+     * @param stage  the stage.
+     * @param source  the source identifier.
+     * @param destination  the destination identifier.
+     * 
+     * @return The flow, or {@code Double.NaN} if there is no such flow.
+     */
+    double getFlow(int stage, long source, long destination) {
+        int index = flowIndex(stage, source, destination);
+        return index >= 0 ? this.flows.valueAt(index) : Double.NaN;
+    }
+
+    /**
+     * Sets the flow between two nodes, adding a stage and nodes as required.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount()}).
+     * @param source  the source identifier.
+     * @param destination  the destination identifier.
+     * @param flow  the flow.
+     */
+    void setFlow(int stage, long source, long destination, double flow) {
+        Args.requireInRange(stage, "stage", 0, getStageCount());
+        if (stage == getStageCount()) {
+            if (this.nodes.size() == PackedFlowMap.MAX_STAGES) {
+                throw new IllegalStateException("The dataset cannot hold " 
+                        + "more than " + (PackedFlowMap.MAX_STAGES - 1) 
+                        + " stages.");
+            }
+            this.nodes.add(new LongIndex());
+            this.nodeTotals.add(new double[0]);
+            this.stageTotals = Arrays.copyOf(this.stageTotals, 
+                    this.stageTotals.length + 2);
+            this.selectedNodes.add(new BitSet());
+        }
+        int s = addNode(stage, source);
+        int d = addNode(stage + 1, destination);
+        long key = PackedFlowMap.pack(stage, s, d);
+        int index = this.flows.indexOf(key);
+        double old = 0.0;
+        if (index < 0) {
+            this.flows.add(key, flow);
+        } else {
+            old = this.flows.valueAt(index);
+            this.flows.setValueAt(index, flow);
+        }
+        // a NaN value counts as zero, so it does not stick in the totals
+        if (CompensatedSum.isSubtraction(old) && CompensatedSum.isRebuildDue(
+                ++this.totalsReplacements, this.flows.size())) {
+            rebuildTotals();
+            return;
+        }
+        CompensatedSum.replace(totals(stage, s), 4 * s + 2, old, flow);
+        CompensatedSum.replace(totals(stage + 1, d), 4 * d, old, flow);
+        CompensatedSum.replace(this.stageTotals, 2 * stage, old, flow);
+    }
+
+    /**
+     * Recalculates the node and stage totals from the flow values.
+     */
+    private void rebuildTotals() {
+        for (int n = 0; n < this.nodeTotals.size(); n++) {
+            this.nodeTotals.set(n, new double[0]);
+        }
+        Arrays.fill(this.stageTotals, 0.0);
+        for (int i = 0; i < this.flows.size(); i++) {
+            long key = this.flows.keyAt(i);
+            int stage = PackedFlowMap.stage(key);
+            int s = PackedFlowMap.source(key);
+            int d = PackedFlowMap.destination(key);
+            double value = this.flows.valueAt(i);
+            CompensatedSum.add(totals(stage, s), 4 * s + 2, value);
+            CompensatedSum.add(totals(stage + 1, d), 4 * d, value);
+            CompensatedSum.add(this.stageTotals, 2 * stage, value);
+        }
+        this.totalsReplacements = 0;
+    }
+
+    /**
+     * Adds a node to a node stage, if it is not already present.
+     * 
+     * @param nodeStage  the node stage.
+     * @param node  the node identifier.
+     * 
+     * @return The position of the node.
+     */
+    private int addNode(int nodeStage, long node) {
+        LongIndex index = this.nodes.get(nodeStage);
+        if (index.size() == PackedFlowMap.MAX_NODES 
+                && index.indexOf(node) < 0) {
+            throw new IllegalStateException("Stage " + nodeStage 
+                    + " cannot hold more than " + PackedFlowMap.MAX_NODES 
+                    + " nodes.");
+        }
+        return index.add(node);
+    }
+
+    /**
+     * Returns the totals array for a node stage, with room for the 
+     * specified node.
+     * 
+     * @param nodeStage  the node stage.
+     * @param node  the node position.
+     * 
+     * @return The totals array.
+     */
+    private double[] totals(int nodeStage, int node) {
+        double[] totals = this.nodeTotals.get(nodeStage);
+        if (4 * node + 3 >= totals.length) {
+            totals = Arrays.copyOf(totals, 
+                    Math.max(4 * node + 4, totals.length * 2));
+            this.nodeTotals.set(nodeStage, totals);
+        }
+        return totals;
+    }
+
+    /**
+     * Returns the total inflow for a node.
+     * 
+     * @param nodeStage  the node stage.
+     * @param node  the node identifier.
+     * 
+     * @return The total inflow (zero if the node is not present).
+     */
+    double getInflow(int nodeStage, long node) {
+        return total(nodeStage, node, 0);
+    }
+
+    /**
+     * Returns the total outflow for a node.
+     * 
+     * @param nodeStage  the node stage.
+     * @param node  the node identifier.
+     * 
+     * @return The total outflow (zero if the node is not present).
+     */
+    double getOutflow(int nodeStage, long node) {
+        return total(nodeStage, node, 1);
+    }
+
+    /**
+     * Returns a node total.
+     * 
+     * @param nodeStage  the node stage.
+     * @param node  the node identifier.
+     * @param which  0 for the inflow, 1 for the outflow.
+     * 
+     * @return The total.
+     */
+    private double total(int nodeStage, long node, int which) {
+        int index = indexOf(nodeStage, node);
+        if (index < 0) {
+            return 0.0;
+        }
+        double[] totals = this.nodeTotals.get(nodeStage);
+        int i = 4 * index + 2 * which;
+        return i < totals.length ? CompensatedSum.get(totals, i) : 0.0;
+    }
+
+    /**
+     * Returns the total of all flows at a stage.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return The total.
+     */
+    double getTotalFlow(int stage) {
+        return CompensatedSum.get(this.stageTotals, 2 * stage);
+    }
+
+    /**
+     * Returns {@code true} if a node is selected.
+     * 
+     * @param nodeStage  the node stage.
+     * @param node  the node identifier.
+     * 
+     * @return A boolean ({@code false} if the node is not present).
+     */
+    boolean isNodeSelected(int nodeStage, long node) {
+        if (nodeStage < 0 || nodeStage >= this.nodes.size()) {
+            return false;
+        }
+        int index = indexOf(nodeStage, node);
+        return index >= 0 && this.selectedNodes.get(nodeStage).get(index);
+    }
+
+    /**
+     * Selects or deselects a node.
+     * 
+     * @param nodeStage  the node stage.
+     * @param node  the node identifier.
+     * @param selected  the new selection state.
+     * 
+     * @throws IllegalArgumentException if the node is not present.
+     */
+    void setNodeSelected(int nodeStage, long node, boolean selected) {
+        int index = nodeStage >= 0 && nodeStage < this.nodes.size() 
+                ? indexOf(nodeStage, node) : -1;
+        if (index < 0) {
+            throw new IllegalArgumentException("The node " + node 
+                    + " is not present at node stage " + nodeStage + ".");
+        }
+        this.selectedNodes.get(nodeStage).set(index, selected);
+    }
+
+    /**
+     * Returns {@code true} if a flow is selected.
+     * 
+     * @param stage  the stage.
+     * @param source  the source identifier.
+     * @param destination  the destination identifier.
+     * 
+     * @return A boolean ({@code false} if the flow is not present).
+     */
+    boolean isFlowSelected(int stage, long source, long destination) {
+        if (stage < 0 || stage >= getStageCount()) {
+            return false;
+        }
+        int index = flowIndex(stage, source, destination);
+        return index >= 0 && this.selectedFlows.get(index);
+    }
+
+    /**
+     * Selects or deselects a flow.
+     * 
+     * @param stage  the stage.
+     * @param source  the source identifier.
+     * @param destination  the destination identifier.
+     * @param selected  the new selection state.
+     * 
+     * @throws IllegalArgumentException if the flow is not present.
+     */
+    void setFlowSelected(int stage, long source, long destination, 
+            boolean selected) {
+        int index = stage >= 0 && stage < getStageCount() 
+                ? flowIndex(stage, source, destination) : -1;
+        if (index < 0) {
+            throw new IllegalArgumentException("There is no flow from " 
+                    + source + " to " + destination + " at stage " + stage
+                    + ".");
+        }
+        this.selectedFlows.set(index, selected);
+    }
+
+    /**
+     * Returns an independent copy of this store.
+     * 
+     * @return A copy.
+     */
+    PrimitiveFlowStore copy() {
+        PrimitiveFlowStore copy = new PrimitiveFlowStore();
+        copy.nodes.clear();
+        for (LongIndex index : this.nodes) {
+            copy.nodes.add(index.copy());
+        }
+        copy.flows = this.flows.copy();
+        copy.nodeTotals.clear();
+        for (double[] totals : this.nodeTotals) {
+            copy.nodeTotals.add(totals.clone());
+        }
+        copy.stageTotals = this.stageTotals.clone();
+        copy.selectedNodes.clear();
+        for (BitSet selected : this.selectedNodes) {
+            copy.selectedNodes.add((BitSet) selected.clone());
+        }
+        copy.selectedFlows = (BitSet) this.selectedFlows.clone();
+        return copy;
+    }
+
+    /**
+     * Tests this store for equality with an arbitrary object.  Two stores 
+     * are equal if they have the same nodes (in the same order) and flows
+     * (the selection state is not compared).
+     * 
+     * @param obj  the object ({@code null} permitted).
+     * 
+     * @return A boolean.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PrimitiveFlowStore)) {
+            return false;
+        }
+        PrimitiveFlowStore that = (PrimitiveFlowStore) obj;
+        if (!this.nodes.equals(that.nodes) 
+                || this.flows.size() != that.flows.size()) {
+            return false;
+        }
+        // with equal node lists, the packed keys are the same in both stores
+        for (int i = 0; i < this.flows.size(); i++) {
+            int j = that.flows.indexOf(this.flows.keyAt(i));
+            if (j < 0 || Double.doubleToLongBits(this.flows.valueAt(i)) 
+                    != Double.doubleToLongBits(that.flows.valueAt(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 3;
+        hash = 89 * hash + this.nodes.get(0).hashCode();
+        hash = 89 * hash + this.nodes.get(this.nodes.size() - 1).hashCode();
+        return hash;
+    }
+
+}
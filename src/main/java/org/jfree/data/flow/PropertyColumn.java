@@ -0,0 +1,307 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ *
+ * -------------------
+ * PropertyColumn.java
+ * -------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Columnar storage for the values of one typed property, indexed by the
+ * position of a node (within its stage) or the ordinal of a flow.  Boolean
+ * values are stored in a {@code BitSet}, numeric values in a primitive 
+ * array, so reading a value does not require any boxing or hashing.  A 
+ * second {@code BitSet} records which positions have a value, so that an 
+ * unset property can be distinguished from {@code false} or zero.
+ */
+abstract class PropertyColumn implements Serializable, Cloneable {
+
+    /** The positions that have a value. */
+    protected BitSet defined = new BitSet();
+
+    /** 
+     * The identifier of the dataset that may modify this column in place 
+     * (see {@link DefaultFlowDataset#clone()}).
+     */
+    transient long owner;
+
+    /**
+     * Creates a column for the specified type.
+     * 
+     * @param type  the type ({@code Boolean.class}, {@code Integer.class} or
+     *     {@code Double.class}).
+     * 
+     * @return A new column.
+     * 
+     * @throws IllegalArgumentException if the type is not supported.
+     */
+    static PropertyColumn create(Class<?> type) {
+        if (type == Boolean.class) {
+            return new BooleanColumn();
+        } else if (type == Integer.class) {
+            return new IntegerColumn();
+        } else if (type == Double.class) {
+            return new DoubleColumn();
+        }
+        throw new IllegalArgumentException("Unsupported property type: " 
+                + type);
+    }
+
+    /**
+     * Returns the type of the values in this column.
+     * 
+     * @return The type.
+     */
+    abstract Class<?> getType();
+
+    /**
+     * Returns {@code true} if the specified position has a value.
+     * 
+     * @param index  the position.
+     * 
+     * @return A boolean.
+     */
+    boolean isDefined(int index) {
+        return this.defined.get(index);
+    }
+
+    /**
+     * Returns the positions that have a value (the caller must not modify 
+     * the result).
+     * 
+     * @return The positions.
+     */
+    BitSet getDefined() {
+        return this.defined;
+    }
+
+    /**
+     * Returns the value at the specified position as an object.
+     * 
+     * @param index  the position.
+     * 
+     * @return The value (possibly {@code null}).
+     */
+    abstract Object get(int index);
+
+    /**
+     * Returns {@code true} if the value at the specified position is 
+     * {@code true} (this is only possible for a boolean column).
+     * 
+     * @param index  the position.
+     * 
+     * @return A boolean.
+     */
+    boolean getBoolean(int index) {
+        return false;
+    }
+
+    /**
+     * Returns the value at the specified position as a double, or 
+     * {@code Double.NaN} if there is no numeric value.
+     * 
+     * @param index  the position.
+     * 
+     * @return The value.
+     */
+    double getDouble(int index) {
+        return Double.NaN;
+    }
+
+    /**
+     * Sets the value at the specified position.
+     * 
+     * @param index  the position.
+     * @param value  the value ({@code null} to clear the position).
+     * 
+     * @throws IllegalArgumentException if the value does not have the type
+     *     of this column.
+     */
+    void set(int index, Object value) {
+        if (value == null) {
+            this.defined.clear(index);
+            return;
+        }
+        if (value.getClass() != getType()) {
+            throw new IllegalArgumentException("Expected a value of type " 
+                    + getType().getName() + " but found " 
+                    + value.getClass().getName());
+        }
+        this.defined.set(index);
+        setValue(index, value);
+    }
+
+    /**
+     * Stores a non-{@code null} value that has already been checked.
+     * 
+     * @param index  the position.
+     * @param value  the value.
+     */
+    protected abstract void setValue(int index, Object value);
+
+    /**
+     * Returns an independent copy of this column.
+     * 
+     * @return A copy.
+     */
+    PropertyColumn copy() {
+        try {
+            PropertyColumn copy = (PropertyColumn) super.clone();
+            copy.defined = (BitSet) this.defined.clone();
+            copy.copyValues();
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Replaces the value storage of a newly cloned column with a copy.
+     */
+    protected abstract void copyValues();
+
+    /** A column of boolean values. */
+    static class BooleanColumn extends PropertyColumn {
+
+        private BitSet values = new BitSet();
+
+        @Override
+        Class<?> getType() {
+            return Boolean.class;
+        }
+
+        @Override
+        Object get(int index) {
+            return this.defined.get(index) ? this.values.get(index) : null;
+        }
+
+        @Override
+        boolean getBoolean(int index) {
+            return this.values.get(index);
+        }
+
+        @Override
+        void set(int index, Object value) {
+            super.set(index, value);
+            if (value == null) {
+                this.values.clear(index);
+            }
+        }
+
+        @Override
+        protected void setValue(int index, Object value) {
+            this.values.set(index, (Boolean) value);
+        }
+
+        @Override
+        protected void copyValues() {
+            this.values = (BitSet) this.values.clone();
+        }
+    }
+
+    /** A column of int values. */
+    static class IntegerColumn extends PropertyColumn {
+
+        private int[] values = new int[16];
+
+        @Override
+        Class<?> getType() {
+            return Integer.class;
+        }
+
+        @Override
+        Object get(int index) {
+            return this.defined.get(index) ? this.values[index] : null;
+        }
+
+        @Override
+        double getDouble(int index) {
+            return this.defined.get(index) ? this.values[index] : Double.NaN;
+        }
+
+        @Override
+        protected void setValue(int index, Object value) {
+            if (index >= this.values.length) {
+                this.values = Arrays.copyOf(this.values, 
+                        Math.max(index + 1, this.values.length * 2));
+            }
+            this.values[index] = (Integer) value;
+        }
+
+        @Override
+        protected void copyValues() {
+            this.values = this.values.clone();
+        }
+    }
+
+    /** A column of double values. */
+    static class DoubleColumn extends PropertyColumn {
+
+        private double[] values = new double[16];
+
+        @Override
+        Class<?> getType() {
+            return Double.class;
+        }
+
+        @Override
+        Object get(int index) {
+            return this.defined.get(index) ? this.values[index] : null;
+        }
+
+        @Override
+        double getDouble(int index) {
+            return this.defined.get(index) ? this.values[index] : Double.NaN;
+        }
+
+        @Override
+        protected void setValue(int index, Object value) {
+            if (index >= this.values.length) {
+                this.values = Arrays.copyOf(this.values, 
+                        Math.max(index + 1, this.values.length * 2));
+            }
+            this.values[index] = (Double) value;
+        }
+
+        @Override
+        protected void copyValues() {
+            this.values = this.values.clone();
+        }
+    }
+
+}
@@ -0,0 +1,894 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ *
+ * -----------------------------
+ * SlidingWindowFlowDataset.java
+ * -----------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.jfree.chart.util.Args;
+import org.jfree.data.general.AbstractDataset;
+
+/**
+ * A flow dataset that aggregates timestamped flow increments over a sliding
+ * time window, intended for displaying live data in a
+ * {@link org.jfree.chart.plot.flow.FlowPlot}.  Time is divided into buckets
+ * of a fixed length and the window covers the most recent
+ * {@code bucketCount} buckets.  The increments for each bucket are kept in a
+ * ring buffer, and the window total for each flow is maintained as
+ * increments are added and as buckets expire, so that moving the window
+ * forward only needs to visit the entries in the buckets that drop out of
+ * it.  Flows that no longer have any increments in the window are removed,
+ * and nodes are removed when no remaining flow refers to them (along with
+ * any properties that were set for them), so the memory used is bounded by
+ * the content of the window.
+ * <br><br>
+ * Optionally, a half-life can be specified, in which case
+ * {@link #getDecayedView()} returns a view of the same window in which the
+ * increments in each bucket are weighted by their age, so that recent
+ * traffic dominates the display.
+ * <br><br>
+ * A change event is sent each time an increment is added or the window
+ * moves (use {@link #setNotify(boolean)} to suspend events while adding a
+ * burst of increments).
+ *
+ * @param <K> the type for the keys used to identify sources and destinations
+ *     (instances should be immutable, {@code String} is a good default choice).
+ */
+public class SlidingWindowFlowDataset<K extends Comparable<K>>
+        extends AbstractDataset implements FlowDataset<K>, Serializable {
+
+    /**
+     * The decayed values are stored relative to a base bucket, and are
+     * rescaled once the weight of the current bucket exceeds
+     * {@code exp(REBASE_EXPONENT)}.
+     */
+    private static final double REBASE_EXPONENT = 50.0;
+
+    /** The length of each bucket, in milliseconds. */
+    private final long bucketMillis;
+
+    /** The number of buckets in the window. */
+    private final int bucketCount;
+
+    /**
+     * The decay rate, per bucket, for the decayed view (zero if there is no
+     * decayed view).
+     */
+    private final double decayRate;
+
+    /** The ring buffer of buckets. */
+    private final Bucket<K>[] buckets;
+
+    /** The index of the current (most recent) bucket. */
+    private long currentBucket;
+
+    /** The bucket that decayed values are stored relative to. */
+    private long decayBase;
+
+    /** The window totals for each flow in the window. */
+    private final Map<FlowKey<K>, Cell> cells;
+
+    /**
+     * The nodes at each stage, in the order they were added (there is one
+     * more entry than the number of stages).
+     */
+    private final List<LinkedHashMap<K, NodeEntry>> nodes;
+
+    /** 
+     * The total flow in the window at each stage, then the decayed total, 
+     * each as a compensated sum (see {@link CompensatedSum}).
+     */
+    private final List<double[]> stageTotals;
+
+    /** 
+     * The number of bucket entries expired since the totals were last 
+     * rebuilt from the buckets.
+     */
+    private int totalsReplacements;
+
+    /** Node properties. */
+    private final Map<NodeKey<K>, Map<String, Object>> nodeProperties;
+
+    /** Flow properties. */
+    private final Map<FlowKey<K>, Map<String, Object>> flowProperties;
+
+    /** The decayed view (created when first requested). */
+    private transient DecayedView decayedView;
+
+    /**
+     * Creates a new dataset with no decayed view.
+     *
+     * @param bucketMillis  the length of each bucket in milliseconds
+     *     (must be positive).
+     * @param bucketCount  the number of buckets in the window (must be
+     *     positive).
+     */
+    public SlidingWindowFlowDataset(long bucketMillis, int bucketCount) {
+        this(bucketMillis, bucketCount, 0L);
+    }
+
+    /**
+     * Creates a new dataset.
+     *
+     * @param bucketMillis  the length of each bucket in milliseconds
+     *     (must be positive).
+     * @param bucketCount  the number of buckets in the window (must be
+     *     positive).
+     * @param halfLifeMillis  the half-life for the decayed view, in
+     *     milliseconds ({@code 0} for no decayed view).
+     */
+    @SuppressWarnings("unchecked")
+    public SlidingWindowFlowDataset(long bucketMillis, int bucketCount, 
+            long halfLifeMillis) {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("Require 'bucketMillis' > 0.");
+        }
+        if (bucketCount <= 0) {
+            throw new IllegalArgumentException("Require 'bucketCount' > 0.");
+        }
+        if (halfLifeMillis < 0) {
+            throw new IllegalArgumentException("Require 'halfLifeMillis' >= 0.");
+        }
+        this.bucketMillis = bucketMillis;
+        this.bucketCount = bucketCount;
+        this.decayRate = halfLifeMillis > 0 
+                ? Math.log(2.0) * bucketMillis / halfLifeMillis : 0.0;
+        this.buckets = (Bucket<K>[]) new Bucket<?>[bucketCount];
+        this.currentBucket = Long.MIN_VALUE;
+        this.cells = new HashMap<>();
+        this.nodes = new ArrayList<>();
+        this.nodes.add(new LinkedHashMap<>());
+        this.nodes.add(new LinkedHashMap<>());
+        this.stageTotals = new ArrayList<>();
+        this.stageTotals.add(new double[4]);
+        this.nodeProperties = new HashMap<>();
+        this.flowProperties = new HashMap<>();
+    }
+
+    /**
+     * Returns the length of each bucket, in milliseconds.
+     *
+     * @return The bucket length.
+     */
+    public long getBucketMillis() {
+        return this.bucketMillis;
+    }
+
+    /**
+     * Returns the number of buckets in the window.
+     *
+     * @return The bucket count.
+     */
+    public int getBucketCount() {
+        return this.bucketCount;
+    }
+
+    /**
+     * Returns the start of the current window (inclusive), in milliseconds,
+     * or {@code Long.MIN_VALUE} if no time has been recorded yet.
+     *
+     * @return The start of the window.
+     */
+    public long getWindowStart() {
+        if (this.currentBucket == Long.MIN_VALUE) {
+            return Long.MIN_VALUE;
+        }
+        return (this.currentBucket - this.bucketCount + 1) * this.bucketMillis;
+    }
+
+    /**
+     * Returns the end of the current window (exclusive), in milliseconds, or
+     * {@code Long.MIN_VALUE} if no time has been recorded yet.
+     *
+     * @return The end of the window.
+     */
+    public long getWindowEnd() {
+        if (this.currentBucket == Long.MIN_VALUE) {
+            return Long.MIN_VALUE;
+        }
+        return (this.currentBucket + 1) * this.bucketMillis;
+    }
+
+    /**
+     * Adds an increment to the flow between a source node and a destination
+     * node at the specified stage, at the specified time.  If the time is
+     * later than the current window, the window is first moved forward (see
+     * {@link #advanceTo(long)}).  Increments that are older than the start of
+     * the current window are ignored.
+     *
+     * @param time  the time of the increment (in milliseconds).
+     * @param stage  the stage (0 to {@code getStageCount()}).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * @param delta  the increment.
+     *
+     * @return A boolean indicating whether the increment falls in the window.
+     */
+    public boolean add(long time, int stage, K source, K destination, 
+            double delta) {
+        Args.requireInRange(stage, "stage", 0, getStageCount());
+        Args.nullNotPermitted(source, "source");
+        Args.nullNotPermitted(destination, "destination");
+        long index = Math.floorDiv(time, this.bucketMillis);
+        if (index > this.currentBucket) {
+            moveTo(index);
+        } else if (index <= this.currentBucket - this.bucketCount) {
+            return false;
+        }
+        if (stage == getStageCount()) {
+            this.nodes.add(new LinkedHashMap<>());
+            this.stageTotals.add(new double[4]);
+        }
+        Bucket<K> bucket = this.buckets[slot(index)];
+        if (bucket == null) {
+            bucket = new Bucket<>();
+            this.buckets[slot(index)] = bucket;
+        }
+        bucket.index = index;
+        FlowKey<K> key = new FlowKey<>(stage, source, destination);
+        double[] bucketValue = bucket.values.get(key);
+        Cell cell = this.cells.get(key);
+        if (cell == null) {
+            cell = new Cell();
+            this.cells.put(key, cell);
+            entryFor(stage, source).flowCount++;
+            entryFor(stage + 1, destination).flowCount++;
+        }
+        if (bucketValue == null) {
+            bucketValue = new double[1];
+            bucket.values.put(key, bucketValue);
+            cell.bucketCount++;
+        }
+        bucketValue[0] += delta;
+        applyDelta(key, cell, delta, index);
+        fireDatasetChanged();
+        return true;
+    }
+
+    /**
+     * Moves the window forward so that it ends with the bucket containing
+     * the specified time, expiring the buckets that drop out of the window.
+     * If the time falls within or before the current bucket, this method 
+     * does nothing.
+     *
+     * @param time  the time (in milliseconds).
+     */
+    public void advanceTo(long time) {
+        long index = Math.floorDiv(time, this.bucketMillis);
+        if (index > this.currentBucket) {
+            moveTo(index);
+            fireDatasetChanged();
+        }
+    }
+
+    /**
+     * Makes the specified bucket the current bucket, expiring older buckets
+     * that are no longer in the window.  Only the buckets that are expired
+     * are visited.
+     *
+     * @param index  the new current bucket index.
+     */
+    private void moveTo(long index) {
+        for (Bucket<K> bucket : this.buckets) {
+            if (bucket != null && bucket.index <= index - this.bucketCount
+                    && !bucket.values.isEmpty()) {
+                expire(bucket);
+            }
+        }
+        if (this.currentBucket == Long.MIN_VALUE) {
+            this.decayBase = index;
+        }
+        this.currentBucket = index;
+        if (this.decayRate > 0.0 && this.decayRate 
+                * (index - this.decayBase) > REBASE_EXPONENT) {
+            double factor = Math.exp(-this.decayRate 
+                    * (index - this.decayBase));
+            for (Cell cell : this.cells.values()) {
+                cell.decayed[0] *= factor;
+                cell.decayed[1] *= factor;
+            }
+            for (double[] totals : this.stageTotals) {
+                totals[2] *= factor;
+                totals[3] *= factor;
+            }
+            this.decayBase = index;
+        }
+        if (CompensatedSum.isRebuildDue(this.totalsReplacements, 
+                this.cells.size())) {
+            rebuildTotals();
+        }
+    }
+
+    /**
+     * Recalculates the window totals for the flows, nodes and stages from 
+     * the increments in the buckets.
+     */
+    private void rebuildTotals() {
+        for (Cell cell : this.cells.values()) {
+            Arrays.fill(cell.value, 0.0);
+            Arrays.fill(cell.decayed, 0.0);
+        }
+        for (Map<K, NodeEntry> map : this.nodes) {
+            for (NodeEntry entry : map.values()) {
+                Arrays.fill(entry.inflow, 0.0);
+                Arrays.fill(entry.outflow, 0.0);
+            }
+        }
+        for (double[] totals : this.stageTotals) {
+            Arrays.fill(totals, 0.0);
+        }
+        for (Bucket<K> bucket : this.buckets) {
+            if (bucket == null) {
+                continue;
+            }
+            for (Map.Entry<FlowKey<K>, double[]> entry 
+                    : bucket.values.entrySet()) {
+                FlowKey<K> key = entry.getKey();
+                applyDelta(key, this.cells.get(key), entry.getValue()[0], 
+                        bucket.index);
+            }
+        }
+        this.totalsReplacements = 0;
+    }
+
+    /**
+     * Removes the contribution of a bucket from the window totals, removing
+     * flows that are no longer in any bucket and nodes that are no longer
+     * referenced by any flow.
+     *
+     * @param bucket  the bucket.
+     */
+    private void expire(Bucket<K> bucket) {
+        for (Map.Entry<FlowKey<K>, double[]> entry : bucket.values.entrySet()) {
+            FlowKey<K> key = entry.getKey();
+            Cell cell = this.cells.get(key);
+            applyDelta(key, cell, -entry.getValue()[0], bucket.index);
+            cell.bucketCount--;
+            if (cell.bucketCount == 0) {
+                this.cells.remove(key);
+                this.flowProperties.remove(key);
+                release(key.getStage(), key.getSource());
+                release(key.getStage() + 1, key.getDestination());
+            }
+        }
+        this.totalsReplacements += bucket.values.size();
+        bucket.values.clear();
+    }
+
+    /**
+     * Applies a change in a flow value to the window totals (which are 
+     * compensated sums, so that the expiry of a large increment does not 
+     * lose the smaller ones).
+     *
+     * @param key  the flow key.
+     * @param cell  the window totals for the flow.
+     * @param delta  the change in value.
+     * @param index  the bucket that the change applies to.
+     */
+    private void applyDelta(FlowKey<K> key, Cell cell, double delta, 
+            long index) {
+        int stage = key.getStage();
+        CompensatedSum.add(cell.value, 0, delta);
+        CompensatedSum.add(this.nodes.get(stage).get(key.getSource()).outflow,
+                0, delta);
+        CompensatedSum.add(this.nodes.get(stage + 1).get(
+                key.getDestination()).inflow, 0, delta);
+        double[] totals = this.stageTotals.get(stage);
+        CompensatedSum.add(totals, 0, delta);
+        if (this.decayRate > 0.0) {
+            double weighted = delta * Math.exp(this.decayRate 
+                    * (index - this.decayBase));
+            CompensatedSum.add(cell.decayed, 0, weighted);
+            CompensatedSum.add(totals, 2, weighted);
+        }
+    }
+
+    /**
+     * Returns the entry for a node, adding the node if necessary.
+     *
+     * @param nodeStage  the node stage.
+     * @param node  the node.
+     *
+     * @return The node entry.
+     */
+    private NodeEntry entryFor(int nodeStage, K node) {
+        Map<K, NodeEntry> map = this.nodes.get(nodeStage);
+        NodeEntry entry = map.get(node);
+        if (entry == null) {
+            entry = new NodeEntry();
+            map.put(node, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Decrements the flow count for a node, removing the node (and its
+     * properties) if no flows in the window refer to it.
+     *
+     * @param nodeStage  the node stage.
+     * @param node  the node.
+     */
+    private void release(int nodeStage, K node) {
+        Map<K, NodeEntry> map = this.nodes.get(nodeStage);
+        NodeEntry entry = map.get(node);
+        entry.flowCount--;
+        if (entry.flowCount == 0) {
+            map.remove(node);
+            this.nodeProperties.remove(new NodeKey<>(nodeStage, node));
+        }
+    }
+
+    /**
+     * Returns the position in the ring buffer for a bucket index.
+     *
+     * @param index  the bucket index.
+     *
+     * @return The slot.
+     */
+    private int slot(long index) {
+        return (int) Math.floorMod(index, (long) this.bucketCount);
+    }
+
+    /**
+     * Returns the number of flow stages.
+     *
+     * @return The number of flow stages.
+     */
+    @Override
+    public int getStageCount() {
+        return this.nodes.size() - 1;
+    }
+
+    /**
+     * Returns a list of the source nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSources(int stage) {
+        return new ArrayList<>(this.nodes.get(stage).keySet());
+    }
+
+    /**
+     * Returns a list of the destination nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of destination nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getDestinations(int stage) {
+        return new ArrayList<>(this.nodes.get(stage + 1).keySet());
+    }
+
+    /**
+     * Returns the set of keys for all the nodes in the dataset.
+     *
+     * @return The set of keys for all the nodes in the dataset (possibly empty
+     *     but never {@code null}).
+     */
+    @Override
+    public Set<NodeKey<K>> getAllNodes() {
+        Set<NodeKey<K>> result = new HashSet<>();
+        for (int s = 0; s < this.nodes.size(); s++) {
+            for (K key : this.nodes.get(s).keySet()) {
+                result.add(new NodeKey<>(s, key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of a property, if specified, for the specified node.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the node key ({@code null} not permitted).
+     *
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getNodeProperty(NodeKey<K> nodeKey, String propertyKey) {
+        Map<String, Object> props = this.nodeProperties.get(nodeKey);
+        if (props != null) {
+            return props.get(propertyKey);
+        }
+        return null;
+    }
+
+    /**
+     * Sets a property for the specified node and sends a change event to all
+     * registered listeners.  The node must be in the current window, and
+     * the property is discarded when the node is removed from the window.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * @param value  the property value.
+     */
+    public void setNodeProperty(NodeKey<K> nodeKey, String propertyKey, 
+            Object value) {
+        Args.nullNotPermitted(nodeKey, "nodeKey");
+        Args.nullNotPermitted(propertyKey, "propertyKey");
+        int stage = nodeKey.getStage();
+        if (stage < 0 || stage >= this.nodes.size() 
+                || !this.nodes.get(stage).containsKey(nodeKey.getNode())) {
+            throw new IllegalArgumentException("The node is not in the window.");
+        }
+        this.nodeProperties.computeIfAbsent(nodeKey, k -> new HashMap<>())
+                .put(propertyKey, value);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns the total flow in the current window between a source node
+     * and a destination node at a specified stage.
+     *
+     * @param stage  the stage index (0 to {@code getStageCount()} - 1).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     *
+     * @return The flow (possibly {@code null}).
+     */
+    @Override
+    public Number getFlow(int stage, K source, K destination) {
+        Cell cell = this.cells.get(new FlowKey<>(stage, source, destination));
+        return cell != null ? CompensatedSum.get(cell.value, 0) : null;
+    }
+
+    /**
+     * Returns a set of keys for all the flows in the current window.
+     *
+     * @return A set.
+     */
+    @Override
+    public Set<FlowKey<K>> getAllFlows() {
+        return new HashSet<>(this.cells.keySet());
+    }
+
+    /**
+     * Returns the value of a property, if specified, for the specified flow.
+     *
+     * @param flowKey  flowKey ({@code null} not permitted).
+     *
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getFlowProperty(FlowKey<K> flowKey, String propertyKey) {
+        Map<String, Object> props = this.flowProperties.get(flowKey);
+        if (props != null) {
+            return props.get(propertyKey);
+        }
+        return null;
+    }
+
+    /**
+     * Sets a property for the specified flow and sends a change event to all
+     * registered listeners.  The flow must be in the current window, and
+     * the property is discarded when the flow is removed from the window.
+     *
+     * @param flowKey  the flow key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * @param value  the property value.
+     */
+    public void setFlowProperty(FlowKey<K> flowKey, String propertyKey, 
+            Object value) {
+        Args.nullNotPermitted(flowKey, "flowKey");
+        Args.nullNotPermitted(propertyKey, "propertyKey");
+        if (!this.cells.containsKey(flowKey)) {
+            throw new IllegalArgumentException("The flow is not in the window.");
+        }
+        this.flowProperties.computeIfAbsent(flowKey, k -> new HashMap<>())
+                .put(propertyKey, value);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns {@code true}, since this dataset maintains the node and stage 
+     * totals.
+     * 
+     * @return {@code true}.
+     */
+    @Override
+    public boolean hasMaintainedTotals() {
+        return true;
+    }
+
+    /**
+     * Returns the total inflow for a node in the current window.
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     *
+     * @return The total inflow (zero for nodes at stage 0).
+     */
+    @Override
+    public double getInflow(int stage, K node) {
+        Args.nullNotPermitted(node, "node");
+        if (stage < 0 || stage >= this.nodes.size()) {
+            return 0.0;
+        }
+        NodeEntry entry = this.nodes.get(stage).get(node);
+        return entry != null ? CompensatedSum.get(entry.inflow, 0) : 0.0;
+    }
+
+    /**
+     * Returns the total outflow for a node in the current window.
+     *
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     *
+     * @return The total outflow (zero for the final destination nodes).
+     */
+    @Override
+    public double getOutflow(int stage, K node) {
+        Args.nullNotPermitted(node, "node");
+        if (stage < 0 || stage >= this.nodes.size()) {
+            return 0.0;
+        }
+        NodeEntry entry = this.nodes.get(stage).get(node);
+        return entry != null ? CompensatedSum.get(entry.outflow, 0) : 0.0;
+    }
+
+    /**
+     * Returns the total of all flows in the current window at the specified
+     * stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return The total flow.
+     */
+    @Override
+    public double getTotalFlow(int stage) {
+        return CompensatedSum.get(this.stageTotals.get(stage), 0);
+    }
+
+    /**
+     * Returns a view of the current window in which the increments in each
+     * bucket are weighted by {@code 0.5^(age / halfLife)}, where the age is
+     * measured from the current bucket.  The view has the same nodes and
+     * flows as this dataset, and sends a change event whenever this dataset
+     * changes.
+     *
+     * @return The decayed view (never {@code null}).
+     *
+     * @throws IllegalStateException if this dataset was created without a
+     *     half-life.
+     */
+    public FlowDataset<K> getDecayedView() {
+        if (this.decayRate == 0.0) {
+            throw new IllegalStateException("No half-life was specified.");
+        }
+        if (this.decayedView == null) {
+            this.decayedView = new DecayedView();
+        }
+        return this.decayedView;
+    }
+
+    /**
+     * Returns the factor that converts stored decayed values to values
+     * weighted relative to the current bucket.
+     *
+     * @return The scale factor.
+     */
+    private double decayScale() {
+        return Math.exp(-this.decayRate * (this.currentBucket - this.decayBase));
+    }
+
+    /**
+     * Sends a change event to the listeners registered with this dataset
+     * and with the decayed view (if it has been created).
+     */
+    @Override
+    protected void fireDatasetChanged() {
+        super.fireDatasetChanged();
+        if (this.decayedView != null && getNotify()) {
+            this.decayedView.fireDatasetChanged();
+        }
+    }
+
+    /**
+     * Tests this dataset for equality with an arbitrary object.  This method
+     * will return {@code true} if the object implements the
+     * {@link FlowDataset} and defines the exact same set of nodes and flows
+     * as this dataset.
+     *
+     * @param obj  the object to test equality against ({@code null} permitted).
+     *
+     * @return A boolean.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FlowDataset)) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        final FlowDataset<K> other = (FlowDataset<K>) obj;
+        if (other.getStageCount() != getStageCount()) {
+            return false;
+        }
+        for (int stage = 0; stage < getStageCount(); stage++) {
+            List<K> sources = getSources(stage);
+            List<K> destinations = getDestinations(stage);
+            if (!Objects.equals(other.getSourcesView(stage), sources)) {
+                return false;
+            }
+            if (!Objects.equals(other.getDestinationsView(stage), destinations)) {
+                return false;
+            }
+            for (K source : sources) {
+                for (K destination : destinations) {
+                    if (!Objects.equals(other.getFlow(stage, source, destination), getFlow(stage, source, destination))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code for the content of this dataset (see 
+     * {@link FlowDatasetUtils#calculateHashCode(FlowDataset)}).
+     * 
+     * @return A hash code.
+     */
+    @Override
+    public int hashCode() {
+        return FlowDatasetUtils.calculateHashCode(this);
+    }
+
+    /**
+     * The increments recorded in one bucket.
+     *
+     * @param <K> the node key type.
+     */
+    private static class Bucket<K extends Comparable<K>> 
+            implements Serializable {
+
+        /** The bucket index (time divided by the bucket length). */
+        long index = Long.MIN_VALUE;
+
+        /** The increments for each flow in the bucket. */
+        final Map<FlowKey<K>, double[]> values = new HashMap<>();
+    }
+
+    /** The window totals for one flow. */
+    private static class Cell implements Serializable {
+
+        /** The sum of the increments in the window (compensated). */
+        final double[] value = new double[2];
+
+        /** 
+         * The decayed sum, relative to the decay base bucket (compensated).
+         */
+        final double[] decayed = new double[2];
+
+        /** The number of buckets in the window that contain the flow. */
+        int bucketCount;
+    }
+
+    /** The window totals for one node. */
+    private static class NodeEntry implements Serializable {
+
+        /** The number of flows in the window that refer to the node. */
+        int flowCount;
+
+        /** The total inflow (compensated). */
+        final double[] inflow = new double[2];
+
+        /** The total outflow (compensated). */
+        final double[] outflow = new double[2];
+    }
+
+    /**
+     * A view of the window with the increments weighted by age.
+     */
+    private class DecayedView extends AbstractDataset 
+            implements FlowDataset<K> {
+
+        // overridden so that the enclosing dataset can forward its events
+        @Override
+        protected void fireDatasetChanged() {
+            super.fireDatasetChanged();
+        }
+
+        @Override
+        public int getStageCount() {
+            return SlidingWindowFlowDataset.this.getStageCount();
+        }
+
+        @Override
+        public List<K> getSources(int stage) {
+            return SlidingWindowFlowDataset.this.getSources(stage);
+        }
+
+        @Override
+        public List<K> getDestinations(int stage) {
+            return SlidingWindowFlowDataset.this.getDestinations(stage);
+        }
+
+        @Override
+        public Set<NodeKey<K>> getAllNodes() {
+            return SlidingWindowFlowDataset.this.getAllNodes();
+        }
+
+        @Override
+        public Object getNodeProperty(NodeKey<K> nodeKey, String propertyKey) {
+            return SlidingWindowFlowDataset.this.getNodeProperty(nodeKey, 
+                    propertyKey);
+        }
+
+        @Override
+        public Number getFlow(int stage, K source, K destination) {
+            Cell cell = cells.get(new FlowKey<>(stage, source, destination));
+            if (cell == null) {
+                return null;
+            }
+            return CompensatedSum.get(cell.decayed, 0) * decayScale();
+        }
+
+        @Override
+        public Set<FlowKey<K>> getAllFlows() {
+            return SlidingWindowFlowDataset.this.getAllFlows();
+        }
+
+        @Override
+        public Object getFlowProperty(FlowKey<K> flowKey, String propertyKey) {
+            return SlidingWindowFlowDataset.this.getFlowProperty(flowKey, 
+                    propertyKey);
+        }
+
+        @Override
+        public double getTotalFlow(int stage) {
+            return CompensatedSum.get(stageTotals.get(stage), 2) 
+                    * decayScale();
+        }
+    }
+
+}
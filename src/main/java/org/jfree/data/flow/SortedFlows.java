@@ -0,0 +1,401 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ----------------
+ * SortedFlows.java
+ * ----------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The nodes and flows of a {@link FlowDataset}, with the flows for each 
+ * stage sorted by source position then destination position, for the 
+ * classes that write datasets in a binary format ({@link FlowDatasetWriter}
+ * and {@link MappedFlowDataset}).  The flows are read from the dataset in a
+ * single pass, and the node and stage totals are accumulated from the same
+ * flows (flows with a {@code NaN} value count as zero).
+ *
+ * @param <K> the type for the keys used to identify sources and destinations.
+ */
+final class SortedFlows<K extends Comparable<K>> {
+
+    /** The key type code for {@code String} keys. */
+    static final int STRING_KEYS = 0;
+
+    /** The key type code for {@code Integer} keys. */
+    static final int INTEGER_KEYS = 1;
+
+    /** The key type code for {@code Long} keys. */
+    static final int LONG_KEYS = 2;
+
+    /** 
+     * The key type code for a dataset with no nodes, which can be read 
+     * with any of the supported key types.
+     */
+    static final int ANY_KEYS = 3;
+
+    /** The nodes at each node stage. */
+    private final List<List<K>> nodes;
+
+    /** The key type code. */
+    private final int keyType;
+
+    /** 
+     * The position of the first flow for each source at each stage (with 
+     * one extra entry, the number of flows at the stage).
+     */
+    private final int[][] rowStarts;
+
+    /** The destination position of each flow at each stage. */
+    private final int[][] destinations;
+
+    /** The value of each flow at each stage. */
+    private final double[][] values;
+
+    /** The inflow of each node at each node stage. */
+    private final double[][] inflows;
+
+    /** The outflow of each node at each node stage. */
+    private final double[][] outflows;
+
+    /** The total flow at each stage. */
+    private final double[] stageTotals;
+
+    /**
+     * Reads the nodes and flows of a dataset.  Flows with a {@code null}
+     * value are skipped.
+     *
+     * @param dataset  the dataset ({@code null} not permitted).
+     *
+     * @throws IllegalArgumentException if the dataset has keys of an
+     *     unsupported type.
+     */
+    SortedFlows(FlowDataset<K> dataset) {
+        int stageCount = dataset.getStageCount();
+        this.nodes = new ArrayList<>(stageCount + 1);
+        List<Map<K, Integer>> indices = new ArrayList<>(stageCount + 1);
+        for (int n = 0; n <= stageCount; n++) {
+            List<K> list = n < stageCount ? dataset.getSourcesView(n) 
+                    : dataset.getDestinationsView(n - 1);
+            this.nodes.add(list);
+            Map<K, Integer> map = new HashMap<>(list.size() * 2);
+            for (int i = 0; i < list.size(); i++) {
+                map.put(list.get(i), i);
+            }
+            indices.add(map);
+        }
+        this.keyType = keyTypeOf(this.nodes);
+
+        int[][] s = new int[stageCount][16];
+        int[][] d = new int[stageCount][16];
+        double[][] v = new double[stageCount][16];
+        int[] counts = new int[stageCount];
+        for (FlowKey<K> key : dataset.getAllFlowsView()) {
+            int stage = key.getStage();
+            Number value = dataset.getFlow(stage, key.getSource(), 
+                    key.getDestination());
+            if (value == null) {
+                continue;
+            }
+            int i = counts[stage]++;
+            if (i == s[stage].length) {
+                s[stage] = Arrays.copyOf(s[stage], i * 2);
+                d[stage] = Arrays.copyOf(d[stage], i * 2);
+                v[stage] = Arrays.copyOf(v[stage], i * 2);
+            }
+            s[stage][i] = indices.get(stage).get(key.getSource());
+            d[stage][i] = indices.get(stage + 1).get(key.getDestination());
+            v[stage][i] = value.doubleValue();
+        }
+
+        this.rowStarts = new int[stageCount][];
+        this.destinations = new int[stageCount][];
+        this.values = new double[stageCount][];
+        this.inflows = new double[stageCount + 1][];
+        this.outflows = new double[stageCount + 1][];
+        for (int n = 0; n <= stageCount; n++) {
+            this.inflows[n] = new double[this.nodes.get(n).size()];
+            this.outflows[n] = new double[this.nodes.get(n).size()];
+        }
+        this.stageTotals = new double[stageCount];
+        for (int stage = 0; stage < stageCount; stage++) {
+            sortStage(stage, s[stage], d[stage], v[stage], counts[stage]);
+        }
+    }
+
+    /**
+     * Sorts the flows for a stage into rows (a counting sort by source 
+     * position, then a sort by destination within each row) and 
+     * accumulates the totals.
+     *
+     * @param stage  the stage.
+     * @param s  the source positions.
+     * @param d  the destination positions.
+     * @param v  the values.
+     * @param count  the number of flows.
+     */
+    private void sortStage(int stage, int[] s, int[] d, double[] v, 
+            int count) {
+        int rowCount = this.nodes.get(stage).size();
+        int[] start = new int[rowCount + 1];
+        for (int i = 0; i < count; i++) {
+            start[s[i] + 1]++;
+        }
+        for (int r = 0; r < rowCount; r++) {
+            start[r + 1] += start[r];
+        }
+        int[] next = Arrays.copyOf(start, rowCount);
+        int[] dst = new int[count];
+        double[] val = new double[count];
+        for (int i = 0; i < count; i++) {
+            int p = next[s[i]]++;
+            dst[p] = d[i];
+            val[p] = v[i];
+        }
+        double[] out = this.outflows[stage];
+        double[] in = this.inflows[stage + 1];
+        for (int r = 0; r < rowCount; r++) {
+            sortRow(dst, val, start[r], start[r + 1]);
+            for (int i = start[r]; i < start[r + 1]; i++) {
+                if (!Double.isNaN(val[i])) {
+                    out[r] += val[i];
+                    in[dst[i]] += val[i];
+                    this.stageTotals[stage] += val[i];
+                }
+            }
+        }
+        this.rowStarts[stage] = start;
+        this.destinations[stage] = dst;
+        this.values[stage] = val;
+    }
+
+    /**
+     * Sorts a row of flows by destination position.
+     *
+     * @param d  the destination positions.
+     * @param v  the values.
+     * @param from  the first position in the row.
+     * @param to  the position after the last in the row.
+     */
+    private static void sortRow(int[] d, double[] v, int from, int to) {
+        boolean sorted = true;
+        for (int i = from + 1; i < to && sorted; i++) {
+            sorted = d[i - 1] <= d[i];
+        }
+        if (sorted) {
+            return;
+        }
+        // pack the destination with the offset in the row, so that sorting
+        // the longs gives the order in which to move the values
+        long[] packed = new long[to - from];
+        for (int i = from; i < to; i++) {
+            packed[i - from] = ((long) d[i] << 32) | (i - from);
+        }
+        Arrays.sort(packed);
+        double[] rowValues = Arrays.copyOfRange(v, from, to);
+        for (int i = 0; i < packed.length; i++) {
+            d[from + i] = (int) (packed[i] >>> 32);
+            v[from + i] = rowValues[(int) packed[i]];
+        }
+    }
+
+    /**
+     * Returns the type code for the keys in the node lists.
+     *
+     * @param nodes  the node lists.
+     *
+     * @return The type code.
+     */
+    private static int keyTypeOf(List<? extends List<?>> nodes) {
+        Class<?> c = null;
+        for (List<?> list : nodes) {
+            for (Object key : list) {
+                if (c == null) {
+                    c = key.getClass();
+                } else if (c != key.getClass()) {
+                    throw new IllegalArgumentException(
+                            "All keys must have the same type.");
+                }
+            }
+        }
+        if (c == null) {
+            return ANY_KEYS;
+        } else if (c == String.class) {
+            return STRING_KEYS;
+        } else if (c == Integer.class) {
+            return INTEGER_KEYS;
+        } else if (c == Long.class) {
+            return LONG_KEYS;
+        }
+        throw new IllegalArgumentException("Unsupported key type: " + c);
+    }
+
+    /**
+     * Returns {@code true} if keys with the specified type code can be read
+     * as the specified key type.
+     *
+     * @param code  the key type code.
+     * @param keyType  the key type.
+     *
+     * @return A boolean.
+     */
+    static boolean isKeyType(int code, Class<?> keyType) {
+        if (keyType != String.class && keyType != Integer.class 
+                && keyType != Long.class) {
+            return false;
+        }
+        return code == ANY_KEYS || code == STRING_KEYS 
+                && keyType == String.class || code == INTEGER_KEYS 
+                && keyType == Integer.class || code == LONG_KEYS 
+                && keyType == Long.class;
+    }
+
+    /**
+     * Returns the type code for the node keys.
+     *
+     * @return The type code.
+     */
+    int getKeyType() {
+        return this.keyType;
+    }
+
+    /**
+     * Returns the number of stages.
+     *
+     * @return The number of stages.
+     */
+    int getStageCount() {
+        return this.rowStarts.length;
+    }
+
+    /**
+     * Returns the nodes at a node stage.
+     *
+     * @param nodeStage  the node stage (0 to {@code getStageCount()}).
+     *
+     * @return The nodes.
+     */
+    List<K> getNodes(int nodeStage) {
+        return this.nodes.get(nodeStage);
+    }
+
+    /**
+     * Returns the number of flows at a stage.
+     *
+     * @param stage  the stage.
+     *
+     * @return The flow count.
+     */
+    int getFlowCount(int stage) {
+        return this.destinations[stage].length;
+    }
+
+    /**
+     * Returns the position of the first flow for a source (the flows for 
+     * the source end at the start of the next row).
+     *
+     * @param stage  the stage.
+     * @param row  the source position (0 to the number of sources, 
+     *     inclusive).
+     *
+     * @return The flow position.
+     */
+    int getRowStart(int stage, int row) {
+        return this.rowStarts[stage][row];
+    }
+
+    /**
+     * Returns the destination position for a flow.
+     *
+     * @param stage  the stage.
+     * @param index  the flow position.
+     *
+     * @return The destination position.
+     */
+    int getDestination(int stage, int index) {
+        return this.destinations[stage][index];
+    }
+
+    /**
+     * Returns the value of a flow.
+     *
+     * @param stage  the stage.
+     * @param index  the flow position.
+     *
+     * @return The value.
+     */
+    double getValue(int stage, int index) {
+        return this.values[stage][index];
+    }
+
+    /**
+     * Returns the inflow of a node.
+     *
+     * @param nodeStage  the node stage.
+     * @param node  the node position.
+     *
+     * @return The inflow.
+     */
+    double getInflow(int nodeStage, int node) {
+        return this.inflows[nodeStage][node];
+    }
+
+    /**
+     * Returns the outflow of a node.
+     *
+     * @param nodeStage  the node stage.
+     * @param node  the node position.
+     *
+     * @return The outflow.
+     */
+    double getOutflow(int nodeStage, int node) {
+        return this.outflows[nodeStage][node];
+    }
+
+    /**
+     * Returns the total flow at a stage.
+     *
+     * @param stage  the stage.
+     *
+     * @return The total flow.
+     */
+    double getTotalFlow(int stage) {
+        return this.stageTotals[stage];
+    }
+
+}
@@ -0,0 +1,1053 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ----------------------
+ * SparseFlowDataset.java
+ * ----------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.jfree.chart.util.Args;
+import org.jfree.chart.util.PublicCloneable;
+import org.jfree.data.general.AbstractDataset;
+
+/**
+ * A flow dataset for stages where only a small fraction of the possible
+ * source to destination flows are defined.  The flows for each stage are
+ * held in compressed sparse row (CSR) form, with a compressed sparse column
+ * (CSC) index over the same values, so that the inflows or outflows for a
+ * node can be found in time proportional to the number of flows at that
+ * node.
+ * <br><br>
+ * New flows are buffered and merged into the compressed form when the 
+ * buffer grows as large as the compressed form (or when {@link #compact()}
+ * is called), so this class works best when flows are loaded in bulk and
+ * then compacted before the dataset is rendered.  Reads never modify the
+ * dataset: the buffer is indexed by row and by column, so the flows at a
+ * node are still found in time proportional to their number while flows 
+ * are buffered.  Updating the value of an existing flow is done in place.
+ * <br><br>
+ * The inflow and outflow for each node and the total flow for each stage
+ * are maintained as flows are set (see {@link #hasMaintainedTotals()}).
+ *
+ * @param <K> the type for the keys used to identify sources and destinations
+ *     (instances should be immutable, {@code String} is a good default choice).
+ */
+public class SparseFlowDataset<K extends Comparable<K>> extends AbstractDataset
+        implements FlowDataset<K>, PublicCloneable, Serializable {
+
+    /**
+     * The nodes at each stage.  The list will have N+1 entries, where N is
+     * the number of stages - the last entry contains the destination nodes for
+     * the final stage.
+     */
+    private List<List<K>> nodes;
+
+    /**
+     * The index of each node within its stage (there is one map for each
+     * entry in the {@code nodes} list).
+     */
+    private List<Map<K, Integer>> nodeIndices;
+
+    /** The flow storage for each stage. */
+    private List<SparseStage> stages;
+
+    /** Node properties. */
+    private Map<NodeKey<K>, Map<String, Object>> nodeProperties;
+
+    /** Flow properties. */
+    private Map<FlowKey<K>, Map<String, Object>> flowProperties;
+
+    /**
+     * Creates a new dataset that is initially empty.
+     */
+    public SparseFlowDataset() {
+        this.nodes = new ArrayList<>();
+        this.nodes.add(new ArrayList<>());
+        this.nodes.add(new ArrayList<>());
+        this.nodeIndices = new ArrayList<>();
+        this.nodeIndices.add(new HashMap<>());
+        this.nodeIndices.add(new HashMap<>());
+        this.stages = new ArrayList<>();
+        this.stages.add(new SparseStage());
+        this.nodeProperties = new HashMap<>();
+        this.flowProperties = new HashMap<>();
+    }
+
+    /**
+     * Returns the number of flow stages.  A flow dataset always has one or
+     * more stages, so this method will return {@code 1} even for an empty
+     * dataset (one with no sources, destinations or flows defined).
+     *
+     * @return The number of flow stages.
+     */
+    @Override
+    public int getStageCount() {
+        return this.nodes.size() - 1;
+    }
+
+    /**
+     * Returns a list of the source nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSources(int stage) {
+        return new ArrayList<>(this.nodes.get(stage));
+    }
+
+    /**
+     * Returns a list of the destination nodes for the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of destination nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getDestinations(int stage) {
+        return new ArrayList<>(this.nodes.get(stage + 1));
+    }
+
+    /**
+     * Returns an unmodifiable view of the source nodes for the specified
+     * stage.  The view is backed by the dataset and no copy is made.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of source nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getSourcesView(int stage) {
+        return Collections.unmodifiableList(this.nodes.get(stage));
+    }
+
+    /**
+     * Returns an unmodifiable view of the destination nodes for the
+     * specified stage.  The view is backed by the dataset and no copy is
+     * made.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return A list of destination nodes (possibly empty but never {@code null}).
+     */
+    @Override
+    public List<K> getDestinationsView(int stage) {
+        return Collections.unmodifiableList(this.nodes.get(stage + 1));
+    }
+
+    /**
+     * Returns the set of keys for all the nodes in the dataset.
+     *
+     * @return The set of keys for all the nodes in the dataset (possibly empty
+     *     but never {@code null}).
+     */
+    @Override
+    public Set<NodeKey<K>> getAllNodes() {
+        Set<NodeKey<K>> result = new HashSet<>();
+        for (int s = 0; s < this.nodes.size(); s++) {
+            for (K key : this.nodes.get(s)) {
+                result.add(new NodeKey<>(s, key));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value of a property, if specified, for the specified node.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the node key ({@code null} not permitted).
+     *
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getNodeProperty(NodeKey<K> nodeKey, String propertyKey) {
+        Map<String, Object> props = this.nodeProperties.get(nodeKey);
+        if (props != null) {
+            return props.get(propertyKey);
+        }
+        return null;
+    }
+
+    /**
+     * Sets a property for the specified node and notifies registered listeners
+     * that the dataset has changed.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * @param value  the property value.
+     */
+    public void setNodeProperty(NodeKey<K> nodeKey, String propertyKey, Object value) {
+        Map<String, Object> props = this.nodeProperties.get(nodeKey);
+        if (props == null) {
+            props = new HashMap<>();
+            this.nodeProperties.put(nodeKey, props);
+        }
+        props.put(propertyKey, value);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns the flow between a source node and a destination node at a
+     * specified stage.  This must be 0 or greater.  The dataset can return
+     * {@code null} to represent an unknown value.
+     *
+     * @param stage  the stage index (0 to {@code getStageCount()} - 1).
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     *
+     * @return The flow (zero or greater, possibly {@code null}).
+     */
+    @Override
+    public Number getFlow(int stage, K source, K destination) {
+        int s = indexOf(stage, source);
+        int d = indexOf(stage + 1, destination);
+        if (s < 0 || d < 0) {
+            return null;
+        }
+        return this.stages.get(stage).get(s, d);
+    }
+
+    /**
+     * Sets the flow between a source node and a destination node at the
+     * specified stage.  A new stage will be added if {@code stage} is equal
+     * to {@code getStageCount()}.
+     *
+     * @param stage  the stage (0 to {@code getStageCount()}.
+     * @param source  the source ({@code null} not permitted).
+     * @param destination  the destination ({@code null} not permitted).
+     * @param flow  the flow (0 or greater).
+     */
+    public void setFlow(int stage, K source, K destination, double flow) {
+        Args.requireInRange(stage, "stage", 0, getStageCount());
+        Args.nullNotPermitted(source, "source");
+        Args.nullNotPermitted(destination, "destination");
+        if (stage > this.nodes.size() - 2) {
+            this.nodes.add(new ArrayList<>());
+            this.nodeIndices.add(new HashMap<>());
+            this.stages.add(new SparseStage());
+        }
+        int s = addNode(stage, source);
+        int d = addNode(stage + 1, destination);
+        this.stages.get(stage).set(s, d, flow);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns the positions of the destinations that have a flow from the 
+     * specified source, in ascending order, in time proportional to the 
+     * number of flows from the source.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * @param source  the source ({@code null} not permitted).
+     * 
+     * @return The destination positions (possibly empty but never 
+     *     {@code null}).
+     */
+    @Override
+    public int[] getDestinationIndices(int stage, K source) {
+        int s = indexOf(stage, source);
+        return s >= 0 ? this.stages.get(stage).columnsFor(s) : new int[0];
+    }
+
+    /**
+     * Returns {@code true}, since this dataset maintains the node and stage 
+     * totals.
+     * 
+     * @return {@code true}.
+     */
+    @Override
+    public boolean hasMaintainedTotals() {
+        return true;
+    }
+
+    /**
+     * Returns the total inflow for a node.  The total is maintained as flows
+     * are set, so this method does not need to iterate over the flows.
+     * 
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return The total inflow (zero for nodes at stage 0).
+     */
+    @Override
+    public double getInflow(int stage, K node) {
+        Args.nullNotPermitted(node, "node");
+        if (stage < 1 || stage >= this.nodes.size()) {
+            return 0.0;
+        }
+        int d = indexOf(stage, node);
+        return d >= 0 ? this.stages.get(stage - 1).columnTotal(d) : 0.0;
+    }
+
+    /**
+     * Returns the total outflow for a node.  The total is maintained as flows
+     * are set, so this method does not need to iterate over the flows.
+     * 
+     * @param stage  the node stage (0 to {@code getStageCount()}).
+     * @param node  the node ({@code null} not permitted).
+     * 
+     * @return The total outflow (zero for the final destination nodes).
+     */
+    @Override
+    public double getOutflow(int stage, K node) {
+        Args.nullNotPermitted(node, "node");
+        if (stage < 0 || stage >= this.stages.size()) {
+            return 0.0;
+        }
+        int s = indexOf(stage, node);
+        return s >= 0 ? this.stages.get(stage).rowTotal(s) : 0.0;
+    }
+
+    /**
+     * Returns the total of all flows at the specified stage.  The total is 
+     * maintained as flows are set, so this method does not need to iterate 
+     * over the flows.
+     * 
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     * 
+     * @return The total flow.
+     */
+    @Override
+    public double getTotalFlow(int stage) {
+        return this.stages.get(stage).total();
+    }
+
+    /**
+     * Merges any buffered flows into the compressed form for each stage.  
+     * This is done automatically as flows are added, but calling this 
+     * method after a bulk load means that subsequent reads do not need to
+     * look in the buffer.  This method does not change the content of the 
+     * dataset, so no change event is sent.
+     */
+    public void compact() {
+        for (SparseStage ss : this.stages) {
+            ss.compact();
+        }
+    }
+
+    /**
+     * Returns the index of a node within the specified stage.
+     *
+     * @param nodeStage  the stage for the node (0 to {@code getStageCount()}).
+     * @param key  the node key.
+     *
+     * @return The index, or {@code -1}.
+     */
+    private int indexOf(int nodeStage, K key) {
+        Integer index = this.nodeIndices.get(nodeStage).get(key);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Adds a node (if it is not already present) and returns its index.
+     *
+     * @param nodeStage  the stage for the node (0 to {@code getStageCount()}).
+     * @param key  the node key ({@code null} not permitted).
+     *
+     * @return The index of the node within its stage.
+     */
+    private int addNode(int nodeStage, K key) {
+        Map<K, Integer> indices = this.nodeIndices.get(nodeStage);
+        Integer index = indices.get(key);
+        if (index == null) {
+            List<K> list = this.nodes.get(nodeStage);
+            index = list.size();
+            list.add(key);
+            indices.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the value of a property, if specified, for the specified flow.
+     *
+     * @param flowKey  flowKey ({@code null} not permitted).
+     *
+     * @return The property value, or {@code null}.
+     */
+    @Override
+    public Object getFlowProperty(FlowKey<K> flowKey, String propertyKey) {
+        Map<String, Object> props = this.flowProperties.get(flowKey);
+        if (props != null) {
+            return props.get(propertyKey);
+        }
+        return null;
+    }
+
+    /**
+     * Sets a property for the specified flow and notifies registered listeners
+     * that the dataset has changed.
+     *
+     * @param flowKey  the node key ({@code null} not permitted).
+     * @param propertyKey  the property key ({@code null} not permitted).
+     * @param value  the property value.
+     */
+    public void setFlowProperty(FlowKey<K> flowKey, String propertyKey, Object value) {
+        Map<String, Object> props = this.flowProperties.get(flowKey);
+        if (props == null) {
+            props = new HashMap<>();
+            this.flowProperties.put(flowKey, props);
+        }
+        props.put(propertyKey, value);
+        fireDatasetChanged();
+    }
+
+    /**
+     * Returns a set of keys for all the flows in the dataset.
+     *
+     * @return A set.
+     */
+    @Override
+    public Set<FlowKey<K>> getAllFlows() {
+        Set<FlowKey<K>> result = new HashSet<>();
+        for (int stage = 0; stage < this.stages.size(); stage++) {
+            List<K> sources = this.nodes.get(stage);
+            List<K> destinations = this.nodes.get(stage + 1);
+            SparseStage ss = this.stages.get(stage);
+            for (int s = 0; s < ss.rowCount; s++) {
+                for (int i = ss.rowStart[s]; i < ss.rowStart[s + 1]; i++) {
+                    result.add(new FlowKey<>(stage, sources.get(s),
+                            destinations.get(ss.columns[i])));
+                }
+            }
+            for (long key : ss.pending.keySet()) {
+                result.add(new FlowKey<>(stage, 
+                        sources.get((int) (key >>> 32)),
+                        destinations.get((int) key)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of flows defined at the specified stage.
+     *
+     * @param stage  the stage (0 to {@code getStageCount() - 1}).
+     *
+     * @return The flow count.
+     */
+    public int getFlowCount(int stage) {
+        return this.stages.get(stage).count();
+    }
+
+    /**
+     * Returns a list of flow keys for all the flows coming into this node.
+     * The flows are returned in the order of their source nodes.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     *
+     * @return A list of flow keys (possibly empty but never {@code null}).
+     */
+    public List<FlowKey<K>> getInFlows(NodeKey<K> nodeKey) {
+        Args.nullNotPermitted(nodeKey, "nodeKey");
+        int stage = nodeKey.getStage() - 1;
+        if (stage < 0 || stage >= this.stages.size()) {
+            return Collections.emptyList();
+        }
+        int d = indexOf(stage + 1, nodeKey.getNode());
+        if (d < 0) {
+            return Collections.emptyList();
+        }
+        int[] rows = this.stages.get(stage).rowsFor(d);
+        List<K> sources = this.nodes.get(stage);
+        List<FlowKey<K>> result = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            result.add(new FlowKey<>(stage, sources.get(row),
+                    nodeKey.getNode()));
+        }
+        return result;
+    }
+
+    /**
+     * Returns a list of flow keys for all the flows going out of this node.
+     * The flows are returned in the order of their destination nodes.
+     *
+     * @param nodeKey  the node key ({@code null} not permitted).
+     *
+     * @return A list of flow keys (possibly empty but never {@code null}).
+     */
+    public List<FlowKey<K>> getOutFlows(NodeKey<K> nodeKey) {
+        Args.nullNotPermitted(nodeKey, "nodeKey");
+        int stage = nodeKey.getStage();
+        if (stage >= this.stages.size()) {
+            return Collections.emptyList();
+        }
+        int s = indexOf(stage, nodeKey.getNode());
+        if (s < 0) {
+            return Collections.emptyList();
+        }
+        int[] columns = this.stages.get(stage).columnsFor(s);
+        List<K> destinations = this.nodes.get(stage + 1);
+        List<FlowKey<K>> result = new ArrayList<>(columns.length);
+        for (int column : columns) {
+            result.add(new FlowKey<>(stage, nodeKey.getNode(),
+                    destinations.get(column)));
+        }
+        return result;
+    }
+
+    /**
+     * Returns a clone of the dataset.
+     *
+     * @return A clone of the dataset.
+     *
+     * @throws CloneNotSupportedException if there is a problem with cloning.
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        @SuppressWarnings("unchecked")
+        SparseFlowDataset<K> clone = (SparseFlowDataset<K>) super.clone();
+        clone.nodes = new ArrayList<>();
+        for (List<K> list : this.nodes) {
+            clone.nodes.add(new ArrayList<>(list));
+        }
+        clone.nodeIndices = new ArrayList<>();
+        for (Map<K, Integer> map : this.nodeIndices) {
+            clone.nodeIndices.add(new HashMap<>(map));
+        }
+        clone.stages = new ArrayList<>();
+        for (SparseStage ss : this.stages) {
+            clone.stages.add(ss.copy());
+        }
+        clone.nodeProperties = new HashMap<>();
+        for (Map.Entry<NodeKey<K>, Map<String, Object>> e : this.nodeProperties.entrySet()) {
+            clone.nodeProperties.put(e.getKey(), new HashMap<>(e.getValue()));
+        }
+        clone.flowProperties = new HashMap<>();
+        for (Map.Entry<FlowKey<K>, Map<String, Object>> e : this.flowProperties.entrySet()) {
+            clone.flowProperties.put(e.getKey(), new HashMap<>(e.getValue()));
+        }
+        return clone;
+    }
+
+    /**
+     * Tests this dataset for equality with an arbitrary object.  This method
+     * will return {@code true} if the object implements the
+     * {@link FlowDataset} and defines the exact same set of nodes and flows
+     * as this dataset.
+     *
+     * @param obj  the object to test equality against ({@code null} permitted).
+     *
+     * @return A boolean.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FlowDataset)) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        final FlowDataset<K> other = (FlowDataset<K>) obj;
+        if (other.getStageCount() != getStageCount()) {
+            return false;
+        }
+        for (int stage = 0; stage < getStageCount(); stage++) {
+            List<K> sources = this.nodes.get(stage);
+            List<K> destinations = this.nodes.get(stage + 1);
+            if (!Objects.equals(other.getSourcesView(stage), sources)) {
+                return false;
+            }
+            if (!Objects.equals(other.getDestinationsView(stage), destinations)) {
+                return false;
+            }
+            for (K source : sources) {
+                for (K destination : destinations) {
+                    if (!Objects.equals(other.getFlow(stage, source, destination), getFlow(stage, source, destination))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code for the content of this dataset (see 
+     * {@link FlowDatasetUtils#calculateHashCode(FlowDataset)}).
+     * 
+     * @return A hash code.
+     */
+    @Override
+    public int hashCode() {
+        return FlowDatasetUtils.calculateHashCode(this);
+    }
+
+    /**
+     * The flows for a single stage in compressed sparse row form, plus a
+     * compressed sparse column index and a buffer of flows that have not yet
+     * been merged into the compressed arrays.
+     */
+    private static class SparseStage implements Serializable {
+
+        /** The smallest number of pending flows that triggers compaction. */
+        private static final int PENDING_LIMIT = 1024;
+
+        /** The number of rows (source nodes) covered by the CSR arrays. */
+        private int rowCount;
+
+        /** The start offset of each row (length {@code rowCount + 1}). */
+        private int[] rowStart;
+
+        /** The column (destination index) of each flow, sorted within rows. */
+        private int[] columns;
+
+        /** The flow values, in CSR order. */
+        private double[] values;
+
+        /** The number of columns covered by the CSC index. */
+        private int columnCount;
+
+        /** The start offset of each column (length {@code columnCount + 1}). */
+        private int[] columnStart;
+
+        /** The row (source index) of each flow, in CSC order. */
+        private int[] rows;
+
+        /** Flows that are not yet in the CSR arrays (row << 32 | column). */
+        private Map<Long, Double> pending;
+
+        /** 
+         * The columns of the pending flows in each row (the first element 
+         * of each list is its size, see {@link FlowAdjacency}).
+         */
+        private int[][] pendingColumns;
+
+        /** The rows of the pending flows in each column (as above). */
+        private int[][] pendingRows;
+
+        /** 
+         * The total for each row (the outflow for each source), two 
+         * entries per row (see {@link CompensatedSum}).
+         */
+        private double[] rowTotals;
+
+        /** 
+         * The total for each column (the inflow for each destination), two
+         * entries per column.
+         */
+        private double[] columnTotals;
+
+        /** The total of all flows (two entries). */
+        private double[] total;
+
+        /** 
+         * The number of flow values replaced since the totals were last 
+         * rebuilt from the flow values.
+         */
+        private int totalsReplacements;
+
+        /**
+         * Creates a new empty stage.
+         */
+        SparseStage() {
+            this.rowStart = new int[1];
+            this.columns = new int[0];
+            this.values = new double[0];
+            this.columnStart = new int[1];
+            this.rows = new int[0];
+            this.pending = new HashMap<>();
+            this.pendingColumns = new int[0][];
+            this.pendingRows = new int[0][];
+            this.rowTotals = new double[0];
+            this.columnTotals = new double[0];
+            this.total = new double[2];
+        }
+
+        /**
+         * Returns the CSR position of the flow for the specified cell, or
+         * {@code -1}.  Flows that are still pending are not found.
+         *
+         * @param row  the row.
+         * @param column  the column.
+         *
+         * @return The position or {@code -1}.
+         */
+        int find(int row, int column) {
+            if (row >= this.rowCount) {
+                return -1;
+            }
+            int i = Arrays.binarySearch(this.columns, this.rowStart[row],
+                    this.rowStart[row + 1], column);
+            return i >= 0 ? i : -1;
+        }
+
+        /**
+         * Returns the flow for the specified cell, looking in the pending 
+         * flows first.
+         *
+         * @param row  the row.
+         * @param column  the column.
+         *
+         * @return The flow, or {@code null}.
+         */
+        Double get(int row, int column) {
+            if (!this.pending.isEmpty()) {
+                Double value = this.pending.get(((long) row << 32) | column);
+                if (value != null) {
+                    return value;
+                }
+            }
+            int i = find(row, column);
+            return i >= 0 ? this.values[i] : null;
+        }
+
+        /**
+         * Sets the flow for the specified cell.  An existing flow in the 
+         * CSR arrays is updated in place, otherwise the flow is added to 
+         * the pending flows, which are compacted once there are as many of
+         * them as there are flows in the CSR arrays (so that the cost of 
+         * compacting is amortised over the flows added).  A pending flow 
+         * is never also in the CSR arrays.
+         *
+         * @param row  the row.
+         * @param column  the column.
+         * @param value  the flow.
+         */
+        void set(int row, int column, double value) {
+            long key = ((long) row << 32) | column;
+            double old = Double.NaN;
+            int i = find(row, column);
+            if (i >= 0) {
+                old = this.values[i];
+                this.values[i] = value;
+            } else {
+                Double previous = this.pending.put(key, value);
+                if (previous != null) {
+                    old = previous;
+                } else {
+                    this.pendingColumns = FlowAdjacency.append(
+                            this.pendingColumns, row, column);
+                    this.pendingRows = FlowAdjacency.append(
+                            this.pendingRows, column, row);
+                }
+            }
+            updateTotals(row, column, old, value);
+            if (this.pending.size() >= Math.max(PENDING_LIMIT, 
+                    this.columns.length)) {
+                compact();
+            }
+        }
+
+        /**
+         * Replaces a flow value in the row, column and stage totals (a 
+         * {@code NaN} value counts as zero).
+         *
+         * @param row  the row.
+         * @param column  the column.
+         * @param old  the old value ({@code NaN} for a new flow).
+         * @param value  the new value.
+         */
+        private void updateTotals(int row, int column, double old, 
+                double value) {
+            if (CompensatedSum.isSubtraction(old) 
+                    && CompensatedSum.isRebuildDue(++this.totalsReplacements,
+                    count())) {
+                rebuildTotals();
+                return;
+            }
+            if (2 * row + 1 >= this.rowTotals.length) {
+                this.rowTotals = Arrays.copyOf(this.rowTotals, 
+                        Math.max(2 * row + 2, this.rowTotals.length * 2));
+            }
+            if (2 * column + 1 >= this.columnTotals.length) {
+                this.columnTotals = Arrays.copyOf(this.columnTotals, 
+                        Math.max(2 * column + 2, 
+                        this.columnTotals.length * 2));
+            }
+            CompensatedSum.replace(this.rowTotals, 2 * row, old, value);
+            CompensatedSum.replace(this.columnTotals, 2 * column, old, 
+                    value);
+            CompensatedSum.replace(this.total, 0, old, value);
+        }
+
+        /**
+         * Recalculates the row, column and stage totals from the flow 
+         * values.
+         */
+        private void rebuildTotals() {
+            Arrays.fill(this.rowTotals, 0.0);
+            Arrays.fill(this.columnTotals, 0.0);
+            Arrays.fill(this.total, 0.0);
+            this.totalsReplacements = 0;
+            for (int row = 0; row < this.rowCount; row++) {
+                for (int i = this.rowStart[row]; i < this.rowStart[row + 1]; 
+                        i++) {
+                    updateTotals(row, this.columns[i], Double.NaN, 
+                            this.values[i]);
+                }
+            }
+            for (Map.Entry<Long, Double> entry : this.pending.entrySet()) {
+                long key = entry.getKey();
+                updateTotals((int) (key >>> 32), (int) key, Double.NaN, 
+                        entry.getValue());
+            }
+        }
+
+        /**
+         * Returns the total of the flows in a row.
+         *
+         * @param row  the row.
+         *
+         * @return The total.
+         */
+        double rowTotal(int row) {
+            return 2 * row < this.rowTotals.length 
+                    ? CompensatedSum.get(this.rowTotals, 2 * row) : 0.0;
+        }
+
+        /**
+         * Returns the total of the flows in a column.
+         *
+         * @param column  the column.
+         *
+         * @return The total.
+         */
+        double columnTotal(int column) {
+            return 2 * column < this.columnTotals.length 
+                    ? CompensatedSum.get(this.columnTotals, 2 * column) : 0.0;
+        }
+
+        /**
+         * Returns the total of all the flows.
+         *
+         * @return The total.
+         */
+        double total() {
+            return CompensatedSum.get(this.total, 0);
+        }
+
+        /**
+         * Returns the number of flows, including the pending flows.
+         *
+         * @return The flow count.
+         */
+        int count() {
+            return this.columns.length + this.pending.size();
+        }
+
+        /**
+         * Returns the rows that have a flow in the specified column, 
+         * including the pending flows.
+         *
+         * @param column  the column.
+         *
+         * @return The rows, in ascending order.
+         */
+        int[] rowsFor(int column) {
+            return merge(this.rows, this.columnStart, this.columnCount, 
+                    this.pendingRows, column);
+        }
+
+        /**
+         * Returns the columns that have a flow in the specified row, 
+         * including the pending flows.
+         *
+         * @param row  the row.
+         *
+         * @return The columns, in ascending order.
+         */
+        int[] columnsFor(int row) {
+            return merge(this.columns, this.rowStart, this.rowCount, 
+                    this.pendingColumns, row);
+        }
+
+        /**
+         * Returns the compressed entries for a line (a row or a column) 
+         * merged with the pending entries for the same line.
+         *
+         * @param entries  the compressed entries.
+         * @param start  the start offset of each line.
+         * @param lineCount  the number of lines in the compressed form.
+         * @param pendingEntries  the pending entries for each line.
+         * @param line  the line.
+         *
+         * @return The entries, in ascending order.
+         */
+        private static int[] merge(int[] entries, int[] start, int lineCount,
+                int[][] pendingEntries, int line) {
+            int[] result = line < lineCount ? Arrays.copyOfRange(entries, 
+                    start[line], start[line + 1]) : new int[0];
+            if (line < pendingEntries.length 
+                    && pendingEntries[line] != null) {
+                int[] list = pendingEntries[line];
+                int n = result.length;
+                result = Arrays.copyOf(result, n + list[0]);
+                System.arraycopy(list, 1, result, n, list[0]);
+                Arrays.sort(result);
+            }
+            return result;
+        }
+
+        /**
+         * Merges any pending flows into the compressed arrays and rebuilds
+         * the column index.
+         */
+        void compact() {
+            if (this.pending.isEmpty()) {
+                return;
+            }
+            long[] keys = new long[this.pending.size()];
+            int k = 0;
+            for (Long key : this.pending.keySet()) {
+                keys[k++] = key;
+            }
+            Arrays.sort(keys);
+            int maxRow = this.rowCount - 1;
+            int maxColumn = this.columnCount - 1;
+            for (long key : keys) {
+                maxRow = Math.max(maxRow, (int) (key >>> 32));
+                maxColumn = Math.max(maxColumn, (int) key);
+            }
+            int newRowCount = maxRow + 1;
+            int capacity = this.columns.length + keys.length;
+            int[] newRowStart = new int[newRowCount + 1];
+            int[] newColumns = new int[capacity];
+            double[] newValues = new double[capacity];
+            int n = 0;
+            k = 0;
+            for (int r = 0; r < newRowCount; r++) {
+                newRowStart[r] = n;
+                int i = r < this.rowCount ? this.rowStart[r] : 0;
+                int end = r < this.rowCount ? this.rowStart[r + 1] : 0;
+                while (i < end || (k < keys.length && (int) (keys[k] >>> 32) == r)) {
+                    boolean fromPending = k < keys.length
+                            && (int) (keys[k] >>> 32) == r
+                            && (i >= end || (int) keys[k] <= this.columns[i]);
+                    if (fromPending) {
+                        int c = (int) keys[k];
+                        if (i < end && this.columns[i] == c) {
+                            i++;  // replaced by the pending value
+                        }
+                        newColumns[n] = c;
+                        newValues[n] = this.pending.get(keys[k]);
+                        k++;
+                    } else {
+                        newColumns[n] = this.columns[i];
+                        newValues[n] = this.values[i];
+                        i++;
+                    }
+                    n++;
+                }
+            }
+            newRowStart[newRowCount] = n;
+            this.rowCount = newRowCount;
+            this.rowStart = newRowStart;
+            this.columns = Arrays.copyOf(newColumns, n);
+            this.values = Arrays.copyOf(newValues, n);
+            this.pending.clear();
+            this.pendingColumns = new int[0][];
+            this.pendingRows = new int[0][];
+            buildColumnIndex(maxColumn + 1);
+        }
+
+        /**
+         * Builds the CSC index from the CSR arrays with a counting sort.
+         *
+         * @param count  the number of columns.
+         */
+        private void buildColumnIndex(int count) {
+            int n = this.columns.length;
+            int[] start = new int[count + 1];
+            for (int i = 0; i < n; i++) {
+                start[this.columns[i] + 1]++;
+            }
+            for (int c = 0; c < count; c++) {
+                start[c + 1] += start[c];
+            }
+            int[] next = Arrays.copyOf(start, count);
+            int[] r = new int[n];
+            for (int row = 0; row < this.rowCount; row++) {
+                for (int i = this.rowStart[row]; i < this.rowStart[row + 1]; i++) {
+                    r[next[this.columns[i]]++] = row;
+                }
+            }
+            this.columnCount = count;
+            this.columnStart = start;
+            this.rows = r;
+        }
+
+        /**
+         * Returns an independent copy of this stage.
+         *
+         * @return A copy.
+         */
+        SparseStage copy() {
+            SparseStage copy = new SparseStage();
+            copy.rowCount = this.rowCount;
+            copy.rowStart = this.rowStart.clone();
+            copy.columns = this.columns.clone();
+            copy.values = this.values.clone();
+            copy.columnCount = this.columnCount;
+            copy.columnStart = this.columnStart.clone();
+            copy.rows = this.rows.clone();
+            copy.pending = new HashMap<>(this.pending);
+            copy.pendingColumns = copyLists(this.pendingColumns);
+            copy.pendingRows = copyLists(this.pendingRows);
+            copy.rowTotals = this.rowTotals.clone();
+            copy.columnTotals = this.columnTotals.clone();
+            copy.total = this.total.clone();
+            copy.totalsReplacements = this.totalsReplacements;
+            return copy;
+        }
+
+        /**
+         * Returns a deep copy of an array of lists.
+         *
+         * @param lists  the lists ({@code null} entries permitted).
+         *
+         * @return A copy.
+         */
+        private static int[][] copyLists(int[][] lists) {
+            int[][] copy = new int[lists.length][];
+            for (int i = 0; i < lists.length; i++) {
+                copy[i] = lists[i] != null ? lists[i].clone() : null;
+            }
+            return copy;
+        }
+    }
+
+}
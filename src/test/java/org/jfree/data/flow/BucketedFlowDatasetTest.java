@@ -0,0 +1,174 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ----------------------------
+ * BucketedFlowDatasetTest.java
+ * ----------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link BucketedFlowDataset} class.
+ */
+public class BucketedFlowDatasetTest {
+
+    private static DefaultFlowDataset<String> createSource() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "A", "X", 6.0);
+        d.setFlow(0, "A", "Y", 4.0);
+        d.setFlow(0, "B", "X", 5.0);
+        d.setFlow(0, "C", "X", 1.0);
+        d.setFlow(0, "D", "Y", 1.0);
+        d.setFlow(0, "E", "X", 0.5);
+        d.setFlow(0, "E", "Y", 0.5);
+        return d;
+    }
+
+    @Test
+    public void testTopK() {
+        DefaultFlowDataset<String> source = createSource();
+        BucketedFlowDataset<String> b = new BucketedFlowDataset<>(source, 
+                "Other", 3);
+        assertEquals(Arrays.asList("A", "B", "Other"), b.getSources(0));
+        assertEquals(Arrays.asList("X", "Y"), b.getDestinations(0));
+        assertEquals(new HashSet<>(Arrays.asList("C", "D", "E")), 
+                b.getGroupedNodes(0));
+        assertTrue(b.getGroupedNodes(1).isEmpty());
+        assertEquals(1.5, b.getFlow(0, "Other", "X").doubleValue());
+        assertEquals(1.5, b.getFlow(0, "Other", "Y").doubleValue());
+        assertEquals(6.0, b.getFlow(0, "A", "X").doubleValue());
+        
+        // flows are conserved
+        assertEquals(source.getTotalFlow(0), b.getTotalFlow(0));
+        assertEquals(source.getInflow(1, "X"), b.getInflow(1, "X"));
+        assertEquals(source.getInflow(1, "Y"), b.getInflow(1, "Y"));
+        assertEquals(3.0, b.getOutflow(0, "Other"));
+    }
+
+    @Test
+    public void testMinFraction() {
+        DefaultFlowDataset<String> source = createSource();
+        // C, D and E are each 1/18 of the total, below the 10% threshold
+        BucketedFlowDataset<String> b = new BucketedFlowDataset<>(source, 
+                "Other", 100, 0.1);
+        assertEquals(Arrays.asList("A", "B", "Other"), b.getSources(0));
+        
+        // a single small node is not grouped
+        source.setFlow(0, "C", "X", 3.0);
+        source.setFlow(0, "D", "Y", 3.0);
+        assertEquals(Arrays.asList("A", "B", "C", "D", "E"), b.getSources(0));
+        assertTrue(b.getGroupedNodes(0).isEmpty());
+    }
+
+    @Test
+    public void testUpdate() {
+        DefaultFlowDataset<String> source = createSource();
+        BucketedFlowDataset<String> b = new BucketedFlowDataset<>(source, 
+                "Other", 3);
+        int[] events = new int[1];
+        b.addChangeListener(e -> events[0]++);
+        source.setFlow(0, "C", "X", 20.0);
+        assertEquals(1, events[0]);
+        assertEquals(Arrays.asList("A", "C", "Other"), b.getSources(0));
+        assertEquals(source.getTotalFlow(0), b.getTotalFlow(0));
+        source.setFlow(1, "X", "Z", 1.0);
+        assertEquals(2, b.getStageCount());
+    }
+
+    /**
+     * Several changes to the source are applied together when the view is
+     * next used, and a disposed view no longer follows the source.
+     */
+    @Test
+    public void testBatchedChangesAndDispose() {
+        DefaultFlowDataset<String> source = createSource();
+        BucketedFlowDataset<String> b = new BucketedFlowDataset<>(source, 
+                "Other", 3);
+        int[] events = new int[1];
+        b.addChangeListener(e -> events[0]++);
+        source.setFlow(0, "C", "X", 20.0);
+        source.setFlow(0, "D", "Y", 30.0);
+        assertEquals(2, events[0]);
+        assertEquals(Arrays.asList("C", "D", "Other"), b.getSources(0));
+        assertEquals(new HashSet<>(Arrays.asList("A", "B", "E")), 
+                b.getGroupedNodes(0));
+        assertEquals(source.getTotalFlow(0), b.getTotalFlow(0));
+        
+        b.dispose();
+        source.setFlow(0, "E", "X", 100.0);
+        assertEquals(2, events[0]);
+        assertEquals(Arrays.asList("C", "D", "Other"), b.getSources(0));
+    }
+
+    @Test
+    public void testProperties() {
+        DefaultFlowDataset<String> source = createSource();
+        BucketedFlowDataset<String> b = new BucketedFlowDataset<>(source, 
+                "Other", 3);
+        source.setNodeProperty(new NodeKey<>(0, "A"), "selected", true);
+        source.setNodeProperty(new NodeKey<>(0, "C"), "selected", true);
+        source.setFlowProperty(new FlowKey<>(0, "A", "X"), "label", "AX");
+        assertTrue(b.getNodeBooleanProperty(new NodeKey<>(0, "A"), 
+                "selected"));
+        assertFalse(b.getNodeBooleanProperty(new NodeKey<>(0, "Other"), 
+                "selected"));
+        assertEquals("AX", b.getFlowProperty(new FlowKey<>(0, "A", "X"), 
+                "label"));
+        assertNull(b.getFlowProperty(new FlowKey<>(0, "Other", "X"), 
+                "label"));
+    }
+
+    @Test
+    public void testConstructor() {
+        DefaultFlowDataset<String> source = createSource();
+        assertThrows(IllegalArgumentException.class, 
+                () -> new BucketedFlowDataset<>(source, "Other", 1));
+        assertThrows(IllegalArgumentException.class, 
+                () -> new BucketedFlowDataset<>(source, "Other", 5, 1.5));
+        BucketedFlowDataset<String> b = new BucketedFlowDataset<>(source, 
+                "Other", 10);
+        assertEquals(source.getSources(0), b.getSources(0));
+        assertEquals(Collections.emptySet(), b.getGroupedNodes(0));
+    }
+
+}
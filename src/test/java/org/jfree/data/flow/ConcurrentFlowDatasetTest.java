@@ -0,0 +1,167 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ------------------------------
+ * ConcurrentFlowDatasetTest.java
+ * ------------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.jfree.chart.TestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link ConcurrentFlowDataset} class.
+ */
+public class ConcurrentFlowDatasetTest {
+
+    /**
+     * Increments to the same flow are summed and nodes keep the order in
+     * which they were first seen.
+     */
+    @Test
+    public void testAddFlow() {
+        ConcurrentFlowDataset<String> d = new ConcurrentFlowDataset<>();
+        d.addFlow(0, "B", "X", 1.0);
+        d.addFlow(0, "A", "X", 2.0);
+        d.addFlow(0, "B", "X", 1.5);
+        d.addFlow(1, "X", "P", 4.5);
+        assertEquals(2, d.getStageCount());
+        assertEquals(Arrays.asList("B", "A"), d.getSources(0));
+        assertEquals(Arrays.asList("X"), d.getDestinations(0));
+        assertEquals(2.5, d.getFlow(0, "B", "X"));
+        assertNull(d.getFlow(0, "A", "P"));
+        assertEquals(3, d.getAllFlows().size());
+        assertEquals(4, d.getAllNodes().size());
+        assertThrows(IllegalArgumentException.class, 
+                () -> d.addFlow(3, "P", "Q", 1.0));
+        assertThrows(IllegalArgumentException.class, 
+                () -> d.addFlow(0, null, "X", 1.0));
+    }
+
+    /**
+     * Increments from several threads are all counted.
+     */
+    @Test
+    public void testConcurrentAddFlow() throws Exception {
+        ConcurrentFlowDataset<String> d = new ConcurrentFlowDataset<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    d.addFlow(0, "S" + (i % 10), "D" + (i % 7), 1.0);
+                    d.addFlow(1, "D" + (i % 7), "E", 1.0);
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(10, d.getSources(0).size());
+        assertEquals(7, d.getDestinations(0).size());
+        assertEquals(77, d.getAllFlows().size());
+        DefaultFlowDataset<String> published = d.toFlowDataset();
+        assertEquals(40000.0, published.getTotalFlow(0));
+        assertEquals(40000.0, published.getInflow(2, "E"));
+        assertEquals(d, published);
+    }
+
+    /**
+     * The published dataset is independent of later increments and carries
+     * the properties.
+     */
+    @Test
+    public void testToFlowDataset() {
+        ConcurrentFlowDataset<String> d = new ConcurrentFlowDataset<>();
+        d.addFlow(0, "A", "X", 1.0);
+        d.addFlow(0, "B", "X", 2.0);
+        d.setNodeProperty(new NodeKey<>(0, "A"), "selected", Boolean.TRUE);
+        d.setFlowProperty(new FlowKey<>(0, "B", "X"), "selected", Boolean.TRUE);
+        DefaultFlowDataset<String> p = d.toFlowDataset();
+        assertEquals(Arrays.asList("A", "B"), p.getSources(0));
+        assertEquals(Boolean.TRUE, p.getNodeProperty(new NodeKey<>(0, "A"), "selected"));
+        assertEquals(Boolean.TRUE, p.getFlowProperty(new FlowKey<>(0, "B", "X"), "selected"));
+        d.addFlow(0, "A", "X", 1.0);
+        assertEquals(1.0, p.getFlow(0, "A", "X"));
+        assertEquals(2.0, d.getFlow(0, "A", "X"));
+    }
+
+    /**
+     * Properties for nodes and flows that have no flow yet, and property 
+     * values of any type, can be published.
+     */
+    @Test
+    public void testToFlowDatasetWithProperties() {
+        ConcurrentFlowDataset<String> d = new ConcurrentFlowDataset<>();
+        d.addFlow(0, "A", "X", 1.0);
+        NodeKey<String> b = new NodeKey<>(0, "B");
+        FlowKey<String> ay = new FlowKey<>(0, "A", "Y");
+        d.setNodeProperty(b, "selected", Boolean.TRUE);
+        d.setFlowProperty(ay, "selected", Boolean.TRUE);
+        d.setNodeProperty(new NodeKey<>(0, "A"), "selected", "yes");
+        d.setFlowProperty(new FlowKey<>(0, "A", "X"), "label", "ax");
+        DefaultFlowDataset<String> p = d.toFlowDataset();
+        assertTrue(p.getNodeBooleanProperty(b, "selected"));
+        assertTrue(p.getFlowBooleanProperty(ay, "selected"));
+        assertEquals("yes", p.getNodeProperty(new NodeKey<>(0, "A"), 
+                "selected"));
+        assertEquals("ax", p.getFlowProperty(new FlowKey<>(0, "A", "X"), 
+                "label"));
+    }
+
+    /**
+     * Serialize an instance, restore it, and check for equality.
+     */
+    @Test
+    public void testSerialization() {
+        ConcurrentFlowDataset<String> d1 = new ConcurrentFlowDataset<>();
+        d1.addFlow(0, "A", "X", 1.0);
+        ConcurrentFlowDataset<String> d2 = TestUtils.serialised(d1);
+        assertEquals(d1, d2);
+    }
+
+}
@@ -36,10 +36,20 @@
 
 package org.jfree.data.flow;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Set;
 import org.jfree.chart.TestUtils;
 import org.jfree.chart.util.PublicCloneable;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import org.junit.jupiter.api.Test;
@@ -90,6 +100,121 @@ public class DefaultFlowDatasetTest {
         assertEquals(d1, d2);
     }
 
+    /**
+     * The fingerprint depends on the content only, not the order in which
+     * the flows were set, and is used for the hash code.
+     */
+    @Test
+    public void testFingerprint() {
+        DefaultFlowDataset<String> d1 = new DefaultFlowDataset<>();
+        d1.setFlow(0, "A", "X", 1.0);
+        d1.setFlow(0, "B", "Y", 2.0);
+        d1.setFlow(0, "B", "X", 3.0);
+        DefaultFlowDataset<String> d2 = new DefaultFlowDataset<>();
+        d2.setFlow(0, "A", "X", 5.0);
+        d2.setFlow(0, "B", "X", 3.0);
+        d2.setFlow(0, "B", "Y", 2.0);
+        assertNotEquals(d1.getFingerprint(), d2.getFingerprint());
+        assertNotEquals(d1, d2);
+        d2.setFlow(0, "A", "X", 1.0);
+        assertEquals(d1.getFingerprint(), d2.getFingerprint());
+        assertEquals(d1.hashCode(), d2.hashCode());
+        assertEquals(d1, d2);
+
+        // same nodes in a different order
+        DefaultFlowDataset<String> d3 = new DefaultFlowDataset<>();
+        d3.setFlow(0, "B", "Y", 2.0);
+        d3.setFlow(0, "B", "X", 3.0);
+        d3.setFlow(0, "A", "X", 1.0);
+        assertNotEquals(d1.getFingerprint(), d3.getFingerprint());
+        assertNotEquals(d1, d3);
+
+        // a zero flow is not the same as no flow
+        d2.setFlow(0, "A", "Y", 0.0);
+        assertNotEquals(d1.getFingerprint(), d2.getFingerprint());
+        assertNotEquals(d1, d2);
+
+        // the same endpoints with different flows
+        DefaultFlowDataset<String> d4 = new DefaultFlowDataset<>();
+        d4.setFlow(0, "A", "X", 1.0);
+        DefaultFlowDataset<String> d5 = new DefaultFlowDataset<>();
+        d5.setFlow(0, "A", "X", 2.0);
+        assertNotEquals(d4.hashCode(), d5.hashCode());
+
+        // the snapshot has the same fingerprint and hash code
+        FlowDatasetSnapshot<String> snapshot = d1.snapshot();
+        assertEquals(d1.hashCode(), snapshot.hashCode());
+        assertEquals(d1, snapshot);
+        assertEquals(snapshot, d1);
+        assertNotEquals(snapshot, d3);
+        assertNotEquals(d3, snapshot);
+    }
+
+    /**
+     * Datasets of other types that are equal to a DefaultFlowDataset have
+     * the same hash code.
+     */
+    @Test
+    public void testHashCodeOtherDatasets() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        DenseFlowDataset<String> dense = new DenseFlowDataset<>();
+        SparseFlowDataset<String> sparse = new SparseFlowDataset<>();
+        ConcurrentFlowDataset<String> concurrent 
+                = new ConcurrentFlowDataset<>();
+        MultiMetricFlowDataset<String> multi 
+                = new MultiMetricFlowDataset<>("m1", "m2");
+        String[][] flows = {{"A", "X"}, {"B", "X"}, {"A", "Y"}};
+        for (int i = 0; i < flows.length; i++) {
+            d.setFlow(0, flows[i][0], flows[i][1], i + 1.0);
+            dense.setFlow(0, flows[i][0], flows[i][1], i + 1.0);
+            sparse.setFlow(0, flows[i][0], flows[i][1], i + 1.0);
+            concurrent.addFlow(0, flows[i][0], flows[i][1], i + 1.0);
+            multi.setFlows(0, flows[i][0], flows[i][1], i + 1.0, 9.0);
+        }
+        d.setFlow(1, "X", "P", 4.0);
+        dense.setFlow(1, "X", "P", 4.0);
+        sparse.setFlow(1, "X", "P", 4.0);
+        concurrent.addFlow(1, "X", "P", 4.0);
+        multi.setFlows(1, "X", "P", 4.0, 9.0);
+        for (FlowDataset<String> other : Arrays.<FlowDataset<String>>asList(
+                dense, sparse, concurrent, multi, d.snapshot())) {
+            assertEquals(d, other);
+            assertEquals(other, d);
+            assertEquals(d.hashCode(), other.hashCode());
+            assertEquals(d.hashCode(), 
+                    FlowDatasetUtils.calculateHashCode(other));
+        }
+
+        IntFlowDataset ints = new IntFlowDataset();
+        ints.setFlow(0, 1, 2, 3.0);
+        DefaultFlowDataset<Integer> d2 = new DefaultFlowDataset<>();
+        d2.setFlow(0, 1, 2, 3.0);
+        assertEquals(d2, ints.asFlowDataset());
+        assertEquals(ints.asFlowDataset(), d2);
+        assertEquals(d2.hashCode(), ints.asFlowDataset().hashCode());
+    }
+
+    /**
+     * The version is incremented by every modification.
+     */
+    @Test
+    public void testVersion() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        long v0 = d.getVersion();
+        d.setFlow(0, "A", "X", 1.0);
+        long v1 = d.getVersion();
+        assertTrue(v1 > v0);
+        d.setFlow(0, "A", "X", 2.0);
+        long v2 = d.getVersion();
+        assertTrue(v2 > v1);
+        d.setNodeProperty(new NodeKey<>(0, "A"), "selected", Boolean.TRUE);
+        long v3 = d.getVersion();
+        assertTrue(v3 > v2);
+        d.getFlow(0, "A", "X");
+        d.snapshot();
+        assertEquals(v3, d.getVersion());
+    }
+
     /**
      * Serialize an instance, restore it, and check for equality.
      */
@@ -120,6 +245,387 @@ public class DefaultFlowDatasetTest {
         assertNotEquals(d1, d2);
         d2.setFlow(0, "A", "Y", 8.0);
         assertEquals(d1, d2);
+        d1.setFlow(0, "A", "Y", 2.0);
+        assertEquals(3.0, d1.getOutflow(0, "A"));
+        assertEquals(9.0, d2.getOutflow(0, "A"));
+    }
+
+    /**
+     * A clone shares storage with the original, but changes made to either
+     * (including property changes) are not seen by the other.
+     * 
+     * @throws CloneNotSupportedException 
+     */
+    @Test
+    public void testCloneIsolation() throws CloneNotSupportedException {
+        DefaultFlowDataset<String> d1 = new DefaultFlowDataset<>();
+        d1.setFlow(0, "A", "X", 1.0);
+        d1.setFlow(0, "B", "Y", 2.0);
+        d1.setFlow(1, "X", "P", 3.0);
+        NodeKey<String> a = new NodeKey<>(0, "A");
+        FlowKey<String> ax = new FlowKey<>(0, "A", "X");
+        d1.setNodeProperty(a, "label", "a");
+        d1.setNodeProperty(a, "selected", Boolean.TRUE);
+        d1.setFlowProperty(ax, "label", "ax");
+        d1.setFlowProperty(ax, "selected", Boolean.TRUE);
+        DefaultFlowDataset<String> d2 = TestUtils.clone(d1);
+        DefaultFlowDataset<String> d3 = TestUtils.clone(d2);
+
+        d2.setFlow(0, "A", "X", 10.0);
+        d2.setFlow(0, "C", "Z", 4.0);
+        d2.setFlow(2, "P", "Q", 5.0);
+        d2.setNodeProperty(a, "label", "a2");
+        d2.setNodeProperty(a, "selected", Boolean.FALSE);
+        d2.setFlowProperty(ax, "label", "ax2");
+        d2.setFlowProperty(ax, "selected", Boolean.FALSE);
+        d2.registerNodeProperty("weight", Double.class);
+        d2.setNodeProperty(a, "weight", 1.5);
+        d1.setFlow(1, "Y", "P", 6.0);
+        d1.setNodeProperty(new NodeKey<>(1, "X"), "label", "x");
+
+        // the original
+        assertEquals(2, d1.getStageCount());
+        assertEquals(1.0, d1.getFlow(0, "A", "X"));
+        assertEquals(Arrays.asList("A", "B"), d1.getSources(0));
+        assertEquals(Arrays.asList("X", "Y"), d1.getSources(1));
+        assertEquals(1.0, d1.getOutflow(0, "A"));
+        assertEquals(3.0, d1.getTotalFlow(0));
+        assertEquals(9.0, d1.getTotalFlow(1));
+        assertEquals("a", d1.getNodeProperty(a, "label"));
+        assertEquals(Boolean.TRUE, d1.getNodeProperty(a, "selected"));
+        assertEquals("ax", d1.getFlowProperty(ax, "label"));
+        assertTrue(d1.getFlowBooleanProperty(ax, "selected"));
+        assertNull(d1.getNodePropertyType("weight"));
+        assertEquals("x", d1.getNodeProperty(new NodeKey<>(1, "X"), "label"));
+
+        // the modified clone
+        assertEquals(3, d2.getStageCount());
+        assertEquals(10.0, d2.getFlow(0, "A", "X"));
+        assertEquals(Arrays.asList("A", "B", "C"), d2.getSources(0));
+        assertEquals(10.0, d2.getOutflow(0, "A"));
+        assertEquals(16.0, d2.getTotalFlow(0));
+        assertEquals(3.0, d2.getTotalFlow(1));
+        assertEquals("a2", d2.getNodeProperty(a, "label"));
+        assertEquals(Boolean.FALSE, d2.getNodeProperty(a, "selected"));
+        assertEquals("ax2", d2.getFlowProperty(ax, "label"));
+        assertFalse(d2.getFlowBooleanProperty(ax, "selected"));
+        assertEquals(1.5, d2.getNodeProperty(a, "weight"));
+        assertNull(d2.getNodeProperty(new NodeKey<>(1, "X"), "label"));
+
+        // the unmodified clone of the clone
+        assertEquals(2, d3.getStageCount());
+        assertEquals(1.0, d3.getFlow(0, "A", "X"));
+        assertNull(d3.getFlow(1, "Y", "P"));
+        assertEquals(Arrays.asList("A", "B"), d3.getSources(0));
+        assertEquals("a", d3.getNodeProperty(a, "label"));
+        assertTrue(d3.getFlowBooleanProperty(ax, "selected"));
+        assertNull(d3.getNodePropertyType("weight"));
+        assertEquals(3.0, d3.getTotalFlow(0));
+    }
+
+    /**
+     * A dataset and a clone that are serialized together still share storage
+     * after deserialization, so changes must be isolated there too.
+     */
+    @Test
+    public void testCloneSerialization() throws CloneNotSupportedException {
+        DefaultFlowDataset<String> d1 = new DefaultFlowDataset<>();
+        d1.setFlow(0, "A", "X", 1.0);
+        d1.setNodeProperty(new NodeKey<>(0, "A"), "label", "a");
+        DefaultFlowDataset<String> d2 = TestUtils.clone(d1);
+        List<DefaultFlowDataset<String>> pair = TestUtils.serialised(
+                new ArrayList<>(Arrays.asList(d1, d2)));
+        DefaultFlowDataset<String> r1 = pair.get(0);
+        DefaultFlowDataset<String> r2 = pair.get(1);
+        r1.setFlow(0, "A", "X", 2.0);
+        r1.setFlow(0, "B", "X", 3.0);
+        r1.setNodeProperty(new NodeKey<>(0, "A"), "label", "b");
+        r1.setNodeProperty(new NodeKey<>(0, "A"), "selected", Boolean.TRUE);
+        assertEquals(1.0, r2.getFlow(0, "A", "X"));
+        assertEquals(Arrays.asList("A"), r2.getSources(0));
+        assertEquals(1.0, r2.getInflow(1, "X"));
+        assertEquals("a", r2.getNodeProperty(new NodeKey<>(0, "A"), "label"));
+        assertNull(r2.getNodeProperty(new NodeKey<>(0, "A"), "selected"));
+        assertEquals(d1, r2);
+    }
+
+    /**
+     * The node and stage totals are maintained as flows are set and replaced.
+     */
+    @Test
+    public void testTotals() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "A", "X", 1.0);
+        d.setFlow(0, "A", "Y", 2.0);
+        d.setFlow(0, "B", "Y", 4.0);
+        d.setFlow(1, "Y", "P", 5.0);
+        d.setFlow(0, "A", "X", 3.0);
+        assertEquals(5.0, d.getOutflow(0, "A"));
+        assertEquals(0.0, d.getInflow(0, "A"));
+        assertEquals(6.0, d.getInflow(1, "Y"));
+        assertEquals(5.0, d.getOutflow(1, "Y"));
+        assertEquals(5.0, d.getInflow(2, "P"));
+        assertEquals(0.0, d.getOutflow(2, "P"));
+        assertEquals(9.0, d.getTotalFlow(0));
+        assertEquals(5.0, d.getTotalFlow(1));
+        for (String node : d.getSources(0)) {
+            assertEquals(FlowDatasetUtils.calculateOutflow(d, node, 0), 
+                    d.getOutflow(0, node));
+        }
+        for (String node : d.getDestinations(0)) {
+            assertEquals(FlowDatasetUtils.calculateInflow(d, node, 1), 
+                    d.getInflow(1, node));
+        }
+        assertEquals(0.0, d.getInflow(1, "Unknown"));
+
+        // a NaN flow counts as zero and does not stick in the totals
+        d.setFlow(0, "B", "Y", Double.NaN);
+        assertEquals(5.0, d.getTotalFlow(0));
+        assertEquals(0.0, d.getOutflow(0, "B"));
+        d.setFlow(0, "B", "Y", 5.0);
+        assertEquals(10.0, d.getTotalFlow(0));
+        assertEquals(5.0, d.getOutflow(0, "B"));
+        assertEquals(7.0, d.getInflow(1, "Y"));
+        assertEquals(FlowDatasetUtils.calculateInflow(d, "Y", 1), 
+                d.getInflow(1, "Y"));
+    }
+
+    /**
+     * Replacing a large flow must not lose the smaller flows from the 
+     * totals, and the totals stay exact over many replacements (which 
+     * trigger rebuilds from the flow values).
+     */
+    @Test
+    public void testTotalsAfterCancellation() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "A", "X", 1.0);
+        d.setFlow(0, "B", "X", 1e17);
+        FlowDatasetSnapshot<String> s1 = d.snapshot();
+        assertEquals(1e17 + 1.0, s1.getInflow(1, "X"));
+        d.setFlow(0, "B", "X", 0.0);
+        assertEquals(1.0, d.getInflow(1, "X"));
+        assertEquals(1.0, d.getTotalFlow(0));
+        assertEquals(0.0, d.getOutflow(0, "B"));
+        assertEquals(FlowDatasetUtils.calculateInflow(d, "X", 1), 
+                d.getInflow(1, "X"));
+        FlowDatasetSnapshot<String> s2 = d.snapshot();
+        assertEquals(1.0, s2.getInflow(1, "X"));
+        assertEquals(1.0, s2.getTotalFlow(0));
+
+        for (int i = 0; i < 5000; i++) {
+            d.setFlow(0, "B", "X", i % 2 == 0 ? 1e17 + i : 0.1 * i);
+            d.setFlow(0, "C", "X", i % 3 == 0 ? 3e16 : 0.0);
+        }
+        assertEquals(FlowDatasetUtils.calculateInflow(d, "X", 1), 
+                d.getInflow(1, "X"));
+        d.setFlow(0, "B", "X", 0.0);
+        d.setFlow(0, "C", "X", 0.0);
+        assertEquals(1.0, d.getInflow(1, "X"));
+        assertEquals(1.0, d.getTotalFlow(0));
+        assertEquals(1.0, d.snapshot().getInflow(1, "X"));
+    }
+
+    /**
+     * Some checks for the indexOf() method.
+     */
+    @Test
+    public void testIndexOf() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "B", "Z", 1.0);
+        d.setFlow(0, "A", "Z", 2.0);
+        d.setFlow(0, "B", "Y", 3.0);
+        d.setFlow(1, "Y", "P", 4.0);
+        assertEquals(0, d.indexOf(0, "B"));
+        assertEquals(1, d.indexOf(0, "A"));
+        assertEquals(-1, d.indexOf(0, "Z"));
+        assertEquals(Arrays.asList("Z", "Y"), d.getDestinations(0));
+        assertEquals(1, d.indexOf(1, "Y"));
+        assertEquals(0, d.indexOf(2, "P"));
+        assertEquals(-1, d.indexOf(3, "P"));
+    }
+
+    /**
+     * The in and out flows and the destination indices follow flows that 
+     * are added after the first query, and a clone has its own index.
+     */
+    @Test
+    public void testInAndOutFlows() throws CloneNotSupportedException {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "B", "Z", 1.0);
+        d.setFlow(0, "A", "Z", 2.0);
+        d.setFlow(1, "Z", "P", 4.0);
+        assertEquals(Arrays.asList(new FlowKey<>(0, "B", "Z"), 
+                new FlowKey<>(0, "A", "Z")), d.getInFlows(new NodeKey<>(1, "Z")));
+        assertArrayEquals(new int[] {0}, d.getDestinationIndices(0, "B"));
+        d.setFlow(0, "B", "Y", 3.0);
+        assertEquals(Arrays.asList(new FlowKey<>(0, "B", "Z"), 
+                new FlowKey<>(0, "B", "Y")), d.getOutFlows(new NodeKey<>(0, "B")));
+        assertArrayEquals(new int[] {0, 1}, d.getDestinationIndices(0, "B"));
+        assertArrayEquals(new int[0], d.getDestinationIndices(0, "Q"));
+        assertTrue(d.getInFlows(new NodeKey<>(1, "Q")).isEmpty());
+        assertTrue(d.getOutFlows(new NodeKey<>(2, "P")).isEmpty());
+
+        DefaultFlowDataset<String> d2 = TestUtils.clone(d);
+        d2.setFlow(1, "Y", "P", 5.0);
+        assertEquals(1, d.getInFlows(new NodeKey<>(2, "P")).size());
+        assertEquals(2, d2.getInFlows(new NodeKey<>(2, "P")).size());
+    }
+
+    /**
+     * The views reflect the dataset content without copying and fail fast
+     * once the dataset is structurally modified.
+     */
+    @Test
+    public void testViews() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "A", "X", 1.0);
+        d.setFlow(0, "B", "X", 2.0);
+        List<String> sources = d.getSourcesView(0);
+        assertEquals(Arrays.asList("A", "B"), sources);
+        assertEquals(Arrays.asList("X"), d.getDestinationsView(0));
+        assertThrows(UnsupportedOperationException.class, () -> sources.add("C"));
+        Set<NodeKey<String>> nodes = d.getAllNodesView();
+        assertEquals(d.getAllNodes(), nodes);
+        assertTrue(nodes.contains(new NodeKey<>(1, "X")));
+        Set<FlowKey<String>> flows = d.getAllFlowsView();
+        assertEquals(d.getAllFlows(), flows);
+
+        // changing a value is not a structural modification
+        d.setFlow(0, "A", "X", 3.0);
+        assertEquals(2, sources.size());
+
+        d.setFlow(0, "C", "X", 1.0);
+        assertThrows(ConcurrentModificationException.class, () -> sources.get(0));
+        assertThrows(ConcurrentModificationException.class, () -> nodes.size());
+        assertThrows(ConcurrentModificationException.class, () -> flows.size());
+    }
+
+    /**
+     * Changes made during an update send a single event when the outermost
+     * update ends.
+     */
+    @Test
+    public void testUpdate() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        int[] count = new int[1];
+        d.addChangeListener(e -> count[0]++);
+        d.beginUpdate();
+        d.setFlow(0, "A", "Z", 1.0);
+        try (DefaultFlowDataset<String>.Update u = d.update()) {
+            d.setFlow(0, "B", "Z", 2.0);
+            d.setNodeProperty(new NodeKey<>(0, "A"), "selected", Boolean.TRUE);
+        }
+        assertEquals(0, count[0]);
+        assertTrue(d.isUpdating());
+        d.endUpdate();
+        assertEquals(1, count[0]);
+        assertFalse(d.isUpdating());
+        assertThrows(IllegalStateException.class, () -> d.endUpdate());
+
+        // an update with no changes sends no event
+        d.update().close();
+        assertEquals(1, count[0]);
+        d.setFlow(0, "C", "Z", 3.0);
+        assertEquals(2, count[0]);
+    }
+
+    /**
+     * Registered properties are stored in columns but read and written 
+     * through the same accessors as other properties.
+     */
+    /**
+     * Keys returned by the dataset for existing nodes and flows are the
+     * pooled instances.
+     */
+    @Test
+    public void testCanonicalKeys() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "A", "B", 1.0);
+        assertSame(d.getFlowKey(0, "A", "B"), d.getFlowKey(0, "A", "B"));
+        assertSame(d.getNodeKey(1, "B"), d.getNodeKey(1, "B"));
+        assertEquals(new FlowKey<>(0, "B", "A"), d.getFlowKey(0, "B", "A"));
+        assertTrue(d.getAllFlows().contains(d.getFlowKey(0, "A", "B")));
+    }
+
+    @Test
+    public void testTypedProperties() throws CloneNotSupportedException {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "A", "Z", 1.0);
+        d.setFlow(0, "B", "Z", 2.0);
+        NodeKey<String> a = new NodeKey<>(0, "A");
+        FlowKey<String> az = new FlowKey<>(0, "A", "Z");
+        assertEquals(Boolean.class, d.getNodePropertyType("selected"));
+        assertEquals(Boolean.class, d.getFlowPropertyType("selected"));
+        assertNull(d.getNodeProperty(a, "selected"));
+        assertFalse(d.getNodeBooleanProperty(a, "selected"));
+        d.setNodeProperty(a, "selected", Boolean.FALSE);
+        assertEquals(Boolean.FALSE, d.getNodeProperty(a, "selected"));
+        d.setNodeProperty(a, "selected", Boolean.TRUE);
+        assertTrue(d.getNodeBooleanProperty(a, "selected"));
+        assertFalse(d.getNodeBooleanProperty(new NodeKey<>(1, "Z"), "selected"));
+        d.setFlowProperty(az, "selected", true);
+        assertTrue(d.getFlowBooleanProperty(az, "selected"));
+        assertFalse(d.getFlowBooleanProperty(new FlowKey<>(0, "B", "Z"), "selected"));
+        assertTrue(FlowDatasetUtils.hasFlowSelections(d));
+
+        // values that cannot be stored in the column are kept in the maps
+        d.setNodeProperty(a, "selected", "yes");
+        assertEquals("yes", d.getNodeProperty(a, "selected"));
+        assertFalse(d.getNodeBooleanProperty(a, "selected"));
+        d.setNodeProperty(a, "selected", Boolean.TRUE);
+        assertEquals(Boolean.TRUE, d.getNodeProperty(a, "selected"));
+        NodeKey<String> q = new NodeKey<>(0, "Q");
+        d.setNodeProperty(q, "selected", true);
+        assertTrue(d.getNodeBooleanProperty(q, "selected"));
+        d.setFlow(0, "Q", "Z", 1.0);
+        assertEquals(Boolean.TRUE, d.getNodeProperty(q, "selected"));
+        d.setNodeProperty(q, "selected", false);
+        assertFalse(d.getNodeBooleanProperty(q, "selected"));
+        FlowKey<String> bq = new FlowKey<>(0, "B", "Q");
+        d.setFlowProperty(bq, "selected", true);
+        assertTrue(d.getFlowBooleanProperty(bq, "selected"));
+        d.setFlowProperty(bq, "selected", null);
+        d.setFlowProperty(az, "selected", 1);
+        assertEquals(1, d.getFlowProperty(az, "selected"));
+        d.setFlowProperty(az, "selected", true);
+        d.setFlowProperty(az, "selected", null);
+        assertNull(d.getFlowProperty(az, "selected"));
+        assertFalse(FlowDatasetUtils.hasFlowSelections(d));
+
+        // existing values move to the columns when a property is registered
+        d.setNodeProperty(a, "weight", 2.5);
+        d.setNodeProperty(a, "label", "Node A");
+        d.registerNodeProperty("weight", Double.class);
+        assertEquals(Double.class, d.getNodePropertyType("weight"));
+        assertEquals(2.5, d.getNodeProperty(a, "weight"));
+        assertEquals(2.5, d.getNodeDoubleProperty(a, "weight"));
+        assertEquals("Node A", d.getNodeProperty(a, "label"));
+        assertTrue(Double.isNaN(d.getNodeDoubleProperty(a, "label")));
+        d.setFlowProperty(az, "rank", 3);
+        d.registerFlowProperty("rank", Integer.class);
+        assertEquals(3.0, d.getFlowDoubleProperty(az, "rank"));
+        assertThrows(IllegalArgumentException.class, 
+                () -> d.registerNodeProperty("weight", Integer.class));
+        assertThrows(IllegalArgumentException.class, 
+                () -> d.registerNodeProperty("label", Double.class));
+        assertThrows(IllegalArgumentException.class, 
+                () -> d.registerNodeProperty("other", String.class));
+
+        // snapshots, clones and serialized copies keep the values
+        FlowDatasetSnapshot<String> s = d.snapshot();
+        assertEquals(Boolean.TRUE, s.getNodeProperty(a, "selected"));
+        assertEquals(2.5, s.getNodeProperty(a, "weight"));
+        assertEquals(3, s.getFlowProperty(az, "rank"));
+        DefaultFlowDataset<String> c = (DefaultFlowDataset<String>) d.clone();
+        c.setNodeProperty(a, "selected", false);
+        assertTrue(d.getNodeBooleanProperty(a, "selected"));
+        d.setNodeProperty(a, "weight", 4.0);
+        assertEquals(2.5, c.getNodeProperty(a, "weight"));
+        assertEquals(2.5, s.getNodeProperty(a, "weight"));
+        assertEquals(4.0, d.snapshot().getNodeProperty(a, "weight"));
+        DefaultFlowDataset<String> r = TestUtils.serialised(d);
+        assertEquals(4.0, r.getNodeProperty(a, "weight"));
+        assertEquals(3, r.getFlowProperty(az, "rank"));
     }
 
     /**
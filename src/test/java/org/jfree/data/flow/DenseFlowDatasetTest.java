@@ -0,0 +1,172 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -------------------------
+ * DenseFlowDatasetTest.java
+ * -------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import org.jfree.chart.TestUtils;
+import org.jfree.chart.util.PublicCloneable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link DenseFlowDataset} class.
+ */
+public class DenseFlowDatasetTest {
+
+    /**
+     * Some checks for the getFlow() method.
+     */
+    @Test
+    public void testGetFlow() {
+        DenseFlowDataset<String> d = new DenseFlowDataset<>();
+        d.setFlow(0, "A", "Z", 1.5);
+        assertEquals(1.5, d.getFlow(0, "A", "Z"));
+        assertNull(d.getFlow(0, "A", "Y"));
+        assertNull(d.getFlow(0, "Z", "A"));
+        assertTrue(Double.isNaN(d.getFlowValue(0, "A", "Y")));
+    }
+
+    /**
+     * Values must survive the matrix growing in both directions.
+     */
+    @Test
+    public void testGrowth() {
+        DenseFlowDataset<Integer> d = new DenseFlowDataset<>();
+        for (int s = 0; s < 50; s++) {
+            for (int t = 0; t < 70; t += 3) {
+                d.setFlow(0, s, t, s * 100 + t);
+            }
+        }
+        for (int s = 0; s < 50; s++) {
+            for (int t = 0; t < 70; t++) {
+                if (t % 3 == 0) {
+                    assertEquals(s * 100.0 + t, d.getFlowValue(0, s, t));
+                } else {
+                    assertNull(d.getFlow(0, s, t));
+                }
+            }
+        }
+        assertEquals(50 * 24, d.getAllFlows().size());
+    }
+
+    /**
+     * Some tests for the getStageCount() method.
+     */
+    @Test
+    public void testGetStageCount() {
+        DenseFlowDataset<String> d = new DenseFlowDataset<>();
+        assertEquals(1, d.getStageCount());
+
+        d.setFlow(0, "A", "Z", 11.1);
+        assertEquals(1, d.getStageCount());
+
+        d.setFlow(1, "Z", "P", 5.0);
+        assertEquals(2, d.getStageCount());
+        assertEquals(5.0, FlowDatasetUtils.calculateOutflow(d, "Z", 1));
+    }
+
+    /**
+     * Confirm that the equals method can distinguish all the required fields,
+     * and that the dataset is equal to a {@link DefaultFlowDataset} with the
+     * same content.
+     */
+    @Test
+    public void testEquals() {
+        DenseFlowDataset<String> d1 = new DenseFlowDataset<>();
+        DenseFlowDataset<String> d2 = new DenseFlowDataset<>();
+        assertEquals(d1, d2);
+
+        d1.setFlow(0, "A", "Z", 1.0);
+        assertNotEquals(d1, d2);
+        d2.setFlow(0, "A", "Z", 1.0);
+        assertEquals(d1, d2);
+
+        DefaultFlowDataset<String> d3 = new DefaultFlowDataset<>();
+        d3.setFlow(0, "A", "Z", 1.0);
+        assertEquals(d1, d3);
+        assertEquals(d3, d1);
+    }
+
+    /**
+     * Serialize an instance, restore it, and check for equality.
+     */
+    @Test
+    public void testSerialization() {
+        DenseFlowDataset<String> d1 = new DenseFlowDataset<>();
+        d1.setFlow(0, "A", "Z", 1.0);
+        DenseFlowDataset<String> d2 = TestUtils.serialised(d1);
+        assertEquals(d1, d2);
+    }
+
+    /**
+     * Confirm that cloning works.
+     * @throws java.lang.CloneNotSupportedException
+     */
+    @Test
+    public void testCloning() throws CloneNotSupportedException {
+        DenseFlowDataset<String> d1 = new DenseFlowDataset<>();
+        d1.setFlow(0, "A", "Z", 1.0);
+        d1.setNodeProperty(new NodeKey<>(0, "A"), "selected", Boolean.TRUE);
+        DenseFlowDataset<String> d2 = TestUtils.clone(d1);
+
+        assertTrue(d1 != d2);
+        assertTrue(d1.getClass() == d2.getClass());
+        assertTrue(d1.equals(d2));
+
+        // check that the clone doesn't share the same underlying arrays.
+        d1.setFlow(0, "A", "Y", 8.0);
+        assertNotEquals(d1, d2);
+        d2.setFlow(0, "A", "Y", 8.0);
+        assertEquals(d1, d2);
+
+        d1.setNodeProperty(new NodeKey<>(0, "A"), "selected", Boolean.FALSE);
+        assertEquals(Boolean.TRUE, d2.getNodeProperty(new NodeKey<>(0, "A"), "selected"));
+    }
+
+    /**
+     * Check that this class implements PublicCloneable.
+     */
+    @Test
+    public void testPublicCloneable() {
+        DenseFlowDataset<String> d = new DenseFlowDataset<>();
+        assertTrue(d instanceof PublicCloneable);
+    }
+
+}
@@ -0,0 +1,213 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ----------------------------
+ * FilteredFlowDatasetTest.java
+ * ----------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.jfree.chart.plot.flow.FlowPlot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link FilteredFlowDataset} and {@link FlowValueIndex} 
+ * classes.
+ */
+public class FilteredFlowDatasetTest {
+
+    private static DefaultFlowDataset<String> createSource() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "A", "X", 5.0);
+        d.setFlow(0, "A", "Y", 1.0);
+        d.setFlow(0, "B", "X", 3.0);
+        d.setFlow(0, "C", "Y", 2.0);
+        d.setFlow(1, "X", "Z", 8.0);
+        d.setFlow(1, "Y", "Z", 3.0);
+        return d;
+    }
+
+    @Test
+    public void testIndex() {
+        FlowValueIndex<String> index = new FlowValueIndex<>(createSource());
+        assertEquals(2, index.getStageCount());
+        assertEquals(4, index.getFlowCount(0));
+        assertEquals(new FlowKey<>(0, "A", "X"), index.getFlowKey(0, 0));
+        assertEquals(1.0, index.getValue(0, 3));
+        assertEquals(2, index.getRank(new FlowKey<>(0, "C", "Y")));
+        assertEquals(-1, index.getRank(new FlowKey<>(0, "C", "X")));
+        assertEquals(3, index.countAbove(0, 2.0));
+        assertEquals(0, index.countAbove(0, 6.0));
+        assertEquals(4, index.countAbove(0, 0.0));
+        assertEquals(10.0, index.getTotal(0, 3));
+    }
+
+    @Test
+    public void testTopK() {
+        FilteredFlowDataset<String> f = new FilteredFlowDataset<>(
+                new FlowValueIndex<>(createSource()));
+        assertEquals(4, f.getSelectedFlowCount(0));
+        f.setTopK(2);
+        assertEquals(2, f.getStageCount());
+        assertEquals(Arrays.asList("A", "B"), f.getSources(0));
+        assertEquals(Arrays.asList("X", "Y"), f.getDestinations(0));
+        assertEquals(5.0, f.getFlow(0, "A", "X"));
+        assertNull(f.getFlow(0, "A", "Y"));
+        assertEquals(8.0, f.getTotalFlow(0));
+        assertEquals(8.0, f.getInflow(1, "X"));
+        assertEquals(3.0, f.getOutflow(1, "Y"));
+        assertEquals(new HashSet<>(Arrays.asList(new FlowKey<>(0, "A", "X"), 
+                new FlowKey<>(0, "B", "X"), new FlowKey<>(1, "X", "Z"), 
+                new FlowKey<>(1, "Y", "Z"))), f.getAllFlows());
+    }
+
+    @Test
+    public void testThreshold() {
+        FilteredFlowDataset<String> f = new FilteredFlowDataset<>(
+                new FlowValueIndex<>(createSource()));
+        f.setThreshold(3.0);
+        assertEquals(Arrays.asList("A", "B"), f.getSources(0));
+        // Y is kept because its flow at stage 1 is selected
+        assertEquals(Arrays.asList("X", "Y"), f.getDestinations(0));
+        assertEquals(Arrays.asList("Z"), f.getDestinations(1));
+        assertEquals(8.0, f.getTotalFlow(0));
+        assertEquals(11.0, f.getTotalFlow(1));
+        f.setTopK(1);
+        assertEquals(Arrays.asList("A"), f.getSources(0));
+        assertEquals(5.0, f.getTotalFlow(0));
+    }
+
+    @Test
+    public void testSourceChange() {
+        DefaultFlowDataset<String> source = createSource();
+        FlowValueIndex<String> index = new FlowValueIndex<>(source);
+        FilteredFlowDataset<String> f = new FilteredFlowDataset<>(index);
+        int[] events = new int[1];
+        f.addChangeListener(e -> events[0]++);
+        f.setTopK(1);
+        assertEquals(Arrays.asList("A"), f.getSources(0));
+        source.setFlow(0, "C", "Y", 9.0);
+        assertEquals(2, events[0]);
+        assertEquals(Arrays.asList("C"), f.getSources(0));
+        assertEquals(9.0, f.getTotalFlow(0));
+        assertEquals(0, index.getRank(new FlowKey<>(0, "C", "Y")));
+    }
+
+    /**
+     * Disposed views and indices stop listening to the source dataset, and
+     * a shared index is still invalidated by the views that use it.
+     */
+    @Test
+    public void testDispose() {
+        DefaultFlowDataset<String> source = createSource();
+        FlowValueIndex<String> index = new FlowValueIndex<>(source);
+        FilteredFlowDataset<String> f1 = new FilteredFlowDataset<>(index);
+        FilteredFlowDataset<String> f2 = new FilteredFlowDataset<>(index);
+        assertTrue(source.hasListener(index));
+        assertTrue(source.hasListener(f1));
+        int[] events = new int[1];
+        f1.addChangeListener(e -> events[0]++);
+
+        index.dispose();
+        assertFalse(source.hasListener(index));
+        source.setFlow(0, "C", "Y", 9.0);
+        assertEquals(1, events[0]);
+        assertEquals(0, index.getRank(new FlowKey<>(0, "C", "Y")));
+
+        f1.dispose();
+        assertFalse(source.hasListener(f1));
+        assertTrue(source.hasListener(f2));
+        source.setFlow(0, "B", "X", 10.0);
+        assertEquals(1, events[0]);
+        f2.dispose();
+        assertFalse(source.hasListener(f2));
+    }
+
+    /**
+     * A change to properties only is passed on to listeners but does not 
+     * clear the cached state.
+     */
+    @Test
+    public void testPropertyChange() {
+        DefaultFlowDataset<String> source = createSource();
+        FilteredFlowDataset<String> f = new FilteredFlowDataset<>(
+                new FlowValueIndex<>(source));
+        int[] events = new int[1];
+        f.addChangeListener(e -> events[0]++);
+        f.setTopK(2);
+        List<String> sources = f.getSourcesView(0);
+        source.setNodeProperty(new NodeKey<>(0, "A"), "selected", true);
+        source.setFlowProperty(new FlowKey<>(0, "A", "X"), "label", "AX");
+        assertEquals(3, events[0]);
+        assertSame(sources, f.getSourcesView(0));
+        source.setFlow(0, "C", "Y", 9.0);
+        assertNotSame(sources, f.getSourcesView(0));
+        assertEquals(Arrays.asList("A", "C"), f.getSources(0));
+    }
+
+    @Test
+    public void testPropertiesAndRendering() {
+        DefaultFlowDataset<String> source = createSource();
+        FilteredFlowDataset<String> f = new FilteredFlowDataset<>(
+                new FlowValueIndex<>(source));
+        f.setTopK(2);
+        source.setNodeProperty(new NodeKey<>(0, "A"), "selected", true);
+        source.setFlowProperty(new FlowKey<>(0, "A", "X"), "label", "AX");
+        assertTrue(f.getNodeBooleanProperty(new NodeKey<>(0, "A"), 
+                "selected"));
+        assertEquals("AX", f.getFlowProperty(new FlowKey<>(0, "A", "X"), 
+                "label"));
+        
+        // the view can be drawn directly by a plot
+        FlowPlot plot = new FlowPlot(f);
+        BufferedImage image = new BufferedImage(200, 100, 
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = image.createGraphics();
+        plot.draw(g2, new Rectangle2D.Double(0, 0, 200, 100), null, null, 
+                null);
+        g2.dispose();
+    }
+
+}
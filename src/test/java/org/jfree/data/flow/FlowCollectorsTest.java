@@ -0,0 +1,162 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -----------------------
+ * FlowCollectorsTest.java
+ * -----------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link FlowCollectors} class and 
+ * {@link FlowDatasetUtils#merge(FlowDataset[])}.
+ */
+public class FlowCollectorsTest {
+
+    /**
+     * Values for the same flow are summed.
+     */
+    @Test
+    public void testToFlowDataset() {
+        List<String[]> items = Arrays.asList(
+                new String[] {"0", "A", "X", "1"},
+                new String[] {"0", "B", "X", "2"},
+                new String[] {"0", "A", "X", "3"},
+                new String[] {"1", "X", "P", "4"});
+        DefaultFlowDataset<String> d = items.stream().collect(
+                FlowCollectors.toFlowDataset(
+                        item -> Integer.parseInt(item[0]), item -> item[1], 
+                        item -> item[2], item -> Double.parseDouble(item[3])));
+        assertEquals(2, d.getStageCount());
+        assertEquals(Arrays.asList("A", "B"), d.getSources(0));
+        assertEquals(4.0, d.getFlow(0, "A", "X"));
+        assertEquals(2.0, d.getFlow(0, "B", "X"));
+        assertEquals(4.0, d.getFlow(1, "X", "P"));
+        assertNull(d.getFlow(0, "B", "Y"));
+
+        DefaultFlowDataset<String> d1 = Stream.of("A", "B", "A").collect(
+                FlowCollectors.toFlowDataset(s -> s, s -> "Z", s -> 1.5));
+        assertEquals(1, d1.getStageCount());
+        assertEquals(3.0, d1.getFlow(0, "A", "Z"));
+
+        DefaultFlowDataset<String> empty = Stream.<String>empty().collect(
+                FlowCollectors.toFlowDataset(s -> s, s -> s, s -> 1.0));
+        assertEquals(new DefaultFlowDataset<String>(), empty);
+
+        assertThrows(IllegalArgumentException.class, 
+                () -> FlowCollectors.<String, String>toFlowDataset(null, s -> s, s -> 1.0));
+    }
+
+    /**
+     * A parallel reduction should give the same dataset, including the node
+     * order, as a sequential one.
+     */
+    @Test
+    public void testParallel() {
+        DefaultFlowDataset<String> d1 = IntStream.range(0, 20000).boxed()
+                .collect(FlowCollectors.toFlowDataset(i -> i % 3, 
+                        i -> "S" + (i * 7 % 101), i -> "S" + (i * 13 % 97), 
+                        i -> i % 10));
+        DefaultFlowDataset<String> d2 = IntStream.range(0, 20000).boxed()
+                .parallel().collect(FlowCollectors.toFlowDataset(i -> i % 3, 
+                        i -> "S" + (i * 7 % 101), i -> "S" + (i * 13 % 97), 
+                        i -> i % 10));
+        assertEquals(d1, d2);
+        for (int stage = 0; stage < d1.getStageCount(); stage++) {
+            assertEquals(d1.getSources(stage), d2.getSources(stage));
+            assertEquals(d1.getDestinations(stage), d2.getDestinations(stage));
+        }
+        assertEquals(2000 * 45, sum(d2), 0.0);
+    }
+
+    /**
+     * Merging datasets sums the matching flows.
+     */
+    @Test
+    public void testMerge() {
+        DefaultFlowDataset<String> d1 = new DefaultFlowDataset<>();
+        d1.setFlow(0, "A", "X", 1.0);
+        d1.setFlow(0, "B", "Y", 2.0);
+        d1.setNodeProperty(new NodeKey<>(0, "A"), "color", "red");
+        DefaultFlowDataset<String> d2 = new DefaultFlowDataset<>();
+        d2.setFlow(0, "C", "X", 3.0);
+        d2.setFlow(0, "A", "X", 4.0);
+        d2.setFlow(1, "X", "P", 5.0);
+
+        DefaultFlowDataset<String> m = FlowDatasetUtils.merge(d1, d2);
+        assertEquals(2, m.getStageCount());
+        assertEquals(Arrays.asList("A", "B", "C"), m.getSources(0));
+        assertEquals(Arrays.asList("X", "Y"), m.getDestinations(0));
+        assertEquals(5.0, m.getFlow(0, "A", "X"));
+        assertEquals(2.0, m.getFlow(0, "B", "Y"));
+        assertEquals(3.0, m.getFlow(0, "C", "X"));
+        assertEquals(5.0, m.getFlow(1, "X", "P"));
+        assertNull(m.getNodeProperty(new NodeKey<>(0, "A"), "color"));
+
+        // merging a single dataset gives an equal copy
+        assertEquals(d1, FlowDatasetUtils.merge(d1));
+
+        // merging partial results matches collecting the whole input
+        List<Integer> items = IntStream.range(0, 1000).boxed()
+                .collect(Collectors.toList());
+        DefaultFlowDataset<String> whole = items.stream().collect(
+                FlowCollectors.toFlowDataset(i -> "S" + i % 7, 
+                        i -> "D" + i % 5, i -> 1.0));
+        DefaultFlowDataset<String> part1 = items.subList(0, 400).stream()
+                .collect(FlowCollectors.toFlowDataset(i -> "S" + i % 7, 
+                        i -> "D" + i % 5, i -> 1.0));
+        DefaultFlowDataset<String> part2 = items.subList(400, 1000).stream()
+                .collect(FlowCollectors.toFlowDataset(i -> "S" + i % 7, 
+                        i -> "D" + i % 5, i -> 1.0));
+        assertEquals(whole, FlowDatasetUtils.merge(part1, part2));
+    }
+
+    private static double sum(FlowDataset<String> dataset) {
+        double total = 0.0;
+        for (int stage = 0; stage < dataset.getStageCount(); stage++) {
+            total += dataset.getTotalFlow(stage);
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,138 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ---------------------------
+ * FlowDatasetBuilderTest.java
+ * ---------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.Arrays;
+import java.util.List;
+import org.jfree.data.general.DatasetChangeEvent;
+import org.jfree.data.general.DatasetChangeListener;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link FlowDatasetBuilder} class.
+ */
+public class FlowDatasetBuilderTest implements DatasetChangeListener {
+
+    private int eventCount;
+
+    @Override
+    public void datasetChanged(DatasetChangeEvent event) {
+        this.eventCount++;
+    }
+
+    /**
+     * A dataset built in bulk should match one built with setFlow().
+     */
+    @Test
+    public void testBuild() {
+        FlowDatasetBuilder<String> b = new FlowDatasetBuilder<>();
+        b.add(0, "A", "X", 1.0).add(0, "B", "X", 2.0).add(0, "A", "Y", 3.0);
+        b.add(1, new String[] {"X", "Y"}, new String[] {"P", "P"},
+                new double[] {4.0, 5.0});
+        b.add(0, "A", "X", 6.0);
+        assertEquals(2, b.getStageCount());
+        assertEquals(5, b.getFlowCount());
+        DefaultFlowDataset<String> d1 = b.build();
+        assertEquals(0, b.getFlowCount());
+
+        DefaultFlowDataset<String> d2 = new DefaultFlowDataset<>();
+        d2.setFlow(0, "A", "X", 1.0);
+        d2.setFlow(0, "B", "X", 2.0);
+        d2.setFlow(0, "A", "Y", 3.0);
+        d2.setFlow(1, "X", "P", 4.0);
+        d2.setFlow(1, "Y", "P", 5.0);
+        d2.setFlow(0, "A", "X", 6.0);
+        assertEquals(d2, d1);
+        assertEquals(Arrays.asList("A", "B"), d1.getSources(0));
+    }
+
+    /**
+     * Flows can be supplied through an iterable or a stream.
+     */
+    @Test
+    public void testAddAll() {
+        List<String[]> rows = Arrays.asList(new String[] {"0", "A", "X", "1"},
+                new String[] {"0", "B", "X", "2"},
+                new String[] {"1", "X", "P", "3"});
+        FlowDatasetBuilder<String> b1 = new FlowDatasetBuilder<>();
+        b1.addAll(rows, r -> Integer.parseInt(r[0]), r -> r[1], r -> r[2],
+                r -> Double.parseDouble(r[3]));
+        FlowDatasetBuilder<String> b2 = new FlowDatasetBuilder<>();
+        b2.addAll(rows.stream(), r -> Integer.parseInt(r[0]), r -> r[1],
+                r -> r[2], r -> Double.parseDouble(r[3]));
+        DefaultFlowDataset<String> d1 = b1.build();
+        assertEquals(d1, b2.build());
+        assertEquals(3.0, d1.getFlow(1, "X", "P"));
+    }
+
+    /**
+     * Adding to an existing dataset merges the nodes and sends exactly one
+     * change event.
+     */
+    @Test
+    public void testAddToSendsOneEvent() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "A", "X", 1.0);
+        d.addChangeListener(this);
+        this.eventCount = 0;
+        FlowDatasetBuilder<String> b = new FlowDatasetBuilder<>();
+        for (int i = 0; i < 100; i++) {
+            b.add(0, "S" + (i % 10), "X", i);
+        }
+        b.add(0, "A", "X", 7.0);
+        b.add(2, "Q", "R", 1.0);
+        b.addTo(d);
+        assertEquals(1, this.eventCount);
+        assertEquals(3, d.getStageCount());
+        assertEquals(11, d.getSources(0).size());
+        assertEquals("A", d.getSources(0).get(0));
+        assertEquals(Arrays.asList("X"), d.getDestinations(0));
+        assertEquals(7.0, d.getFlow(0, "A", "X"));
+        assertEquals(99.0, d.getFlow(0, "S9", "X"));
+    }
+
+    @Test
+    public void testMismatchedArrays() {
+        FlowDatasetBuilder<String> b = new FlowDatasetBuilder<>();
+        assertThrows(IllegalArgumentException.class, () -> b.add(0,
+                new String[] {"A"}, new String[0], new double[] {1.0}));
+    }
+
+}
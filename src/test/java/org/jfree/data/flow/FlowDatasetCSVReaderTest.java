@@ -0,0 +1,151 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -----------------------------
+ * FlowDatasetCSVReaderTest.java
+ * -----------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for the {@link FlowDatasetCSVReader} class.
+ */
+public class FlowDatasetCSVReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path write(String name, String content) throws IOException {
+        Path path = this.tempDir.resolve(name);
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    /**
+     * Read a small file with a header, blank lines, white space and a
+     * repeated flow.
+     */
+    @Test
+    public void testRead() throws IOException {
+        Path path = write("flows.csv", "stage,source,destination,value\r\n"
+                + "0,B,X,1.5\r\n"
+                + "0, A ,X,2\r\n"
+                + "\r\n"
+                + "1,X,Pé,-3.25e1\n"
+                + "0,A,X,4");
+        FlowDatasetCSVReader reader = new FlowDatasetCSVReader();
+        DefaultFlowDataset<String> d = reader.read(path);
+        assertEquals(2, d.getStageCount());
+        assertEquals(Arrays.asList("B", "A"), d.getSources(0));
+        assertEquals(4.0, d.getFlow(0, "A", "X"));
+        assertEquals(1.5, d.getFlow(0, "B", "X"));
+        assertEquals(-32.5, d.getFlow(1, "X", "Pé"));
+        assertEquals(d, reader.read(path, 3));
+
+        Path semicolons = write("flows2.csv", "0;A;X;1\n0;B;X;2\n");
+        DefaultFlowDataset<String> d2 = new FlowDatasetCSVReader(';')
+                .read(semicolons);
+        assertEquals(3.0, d2.getInflow(1, "X"));
+    }
+
+    /**
+     * The parallel read gives the same result as the sequential read.
+     */
+    @Test
+    public void testParallelRead() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int last = -1; // the last line for the flow N136 -> N210
+        for (int i = 0; i < 20000; i++) {
+            if (i % 2 == 1 && i % 37 == 36 && i % 11 == 10) {
+                last = i;
+            }
+            sb.append(i % 2).append(',').append("N").append(i % 2 * 100 + i % 37)
+                    .append(',').append("N").append((i % 2 + 1) * 100 + i % 11)
+                    .append(',').append(i * 0.25).append('\n');
+        }
+        Path path = write("large.csv", sb.toString());
+        FlowDatasetCSVReader reader = new FlowDatasetCSVReader();
+        DefaultFlowDataset<String> d1 = reader.read(path);
+        DefaultFlowDataset<String> d2 = reader.read(path, 4);
+        assertEquals(d1, d2);
+        assertEquals(d1.getAllFlows(), d2.getAllFlows());
+        assertEquals(last * 0.25, d1.getFlow(1, "N136", "N210"));
+    }
+
+    /**
+     * Lines that cannot be parsed are reported.
+     */
+    @Test
+    public void testBadLines() throws IOException {
+        FlowDatasetCSVReader reader = new FlowDatasetCSVReader();
+        Path p1 = write("bad1.csv", "0,A,X,1\n0,A,X\n");
+        assertThrows(IOException.class, () -> reader.read(p1));
+        assertThrows(IOException.class, () -> reader.read(p1, 2));
+        Path p2 = write("bad2.csv", "0,A,X,1\nx,A,X,1\n");
+        assertThrows(IOException.class, () -> reader.read(p2));
+        Path p3 = write("bad3.csv", "0,A,X,abc\n");
+        assertThrows(IOException.class, () -> reader.read(p3));
+        Path p4 = write("bad4.csv", "0,A,X,1,2\n");
+        assertThrows(IOException.class, () -> reader.read(p4));
+    }
+
+    /**
+     * Numbers are parsed to the same value as {@code Double.parseDouble()}.
+     */
+    @Test
+    public void testParseDouble() {
+        String[] values = {"0", "-0", "1", "+7", "0.1", "123.456", ".5", "5.",
+            "1e10", "1.5E-7", "3.14159265358979", "12345678901234567890",
+            "0.000000000000000000000000001", "1e300", "NaN", "-Infinity",
+            "4.9e-324", "9007199254740993"};
+        for (String s : values) {
+            byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(Double.parseDouble(s), 
+                    FlowDatasetCSVReader.parseDouble(b, 0, b.length), s);
+        }
+        byte[] b = "1e".getBytes(StandardCharsets.US_ASCII);
+        assertThrows(NumberFormatException.class, 
+                () -> FlowDatasetCSVReader.parseDouble(b, 0, b.length));
+    }
+
+}
@@ -0,0 +1,169 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -------------------------------
+ * FlowDatasetChangeEventTest.java
+ * -------------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import org.jfree.data.general.DatasetChangeEvent;
+import org.jfree.data.general.DatasetChangeListener;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link FlowDatasetChangeEvent} class.
+ */
+public class FlowDatasetChangeEventTest implements DatasetChangeListener {
+
+    /** The events received. */
+    private final List<DatasetChangeEvent> events = new ArrayList<>();
+
+    @Override
+    public void datasetChanged(DatasetChangeEvent event) {
+        this.events.add(event);
+    }
+
+    private FlowDatasetChangeEvent<String> lastEvent() {
+        return (FlowDatasetChangeEvent<String>) this.events.get(
+                this.events.size() - 1);
+    }
+
+    @Test
+    public void testSetFlow() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.addChangeListener(this);
+        d.setFlow(0, "A", "X", 1.0);
+        FlowDatasetChangeEvent<String> e = lastEvent();
+        assertEquals(EnumSet.of(FlowDatasetChangeType.FLOW_VALUE, 
+                FlowDatasetChangeType.NODE_ADDED), e.getChangeTypes());
+        assertEquals(Collections.singleton(new FlowKey<>(0, "A", "X")), 
+                e.getChangedFlows());
+        assertEquals(Arrays.asList(new NodeKey<>(0, "A"), 
+                new NodeKey<>(1, "X")), e.getAddedNodes());
+        assertTrue(e.isStageAffected(0));
+        assertFalse(e.isStageAffected(1));
+
+        // changing an existing flow adds no nodes
+        d.setFlow(0, "A", "X", 2.0);
+        e = lastEvent();
+        assertEquals(EnumSet.of(FlowDatasetChangeType.FLOW_VALUE), 
+                e.getChangeTypes());
+        assertTrue(e.getAddedNodes().isEmpty());
+        assertEquals(1, e.getChangedFlowCount());
+        assertEquals(2, this.events.size());
+    }
+
+    @Test
+    public void testProperties() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "A", "X", 1.0);
+        d.setFlow(1, "X", "Z", 1.0);
+        d.addChangeListener(this);
+        d.setNodeProperty(new NodeKey<>(1, "X"), "selected", true);
+        FlowDatasetChangeEvent<String> e = lastEvent();
+        assertEquals(EnumSet.of(FlowDatasetChangeType.NODE_PROPERTY), 
+                e.getChangeTypes());
+        assertEquals(Collections.singleton(new NodeKey<>(1, "X")), 
+                e.getChangedNodeProperties());
+        assertTrue(e.isStageAffected(0));
+        assertTrue(e.isStageAffected(1));
+        
+        d.setFlowProperty(new FlowKey<>(1, "X", "Z"), "selected", true);
+        e = lastEvent();
+        assertEquals(EnumSet.of(FlowDatasetChangeType.FLOW_PROPERTY), 
+                e.getChangeTypes());
+        assertEquals(Collections.singleton(new FlowKey<>(1, "X", "Z")), 
+                e.getChangedFlowProperties());
+        assertFalse(e.isStageAffected(0));
+        assertTrue(e.isStageAffected(1));
+    }
+
+    /**
+     * A batch update sends a single event that describes all the changes.
+     */
+    @Test
+    public void testUpdate() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "A", "X", 1.0);
+        d.addChangeListener(this);
+        try (DefaultFlowDataset<String>.Update u = d.update()) {
+            d.setFlow(0, "A", "X", 3.0);
+            d.setFlow(0, "B", "X", 2.0);
+            d.setFlow(1, "X", "Z", 1.0);
+            d.setFlow(0, "B", "X", 4.0);
+        }
+        assertEquals(1, this.events.size());
+        FlowDatasetChangeEvent<String> e = lastEvent();
+        assertEquals(EnumSet.of(FlowDatasetChangeType.FLOW_VALUE, 
+                FlowDatasetChangeType.NODE_ADDED, 
+                FlowDatasetChangeType.STAGE_ADDED), e.getChangeTypes());
+        assertEquals(3, e.getChangedFlowCount());
+        assertTrue(e.getChangedFlows().contains(new FlowKey<>(1, "X", "Z")));
+        assertEquals(Arrays.asList(new NodeKey<>(0, "B"), 
+                new NodeKey<>(2, "Z")), e.getAddedNodes());
+        assertTrue(e.isStageAffected(0));
+        assertTrue(e.isStageAffected(1));
+    }
+
+    /**
+     * A large batch records every changed flow once, including those set 
+     * more than once.
+     */
+    @Test
+    public void testLargeUpdate() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.addChangeListener(this);
+        try (DefaultFlowDataset<String>.Update u = d.update()) {
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 0; i < 100; i++) {
+                    d.setFlow(0, "S" + i, "D", pass + 1.0);
+                }
+            }
+        }
+        assertEquals(1, this.events.size());
+        FlowDatasetChangeEvent<String> e = lastEvent();
+        assertEquals(100, e.getChangedFlowCount());
+        assertEquals(100, e.getChangedFlows().size());
+        assertTrue(e.getChangedFlows().contains(new FlowKey<>(0, "S99", "D")));
+    }
+
+}
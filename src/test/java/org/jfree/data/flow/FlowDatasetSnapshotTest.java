@@ -0,0 +1,140 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ----------------------------
+ * FlowDatasetSnapshotTest.java
+ * ----------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.Arrays;
+import org.jfree.chart.TestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link FlowDatasetSnapshot} class.
+ */
+public class FlowDatasetSnapshotTest {
+
+    private static DefaultFlowDataset<String> createDataset() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "A", "X", 1.0);
+        d.setFlow(0, "B", "X", 2.0);
+        d.setFlow(0, "B", "Y", 3.0);
+        d.setFlow(1, "X", "P", 3.0);
+        d.setFlow(1, "Y", "P", 3.0);
+        d.setNodeProperty(new NodeKey<>(0, "A"), "selected", Boolean.TRUE);
+        return d;
+    }
+
+    /**
+     * A snapshot matches the dataset and is not affected by later changes.
+     */
+    @Test
+    public void testSnapshotIsIsolated() {
+        DefaultFlowDataset<String> d = createDataset();
+        FlowDatasetSnapshot<String> s1 = d.snapshot();
+        assertEquals(d, s1);
+        assertEquals(s1, d);
+        assertEquals(5.0, s1.getOutflow(0, "B"));
+        assertEquals(6.0, s1.getInflow(2, "P"));
+        assertEquals(6.0, s1.getTotalFlow(0));
+        assertEquals(Boolean.TRUE, s1.getNodeProperty(new NodeKey<>(0, "A"), "selected"));
+        assertThrows(UnsupportedOperationException.class, 
+                () -> s1.getSourcesView(0).add("Q"));
+
+        d.setFlow(0, "A", "X", 5.0);
+        d.setFlow(0, "C", "Z", 1.0);
+        d.setNodeProperty(new NodeKey<>(0, "A"), "selected", Boolean.FALSE);
+        assertNotEquals(d, s1);
+        assertEquals(1.0, s1.getFlow(0, "A", "X"));
+        assertNull(s1.getFlow(0, "C", "Z"));
+        assertEquals(Arrays.asList("A", "B"), s1.getSources(0));
+        assertEquals(1.0, s1.getOutflow(0, "A"));
+        assertEquals(Boolean.TRUE, s1.getNodeProperty(new NodeKey<>(0, "A"), "selected"));
+
+        FlowDatasetSnapshot<String> s2 = d.snapshot();
+        assertEquals(d, s2);
+        assertEquals(5.0, s2.getOutflow(0, "A"));
+        assertEquals(Boolean.FALSE, s2.getNodeProperty(new NodeKey<>(0, "A"), "selected"));
+    }
+
+    /**
+     * Successive snapshots share the parts that have not changed.
+     */
+    @Test
+    public void testStructuralSharing() {
+        DefaultFlowDataset<String> d = createDataset();
+        FlowDatasetSnapshot<String> s1 = d.snapshot();
+        assertSame(s1, d.snapshot());
+
+        d.setFlow(1, "X", "P", 4.0);
+        FlowDatasetSnapshot<String> s2 = d.snapshot();
+        assertNotSame(s1, s2);
+        assertEquals(4.0, s2.getFlow(1, "X", "P"));
+        assertEquals(3.0, s1.getFlow(1, "X", "P"));
+        // stage 0 and all the node lists are shared
+        assertSame(s1.rows.get(0), s2.rows.get(0));
+        assertSame(s1.nodes.get(0), s2.nodes.get(0));
+        assertSame(s1.nodes.get(2), s2.nodes.get(2));
+        assertSame(s1.nodeTotals.get(0), s2.nodeTotals.get(0));
+        assertSame(s1.nodeProperties, s2.nodeProperties);
+        // within stage 1, the untouched row is shared
+        assertNotSame(s1.rows.get(1), s2.rows.get(1));
+        assertSame(s1.rows.get(1).get("Y"), s2.rows.get(1).get("Y"));
+
+        // a new stage
+        d.setFlow(2, "P", "Q", 7.0);
+        FlowDatasetSnapshot<String> s3 = d.snapshot();
+        assertEquals(3, s3.getStageCount());
+        assertEquals(d, s3);
+        assertSame(s2.nodes.get(1), s3.nodes.get(1));
+    }
+
+    /**
+     * Serialize an instance, restore it, and check for equality.
+     */
+    @Test
+    public void testSerialization() {
+        FlowDatasetSnapshot<String> s1 = createDataset().snapshot();
+        FlowDatasetSnapshot<String> s2 = TestUtils.serialised(s1);
+        assertEquals(s1, s2);
+    }
+
+}
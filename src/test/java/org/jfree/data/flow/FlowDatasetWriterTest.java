@@ -0,0 +1,169 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * --------------------------
+ * FlowDatasetWriterTest.java
+ * --------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link FlowDatasetWriter} and {@link FlowDatasetReader} 
+ * classes.
+ */
+public class FlowDatasetWriterTest {
+
+    private static byte[] write(FlowDataset<?>... datasets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (FlowDatasetWriter writer = new FlowDatasetWriter(bytes)) {
+            for (FlowDataset<?> d : datasets) {
+                writer.write((FlowDataset) d);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Datasets with each of the supported key types can be written and
+     * read back, several to one stream.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        DefaultFlowDataset<String> d1 = new DefaultFlowDataset<>();
+        d1.setFlow(0, "B", "X", 1.0);
+        d1.setFlow(0, "A", "X", 2.0);
+        d1.setFlow(0, "A", "Ÿ", 3.5);
+        d1.setFlow(1, "X", "P", -3.0);
+        DefaultFlowDataset<Integer> d2 = new DefaultFlowDataset<>();
+        d2.setFlow(0, -5, Integer.MAX_VALUE, 1.0);
+        d2.setFlow(0, Integer.MIN_VALUE, 7, 2.0);
+        DefaultFlowDataset<Long> d3 = new DefaultFlowDataset<>();
+        d3.setFlow(0, Long.MIN_VALUE, Long.MAX_VALUE, 1.0);
+        d3.setFlow(0, 300L, -1L, Double.NaN);
+
+        byte[] bytes = write(d1, d2, d3);
+        try (FlowDatasetReader reader = new FlowDatasetReader(
+                new ByteArrayInputStream(bytes))) {
+            DefaultFlowDataset<String> r1 = reader.read(String.class);
+            assertEquals(d1, r1);
+            assertEquals(Arrays.asList("B", "A"), r1.getSources(0));
+            assertEquals(5.5, r1.getOutflow(0, "A"));
+            assertEquals(d2, reader.read(Integer.class));
+            DefaultFlowDataset<Long> r3 = reader.read(Long.class);
+            assertEquals(d3.getAllFlows(), r3.getAllFlows());
+            assertTrue(Double.isNaN(r3.getFlow(0, 300L, -1L).doubleValue()));
+            assertNull(reader.read(String.class));
+        }
+    }
+
+    /**
+     * Empty datasets round trip with their own key type, and can be read
+     * with any of the supported key types.
+     */
+    @Test
+    public void testEmptyDatasets() throws IOException {
+        DefaultFlowDataset<Integer> d1 = new DefaultFlowDataset<>();
+        DefaultFlowDataset<Long> d2 = new DefaultFlowDataset<>();
+        byte[] bytes = write(d1, d2, d1);
+        try (FlowDatasetReader reader = new FlowDatasetReader(
+                new ByteArrayInputStream(bytes))) {
+            DefaultFlowDataset<Integer> r1 = reader.read(Integer.class);
+            assertEquals(d1, r1);
+            assertEquals(1, r1.getStageCount());
+            assertEquals(0.0, r1.getTotalFlow(0));
+            DefaultFlowDataset<Long> r2 = reader.read(Long.class);
+            assertEquals(d2, r2);
+            r2.setFlow(0, 1L, 2L, 3.0);
+            assertEquals(3.0, r2.getOutflow(0, 1L));
+            assertEquals(new DefaultFlowDataset<String>(), 
+                    reader.read(String.class));
+            assertNull(reader.read(Integer.class));
+        }
+    }
+
+    /**
+     * A large dataset is much smaller than with Java serialization.
+     */
+    @Test
+    public void testSize() throws IOException {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < 20; j++) {
+                d.setFlow(0, "Source " + i, "Destination " + j, i + j);
+            }
+        }
+        byte[] bytes = write(d);
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+            out.writeObject(d);
+        }
+        assertTrue(bytes.length * 4 < serialized.size());
+        try (FlowDatasetReader reader = new FlowDatasetReader(
+                new ByteArrayInputStream(bytes))) {
+            assertEquals(d, reader.read(String.class));
+        }
+    }
+
+    /**
+     * Bad data and the wrong key type are reported as exceptions.
+     */
+    @Test
+    public void testBadData() throws IOException {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "A", "X", 1.0);
+        byte[] bytes = write(d);
+        assertThrows(IOException.class, () -> new FlowDatasetReader(
+                new ByteArrayInputStream(bytes)).read(Integer.class));
+        assertThrows(IOException.class, () -> new FlowDatasetReader(
+                new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 3)))
+                .read(String.class));
+        assertThrows(IOException.class, () -> new FlowDatasetReader(
+                new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5}))
+                .read(String.class));
+        DefaultFlowDataset<Double> bad = new DefaultFlowDataset<>();
+        bad.setFlow(0, 1.0, 2.0, 3.0);
+        assertThrows(IllegalArgumentException.class, () -> write(bad));
+    }
+
+}
@@ -0,0 +1,109 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * --------------------
+ * FlowKeyPoolTest.java
+ * --------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import org.jfree.chart.TestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link FlowKeyPool} class.
+ */
+public class FlowKeyPoolTest {
+
+    @Test
+    public void testNodeKeys() {
+        FlowKeyPool<String> pool = new FlowKeyPool<>();
+        assertNull(pool.getNodeKey(0, "A"));
+        NodeKey<String> k1 = pool.nodeKey(0, "A");
+        assertEquals(new NodeKey<>(0, "A"), k1);
+        assertSame(k1, pool.nodeKey(0, "A"));
+        assertSame(k1, pool.getNodeKey(0, "A"));
+        assertSame(k1, pool.intern(new NodeKey<>(0, "A")));
+        assertNull(pool.getNodeKey(1, "A"));
+        assertEquals(1, pool.getNodeKeyCount());
+    }
+
+    @Test
+    public void testFlowKeys() {
+        FlowKeyPool<String> pool = new FlowKeyPool<>();
+        assertNull(pool.getFlowKey(0, "A", "B"));
+        FlowKey<String> k1 = pool.flowKey(0, "A", "B");
+        assertEquals(new FlowKey<>(0, "A", "B"), k1);
+        assertSame(k1, pool.flowKey(0, "A", "B"));
+        assertSame(k1, pool.getFlowKey(0, "A", "B"));
+        assertSame(k1, pool.intern(new FlowKey<>(0, "A", "B")));
+        assertNull(pool.getFlowKey(0, "B", "A"));
+        assertEquals(1, pool.getFlowKeyCount());
+    }
+
+    /**
+     * Adding many keys forces the tables to grow, existing keys must still
+     * be found afterwards.
+     */
+    @Test
+    public void testGrowth() {
+        FlowKeyPool<Integer> pool = new FlowKeyPool<>();
+        FlowKey<Integer>[] keys = new FlowKey[1000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = pool.flowKey(i % 3, i, i + 1);
+            pool.nodeKey(i % 3, i);
+        }
+        assertEquals(1000, pool.getFlowKeyCount());
+        assertEquals(1000, pool.getNodeKeyCount());
+        for (int i = 0; i < keys.length; i++) {
+            assertSame(keys[i], pool.getFlowKey(i % 3, i, i + 1));
+        }
+    }
+
+    @Test
+    public void testSerialization() {
+        FlowKeyPool<String> p1 = new FlowKeyPool<>();
+        p1.nodeKey(0, "A");
+        p1.flowKey(0, "A", "B");
+        FlowKeyPool<String> p2 = TestUtils.serialised(p1);
+        assertEquals(1, p2.getNodeKeyCount());
+        assertEquals(1, p2.getFlowKeyCount());
+        FlowKey<String> k = p2.getFlowKey(0, "A", "B");
+        assertEquals(new FlowKey<>(0, "A", "B"), k);
+        assertSame(k, p2.flowKey(0, "A", "B"));
+    }
+
+}
@@ -0,0 +1,288 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -----------------------
+ * IntFlowDatasetTest.java
+ * -----------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import org.jfree.chart.TestUtils;
+import org.jfree.chart.plot.flow.FlowPlot;
+import org.jfree.chart.util.PublicCloneable;
+import org.jfree.data.general.DatasetChangeEvent;
+import org.jfree.data.general.DatasetChangeListener;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link IntFlowDataset} class.
+ */
+public class IntFlowDatasetTest implements DatasetChangeListener {
+
+    private int eventCount;
+
+    @Override
+    public void datasetChanged(DatasetChangeEvent event) {
+        this.eventCount++;
+    }
+
+    private static IntFlowDataset createDataset() {
+        IntFlowDataset d = new IntFlowDataset();
+        d.setFlow(0, 7, 100, 1.0);
+        d.setFlow(0, 3, 100, 2.0);
+        d.setFlow(0, 7, 101, 3.0);
+        d.setFlow(1, 100, 7, 4.0);
+        return d;
+    }
+
+    /**
+     * Flows, nodes and totals can be read with primitive identifiers.
+     */
+    @Test
+    public void testFlows() {
+        IntFlowDataset d = new IntFlowDataset();
+        assertEquals(1, d.getStageCount());
+        assertEquals(0, d.getNodeCount(0));
+        assertTrue(Double.isNaN(d.getFlow(0, 1, 2)));
+
+        d = createDataset();
+        assertEquals(2, d.getStageCount());
+        assertArrayEquals(new int[] {7, 3}, d.getSources(0));
+        assertArrayEquals(new int[] {100, 101}, d.getDestinations(0));
+        assertArrayEquals(new int[] {7}, d.getDestinations(1));
+        assertEquals(3, d.getNode(0, 1));
+        assertEquals(1, d.indexOf(1, 101));
+        assertEquals(-1, d.indexOf(1, 7));
+        assertEquals(3.0, d.getFlow(0, 7, 101));
+        assertTrue(Double.isNaN(d.getFlow(0, 3, 101)));
+        assertEquals(4, d.getFlowCount());
+        assertEquals(4.0, d.getOutflow(0, 7));
+        assertEquals(3.0, d.getInflow(1, 100));
+        assertEquals(4.0, d.getOutflow(1, 100));
+        assertEquals(6.0, d.getTotalFlow(0));
+
+        // replacing a flow updates the totals
+        d.setFlow(0, 7, 100, 5.0);
+        assertEquals(8.0, d.getOutflow(0, 7));
+        assertEquals(10.0, d.getTotalFlow(0));
+        assertEquals(4, d.getFlowCount());
+
+        // a NaN flow counts as zero and does not stick in the totals
+        d.setFlow(0, 3, 100, Double.NaN);
+        assertEquals(8.0, d.getTotalFlow(0));
+        d.setFlow(0, 3, 100, 2.0);
+        assertEquals(10.0, d.getTotalFlow(0));
+        assertEquals(7.0, d.getInflow(1, 100));
+
+        // replacing a large flow does not lose the smaller ones
+        d.setFlow(0, 9, 100, 1e17);
+        d.setFlow(0, 9, 100, 0.0);
+        assertEquals(7.0, d.getInflow(1, 100));
+        assertEquals(10.0, d.getTotalFlow(0));
+        for (int i = 0; i < 3000; i++) {
+            d.setFlow(0, 9, 100, i % 2 == 0 ? 1e17 : 0.0);
+        }
+        assertEquals(7.0, d.getInflow(1, 100));
+        assertEquals(0.0, d.getOutflow(0, 9));
+
+        d.setFlows(1, new int[] {101, 101}, new int[] {8, 9}, 
+                new double[] {1.0, 2.0});
+        assertEquals(3.0, d.getOutflow(1, 101));
+        assertThrows(IllegalArgumentException.class, 
+                () -> createDataset().setFlow(3, 1, 2, 1.0));
+        assertThrows(IllegalArgumentException.class, 
+                () -> createDataset().setFlows(0, new int[] {1}, new int[0], 
+                        new double[] {1.0}));
+    }
+
+    /**
+     * The FlowDataset view matches a DefaultFlowDataset with the same flows.
+     */
+    @Test
+    public void testAsFlowDataset() {
+        IntFlowDataset d = createDataset();
+        FlowDataset<Integer> view = d.asFlowDataset();
+        assertSame(view, d.asFlowDataset());
+        DefaultFlowDataset<Integer> expected = new DefaultFlowDataset<>();
+        expected.setFlow(0, 7, 100, 1.0);
+        expected.setFlow(0, 3, 100, 2.0);
+        expected.setFlow(0, 7, 101, 3.0);
+        expected.setFlow(1, 100, 7, 4.0);
+        assertEquals(expected, view);
+        assertEquals(Arrays.asList(7, 3), view.getSources(0));
+        assertEquals(expected.getAllNodes(), view.getAllNodes());
+        assertEquals(expected.getAllFlows(), view.getAllFlows());
+        assertEquals(3.0, view.getFlow(0, 7, 101));
+        assertNull(view.getFlow(0, 3, 101));
+        assertNull(view.getFlow(0, 5, 101));
+        assertEquals(4.0, view.getOutflow(0, 7));
+        assertEquals(3.0, view.getInflow(1, 100));
+        assertEquals(6.0, view.getTotalFlow(0));
+        assertNull(view.getNodeProperty(new NodeKey<>(0, 7), "selected"));
+
+        // the view reflects later changes
+        d.setFlow(1, 101, 8, 2.0);
+        expected.setFlow(1, 101, 8, 2.0);
+        assertEquals(expected, view);
+    }
+
+    /**
+     * Changes to the dataset are reported to the listeners for the view.
+     */
+    @Test
+    public void testViewEvents() {
+        IntFlowDataset d = createDataset();
+        d.addChangeListener(this);
+        d.asFlowDataset().addChangeListener(this);
+        d.setFlow(0, 1, 2, 3.0);
+        assertEquals(2, this.eventCount);
+        d.setFlows(0, new int[] {1, 2}, new int[] {2, 3}, 
+                new double[] {1.0, 1.0});
+        assertEquals(4, this.eventCount);
+    }
+
+    /**
+     * The view can be rendered by a FlowPlot.
+     */
+    @Test
+    public void testDraw() {
+        FlowPlot plot = new FlowPlot(createDataset().asFlowDataset());
+        BufferedImage image = new BufferedImage(200, 100, 
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = image.createGraphics();
+        plot.draw(g2, new Rectangle2D.Double(0, 0, 200, 100), null, null, 
+                null);
+        g2.dispose();
+    }
+
+    /**
+     * The selection state is reported by the view as the "selected" 
+     * property, is copied by cloning and serialization, and is used when the
+     * view is drawn.
+     */
+    @Test
+    public void testSelection() throws CloneNotSupportedException {
+        IntFlowDataset d = createDataset();
+        FlowDataset<Integer> view = d.asFlowDataset();
+        view.addChangeListener(this);
+        assertFalse(FlowDatasetUtils.hasNodeSelections(view));
+        d.setNodeSelected(0, 7, true);
+        d.setFlowSelected(0, 7, 101, true);
+        assertEquals(2, this.eventCount);
+        assertTrue(d.isNodeSelected(0, 7));
+        assertFalse(d.isNodeSelected(0, 3));
+        assertFalse(d.isNodeSelected(1, 7));
+        assertFalse(d.isNodeSelected(5, 7));
+        assertTrue(d.isFlowSelected(0, 7, 101));
+        assertFalse(d.isFlowSelected(0, 7, 100));
+        assertEquals(Boolean.TRUE, 
+                view.getNodeProperty(new NodeKey<>(0, 7), "selected"));
+        assertNull(view.getNodeProperty(new NodeKey<>(0, 3), "selected"));
+        assertNull(view.getNodeProperty(new NodeKey<>(0, 7), "other"));
+        assertTrue(view.getFlowBooleanProperty(new FlowKey<>(0, 7, 101), 
+                "selected"));
+        assertFalse(view.getFlowBooleanProperty(new FlowKey<>(0, 3, 100), 
+                "selected"));
+        assertTrue(FlowDatasetUtils.hasNodeSelections(view));
+        assertEquals(1, FlowDatasetUtils.selectedNodeCount(view));
+        assertTrue(FlowDatasetUtils.hasFlowSelections(view));
+        assertThrows(IllegalArgumentException.class, 
+                () -> d.setNodeSelected(0, 5, true));
+        assertThrows(IllegalArgumentException.class, 
+                () -> d.setFlowSelected(0, 3, 101, true));
+
+        IntFlowDataset d2 = TestUtils.clone(d);
+        d2.setNodeSelected(0, 7, false);
+        assertTrue(d.isNodeSelected(0, 7));
+        assertFalse(d2.isNodeSelected(0, 7));
+        assertTrue(d2.isFlowSelected(0, 7, 101));
+        assertEquals(d, d2);
+        assertTrue(TestUtils.serialised(d).isNodeSelected(0, 7));
+
+        FlowPlot plot = new FlowPlot(view);
+        BufferedImage image = new BufferedImage(200, 100, 
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = image.createGraphics();
+        plot.draw(g2, new Rectangle2D.Double(0, 0, 200, 100), null, null, 
+                null);
+        g2.dispose();
+    }
+
+    /**
+     * Confirm that cloning works.
+     * 
+     * @throws CloneNotSupportedException 
+     */
+    @Test
+    public void testCloning() throws CloneNotSupportedException {
+        IntFlowDataset d1 = createDataset();
+        FlowDataset<Integer> view1 = d1.asFlowDataset();
+        IntFlowDataset d2 = TestUtils.clone(d1);
+        assertTrue(d1 != d2);
+        assertEquals(d1, d2);
+        assertTrue(view1 != d2.asFlowDataset());
+        d2.setFlow(0, 7, 100, 9.0);
+        assertNotEquals(d1, d2);
+        assertEquals(1.0, d1.getFlow(0, 7, 100));
+        assertEquals(4.0, d1.getOutflow(0, 7));
+        assertEquals(1.0, view1.getFlow(0, 7, 100));
+        assertTrue(d1 instanceof PublicCloneable);
+    }
+
+    /**
+     * Serialize an instance, restore it, and check for equality.
+     */
+    @Test
+    public void testSerialization() {
+        IntFlowDataset d1 = createDataset();
+        IntFlowDataset d2 = TestUtils.serialised(d1);
+        assertEquals(d1, d2);
+        assertEquals(d1.hashCode(), d2.hashCode());
+        d2.setFlow(0, 5, 100, 1.0);
+        assertEquals(4.0, d2.getInflow(1, 100));
+        assertEquals(d2.asFlowDataset(), d2.asFlowDataset());
+    }
+
+}
@@ -0,0 +1,112 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ------------------------
+ * LongFlowDatasetTest.java
+ * ------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.Arrays;
+import org.jfree.chart.TestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link LongFlowDataset} class.
+ */
+public class LongFlowDatasetTest {
+
+    private static final long BIG = 1L << 40;
+
+    /**
+     * Identifiers outside the int range are kept distinct.
+     */
+    @Test
+    public void testFlows() {
+        LongFlowDataset d = new LongFlowDataset();
+        d.setFlow(0, BIG, 1L, 2.0);
+        d.setFlow(0, BIG + 1, 1L, 3.0);
+        d.setFlow(0, 0L, BIG, 4.0);
+        assertArrayEquals(new long[] {BIG, BIG + 1, 0L}, d.getSources(0));
+        assertArrayEquals(new long[] {1L, BIG}, d.getDestinations(0));
+        assertEquals(2.0, d.getFlow(0, BIG, 1L));
+        assertTrue(Double.isNaN(d.getFlow(0, 0L, 1L)));
+        assertEquals(5.0, d.getInflow(1, 1L));
+        assertEquals(9.0, d.getTotalFlow(0));
+
+        FlowDataset<Long> view = d.asFlowDataset();
+        assertEquals(Arrays.asList(BIG, BIG + 1, 0L), view.getSources(0));
+        assertEquals(3.0, view.getFlow(0, BIG + 1, 1L));
+        assertNull(view.getFlow(0, 1L, 1L));
+        DefaultFlowDataset<Long> expected = new DefaultFlowDataset<>();
+        expected.setFlow(0, BIG, 1L, 2.0);
+        expected.setFlow(0, BIG + 1, 1L, 3.0);
+        expected.setFlow(0, 0L, BIG, 4.0);
+        assertEquals(expected, view);
+
+        d.setNodeSelected(0, BIG + 1, true);
+        d.setFlowSelected(0, 0L, BIG, true);
+        assertTrue(view.getNodeBooleanProperty(new NodeKey<>(0, BIG + 1), 
+                "selected"));
+        assertNull(view.getNodeProperty(new NodeKey<>(0, BIG), "selected"));
+        assertEquals(Boolean.TRUE, view.getFlowProperty(
+                new FlowKey<>(0, 0L, BIG), "selected"));
+        assertNull(view.getFlowProperty(new FlowKey<>(0, BIG, 1L), 
+                "selected"));
+    }
+
+    /**
+     * Confirm that cloning and serialization work.
+     * 
+     * @throws CloneNotSupportedException 
+     */
+    @Test
+    public void testCloningAndSerialization() 
+            throws CloneNotSupportedException {
+        LongFlowDataset d1 = new LongFlowDataset();
+        d1.setFlow(0, BIG, 1L, 2.0);
+        LongFlowDataset d2 = TestUtils.clone(d1);
+        assertEquals(d1, d2);
+        d2.setFlow(0, BIG, 1L, 3.0);
+        assertNotEquals(d1, d2);
+        assertEquals(2.0, d1.getFlow(0, BIG, 1L));
+        LongFlowDataset d3 = TestUtils.serialised(d1);
+        assertEquals(d1, d3);
+    }
+
+}
@@ -0,0 +1,212 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * --------------------------
+ * MappedFlowDatasetTest.java
+ * --------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.jfree.chart.TestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for the {@link MappedFlowDataset} class.
+ */
+public class MappedFlowDatasetTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static DefaultFlowDataset<String> createDataset() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "B", "X", 1.0);
+        d.setFlow(0, "A", "X", 2.0);
+        d.setFlow(0, "A", "Yé", 3.0);
+        d.setFlow(1, "X", "P", 3.0);
+        d.setFlow(1, "Yé", "P", 3.0);
+        return d;
+    }
+
+    /**
+     * A dataset written to a file and opened again is equal to the original.
+     */
+    @Test
+    public void testWriteAndOpen() throws IOException {
+        DefaultFlowDataset<String> d = createDataset();
+        Path path = this.tempDir.resolve("flows.bin");
+        MappedFlowDataset.write(d, path);
+        MappedFlowDataset<String> m = MappedFlowDataset.open(path, String.class);
+        assertEquals(d, m);
+        assertEquals(m, d);
+        assertEquals(Arrays.asList("B", "A"), m.getSources(0));
+        assertEquals(3.0, m.getFlow(0, "A", "Yé"));
+        assertNull(m.getFlow(0, "B", "Yé"));
+        assertNull(m.getFlow(0, "Q", "X"));
+        assertEquals(5.0, m.getOutflow(0, "A"));
+        assertEquals(3.0, m.getInflow(1, "X"));
+        assertEquals(6.0, m.getTotalFlow(1));
+        assertEquals(3, m.getFlowCount(0));
+        assertEquals(d.getAllFlows(), m.getAllFlows());
+        assertEquals(d.getAllNodes(), m.getAllNodes());
+
+        m.setNodeProperty(new NodeKey<>(0, "A"), "selected", Boolean.TRUE);
+        assertEquals(Boolean.TRUE, m.getNodeProperty(new NodeKey<>(0, "A"), "selected"));
+    }
+
+    /**
+     * Reading values that span the boundaries between mapped regions.
+     */
+    @Test
+    public void testSmallRegions() throws IOException {
+        DefaultFlowDataset<Long> d = new DefaultFlowDataset<>();
+        for (long i = 0; i < 50; i++) {
+            d.setFlow(0, i, 1000L + i % 7, i * 0.5);
+            d.setFlow(1, 1000L + i % 7, 2000L + i % 3, 1.0);
+        }
+        Path path = this.tempDir.resolve("longs.bin");
+        MappedFlowDataset.write(d, path);
+        MappedFlowDataset<Long> m = new MappedFlowDataset<>(path, Long.class, 13);
+        assertEquals(d, m);
+        assertEquals(d.getOutflow(1, 1003L), m.getOutflow(1, 1003L));
+    }
+
+    /**
+     * Files with a different key type or bad content are rejected.
+     */
+    @Test
+    public void testBadFiles() throws IOException {
+        Path path = this.tempDir.resolve("flows.bin");
+        MappedFlowDataset.write(createDataset(), path);
+        assertThrows(IOException.class, 
+                () -> MappedFlowDataset.open(path, Integer.class));
+        Path other = this.tempDir.resolve("other.bin");
+        Files.write(other, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13});
+        assertThrows(IOException.class, 
+                () -> MappedFlowDataset.open(other, String.class));
+        Files.write(other, Arrays.copyOf(Files.readAllBytes(path), 60));
+        assertThrows(IOException.class, 
+                () -> MappedFlowDataset.open(other, String.class));
+    }
+
+    /**
+     * A file written from a dataset with no nodes can be opened with any of
+     * the supported key types.
+     */
+    @Test
+    public void testEmptyDataset() throws IOException {
+        Path path = this.tempDir.resolve("empty.bin");
+        MappedFlowDataset.write(new DefaultFlowDataset<Integer>(), path);
+        MappedFlowDataset<Integer> m = MappedFlowDataset.open(path, 
+                Integer.class);
+        assertEquals(new DefaultFlowDataset<Integer>(), m);
+        assertEquals(1, m.getStageCount());
+        assertEquals(0.0, m.getTotalFlow(0));
+        assertEquals(new DefaultFlowDataset<Long>(), 
+                MappedFlowDataset.open(path, Long.class));
+        assertEquals(new DefaultFlowDataset<String>(), 
+                MappedFlowDataset.open(path, String.class));
+    }
+
+    /**
+     * Corrupt counts are reported as an IOException, without attempting to
+     * allocate for them.
+     */
+    @Test
+    public void testCorruptCounts() throws IOException {
+        Path path = this.tempDir.resolve("flows.bin");
+        MappedFlowDataset.write(createDataset(), path);
+        byte[] bytes = Files.readAllBytes(path);
+        Path other = this.tempDir.resolve("other.bin");
+        // the stage count, the first node count and the first key length
+        for (int offset : new int[] {9, 13, 17}) {
+            for (int value : new int[] {-1, Integer.MAX_VALUE, 1 << 28}) {
+                byte[] corrupt = bytes.clone();
+                ByteBuffer.wrap(corrupt).putInt(offset, value);
+                Files.write(other, corrupt);
+                assertThrows(IOException.class, 
+                        () -> MappedFlowDataset.open(other, String.class));
+            }
+        }
+        byte[] corrupt = bytes.clone();
+        corrupt[8] = 9;
+        Files.write(other, corrupt);
+        assertThrows(IOException.class, 
+                () -> MappedFlowDataset.open(other, String.class));
+    }
+
+    /**
+     * After a dataset is closed the nodes can still be read, but the flows
+     * cannot.
+     */
+    @Test
+    public void testClose() throws IOException {
+        Path path = this.tempDir.resolve("flows.bin");
+        MappedFlowDataset.write(createDataset(), path);
+        MappedFlowDataset<String> m;
+        try (MappedFlowDataset<String> m1 = MappedFlowDataset.open(path, 
+                String.class)) {
+            assertEquals(3.0, m1.getFlow(0, "A", "Yé"));
+            m = m1;
+        }
+        assertEquals(Arrays.asList("B", "A"), m.getSources(0));
+        assertThrows(IllegalStateException.class, 
+                () -> m.getFlow(0, "A", "Yé"));
+        assertThrows(IllegalStateException.class, () -> m.getTotalFlow(0));
+        m.close();
+    }
+
+    /**
+     * Serialize an instance, restore it, and check for equality.
+     */
+    @Test
+    public void testSerialization() throws IOException {
+        Path path = this.tempDir.resolve("flows.bin");
+        MappedFlowDataset.write(createDataset(), path);
+        MappedFlowDataset<String> m1 = MappedFlowDataset.open(path, String.class);
+        m1.setFlowProperty(new FlowKey<>(0, "A", "X"), "selected", Boolean.TRUE);
+        MappedFlowDataset<String> m2 = TestUtils.serialised(m1);
+        assertEquals(m1, m2);
+        assertEquals(Boolean.TRUE, m2.getFlowProperty(new FlowKey<>(0, "A", "X"), "selected"));
+    }
+
+}
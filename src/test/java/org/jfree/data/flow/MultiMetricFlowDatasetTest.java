@@ -0,0 +1,309 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -------------------------------
+ * MultiMetricFlowDatasetTest.java
+ * -------------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import org.jfree.chart.TestUtils;
+import org.jfree.chart.plot.flow.FlowPlot;
+import org.jfree.chart.util.PublicCloneable;
+import org.jfree.data.general.DatasetChangeEvent;
+import org.jfree.data.general.DatasetChangeListener;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link MultiMetricFlowDataset} class.
+ */
+public class MultiMetricFlowDatasetTest implements DatasetChangeListener {
+
+    private int eventCount;
+
+    @Override
+    public void datasetChanged(DatasetChangeEvent event) {
+        this.eventCount++;
+    }
+
+    private static MultiMetricFlowDataset<String> createDataset() {
+        MultiMetricFlowDataset<String> d = new MultiMetricFlowDataset<>(
+                "bytes", "packets", "sessions");
+        d.setFlows(0, "A", "X", 1000.0, 10.0, 1.0);
+        d.setFlows(0, "B", "X", 500.0, 20.0, 2.0);
+        d.setFlows(0, "A", "Y", 200.0, 5.0, 3.0);
+        d.setFlow(1, "X", "P", "bytes", 1500.0);
+        d.setFlow(1, "X", "P", "packets", 30.0);
+        return d;
+    }
+
+    /**
+     * Each metric matches a DefaultFlowDataset built with the same values.
+     */
+    @Test
+    public void testMetrics() {
+        MultiMetricFlowDataset<String> d = createDataset();
+        assertEquals(Arrays.asList("bytes", "packets", "sessions"), 
+                d.getMetricKeys());
+        assertEquals("bytes", d.getActiveMetric());
+        assertEquals(20.0, d.getFlow(0, "B", "X", "packets"));
+        assertNull(d.getFlow(1, "X", "P", "sessions"));
+        assertNull(d.getFlow(0, "B", "Y", "bytes"));
+
+        DefaultFlowDataset<String> packets = new DefaultFlowDataset<>();
+        packets.setFlow(0, "A", "X", 10.0);
+        packets.setFlow(0, "B", "X", 20.0);
+        packets.setFlow(0, "A", "Y", 5.0);
+        packets.setFlow(1, "X", "P", 30.0);
+        assertNotEquals(packets, d);
+        d.setActiveMetric("packets");
+        assertEquals(packets, d);
+        assertEquals(d, packets);
+        assertEquals(30.0, d.getInflow(1, "X"));
+        assertEquals(15.0, d.getOutflow(0, "A"));
+        assertEquals(35.0, d.getTotalFlow(0));
+        assertEquals(4, d.getAllFlows().size());
+
+        // a flow with no value for the active metric is not present
+        d.setActiveMetric("sessions");
+        assertEquals(3, d.getAllFlows().size());
+        assertEquals(0.0, d.getTotalFlow(1));
+        assertEquals(0.0, d.getInflow(2, "P"));
+        assertEquals(4.0, d.getOutflow(0, "A"));
+
+        // clearing and replacing values updates the totals
+        d.setFlow(0, "A", "Y", "sessions", Double.NaN);
+        d.setFlow(0, "A", "X", "sessions", 7.0);
+        assertEquals(7.0, d.getOutflow(0, "A"));
+        assertEquals(9.0, d.getTotalFlow(0));
+        assertNull(d.getFlow(0, "A", "Y"));
+
+        // a new metric has no values
+        d.addMetric("errors");
+        d.setActiveMetric("errors");
+        assertEquals(0, d.getAllFlows().size());
+        d.setFlow(0, "B", "X", "errors", 1.0);
+        assertEquals(1.0, d.getInflow(1, "X"));
+
+        assertThrows(IllegalArgumentException.class, 
+                () -> d.setActiveMetric("unknown"));
+        assertThrows(IllegalArgumentException.class, 
+                () -> d.addMetric("bytes"));
+        assertThrows(IllegalArgumentException.class, 
+                () -> d.setFlows(0, "A", "X", 1.0));
+        assertThrows(IllegalArgumentException.class, 
+                () -> new MultiMetricFlowDataset<String>());
+    }
+
+    /**
+     * Replacing a large value must not lose the smaller values from the 
+     * totals.
+     */
+    @Test
+    public void testTotalsAfterCancellation() {
+        MultiMetricFlowDataset<String> d = createDataset();
+        d.setFlow(0, "C", "X", "bytes", 1e17);
+        d.setFlow(0, "C", "X", "bytes", 0.0);
+        assertEquals(1500.0, d.getInflow(1, "X"));
+        assertEquals(1700.0, d.getTotalFlow(0));
+        for (int i = 0; i < 3000; i++) {
+            d.setFlow(0, "C", "X", "bytes", i % 2 == 0 ? 1e17 : 0.0);
+        }
+        assertEquals(1500.0, d.getInflow(1, "X"));
+        assertEquals(FlowDatasetUtils.calculateInflow(d, "X", 1), 
+                d.getInflow(1, "X"));
+    }
+
+    /**
+     * Switching the active metric sends an event only when it changes.
+     */
+    @Test
+    public void testSetActiveMetric() {
+        MultiMetricFlowDataset<String> d = createDataset();
+        d.addChangeListener(this);
+        d.setActiveMetric("bytes");
+        assertEquals(0, this.eventCount);
+        d.setActiveMetric("sessions");
+        assertEquals(1, this.eventCount);
+        assertEquals(6.0, d.getTotalFlow(0));
+        d.setActiveMetric("bytes");
+        assertEquals(2, this.eventCount);
+        assertEquals(1700.0, d.getTotalFlow(0));
+    }
+
+    /**
+     * Metric views show one metric each, independent of the active metric,
+     * and follow changes to the dataset.
+     */
+    @Test
+    public void testMetricView() throws CloneNotSupportedException {
+        MultiMetricFlowDataset<String> d = createDataset();
+        FlowDataset<String> bytes = d.metricView("bytes");
+        FlowDataset<String> packets = d.metricView("packets");
+        assertSame(packets, d.metricView("packets"));
+        assertThrows(IllegalArgumentException.class, 
+                () -> d.metricView("unknown"));
+
+        DefaultFlowDataset<String> expected = new DefaultFlowDataset<>();
+        expected.setFlow(0, "A", "X", 10.0);
+        expected.setFlow(0, "B", "X", 20.0);
+        expected.setFlow(0, "A", "Y", 5.0);
+        expected.setFlow(1, "X", "P", 30.0);
+        assertEquals(expected, packets);
+        assertEquals(packets, expected);
+        assertEquals(expected.hashCode(), packets.hashCode());
+        assertEquals(expected.getAllFlows(), packets.getAllFlows());
+        assertEquals(15.0, packets.getOutflow(0, "A"));
+        assertEquals(30.0, packets.getInflow(1, "X"));
+        assertEquals(35.0, packets.getTotalFlow(0));
+        assertEquals(1700.0, bytes.getTotalFlow(0));
+        assertEquals(3, d.metricView("sessions").getAllFlows().size());
+
+        // the views do not depend on the active metric, and get no event 
+        // when it changes
+        packets.addChangeListener(this);
+        d.setActiveMetric("sessions");
+        assertEquals(0, this.eventCount);
+        assertEquals(1000.0, bytes.getFlow(0, "A", "X"));
+        assertEquals(10.0, packets.getFlow(0, "A", "X"));
+
+        // the views follow changes, and share the nodes and properties
+        d.setFlow(0, "C", "X", "packets", 1.0);
+        assertEquals(1, this.eventCount);
+        assertEquals(31.0, packets.getInflow(1, "X"));
+        assertNull(bytes.getFlow(0, "C", "X"));
+        assertEquals(Arrays.asList("A", "B", "C"), bytes.getSourcesView(0));
+        d.setNodeProperty(new NodeKey<>(0, "A"), "selected", Boolean.TRUE);
+        assertTrue(bytes.getNodeBooleanProperty(new NodeKey<>(0, "A"), 
+                "selected"));
+
+        // a clone has its own views
+        MultiMetricFlowDataset<String> d2 = TestUtils.clone(d);
+        assertNotSame(packets, d2.metricView("packets"));
+        d2.setFlow(0, "C", "X", "packets", 2.0);
+        assertEquals(1.0, packets.getFlow(0, "C", "X"));
+
+        // two plots can show different metrics of the same dataset
+        BufferedImage image = new BufferedImage(200, 100, 
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = image.createGraphics();
+        new FlowPlot(bytes).draw(g2, new Rectangle2D.Double(0, 0, 200, 100), 
+                null, null, null);
+        new FlowPlot(packets).draw(g2, new Rectangle2D.Double(0, 0, 200, 
+                100), null, null, null);
+        g2.dispose();
+    }
+
+    /**
+     * The dataset can be rendered by a FlowPlot, for any metric.
+     */
+    @Test
+    public void testDraw() {
+        MultiMetricFlowDataset<String> d = createDataset();
+        FlowPlot plot = new FlowPlot(d);
+        BufferedImage image = new BufferedImage(200, 100, 
+                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = image.createGraphics();
+        plot.draw(g2, new Rectangle2D.Double(0, 0, 200, 100), null, null, 
+                null);
+        d.setActiveMetric("sessions");
+        plot.draw(g2, new Rectangle2D.Double(0, 0, 200, 100), null, null, 
+                null);
+        g2.dispose();
+    }
+
+    /**
+     * Probing keys for nodes and flows that are not in the dataset (as 
+     * FlowPlot does for every source and destination pair) does not add 
+     * them to the key pool.
+     */
+    @Test
+    public void testKeysNotPooledForAbsentFlows() {
+        MultiMetricFlowDataset<String> d = createDataset();
+        FlowKey<String> ax = d.getFlowKey(0, "A", "X");
+        assertSame(ax, d.getFlowKey(0, "A", "X"));
+        assertSame(d.getNodeKey(0, "A"), d.getNodeKey(0, "A"));
+        FlowDatasetUtils.hasFlowSelections(d);
+        assertEquals(new FlowKey<>(0, "B", "Y"), d.getFlowKey(0, "B", "Y"));
+        assertNotSame(d.getFlowKey(0, "B", "Y"), d.getFlowKey(0, "B", "Y"));
+        assertNotSame(d.getNodeKey(0, "Q"), d.getNodeKey(0, "Q"));
+        assertTrue(d.getAllFlows().contains(ax));
+    }
+
+    /**
+     * Confirm that cloning works.
+     * 
+     * @throws CloneNotSupportedException 
+     */
+    @Test
+    public void testCloning() throws CloneNotSupportedException {
+        MultiMetricFlowDataset<String> d1 = createDataset();
+        d1.setNodeProperty(new NodeKey<>(0, "A"), "selected", Boolean.TRUE);
+        MultiMetricFlowDataset<String> d2 = TestUtils.clone(d1);
+        assertTrue(d1 != d2);
+        assertEquals(d1, d2);
+        d2.setFlow(0, "A", "X", "packets", 99.0);
+        assertNotEquals(d1, d2);
+        assertEquals(10.0, d1.getFlow(0, "A", "X", "packets"));
+        d2.setActiveMetric("packets");
+        assertEquals(104.0, d2.getOutflow(0, "A"));
+        d1.setActiveMetric("packets");
+        assertEquals(15.0, d1.getOutflow(0, "A"));
+        assertTrue(d1 instanceof PublicCloneable);
+    }
+
+    /**
+     * Serialize an instance, restore it, and check for equality.
+     */
+    @Test
+    public void testSerialization() {
+        MultiMetricFlowDataset<String> d1 = createDataset();
+        d1.setActiveMetric("packets");
+        MultiMetricFlowDataset<String> d2 = TestUtils.serialised(d1);
+        assertEquals(d1, d2);
+        d2.setFlow(0, "C", "X", "bytes", 1.0);
+        assertEquals(1.0, d2.getFlow(0, "C", "X", "bytes"));
+    }
+
+}
@@ -0,0 +1,140 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -----------------------
+ * NodeFlowTotalsTest.java
+ * -----------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link NodeFlowTotals} class and 
+ * {@link FlowDatasetUtils#calculateNodeFlowTotals(FlowDataset, boolean)}.
+ */
+public class NodeFlowTotalsTest {
+
+    /**
+     * The totals match the values calculated per node.
+     */
+    @Test
+    public void testTotals() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "A", "X", 1.0);
+        d.setFlow(0, "B", "X", 2.0);
+        d.setFlow(0, "A", "Y", 3.0);
+        d.setFlow(1, "X", "P", 5.0);
+        d.setFlow(1, "Y", "P", 1.0);
+        NodeFlowTotals<String> t = FlowDatasetUtils.calculateNodeFlowTotals(d);
+        assertEquals(2, t.getStageCount());
+        assertEquals(Arrays.asList("X", "Y"), t.getNodes(1));
+        assertEquals(0.0, t.getInflow(0, "A"));
+        assertEquals(4.0, t.getOutflow(0, "A"));
+        assertEquals(3.0, t.getInflow(1, "X"));
+        assertEquals(5.0, t.getOutflow(1, "X"));
+        assertEquals(5.0, t.getThroughput(1, "X"));
+        assertEquals(3.0, t.getThroughput(1, "Y"));
+        assertEquals(6.0, t.getInflow(2, "P"));
+        assertEquals(0.0, t.getOutflow(2, "P"));
+        assertEquals(6.0, t.getTotalFlow(0));
+        assertEquals(6.0, t.getTotalFlow(1));
+        assertEquals(8.0, t.getTotalThroughput(1));
+        assertEquals(6.0, t.getTotalThroughput(2));
+
+        // unknown nodes have no flow
+        assertEquals(0.0, t.getInflow(1, "Z"));
+        assertEquals(0.0, t.getThroughput(5, "X"));
+        assertThrows(IllegalArgumentException.class, 
+                () -> t.getInflow(1, null));
+
+        // the table does not follow later changes to the dataset
+        d.setFlow(0, "A", "X", 10.0);
+        assertEquals(4.0, t.getOutflow(0, "A"));
+
+        NodeFlowTotals<String> empty = FlowDatasetUtils.calculateNodeFlowTotals(
+                new DefaultFlowDataset<String>());
+        assertEquals(1, empty.getStageCount());
+        assertEquals(0.0, empty.getTotalFlow(0));
+    }
+
+    /**
+     * Only datasets that do not maintain their own totals need the table.
+     */
+    @Test
+    public void testHasMaintainedTotals() {
+        assertTrue(new DefaultFlowDataset<String>().hasMaintainedTotals());
+        assertTrue(new DefaultFlowDataset<String>().snapshot()
+                .hasMaintainedTotals());
+        assertTrue(new IntFlowDataset().asFlowDataset().hasMaintainedTotals());
+        assertFalse(new DenseFlowDataset<String>().hasMaintainedTotals());
+        assertTrue(new SparseFlowDataset<String>().hasMaintainedTotals());
+    }
+
+    /**
+     * The parallel calculation gives the same table as the sequential one,
+     * and both match the per-node calculations.
+     */
+    @Test
+    public void testParallel() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        for (int i = 0; i < 5000; i++) {
+            d.setFlow(i % 6, "N" + (i * 7 % 31), "N" + (i * 13 % 37), 
+                    i % 10);
+        }
+        NodeFlowTotals<String> t1 = FlowDatasetUtils.calculateNodeFlowTotals(
+                d, false);
+        NodeFlowTotals<String> t2 = FlowDatasetUtils.calculateNodeFlowTotals(
+                d, true);
+        assertEquals(t1, t2);
+        assertEquals(t1.hashCode(), t2.hashCode());
+        for (int stage = 0; stage <= d.getStageCount(); stage++) {
+            for (String node : t2.getNodes(stage)) {
+                assertEquals(FlowDatasetUtils.calculateInflow(d, node, stage), 
+                        t2.getInflow(stage, node), 1e-9);
+                assertEquals(FlowDatasetUtils.calculateOutflow(d, node, 
+                        stage), t2.getOutflow(stage, node), 1e-9);
+            }
+            if (stage < d.getStageCount()) {
+                assertEquals(FlowDatasetUtils.calculateTotalFlow(d, stage), 
+                        t2.getTotalFlow(stage), 1e-9);
+            }
+        }
+    }
+
+}
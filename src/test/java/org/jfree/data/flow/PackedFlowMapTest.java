@@ -0,0 +1,119 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ----------------------
+ * PackedFlowMapTest.java
+ * ----------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link PackedFlowMap} class.
+ */
+public class PackedFlowMapTest {
+
+    @Test
+    public void testPack() {
+        long key = PackedFlowMap.pack(65535, 16777215, 0);
+        assertEquals(65535, PackedFlowMap.stage(key));
+        assertEquals(16777215, PackedFlowMap.source(key));
+        assertEquals(0, PackedFlowMap.destination(key));
+        key = PackedFlowMap.pack(3, 0, 16777215);
+        assertEquals(3, PackedFlowMap.stage(key));
+        assertEquals(0, PackedFlowMap.source(key));
+        assertEquals(16777215, PackedFlowMap.destination(key));
+    }
+
+    @Test
+    public void testAddAndIndexOf() {
+        PackedFlowMap map = new PackedFlowMap();
+        assertEquals(-1, map.indexOf(PackedFlowMap.pack(0, 0, 0)));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, map.add(PackedFlowMap.pack(i % 4, i, i / 2), i));
+        }
+        assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; i++) {
+            int index = map.indexOf(PackedFlowMap.pack(i % 4, i, i / 2));
+            assertEquals(i, index);
+            assertEquals(i, map.valueAt(index));
+        }
+        assertEquals(-1, map.indexOf(PackedFlowMap.pack(1, 0, 0)));
+    }
+
+    @Test
+    public void testCopy() {
+        PackedFlowMap m1 = new PackedFlowMap();
+        m1.add(PackedFlowMap.pack(0, 1, 2), 5.0);
+        PackedFlowMap m2 = m1.copy();
+        m2.setValueAt(0, 6.0);
+        m2.add(PackedFlowMap.pack(0, 2, 2), 7.0);
+        assertEquals(5.0, m1.valueAt(0));
+        assertEquals(1, m1.size());
+        assertEquals(-1, m1.indexOf(PackedFlowMap.pack(0, 2, 2)));
+        assertEquals(1, m2.indexOf(PackedFlowMap.pack(0, 2, 2)));
+    }
+
+    /**
+     * Copies share their storage until written, across several pages and 
+     * for chains of copies.
+     */
+    @Test
+    public void testCopyOnWrite() {
+        PackedFlowMap m1 = new PackedFlowMap();
+        for (int i = 0; i < 5000; i++) {
+            m1.add(PackedFlowMap.pack(0, i, 0), i);
+        }
+        PackedFlowMap m2 = m1.copy();
+        PackedFlowMap m3 = m2.copy();
+        m1.setValueAt(0, -1.0);
+        m2.setValueAt(2000, -2.0);
+        m3.setValueAt(4999, -3.0);
+        m3.add(PackedFlowMap.pack(1, 0, 0), 99.0);
+        m1.add(PackedFlowMap.pack(2, 0, 0), 98.0);
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i == 0 ? -1.0 : i, m1.valueAt(i));
+            assertEquals(i == 2000 ? -2.0 : i, m2.valueAt(i));
+            assertEquals(i == 4999 ? -3.0 : i, m3.valueAt(i));
+        }
+        assertEquals(5001, m1.size());
+        assertEquals(5000, m2.size());
+        assertEquals(5001, m3.size());
+        assertEquals(98.0, m1.valueAt(m1.indexOf(PackedFlowMap.pack(2, 0, 0))));
+        assertEquals(-1, m1.indexOf(PackedFlowMap.pack(1, 0, 0)));
+        assertEquals(-1, m2.indexOf(PackedFlowMap.pack(1, 0, 0)));
+        assertEquals(99.0, m3.valueAt(m3.indexOf(PackedFlowMap.pack(1, 0, 0))));
+    }
+
+}
@@ -0,0 +1,94 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * -----------------
+ * PagedMapTest.java
+ * -----------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link PagedMap} class.
+ */
+public class PagedMapTest {
+
+    @Test
+    public void testOfAndGet() {
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put("K" + i, i);
+        }
+        PagedMap<String, Integer> m = PagedMap.of(map);
+        assertEquals(1000, m.size());
+        assertEquals(Integer.valueOf(999), m.get("K999"));
+        assertNull(m.get("K1000"));
+        Map<String, Integer> copy = new HashMap<>();
+        m.forEach(copy::put);
+        assertEquals(map, copy);
+    }
+
+    @Test
+    public void testWithAll() {
+        PagedMap<String, Integer> m1 = PagedMap.empty();
+        assertSame(m1, m1.withAll(Collections.emptyMap()));
+        Map<String, Integer> changes = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            changes.put("K" + i, i);
+        }
+        // growing past one page
+        PagedMap<String, Integer> m2 = m1.withAll(changes);
+        assertEquals(0, m1.size());
+        assertEquals(300, m2.size());
+        assertEquals(Integer.valueOf(299), m2.get("K299"));
+
+        // replacing and adding, the original is unchanged
+        Map<String, Integer> more = new HashMap<>();
+        more.put("K0", -1);
+        more.put("K300", 300);
+        PagedMap<String, Integer> m3 = m2.withAll(more);
+        assertEquals(301, m3.size());
+        assertEquals(Integer.valueOf(-1), m3.get("K0"));
+        assertEquals(Integer.valueOf(0), m2.get("K0"));
+        assertNull(m2.get("K300"));
+        assertEquals(Integer.valueOf(150), m3.get("K150"));
+    }
+
+}
@@ -0,0 +1,181 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * ---------------------------------
+ * SlidingWindowFlowDatasetTest.java
+ * ---------------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.jfree.chart.TestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link SlidingWindowFlowDataset} class.
+ */
+public class SlidingWindowFlowDatasetTest {
+
+    private static final double EPSILON = 0.0000001;
+
+    /**
+     * Increments are summed across the buckets in the window.
+     */
+    @Test
+    public void testWindowTotals() {
+        SlidingWindowFlowDataset<String> d 
+                = new SlidingWindowFlowDataset<>(1000L, 3);
+        assertTrue(d.add(0L, 0, "A", "X", 1.0));
+        assertTrue(d.add(500L, 0, "A", "X", 2.0));
+        assertTrue(d.add(1500L, 0, "B", "X", 4.0));
+        assertTrue(d.add(2500L, 1, "X", "P", 7.0));
+        assertEquals(2, d.getStageCount());
+        assertEquals(0L, d.getWindowStart());
+        assertEquals(3000L, d.getWindowEnd());
+        assertEquals(3.0, d.getFlow(0, "A", "X"));
+        assertEquals(7.0, d.getInflow(1, "X"));
+        assertEquals(7.0, d.getOutflow(1, "X"));
+        assertEquals(7.0, d.getTotalFlow(0));
+        assertEquals(Arrays.asList("A", "B"), d.getSources(0));
+    }
+
+    /**
+     * Expired buckets are removed from the totals, and nodes with no flows
+     * left in the window are evicted along with their properties.
+     */
+    @Test
+    public void testExpiry() {
+        SlidingWindowFlowDataset<String> d 
+                = new SlidingWindowFlowDataset<>(1000L, 3);
+        d.add(0L, 0, "A", "X", 1.0);
+        d.add(1000L, 0, "B", "X", 2.0);
+        d.add(2000L, 0, "A", "X", 4.0);
+        d.setNodeProperty(new NodeKey<>(0, "B"), "selected", Boolean.TRUE);
+        d.advanceTo(3000L);
+        assertEquals(4.0, d.getFlow(0, "A", "X"));
+        assertEquals(6.0, d.getTotalFlow(0));
+        d.advanceTo(4999L);
+        assertNull(d.getFlow(0, "B", "X"));
+        assertEquals(Arrays.asList("A"), d.getSources(0));
+        assertNull(d.getNodeProperty(new NodeKey<>(0, "B"), "selected"));
+        assertEquals(4.0, d.getInflow(1, "X"));
+        d.advanceTo(20000L);
+        assertEquals(Collections.emptyList(), d.getSources(0));
+        assertEquals(Collections.emptyList(), d.getDestinations(0));
+        assertTrue(d.getAllFlows().isEmpty());
+        assertEquals(0.0, d.getTotalFlow(0), EPSILON);
+
+        // late data within the window is accepted, older data is not
+        d.add(19000L, 0, "C", "Y", 1.0);
+        assertFalse(d.add(17999L, 0, "C", "Y", 1.0));
+        assertEquals(1.0, d.getFlow(0, "C", "Y"));
+    }
+
+    /**
+     * The expiry of a large increment does not lose the smaller ones from 
+     * the window totals.
+     */
+    @Test
+    public void testExpiryAfterLargeIncrement() {
+        SlidingWindowFlowDataset<String> d 
+                = new SlidingWindowFlowDataset<>(1000L, 3, 1000L);
+        d.add(0L, 0, "B", "X", 1e17);
+        d.add(1000L, 0, "A", "X", 1.0);
+        d.add(1000L, 0, "B", "X", 2.0);
+        d.advanceTo(3000L);
+        assertEquals(2.0, d.getFlow(0, "B", "X"));
+        assertEquals(3.0, d.getInflow(1, "X"));
+        assertEquals(2.0, d.getOutflow(0, "B"));
+        assertEquals(3.0, d.getTotalFlow(0));
+        assertEquals(FlowDatasetUtils.calculateInflow(d, "X", 1), 
+                d.getInflow(1, "X"));
+
+        // many expiries (with rebuilds) keep the totals exact
+        for (int i = 4; i < 3000; i++) {
+            d.add(i * 1000L, 0, "B", "X", i % 2 == 0 ? 1e17 : 0.5);
+            d.add(i * 1000L, 0, "A", "X", 1.0);
+        }
+        d.advanceTo(3001000L);
+        assertEquals(1.5, d.getInflow(1, "X"));
+        assertEquals(1.5, d.getTotalFlow(0));
+    }
+
+    /**
+     * The decayed view weights each bucket by its age.
+     */
+    @Test
+    public void testDecayedView() {
+        SlidingWindowFlowDataset<String> d 
+                = new SlidingWindowFlowDataset<>(1000L, 4, 1000L);
+        d.add(0L, 0, "A", "X", 8.0);
+        d.add(2000L, 0, "A", "X", 8.0);
+        FlowDataset<String> view = d.getDecayedView();
+        assertEquals(16.0, d.getFlow(0, "A", "X").doubleValue(), EPSILON);
+        assertEquals(10.0, view.getFlow(0, "A", "X").doubleValue(), EPSILON);
+        assertEquals(10.0, view.getTotalFlow(0), EPSILON);
+        d.advanceTo(3000L);
+        assertEquals(5.0, view.getFlow(0, "A", "X").doubleValue(), EPSILON);
+
+        // run long enough for the stored values to be rebased
+        for (int i = 4; i < 200; i++) {
+            d.add(i * 1000L, 0, "A", "X", 8.0);
+        }
+        assertEquals(8.0 + 4.0 + 2.0 + 1.0, 
+                view.getFlow(0, "A", "X").doubleValue(), EPSILON);
+        assertEquals(32.0, d.getFlow(0, "A", "X").doubleValue(), EPSILON);
+        assertThrows(IllegalStateException.class, 
+                () -> new SlidingWindowFlowDataset<String>(1000L, 4).getDecayedView());
+    }
+
+    /**
+     * Serialize an instance, restore it, and check for equality.
+     */
+    @Test
+    public void testSerialization() {
+        SlidingWindowFlowDataset<String> d1 
+                = new SlidingWindowFlowDataset<>(1000L, 3);
+        d1.add(0L, 0, "A", "X", 1.0);
+        SlidingWindowFlowDataset<String> d2 = TestUtils.serialised(d1);
+        assertEquals(d1, d2);
+        d1.add(5000L, 0, "B", "Y", 1.0);
+        d2.add(5000L, 0, "B", "Y", 1.0);
+        assertEquals(d1, d2);
+    }
+
+}
@@ -0,0 +1,94 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * --------------------
+ * SortedFlowsTest.java
+ * --------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link SortedFlows} class.
+ */
+public class SortedFlowsTest {
+
+    @Test
+    public void testSortedRows() {
+        DefaultFlowDataset<String> d = new DefaultFlowDataset<>();
+        d.setFlow(0, "B", "Z", 1.0);
+        d.setFlow(0, "A", "Y", 2.0);
+        d.setFlow(0, "B", "X", 3.0);
+        d.setFlow(0, "B", "Y", Double.NaN);
+        SortedFlows<String> flows = new SortedFlows<>(d);
+        assertEquals(SortedFlows.STRING_KEYS, flows.getKeyType());
+        assertEquals(1, flows.getStageCount());
+        assertEquals(Arrays.asList("B", "A"), flows.getNodes(0));
+        assertEquals(Arrays.asList("Z", "Y", "X"), flows.getNodes(1));
+        assertEquals(4, flows.getFlowCount(0));
+
+        // B's flows are sorted by destination position: Z, Y, X
+        assertEquals(0, flows.getRowStart(0, 0));
+        assertEquals(3, flows.getRowStart(0, 1));
+        assertEquals(4, flows.getRowStart(0, 2));
+        assertEquals(0, flows.getDestination(0, 0));
+        assertEquals(1, flows.getDestination(0, 1));
+        assertEquals(2, flows.getDestination(0, 2));
+        assertEquals(1.0, flows.getValue(0, 0));
+        assertEquals(Double.NaN, flows.getValue(0, 1));
+        assertEquals(3.0, flows.getValue(0, 2));
+        assertEquals(1, flows.getDestination(0, 3));
+
+        // the NaN flow counts as zero in the totals
+        assertEquals(4.0, flows.getOutflow(0, 0));
+        assertEquals(2.0, flows.getInflow(1, 1));
+        assertEquals(6.0, flows.getTotalFlow(0));
+    }
+
+    @Test
+    public void testKeyTypes() {
+        DefaultFlowDataset<Long> d = new DefaultFlowDataset<>();
+        d.setFlow(0, 1L, 2L, 1.0);
+        assertEquals(SortedFlows.LONG_KEYS, 
+                new SortedFlows<>(d).getKeyType());
+        DefaultFlowDataset<Double> bad = new DefaultFlowDataset<>();
+        bad.setFlow(0, 1.0, 2.0, 3.0);
+        assertThrows(IllegalArgumentException.class, 
+                () -> new SortedFlows<>(bad));
+    }
+
+}
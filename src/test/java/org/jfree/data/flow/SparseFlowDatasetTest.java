@@ -0,0 +1,253 @@
+/* ===========================================================
+ * JFreeChart : a free chart library for the Java(tm) platform
+ * ===========================================================
+ *
+ * (C) Copyright 2000-2021, by Object Refinery Limited and Contributors.
+ *
+ * Project Info:  http://www.jfree.org/jfreechart/index.html
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301,
+ * USA.
+ *
+ * [Oracle and Java are registered trademarks of Oracle and/or its affiliates. 
+ * Other names may be trademarks of their respective owners.]
+ *
+ * --------------------------
+ * SparseFlowDatasetTest.java
+ * --------------------------
+ * (C) Copyright 2021, by Object Refinery Limited and Contributors.
+ *
+ * Original Author:  David Gilbert (for Object Refinery Limited);
+ * Contributor(s):   -;
+ *
+ */
+
+package org.jfree.data.flow;
+
+import java.util.Arrays;
+import java.util.List;
+import org.jfree.chart.TestUtils;
+import org.jfree.chart.util.PublicCloneable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link SparseFlowDataset} class.
+ */
+public class SparseFlowDatasetTest {
+
+    /**
+     * Some checks for the getFlow() method.
+     */
+    @Test
+    public void testGetFlow() {
+        SparseFlowDataset<String> d = new SparseFlowDataset<>();
+        d.setFlow(0, "A", "Z", 1.5);
+        assertEquals(1.5, d.getFlow(0, "A", "Z"));
+        assertNull(d.getFlow(0, "A", "Y"));
+
+        // update in place, then add new flows on either side of it
+        d.setFlow(0, "A", "Z", 2.5);
+        assertEquals(2.5, d.getFlow(0, "A", "Z"));
+        d.setFlow(0, "B", "Y", 3.0);
+        d.setFlow(0, "A", "Y", 4.0);
+        d.setFlow(0, "A", "Z", 5.0);
+        assertEquals(5.0, d.getFlow(0, "A", "Z"));
+        assertEquals(4.0, d.getFlow(0, "A", "Y"));
+        assertEquals(3.0, d.getFlow(0, "B", "Y"));
+        assertNull(d.getFlow(0, "B", "Z"));
+        assertEquals(3, d.getFlowCount(0));
+    }
+
+    /**
+     * Checks for the getInFlows() and getOutFlows() methods.
+     */
+    @Test
+    public void testInAndOutFlows() {
+        SparseFlowDataset<String> d = new SparseFlowDataset<>();
+        d.setFlow(0, "A", "X", 1.0);
+        d.setFlow(0, "B", "Y", 2.0);
+        d.setFlow(0, "A", "Y", 3.0);
+        d.setFlow(1, "Y", "P", 4.0);
+        List<FlowKey<String>> out = d.getOutFlows(new NodeKey<>(0, "A"));
+        assertEquals(Arrays.asList(new FlowKey<>(0, "A", "X"),
+                new FlowKey<>(0, "A", "Y")), out);
+        List<FlowKey<String>> in = d.getInFlows(new NodeKey<>(1, "Y"));
+        assertEquals(Arrays.asList(new FlowKey<>(0, "A", "Y"),
+                new FlowKey<>(0, "B", "Y")), in);
+        assertTrue(d.getInFlows(new NodeKey<>(0, "A")).isEmpty());
+        assertTrue(d.getOutFlows(new NodeKey<>(2, "P")).isEmpty());
+        assertEquals(Arrays.asList(new FlowKey<>(1, "Y", "P")),
+                d.getOutFlows(new NodeKey<>(1, "Y")));
+        assertEquals(4, d.getAllFlows().size());
+    }
+
+    /**
+     * The reads see buffered flows mixed with compacted ones, and give the 
+     * same results after compacting.
+     */
+    @Test
+    public void testPendingFlows() {
+        SparseFlowDataset<String> d = new SparseFlowDataset<>();
+        d.setFlow(0, "A", "X", 1.0);
+        d.setFlow(0, "B", "X", 2.0);
+        d.compact();
+        d.setFlow(0, "C", "X", 3.0);
+        d.setFlow(0, "A", "X", 4.0);
+        d.setFlow(0, "A", "W", 5.0);
+        assertEquals(4.0, d.getFlow(0, "A", "X"));
+        assertEquals(4, d.getFlowCount(0));
+        assertEquals(4, d.getAllFlows().size());
+        List<FlowKey<String>> in = Arrays.asList(new FlowKey<>(0, "A", "X"),
+                new FlowKey<>(0, "B", "X"), new FlowKey<>(0, "C", "X"));
+        List<FlowKey<String>> out = Arrays.asList(
+                new FlowKey<>(0, "A", "X"), new FlowKey<>(0, "A", "W"));
+        assertEquals(in, d.getInFlows(new NodeKey<>(1, "X")));
+        assertEquals(out, d.getOutFlows(new NodeKey<>(0, "A")));
+        d.compact();
+        assertEquals(4.0, d.getFlow(0, "A", "X"));
+        assertEquals(4, d.getFlowCount(0));
+        assertEquals(in, d.getInFlows(new NodeKey<>(1, "X")));
+        assertEquals(out, d.getOutFlows(new NodeKey<>(0, "A")));
+    }
+
+    /**
+     * The maintained totals and destination indices agree with the flows,
+     * with buffered flows, after compacting and after a clone.
+     */
+    @Test
+    public void testTotalsAndDestinationIndices()
+            throws CloneNotSupportedException {
+        SparseFlowDataset<String> d = new SparseFlowDataset<>();
+        assertTrue(d.hasMaintainedTotals());
+        d.setFlow(0, "A", "X", 1.0);
+        d.setFlow(0, "B", "X", 2.0);
+        d.compact();
+        d.setFlow(0, "C", "X", 3.0);
+        d.setFlow(0, "A", "X", 4.0);
+        d.setFlow(0, "A", "W", 5.0);
+        d.setFlow(1, "X", "Z", 1e17);
+        d.setFlow(1, "X", "Z", 1.0);
+        for (int i = 0; i < 2; i++) {
+            assertEquals(9.0, d.getOutflow(0, "A"));
+            assertEquals(9.0, d.getInflow(1, "X"));
+            assertEquals(5.0, d.getInflow(1, "W"));
+            assertEquals(0.0, d.getInflow(0, "A"));
+            assertEquals(14.0, d.getTotalFlow(0));
+            assertEquals(1.0, d.getTotalFlow(1));
+            assertEquals(1.0, d.getOutflow(1, "X"));
+            assertEquals(0.0, d.getOutflow(2, "Z"));
+            assertEquals(0.0, d.getOutflow(0, "Q"));
+            assertEquals(2, d.getDestinationIndices(0, "A").length);
+            assertEquals(FlowDatasetUtils.calculateOutflow(d, "A", 0), 
+                    d.getOutflow(0, "A"));
+            assertEquals(FlowDatasetUtils.calculateTotalFlow(d, 0), 
+                    d.getTotalFlow(0));
+            d.compact();
+        }
+        int[] destinations = d.getDestinationIndices(0, "A");
+        assertEquals("X", d.getDestinationsView(0).get(destinations[0]));
+        assertEquals("W", d.getDestinationsView(0).get(destinations[1]));
+        assertEquals(0, d.getDestinationIndices(0, "Q").length);
+
+        SparseFlowDataset<String> d2 = TestUtils.clone(d);
+        d.setFlow(0, "B", "X", 0.0);
+        assertEquals(7.0, d.getInflow(1, "X"));
+        assertEquals(9.0, d2.getInflow(1, "X"));
+    }
+
+    /**
+     * Some tests for the getStageCount() method.
+     */
+    @Test
+    public void testGetStageCount() {
+        SparseFlowDataset<String> d = new SparseFlowDataset<>();
+        assertEquals(1, d.getStageCount());
+
+        d.setFlow(0, "A", "Z", 11.1);
+        assertEquals(1, d.getStageCount());
+
+        d.setFlow(1, "Z", "P", 5.0);
+        assertEquals(2, d.getStageCount());
+    }
+
+    /**
+     * Confirm that the equals method can distinguish all the required fields,
+     * and that the dataset is equal to a {@link DefaultFlowDataset} with the
+     * same content.
+     */
+    @Test
+    public void testEquals() {
+        SparseFlowDataset<String> d1 = new SparseFlowDataset<>();
+        SparseFlowDataset<String> d2 = new SparseFlowDataset<>();
+        assertEquals(d1, d2);
+
+        d1.setFlow(0, "A", "Z", 1.0);
+        assertNotEquals(d1, d2);
+        d2.setFlow(0, "A", "Z", 1.0);
+        assertEquals(d1, d2);
+
+        DefaultFlowDataset<String> d3 = new DefaultFlowDataset<>();
+        d3.setFlow(0, "A", "Z", 1.0);
+        assertEquals(d1, d3);
+        assertEquals(d3, d1);
+    }
+
+    /**
+     * Serialize an instance, restore it, and check for equality.
+     */
+    @Test
+    public void testSerialization() {
+        SparseFlowDataset<String> d1 = new SparseFlowDataset<>();
+        d1.setFlow(0, "A", "Z", 1.0);
+        SparseFlowDataset<String> d2 = TestUtils.serialised(d1);
+        assertEquals(d1, d2);
+    }
+
+    /**
+     * Confirm that cloning works.
+     * @throws java.lang.CloneNotSupportedException
+     */
+    @Test
+    public void testCloning() throws CloneNotSupportedException {
+        SparseFlowDataset<String> d1 = new SparseFlowDataset<>();
+        d1.setFlow(0, "A", "Z", 1.0);
+        SparseFlowDataset<String> d2 = TestUtils.clone(d1);
+
+        assertTrue(d1 != d2);
+        assertTrue(d1.getClass() == d2.getClass());
+        assertTrue(d1.equals(d2));
+
+        // check that the clone doesn't share the same underlying arrays.
+        d1.setFlow(0, "A", "Z", 8.0);
+        assertNotEquals(d1, d2);
+        d2.setFlow(0, "A", "Z", 8.0);
+        assertEquals(d1, d2);
+    }
+
+    /**
+     * Check that this class implements PublicCloneable.
+     */
+    @Test
+    public void testPublicCloneable() {
+        SparseFlowDataset<String> d = new SparseFlowDataset<>();
+        assertTrue(d instanceof PublicCloneable);
+    }
+
+}